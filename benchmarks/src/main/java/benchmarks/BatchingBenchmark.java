@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.util.vector.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import entities.Entity;
+import models.RawModel;
+import models.TexturedModel;
+import renderEngine.EntityBatcher;
+import textures.ModelTexture;
+
+//One frame of MasterRenderer.processEntity for every entity followed by the end of frame clear.
+//Models and textures are fake IDs, batching never touches OpenGL
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BatchingBenchmark {
+
+	private static final int MODEL_COUNT = 16;
+
+	@Param({"1000", "100000", "1000000"})
+	public int entityCount;
+
+	private Entity[] entities;
+	private EntityBatcher batcher;
+
+	@Setup
+	public void setUp() {
+		TexturedModel[] models = new TexturedModel[MODEL_COUNT];
+		for (int i = 0; i < MODEL_COUNT; i++) {
+			models[i] = new TexturedModel(new RawModel(i + 1, 300), new ModelTexture(i + 1));
+		}
+		Random random = new Random(1118);
+		entities = new Entity[entityCount];
+		for (int i = 0; i < entityCount; i++) {
+			entities[i] = new Entity(models[random.nextInt(MODEL_COUNT)], 
+					new Vector3f(random.nextFloat() * 800, 0, random.nextFloat() * -800), 0, 0, 0, 1);
+		}
+		batcher = new EntityBatcher();
+	}
+
+	@Benchmark
+	public EntityBatcher processEntities() {
+		for (Entity entity : entities) {
+			batcher.add(entity);
+		}
+		batcher.clear();
+		return batcher;
+	}
+}
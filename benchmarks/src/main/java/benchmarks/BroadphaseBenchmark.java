@@ -0,0 +1,105 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import entities.EntityStore;
+import entities.SweepAndPrune;
+import models.RawModel;
+import models.TexturedModel;
+import textures.ModelTexture;
+
+//Finding the overlapping pairs among entities that all drift a little every frame, with sweep and prune
+//and by testing every pair of boxes
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadphaseBenchmark {
+
+	@Param({"1000", "5000"})
+	public int entityCount;
+
+	private EntityStore store;
+	private SweepAndPrune broadphase;
+	private long[] handles;
+	private int[] proxies;
+	private float[] velocities;
+	private float[] boxes;
+
+	@Setup
+	public void setUp() {
+		RawModel model = new RawModel(1, 36);
+		model.setBounds(-1, 0, -1, 1, 2, 1);
+		TexturedModel box = new TexturedModel(model, new ModelTexture(1));
+		store = new EntityStore();
+		broadphase = new SweepAndPrune(store);
+		handles = new long[entityCount];
+		proxies = new int[entityCount];
+		velocities = new float[entityCount * 2];
+		boxes = new float[entityCount * 6];
+
+		//about as crowded whatever the count, a few overlaps per entity
+		float size = (float) Math.sqrt(entityCount) * 4;
+		Random random = new Random(1118);
+		for (int i = 0; i < entityCount; i++) {
+			handles[i] = store.create(box, random.nextFloat() * size, 0, random.nextFloat() * size, 0,
+					random.nextFloat() * 6, 0, 1);
+			proxies[i] = broadphase.add(handles[i]);
+			velocities[i * 2] = (random.nextFloat() - 0.5f) * 0.1f;
+			velocities[i * 2 + 1] = (random.nextFloat() - 0.5f) * 0.1f;
+		}
+		broadphase.update();
+	}
+
+	@Benchmark
+	public int sweepAndPrune() {
+		move();
+		broadphase.update();
+		return broadphase.getPairCount();
+	}
+
+	@Benchmark
+	public int bruteForce() {
+		move();
+		broadphase.update();
+		for (int i = 0; i < entityCount; i++) {
+			broadphase.getBounds(proxies[i], boxes);
+			System.arraycopy(boxes, 0, boxes, i * 6, 6);
+		}
+		int pairs = 0;
+		for (int i = 0; i < entityCount; i++) {
+			int a = i * 6;
+			for (int j = i + 1; j < entityCount; j++) {
+				int b = j * 6;
+				if (boxes[a] < boxes[b + 3] && boxes[b] < boxes[a + 3] && boxes[a + 1] < boxes[b + 4]
+						&& boxes[b + 1] < boxes[a + 4] && boxes[a + 2] < boxes[b + 5] && boxes[b + 2] < boxes[a + 5]) {
+					pairs++;
+				}
+			}
+		}
+		return pairs;
+	}
+
+	private void move() {
+		for (int i = 0; i < entityCount; i++) {
+			long handle = handles[i];
+			store.setPosition(handle, store.getX(handle) + velocities[i * 2], store.getY(handle),
+					store.getZ(handle) + velocities[i * 2 + 1]);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import entities.EntityStore;
+import entities.EntitySystem;
+import models.RawModel;
+import models.TexturedModel;
+import renderEngine.EntityBatcher;
+import textures.ModelTexture;
+
+//Walking every entity in the store: a system that moves them, on one thread and spread over the
+//chunks, and batching everything visible for rendering straight from the chunks
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EntityStoreBenchmark {
+
+	private static final int MODEL_COUNT = 16;
+
+	@Param({"100000", "1000000"})
+	public int entityCount;
+
+	private EntityStore store;
+	private EntityBatcher batcher;
+
+	//spins every entity a little and lets it drift upwards
+	private final EntitySystem drift = new EntitySystem() {
+		@Override
+		public void process(EntityStore.Chunk chunk, int count) {
+			float[] y = chunk.y;
+			float[] rotY = chunk.rotY;
+			for (int i = 0; i < count; i++) {
+				y[i] += 0.01f;
+				rotY[i] += 0.5f;
+			}
+		}
+	};
+
+	@Setup
+	public void setUp() {
+		store = new EntityStore();
+		TexturedModel[] models = new TexturedModel[MODEL_COUNT];
+		for (int i = 0; i < MODEL_COUNT; i++) {
+			models[i] = new TexturedModel(new RawModel(i + 1, 300), new ModelTexture(i + 1));
+		}
+		Random random = new Random(1118);
+		for (int i = 0; i < entityCount; i++) {
+			store.create(models[random.nextInt(MODEL_COUNT)], random.nextFloat() * 800, 0, 
+					random.nextFloat() * -800, 0, 0, 0, 1);
+		}
+		batcher = new EntityBatcher(store);
+	}
+
+	@Benchmark
+	public EntityStore updateSerial() {
+		store.forEachChunk(drift);
+		return store;
+	}
+
+	@Benchmark
+	public EntityStore updateParallel() {
+		store.forEachChunkParallel(drift);
+		return store;
+	}
+
+	@Benchmark
+	public EntityBatcher batchVisible() {
+		batcher.addVisible();
+		batcher.clear();
+		return batcher;
+	}
+
+	@TearDown
+	public void tearDown() {
+		store.cleanUp();
+	}
+}
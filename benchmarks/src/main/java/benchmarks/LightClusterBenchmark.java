@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import entities.Camera;
+import entities.Light;
+import renderEngine.DisplayManager;
+import renderEngine.LightClusters;
+import renderEngine.NullBackend;
+import toolbox.Maths;
+
+//Sorting a frame's point lights into the clusters and packing the lists for upload,
+//with lights spread over the same area MainGameLoop puts them in
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LightClusterBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	public int lightCount;
+
+	private List<Light> lights;
+	private LightClusters clusters;
+	private Matrix4f viewMatrix;
+
+	@Setup
+	public void setUp() {
+		DisplayManager.setBackend(new NullBackend());
+		Matrix4f projectionMatrix = new Matrix4f();
+		projectionMatrix.m00 = 0.8f;
+		projectionMatrix.m11 = 1.43f;
+		clusters = new LightClusters(projectionMatrix, 1000, 1280, 720);
+		viewMatrix = Maths.createViewMatrix(new Camera());
+		Random random = new Random(1118);
+		lights = new ArrayList<Light>();
+		for (int i = 0; i < lightCount; i++) {
+			lights.add(new Light(new Vector3f(random.nextFloat() * 800 - 400, 3, random.nextFloat() * -600),
+					new Vector3f(1, 0.6f, 0.1f), 15 + random.nextFloat() * 15));
+		}
+	}
+
+	@Benchmark
+	public LightClusters assignLights() {
+		clusters.update(lights, viewMatrix);
+		return clusters;
+	}
+
+	@TearDown
+	public void tearDown() {
+		clusters.cleanUp();
+	}
+}
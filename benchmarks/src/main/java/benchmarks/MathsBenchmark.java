@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import entities.Camera;
+import toolbox.Maths;
+
+//The matrices built for every entity and every frame
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathsBenchmark {
+
+	private Vector3f translation = new Vector3f(12.5f, 3.25f, -40.75f);
+	private float rotX = 15;
+	private float rotY = 135;
+	private float rotZ = 5;
+	private float scale = 3;
+	private Camera camera = new Camera();
+
+	@Benchmark
+	public Matrix4f createTransformationMatrix() {
+		return Maths.createTransformationMatrix(translation, rotX, rotY, rotZ, scale);
+	}
+
+	@Benchmark
+	public Matrix4f createViewMatrix() {
+		return Maths.createViewMatrix(camera);
+	}
+}
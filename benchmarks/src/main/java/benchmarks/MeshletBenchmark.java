@@ -0,0 +1,83 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import entities.Camera;
+import models.MeshletBuilder;
+import models.Meshlets;
+import models.ModelData;
+import renderEngine.MeshletCuller;
+import renderEngine.OBJLoader;
+import toolbox.Frustum;
+import toolbox.Maths;
+
+//Splitting a model into meshlets, and culling the meshlets of instances scattered in front of
+//the camera the way the entity renderer does before drawing them
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshletBenchmark {
+
+	@Param({"stall", "tree"})
+	public String model;
+
+	private static final int INSTANCES = 1000;
+
+	private ModelData data;
+	private Meshlets meshlets;
+	private Matrix4f[] transformations = new Matrix4f[INSTANCES];
+	private Camera camera = new Camera();
+	private Frustum frustum = new Frustum();
+	private MeshletCuller culler = new MeshletCuller();
+
+	@Setup
+	public void setUp() {
+		data = OBJLoader.parseObjModel(model);
+		meshlets = MeshletBuilder.build(data.getVertices(), data.getIndices());
+		Matrix4f projectionMatrix = new Matrix4f();
+		projectionMatrix.m00 = 0.8f;
+		projectionMatrix.m11 = 1.43f;
+		projectionMatrix.m22 = -1;
+		projectionMatrix.m23 = -1;
+		projectionMatrix.m32 = -0.02f;
+		projectionMatrix.m33 = 0;
+		frustum.update(projectionMatrix, Maths.createViewMatrix(camera));
+		Random random = new Random(1118);
+		for (int i = 0; i < INSTANCES; i++) {
+			Vector3f position = new Vector3f(random.nextFloat() * 800 - 400, 0, random.nextFloat() * -600);
+			transformations[i] = Maths.createTransformationMatrix(position, 0, random.nextFloat() * 360, 0, 1);
+		}
+	}
+
+	@Benchmark
+	public Meshlets build() {
+		return MeshletBuilder.build(data.getVertices(), data.getIndices());
+	}
+
+	@Benchmark
+	public int cull() {
+		int ranges = 0;
+		for (Matrix4f transformation : transformations) {
+			ranges += culler.cull(meshlets, transformation, camera.getPosition(), frustum, true);
+		}
+		return ranges;
+	}
+}
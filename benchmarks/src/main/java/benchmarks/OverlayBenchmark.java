@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import overlay.BitmapFont;
+import overlay.OverlayBatch;
+import overlay.PerformanceHud;
+import renderEngine.DrawStats;
+
+//The CPU side of one frame of the performance HUD with its graphs full: recording the frame, building
+//its quads and text into the batch and handing the vertices over, everything but the upload and draw
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OverlayBenchmark {
+
+	private OverlayBatch batch;
+	private PerformanceHud hud;
+	private DrawStats stats;
+	private int frame;
+
+	@Setup
+	public void setUp() {
+		batch = new OverlayBatch(BitmapFont.create(14));
+		hud = new PerformanceHud(null);
+		stats = new DrawStats();
+		for (int i = 0; i < 300; i++) {
+			stats.countDraw(4, 3000, 1);
+		}
+		for (int i = 0; i < 240; i++) {
+			hud.update(1 / 60f, stats);
+		}
+	}
+
+	@Benchmark
+	public int frame() {
+		hud.update((15 + frame++ % 5) / 1000f, stats);
+		hud.build(batch, 10, 10);
+		int bytes = batch.getVertices().remaining();
+		batch.clear();
+		return bytes;
+	}
+}
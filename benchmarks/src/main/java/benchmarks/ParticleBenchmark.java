@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import particles.ParticleSimulator;
+import particles.ParticleSystem;
+import textures.ParticleTexture;
+
+//One simulation step of a particle system that has settled at about particleCount particles, with as
+//many dying and being emitted every step as a real effect would
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParticleBenchmark {
+
+	private static final float STEP = 1 / 60f;
+	private static final float LIFE = 2;
+
+	@Param({"10000", "50000"})
+	public int particleCount;
+
+	private ParticleSimulator simulator;
+
+	@Setup
+	public void setUp() {
+		ParticleSystem system = new ParticleSystem(new ParticleTexture(1, 1, false), particleCount * 2);
+		system.setEmitter(0, 10, 0, 5);
+		system.setParticlesPerSecond(particleCount / LIFE);
+		system.setVelocity(0, 2, 0, 1);
+		system.setLifeLength(LIFE);
+		simulator = new ParticleSimulator();
+		simulator.addSystem(system);
+
+		//long enough for the first particles to have died
+		for (int i = 0; i < 3 * LIFE / STEP; i++) {
+			simulator.update(STEP);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		simulator.cleanUp();
+	}
+
+	@Benchmark
+	public int step() {
+		simulator.update(STEP);
+		return simulator.getParticleCount();
+	}
+}
@@ -0,0 +1,96 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import entities.EntityStore;
+import models.ModelData;
+import models.RawModel;
+import models.RayHit;
+import models.TexturedModel;
+import models.TriangleBvh;
+import renderEngine.OBJLoader;
+import textures.ModelTexture;
+import toolbox.RayCaster;
+
+//Building the BVH for the stall, and casting rays down into a field of stalls one at a time and as a
+//batch on the worker threads
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RayCastBenchmark {
+
+	private static final int ENTITIES = 1000;
+	private static final int RAYS = 1024;
+
+	private ModelData data;
+	private RayCaster caster;
+	private float[] rays = new float[RAYS * 6];
+	private RayHit hit = new RayHit();
+	private RayHit[] hits = new RayHit[RAYS];
+
+	@Setup
+	public void setUp() {
+		data = OBJLoader.parseObjModel("stall");
+		RawModel model = new RawModel(1, data.getIndices().length);
+		model.setBvh(TriangleBvh.build(data.getVertices(), data.getIndices()));
+		TexturedModel stall = new TexturedModel(model, new ModelTexture(1));
+		EntityStore store = new EntityStore();
+		Random random = new Random(1118);
+		for (int i = 0; i < ENTITIES; i++) {
+			store.create(stall, random.nextFloat() * 800 - 400, 0, random.nextFloat() * -800, 0,
+					random.nextFloat() * 360, 0, 1);
+		}
+		for (int i = 0; i < RAYS; i++) {
+			rays[i * 6] = random.nextFloat() * 800 - 400;
+			rays[i * 6 + 1] = 50;
+			rays[i * 6 + 2] = random.nextFloat() * -800;
+			rays[i * 6 + 4] = -1;
+			hits[i] = new RayHit();
+		}
+		caster = new RayCaster(store, null);
+	}
+
+	@TearDown
+	public void tearDown() {
+		caster.cleanUp();
+	}
+
+	@Benchmark
+	public TriangleBvh build() {
+		return TriangleBvh.build(data.getVertices(), data.getIndices());
+	}
+
+	@Benchmark
+	public int castSerial() {
+		int hitCount = 0;
+		for (int i = 0; i < RAYS; i++) {
+			int r = i * 6;
+			if (caster.cast(rays[r], rays[r + 1], rays[r + 2], rays[r + 3], rays[r + 4], rays[r + 5], 1000, hit)) {
+				hitCount++;
+			}
+		}
+		return hitCount;
+	}
+
+	@Benchmark
+	public RayHit[] castAll() {
+		caster.castAll(rays, hits, 1000);
+		return hits;
+	}
+}
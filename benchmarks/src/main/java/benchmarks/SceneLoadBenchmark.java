@@ -0,0 +1,96 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import entities.EntityStore;
+import entities.SceneFile;
+import entities.SceneWriter;
+import models.RawModel;
+import models.TexturedModel;
+import textures.ModelTexture;
+
+//Loading a whole scene file into an empty entity store, and streaming sectors in and out around a
+//camera that moves a sector each time
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SceneLoadBenchmark {
+
+	private static final int MODEL_COUNT = 16;
+	private static final float SECTOR_SIZE = 100;
+	private static final float SIZE = 4000;
+
+	@Param({"100000", "1000000"})
+	public int entityCount;
+
+	private File file;
+	private TexturedModel[] models;
+	private EntityStore streamingStore;
+	private SceneFile streamingScene;
+	private float cameraX;
+
+	@Setup
+	public void setUp() throws IOException {
+		SceneWriter writer = new SceneWriter(SECTOR_SIZE);
+		models = new TexturedModel[MODEL_COUNT];
+		for (int i = 0; i < MODEL_COUNT; i++) {
+			writer.addModel("model" + i);
+			models[i] = new TexturedModel(new RawModel(i + 1, 300), new ModelTexture(i + 1));
+		}
+		Random random = new Random(1118);
+		for (int i = 0; i < entityCount; i++) {
+			writer.add(random.nextInt(MODEL_COUNT), random.nextFloat() * SIZE, 0, random.nextFloat() * SIZE, 0,
+					random.nextFloat() * 360, 0, 1, EntityStore.VISIBLE | EntityStore.STATIC);
+		}
+		file = File.createTempFile("scene", ".bin");
+		writer.write(file);
+
+		streamingStore = new EntityStore();
+		streamingScene = open(streamingStore);
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public EntityStore loadAll() throws IOException {
+		EntityStore store = new EntityStore();
+		open(store).loadAll();
+		return store;
+	}
+
+	@Benchmark
+	public int stream() {
+		cameraX = (cameraX + SECTOR_SIZE) % SIZE;
+		return streamingScene.update(cameraX, SIZE / 2, SIZE / 4);
+	}
+
+	private SceneFile open(EntityStore store) throws IOException {
+		SceneFile scene = new SceneFile(file, store);
+		for (int i = 0; i < MODEL_COUNT; i++) {
+			scene.setModel(i, models[i]);
+		}
+		return scene;
+	}
+}
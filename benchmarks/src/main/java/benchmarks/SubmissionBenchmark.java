@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.util.vector.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import entities.Camera;
+import entities.Entity;
+import entities.Light;
+import models.RawModel;
+import models.TexturedModel;
+import renderEngine.DisplayManager;
+import renderEngine.MasterRenderer;
+import renderEngine.NullBackend;
+import textures.ModelTexture;
+
+//The whole CPU side of a frame, from processEntity to the last draw call, against the null backend.
+//Nothing reaches a GPU, so this is the cost of building and submitting the frame on its own
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubmissionBenchmark {
+
+	private static final int MODEL_COUNT = 16;
+
+	@Param({"1000", "10000"})
+	public int entityCount;
+
+	private Entity[] entities;
+	private NullBackend backend;
+	private MasterRenderer renderer;
+	private Light sun;
+	private Camera camera;
+
+	@Setup
+	public void setUp() {
+		backend = new NullBackend();
+		DisplayManager.setBackend(backend);
+		renderer = new MasterRenderer(1280, 720);
+
+		TexturedModel[] models = new TexturedModel[MODEL_COUNT];
+		for (int i = 0; i < MODEL_COUNT; i++) {
+			models[i] = new TexturedModel(new RawModel(i + 1, 300), new ModelTexture(i + 1));
+		}
+		Random random = new Random(1118);
+		entities = new Entity[entityCount];
+		for (int i = 0; i < entityCount; i++) {
+			entities[i] = new Entity(models[random.nextInt(MODEL_COUNT)],
+					new Vector3f(random.nextFloat() * 800, 0, random.nextFloat() * -800), 0, 0, 0, 1);
+		}
+		sun = new Light(new Vector3f(3000, 2000, 2000), new Vector3f(1, 1, 1));
+		camera = new Camera();
+	}
+
+	@Benchmark
+	public NullBackend renderFrame() {
+		for (Entity entity : entities) {
+			renderer.processEntity(entity);
+		}
+		renderer.render(sun, camera);
+		backend.endFrame();
+		return backend;
+	}
+
+	@TearDown
+	public void tearDown() {
+		renderer.cleanUp();
+	}
+}
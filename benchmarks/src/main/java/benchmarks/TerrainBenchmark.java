@@ -0,0 +1,46 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import terrains.HeightsGenerator;
+import terrains.Terrain;
+import terrains.TerrainMeshData;
+
+//Building one terrain tile's vertices, flat and with generated heights and normals
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TerrainBenchmark {
+
+	private HeightsGenerator generator = new HeightsGenerator(1118);
+	private int gridX;
+
+	@Benchmark
+	public TerrainMeshData generateFlatTerrain() {
+		return Terrain.generateTerrain(0, -1, null);
+	}
+
+	//a different tile every time, so nothing can be cached between calls
+	@Benchmark
+	public TerrainMeshData generateTerrainWithHeights() {
+		return Terrain.generateTerrain(gridX++, -1, generator);
+	}
+
+	@Benchmark
+	public int[] generateIndices() {
+		return Terrain.generateIndices();
+	}
+}
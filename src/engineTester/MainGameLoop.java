@@ -1,38 +1,73 @@
 package engineTester;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
+import org.lwjgl.input.Keyboard;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.util.vector.Vector3f;
 
 import entities.Camera;
-import entities.Entity;
+import entities.EntityStore;
 import entities.Light;
+import entities.SceneFile;
+import entities.SceneWriter;
 import models.RawModel;
 import models.TexturedModel;
+import overlay.BitmapFont;
+import overlay.OverlayBatch;
+import overlay.PerformanceHud;
+import particles.ParticleSimulator;
+import particles.ParticleSystem;
+import profiling.Metrics;
+import profiling.Profiler;
 import renderEngine.DisplayManager;
+import renderEngine.FixedTimestep;
+import renderEngine.ImpostorBaker;
 import renderEngine.Loader;
 import renderEngine.MasterRenderer;
 import renderEngine.OBJLoader;
+import renderEngine.OverlayRenderer;
+import renderEngine.PacingMode;
+import renderEngine.StaticBatch;
+import renderEngine.StaticBatcher;
+import renderEngine.TextureStreamer;
+import terrains.HeightsGenerator;
 import terrains.Terrain;
+import terrains.TerrainTileManager;
 import textures.ModelTexture;
+import textures.ParticleTexture;
+import textures.TerrainTexturePack;
 
 public class MainGameLoop {
+	
+	//scene sectors are streamed in this far around the camera
+	private static final float SCENE_SECTOR_SIZE = 100;
+	private static final float SCENE_RADIUS = 500;
 
 	public static void main(String[] args) {
 		
 		DisplayManager.createDisplay();
 		
 		Loader loader = new Loader();		
+		Metrics.setLoader(loader);
 		
-		TexturedModel tree = new TexturedModel(OBJLoader.loadObjModel("tree", loader), 
-				new ModelTexture(loader.loadTexture("tree")));
+		//the models' textures start with only their small mips, the rest stream in as things come close
+		TextureStreamer textureStreamer = new TextureStreamer(loader);
+		Metrics.setTextureStreamer(textureStreamer);
+		
+		//the big models are split into meshlets, so the parts facing away or off screen aren't drawn
+		TexturedModel tree = new TexturedModel(OBJLoader.loadMeshletModel("tree", loader), 
+				new ModelTexture(textureStreamer.loadTexture("tree")));
 		TexturedModel grass = new TexturedModel(OBJLoader.loadObjModel("grassModel", loader), 
-				new ModelTexture(loader.loadTexture("grassTexture")));
+				new ModelTexture(textureStreamer.loadTexture("grassTexture")));
 		TexturedModel fern = new TexturedModel(OBJLoader.loadObjModel("fern", loader), 
-				new ModelTexture(loader.loadTexture("fern")));
+				new ModelTexture(textureStreamer.loadTexture("fern")));
+		TexturedModel stall = new TexturedModel(OBJLoader.loadMeshletModel("stall", loader), 
+				new ModelTexture(textureStreamer.loadTexture("stallTexture")));
 		
 		grass.getTexture().setHasTransparency(true);
 		grass.getTexture().setUseFakeLighting(true);
@@ -42,35 +77,191 @@ public class MainGameLoop {
 		//Entity entity = new Entity(staticModel, new Vector3f(0, 0, -25), 0, 0, 0, 1);
 		Light light = new Light(new Vector3f(20000, 20000, 2000), new Vector3f(1, 1, 0));
 		
-		List<Entity> entities = new ArrayList<Entity>();
+		//terrain tiles are streamed in and out around the camera as it moves
+		TerrainTileManager terrainTiles = new TerrainTileManager(loader, 
+				new ModelTexture(loader.loadTexture("grassy2")), new HeightsGenerator(1118), 2);
+		
+		//grass in the background, with mud, flowers and path painted on by the blend map
+		terrainTiles.setTexturePack(new TerrainTexturePack(
+				loader.loadTextureArray("grassy2", "mud", "grassFlowers", "path"), 4, loader.loadTexture("blendMap")));
+		
+		//the entities live in the entity store, the renderer draws everything visible in it each frame
+		EntityStore entities = EntityStore.getDefault();
         Random random = new Random();
-        for(int i=0;i<200;i++){
-            entities.add(new Entity(tree, new Vector3f(random.nextFloat()*800 - 400,0,
-            		random.nextFloat() * -600),0,0,0,3));
-            entities.add(new Entity(grass, new Vector3f(random.nextFloat()*800 - 400,0,
-            		random.nextFloat() * -600),0,0,0,1));
-            entities.add(new Entity(fern, new Vector3f(random.nextFloat()*800 - 400,0,
-            		random.nextFloat() * -600),0,0,0,0.6f));
-        }
-		
-		Terrain terrain = new Terrain(0, -1, loader, new ModelTexture(loader.loadTexture("grassy2")));
-		Terrain terrain2 = new Terrain(-1, -1, loader, new ModelTexture(loader.loadTexture("grassy2")));
+		
+		//with -Dscene=file the vegetation is streamed in from a scene file around the camera instead,
+		//the file is made from a random scene the first time
+		String scenePath = System.getProperty("scene");
+		SceneFile scene = null;
+		if(scenePath == null){
+			for(int i=0;i<200;i++){
+				addEntity(entities, tree, randomPosition(random, terrainTiles), 3);
+				addEntity(entities, grass, randomPosition(random, terrainTiles), 1);
+				addEntity(entities, fern, randomPosition(random, terrainTiles), 0.6f);
+			}
+		}else{
+			scene = loadScene(new File(scenePath), entities, random, terrainTiles);
+			scene.setModel("tree", tree);
+			scene.setModel("grassModel", grass);
+			scene.setModel("fern", fern);
+		}
+		StaticBatcher staticBatcher = new StaticBatcher(loader, entities);
+		
+		//a market stall by the start, drawn on its own rather than baked
+		Vector3f stallPosition = new Vector3f(0, terrainTiles.getHeightOfTerrain(0, -40), -40);
+		entities.create(stall, stallPosition.x, stallPosition.y, stallPosition.z, 0, (float) Math.PI, 0, 1);
+		
+		//flower petals drifting down around the stall
+		ParticleSimulator particles = new ParticleSimulator();
+		ParticleSystem petals = new ParticleSystem(new ParticleTexture(loader.loadTexture("flower"), 1, false), 20000);
+		petals.setEmitter(stallPosition.x, stallPosition.y + 15, stallPosition.z, 20);
+		petals.setParticlesPerSecond(2000);
+		petals.setVelocity(0.5f, -1, 0, 0.5f);
+		petals.setGravity(-0.5f);
+		petals.setLifeLength(8);
+		petals.setSize(0.4f);
+		particles.addSystem(petals);
+
+		//torches and lamps scattered around, warm colours with a little variety
+		List<Light> pointLights = new ArrayList<Light>();
+		for(int i=0;i<300;i++){
+			Vector3f position = randomPosition(random, terrainTiles);
+			position.y += 3;
+			pointLights.add(new Light(position, new Vector3f(1, 0.5f + random.nextFloat() * 0.3f, 
+					0.2f * random.nextFloat()), 15 + random.nextFloat() * 15));
+		}
 
 		Camera camera = new Camera();
 		MasterRenderer renderer = new MasterRenderer();
+		
+		//the scene is drawn below full resolution while the GPU can't keep up, -DdynamicResolution=false to turn it off
+		if(!"false".equals(System.getProperty("dynamicResolution"))){
+			renderer.enableDynamicResolution(loader);
+		}
+		
+		renderer.setTextureStreamer(textureStreamer);
+		renderer.enableParticles(loader);
+		
+		//far trees and ferns are drawn as impostors, baked from the full textures
+		textureStreamer.loadAllLevels(tree.getTexture().getID());
+		textureStreamer.loadAllLevels(fern.getTexture().getID());
+		ImpostorBaker impostorBaker = new ImpostorBaker(loader);
+		renderer.addImpostor(impostorBaker.bake(tree));
+		renderer.addImpostor(impostorBaker.bake(fern));
+		impostorBaker.cleanUp();
+		
+		//frame time, draw call and memory graphs in the corner, -Dhud=false starts with them hidden
+		BitmapFont font = BitmapFont.create(14);
+		font.setTextureID(loader.loadTexture(font.getImage()));
+		OverlayBatch overlay = new OverlayBatch(font);
+		OverlayRenderer overlayRenderer = new OverlayRenderer(Display.getWidth(), Display.getHeight());
+		PerformanceHud hud = new PerformanceHud(loader);
+		hud.setVisible(!"false".equals(System.getProperty("hud")));
+		
+		//the game updates 60 times a second however fast we draw, e.g. -Dpacing=UNCAPPED for benchmarking
+		DisplayManager.setPacingMode(PacingMode.valueOf(System.getProperty("pacing", "TARGET_FPS")));
+		DisplayManager.setTargetFps(Integer.getInteger("fps", 60));
+		FixedTimestep timestep = new FixedTimestep(1 / 60f);
 		while(!Display.isCloseRequested()) {
-			camera.move();
-			renderer.processTerrain(terrain);
-			renderer.processTerrain(terrain2);
-			for(Entity entity:entities){
-                renderer.processEntity(entity);
-            }
+			timestep.advance(DisplayManager.getFrameTimeSeconds());
+			while(timestep.step()){
+				camera.move(timestep.getStepSeconds());
+				particles.update(timestep.getStepSeconds());
+			}
+			camera.interpolate(timestep.getAlpha());
+			terrainTiles.update(camera.getPosition());
+			if(scene != null){
+				scene.update(camera.getPosition().x, camera.getPosition().z, SCENE_RADIUS);
+			}
+			for(Terrain terrain:terrainTiles.getTiles()){
+				renderer.processTerrain(terrain);
+			}
+			staticBatcher.update();
+			for(StaticBatch batch:staticBatcher.getBatches()){
+				renderer.processStaticBatch(batch);
+			}
+			renderer.processEntities();
+			for(ParticleSystem system:particles.getSystems()){
+				renderer.processParticles(system);
+			}
+			for(Light pointLight:pointLights){
+				renderer.processLight(pointLight);
+			}
 			renderer.render(light, camera);
+			hud.build(overlay, 10, 10);
+			overlayRenderer.render(overlay);
 			DisplayManager.updateDisplay();
+			hud.update(DisplayManager.getFrameTimeSeconds(), DisplayManager.getBackend().getFrameStats());
+			
+			//F12 writes the profiler's last few thousand scopes out for chrome://tracing,
+			//F10 turns the depth pre-pass on and off, F11 the overdraw view and F9 the HUD
+			while(Keyboard.next()){
+				if(Keyboard.getEventKeyState() && Keyboard.getEventKey() == Keyboard.KEY_F9){
+					hud.setVisible(!hud.isVisible());
+				}
+				if(Keyboard.getEventKeyState() && Keyboard.getEventKey() == Keyboard.KEY_F12){
+					Profiler.exportChromeTrace("profile.json");
+				}
+				if(Keyboard.getEventKeyState() && Keyboard.getEventKey() == Keyboard.KEY_F10){
+					renderer.setDepthPrepass(!renderer.isDepthPrepass());
+				}
+				if(Keyboard.getEventKeyState() && Keyboard.getEventKey() == Keyboard.KEY_F11){
+					renderer.setOverdrawView(!renderer.isOverdrawView());
+				}
+			}
 		}
+		Profiler.exportChromeTrace("profile.json");
+		textureStreamer.cleanUp();
+		terrainTiles.cleanUp();
+		staticBatcher.cleanUp();
+		particles.cleanUp();
+		overlayRenderer.cleanUp();
 		renderer.cleanUp();
 		loader.cleanUp();
 		DisplayManager.closeDisplay();
 	}
+	
+	//map a scene file, writing a random one to it first if there isn't one there
+	private static SceneFile loadScene(File file, EntityStore entities, Random random, TerrainTileManager terrain) {
+		try {
+			if(!file.exists()){
+				SceneWriter writer = new SceneWriter(SCENE_SECTOR_SIZE);
+				int tree = writer.addModel("tree");
+				int grass = writer.addModel("grassModel");
+				int fern = writer.addModel("fern");
+				int flags = EntityStore.VISIBLE | EntityStore.STATIC;
+				for(int i=0;i<200;i++){
+					Vector3f position = randomPosition(random, terrain);
+					writer.add(tree, position.x, position.y, position.z, 0, 0, 0, 3, flags);
+					position = randomPosition(random, terrain);
+					writer.add(grass, position.x, position.y, position.z, 0, 0, 0, 1, flags);
+					position = randomPosition(random, terrain);
+					writer.add(fern, position.x, position.y, position.z, 0, 0, 0, 0.6f, flags);
+				}
+				writer.write(file);
+			}
+			return new SceneFile(file, entities);
+		} catch (IOException e) {
+			System.err.println("Couldn't load scene " + file);
+			e.printStackTrace();
+			System.exit(-1);
+			return null;
+		}
+	}
+	
+	private static long addEntity(EntityStore entities, TexturedModel model, Vector3f position, float scale) {
+		long entity = entities.create(model, position.x, position.y, position.z, 0, 0, 0, scale);
+		
+		//the vegetation never moves, so it's baked into static batches
+		entities.setFlags(entity, EntityStore.VISIBLE | EntityStore.STATIC);
+		return entity;
+	}
+	
+	//a random spot in front of the camera, sitting on the ground
+	private static Vector3f randomPosition(Random random, TerrainTileManager terrain) {
+		float x = random.nextFloat() * 800 - 400;
+		float z = random.nextFloat() * -600;
+		return new Vector3f(x, terrain.getHeightOfTerrain(x, z), z);
+	}
 
 }
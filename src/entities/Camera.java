@@ -5,36 +5,55 @@ import org.lwjgl.util.vector.Vector3f;
 
 public class Camera {
 	
+	//units per second
+	private static final float SPEED = 30;
+	
 	 private Vector3f position = new Vector3f(0, 10, 0);
 	    private float pitch = 10;
 	    private float yaw;
 	    private float roll;
+	    
+	    //where the camera was at the previous fixed step, and where it's drawn from between steps
+	    private Vector3f previousPosition = new Vector3f(position);
+	    private Vector3f renderPosition = new Vector3f(position);
 	     
 	    public Camera(){}
 	     
-	    public void move(){
+	    //move the camera by one update step of the given length in seconds
+	    public void move(float delta){
+	    	previousPosition.set(position);
+	    	float distance = SPEED * delta;
 	        if(Keyboard.isKeyDown(Keyboard.KEY_W)){
-	            position.z-=0.5f;
+	            position.z-=distance;
 	        }
 	        if(Keyboard.isKeyDown(Keyboard.KEY_S)){
-	            position.z+=0.5f;
+	            position.z+=distance;
 	        }
 	        if(Keyboard.isKeyDown(Keyboard.KEY_D)){
-	            position.x+=0.5f;
+	            position.x+=distance;
 	        }
 	        if(Keyboard.isKeyDown(Keyboard.KEY_A)){
-	            position.x-=0.5f;
+	            position.x-=distance;
 	        }
 	        if(Keyboard.isKeyDown(Keyboard.KEY_SPACE)){
-	            position.y+=0.5f;
+	            position.y+=distance;
 	        }
 	        if(Keyboard.isKeyDown(Keyboard.KEY_LSHIFT)){
-	            position.y-=0.5f;
+	            position.y-=distance;
 	        }
+	        renderPosition.set(position);
+	    }
+	    
+	    //place the camera between the last two steps, alpha goes from 0 (previous) to 1 (latest)
+	    public void interpolate(float alpha) {
+	    	renderPosition.x = previousPosition.x + (position.x - previousPosition.x) * alpha;
+	    	renderPosition.y = previousPosition.y + (position.y - previousPosition.y) * alpha;
+	    	renderPosition.z = previousPosition.z + (position.z - previousPosition.z) * alpha;
 	    }
 	 
+	    //the position the camera is drawn from
 	    public Vector3f getPosition() {
-	        return position;
+	        return renderPosition;
 	    }
 	 
 	    public float getPitch() {
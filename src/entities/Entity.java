@@ -7,82 +7,103 @@ import models.TexturedModel;
 //An entity is an instance of a textured model. Also contains the position, rotation, and scale 
 //that we want to render the model at. Entities will be able to render the same model many times, 
 //with different transformations, despite only loading the model once.
+//The data itself lives in an EntityStore, an Entity is just a handle to it with the old API on top.
 
 public class Entity {
-	private TexturedModel model; 
-	private Vector3f position;
-	private float rotX, rotY, rotZ;
-	private float scale;
+	private final EntityStore store;
+	private final long handle;
+	
+	//getPosition fills this in, so it doesn't make a new vector every call
+	private final Vector3f position = new Vector3f();
 	
 	public Entity(TexturedModel model, Vector3f position, float rotX, float rotY, float rotZ, float scale) {
-		this.model = model;
-		this.position = position;
-		this.rotX = rotX;
-		this.rotY = rotY;
-		this.rotZ = rotZ;
-		this.scale = scale;
+		this(EntityStore.getDefault(), model, position, rotX, rotY, rotZ, scale);
+	}
+	
+	public Entity(EntityStore store, TexturedModel model, Vector3f position, float rotX, float rotY, 
+			float rotZ, float scale) {
+		this(store, store.create(model, position.x, position.y, position.z, rotX, rotY, rotZ, scale));
+	}
+	
+	//wrap an entity that's already in the store
+	public Entity(EntityStore store, long handle) {
+		this.store = store;
+		this.handle = handle;
 	}
 	
 	//move the entity in the 3D world
 	public void increasePosition(float dx, float dy, float dz) {
-		this.position.x += dx;
-		this.position.y += dy;
-		this.position.z += dz;
+		store.setPosition(handle, store.getX(handle) + dx, store.getY(handle) + dy, store.getZ(handle) + dz);
 	}
 	
 	//rotate the entity in the 3D world
 	public void increaseRotation(float dx, float dy, float dz) {
-		this.rotX += dx;
-		this.rotY += dy;
-		this.rotZ += dz;
+		store.setRotation(handle, store.getRotX(handle) + dx, store.getRotY(handle) + dy, 
+				store.getRotZ(handle) + dz);
+	}
+	
+	//take the entity out of the world, the Entity can't be used afterwards
+	public void remove() {
+		store.destroy(handle);
+	}
+
+	public EntityStore getStore() {
+		return store;
+	}
+
+	public long getHandle() {
+		return handle;
 	}
 
 	public TexturedModel getModel() {
-		return model;
+		return store.getModel(handle);
 	}
 
 	public void setModel(TexturedModel model) {
-		this.model = model;
+		store.setModel(handle, model);
 	}
 
+	//the position, in a vector this entity reuses for every call, so read it before calling again and don't
+	//keep it. Changing it doesn't move the entity, use setPosition or increasePosition
 	public Vector3f getPosition() {
+		position.set(store.getX(handle), store.getY(handle), store.getZ(handle));
 		return position;
 	}
 
 	public void setPosition(Vector3f position) {
-		this.position = position;
+		store.setPosition(handle, position.x, position.y, position.z);
 	}
 
 	public float getRotX() {
-		return rotX;
+		return store.getRotX(handle);
 	}
 
 	public void setRotX(float rotX) {
-		this.rotX = rotX;
+		store.setRotation(handle, rotX, getRotY(), getRotZ());
 	}
 
 	public float getRotY() {
-		return rotY;
+		return store.getRotY(handle);
 	}
 
 	public void setRotY(float rotY) {
-		this.rotY = rotY;
+		store.setRotation(handle, getRotX(), rotY, getRotZ());
 	}
 
 	public float getRotZ() {
-		return rotZ;
+		return store.getRotZ(handle);
 	}
 
 	public void setRotZ(float rotZ) {
-		this.rotZ = rotZ;
+		store.setRotation(handle, getRotX(), getRotY(), rotZ);
 	}
 
 	public float getScale() {
-		return scale;
+		return store.getScale(handle);
 	}
 
 	public void setScale(float scale) {
-		this.scale = scale;
+		store.setScale(handle, scale);
 	}
 	
 	
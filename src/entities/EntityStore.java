@@ -0,0 +1,433 @@
+package entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import models.TexturedModel;
+
+//Stores entities as components in plain arrays instead of as one object each.
+//Entities are packed densely into fixed size chunks, and every component (position, rotation,
+//scale, model, bounds, flags) has its own array in the chunk, so a system that only needs positions
+//walks straight through memory instead of chasing an object per entity. Removing an entity moves
+//the last one into its slot, so the chunks never have holes.
+//Entities are referred to by handles. A handle is the entity's index in a lookup table plus a
+//generation that changes every time the index is reused, so a handle to a removed entity never
+//points at whatever entity got its index next.
+public class EntityStore {
+
+	//entities per chunk, a power of two so slots split into chunk and offset with shifts
+	public static final int CHUNK_SHIFT = 10;
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	//flags
+	public static final int VISIBLE = 1;
+
+	//never moves. StaticBatcher bakes these into merged meshes and MasterRenderer.processEntities skips them
+	public static final int STATIC = 1 << 1;
+
+	//the store Entity objects go in when they aren't given one
+	private static final EntityStore defaultStore = new EntityStore();
+
+	private final List<Chunk> chunks = new ArrayList<Chunk>();
+	private int count;
+
+	//handle index -> slot in the chunks, -1 if the index is free
+	private int[] slots = new int[CHUNK_SIZE];
+	private int[] generations = new int[CHUNK_SIZE];
+	private int indexCount;
+
+	//indices of removed entities, reused before new ones are made
+	private int[] freeIndices = new int[CHUNK_SIZE];
+	private int freeCount;
+
+	//models are stored as small ints, these turn them back into models
+	private final List<TexturedModel> models = new ArrayList<TexturedModel>();
+	private final Map<TexturedModel, Integer> modelIDs = new HashMap<TexturedModel, Integer>();
+
+	//made the first time a system is run in parallel
+	private ExecutorService workers;
+
+	//The components of up to CHUNK_SIZE entities. Systems read and write the arrays directly,
+	//entries from getCount() up are unused
+	public static class Chunk {
+		public final float[] x = new float[CHUNK_SIZE];
+		public final float[] y = new float[CHUNK_SIZE];
+		public final float[] z = new float[CHUNK_SIZE];
+		public final float[] rotX = new float[CHUNK_SIZE];
+		public final float[] rotY = new float[CHUNK_SIZE];
+		public final float[] rotZ = new float[CHUNK_SIZE];
+		public final float[] scale = new float[CHUNK_SIZE];
+		public final int[] modelID = new int[CHUNK_SIZE];
+
+		//radius of a sphere around the position that holds the whole model, 0 if it isn't known
+		public final float[] boundingRadius = new float[CHUNK_SIZE];
+		public final int[] flags = new int[CHUNK_SIZE];
+
+		//which handle index owns each slot
+		final int[] handleIndex = new int[CHUNK_SIZE];
+
+		private int count;
+
+		public int getCount() {
+			return count;
+		}
+	}
+
+	public static EntityStore getDefault() {
+		return defaultStore;
+	}
+
+	public long create(TexturedModel model, float x, float y, float z, float rotX, float rotY, float rotZ,
+			float scale) {
+		int index;
+		if (freeCount > 0) {
+			index = freeIndices[--freeCount];
+		} else {
+			if (indexCount == slots.length) {
+				slots = grow(slots);
+				generations = grow(generations);
+			}
+			index = indexCount++;
+		}
+
+		int slot = count++;
+		if ((slot >> CHUNK_SHIFT) == chunks.size()) {
+			chunks.add(new Chunk());
+		}
+		Chunk chunk = chunks.get(slot >> CHUNK_SHIFT);
+		int offset = slot & CHUNK_MASK;
+		chunk.x[offset] = x;
+		chunk.y[offset] = y;
+		chunk.z[offset] = z;
+		chunk.rotX[offset] = rotX;
+		chunk.rotY[offset] = rotY;
+		chunk.rotZ[offset] = rotZ;
+		chunk.scale[offset] = scale;
+		chunk.modelID[offset] = getModelID(model);
+		chunk.boundingRadius[offset] = 0;
+		chunk.flags[offset] = VISIBLE;
+		chunk.handleIndex[offset] = index;
+		chunk.count++;
+		slots[index] = slot;
+		return toHandle(index, generations[index]);
+	}
+
+	//make count entities at once and return the slot of the first, the others are in the slots after it.
+	//Every component starts at zero apart from scale 1 and the VISIBLE flag, for the caller to fill in
+	//straight in the chunks, e.g. by bulk copying a whole array at a time. Get their handles with getHandle
+	public int createBlock(int count) {
+		int first = this.count;
+		for (int i = 0; i < count; i++) {
+			int index;
+			if (freeCount > 0) {
+				index = freeIndices[--freeCount];
+			} else {
+				if (indexCount == slots.length) {
+					slots = grow(slots);
+					generations = grow(generations);
+				}
+				index = indexCount++;
+			}
+			int slot = first + i;
+			if ((slot >> CHUNK_SHIFT) == chunks.size()) {
+				chunks.add(new Chunk());
+			}
+			getChunkForSlot(slot).handleIndex[slot & CHUNK_MASK] = index;
+			slots[index] = slot;
+		}
+
+		//reset the components a chunk at a time, removed entities leave their old values behind
+		int end = first + count;
+		for (int slot = first; slot < end;) {
+			Chunk chunk = getChunkForSlot(slot);
+			int from = slot & CHUNK_MASK;
+			int to = Math.min(CHUNK_SIZE, from + end - slot);
+			Arrays.fill(chunk.x, from, to, 0);
+			Arrays.fill(chunk.y, from, to, 0);
+			Arrays.fill(chunk.z, from, to, 0);
+			Arrays.fill(chunk.rotX, from, to, 0);
+			Arrays.fill(chunk.rotY, from, to, 0);
+			Arrays.fill(chunk.rotZ, from, to, 0);
+			Arrays.fill(chunk.scale, from, to, 1);
+			Arrays.fill(chunk.modelID, from, to, 0);
+			Arrays.fill(chunk.boundingRadius, from, to, 0);
+			Arrays.fill(chunk.flags, from, to, VISIBLE);
+			chunk.count += to - from;
+			slot += to - from;
+		}
+		this.count = end;
+		return first;
+	}
+
+	//remove the entity, its handle is no longer alive afterwards
+	public void destroy(long handle) {
+		int slot = getSlot(handle);
+		int index = getIndex(handle);
+		int last = count - 1;
+		if (slot != last) {
+			moveSlot(last, slot);
+		}
+		
+		//empty chunks are kept for the next entities, getChunkCount only counts the ones in use
+		chunks.get(last >> CHUNK_SHIFT).count--;
+		count--;
+		slots[index] = -1;
+		generations[index]++;
+		if (freeCount == freeIndices.length) {
+			freeIndices = grow(freeIndices);
+		}
+		freeIndices[freeCount++] = index;
+	}
+
+	public boolean isAlive(long handle) {
+		int index = getIndex(handle);
+		return index >= 0 && index < indexCount && slots[index] >= 0 && generations[index] == getGeneration(handle);
+	}
+
+	//where the entity is in the chunks. Slots change when other entities are removed, so they
+	//should only be held on to while nothing is being removed, e.g. for one frame of rendering
+	public int getSlot(long handle) {
+		if (!isAlive(handle)) {
+			throw new IllegalArgumentException("Entity " + handle + " has been removed");
+		}
+		return slots[getIndex(handle)];
+	}
+
+	//the handle of the entity in a slot
+	public long getHandle(int slot) {
+		int index = getChunkForSlot(slot).handleIndex[slot & CHUNK_MASK];
+		return toHandle(index, generations[index]);
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int getChunkCount() {
+		return (count + CHUNK_MASK) >> CHUNK_SHIFT;
+	}
+
+	public Chunk getChunk(int chunkIndex) {
+		return chunks.get(chunkIndex);
+	}
+
+	public Chunk getChunkForSlot(int slot) {
+		return chunks.get(slot >> CHUNK_SHIFT);
+	}
+
+	public int getModelID(TexturedModel model) {
+		Integer id = modelIDs.get(model);
+		if (id == null) {
+			id = models.size();
+			models.add(model);
+			modelIDs.put(model, id);
+		}
+		return id;
+	}
+
+	public TexturedModel getModelByID(int modelID) {
+		return models.get(modelID);
+	}
+
+	public int getModelCount() {
+		return models.size();
+	}
+
+	//run the system over every chunk on this thread
+	public void forEachChunk(EntitySystem system) {
+		for (int i = 0; i < getChunkCount(); i++) {
+			Chunk chunk = chunks.get(i);
+			system.process(chunk, chunk.count);
+		}
+	}
+
+	//run the system over the chunks on worker threads, one chunk per job. The system must only touch
+	//the chunk it's given, and nothing may be added to or removed from the store until this returns
+	public void forEachChunkParallel(final EntitySystem system) {
+		int chunkCount = getChunkCount();
+		if (chunkCount <= 1) {
+			forEachChunk(system);
+			return;
+		}
+		List<Callable<Void>> jobs = new ArrayList<Callable<Void>>(chunkCount);
+		for (int i = 0; i < chunkCount; i++) {
+			final Chunk chunk = chunks.get(i);
+			jobs.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					system.process(chunk, chunk.count);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> job : getWorkers().invokeAll(jobs)) {
+				job.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Entity system failed", e.getCause());
+		}
+	}
+
+	public void cleanUp() {
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+	}
+
+	//component access by handle, for code that deals with one entity at a time
+
+	public TexturedModel getModel(long handle) {
+		int slot = getSlot(handle);
+		return models.get(getChunkForSlot(slot).modelID[slot & CHUNK_MASK]);
+	}
+
+	public void setModel(long handle, TexturedModel model) {
+		int slot = getSlot(handle);
+		getChunkForSlot(slot).modelID[slot & CHUNK_MASK] = getModelID(model);
+	}
+
+	public float getX(long handle) {
+		int slot = getSlot(handle);
+		return getChunkForSlot(slot).x[slot & CHUNK_MASK];
+	}
+
+	public float getY(long handle) {
+		int slot = getSlot(handle);
+		return getChunkForSlot(slot).y[slot & CHUNK_MASK];
+	}
+
+	public float getZ(long handle) {
+		int slot = getSlot(handle);
+		return getChunkForSlot(slot).z[slot & CHUNK_MASK];
+	}
+
+	public void setPosition(long handle, float x, float y, float z) {
+		int slot = getSlot(handle);
+		Chunk chunk = getChunkForSlot(slot);
+		int offset = slot & CHUNK_MASK;
+		chunk.x[offset] = x;
+		chunk.y[offset] = y;
+		chunk.z[offset] = z;
+	}
+
+	public float getRotX(long handle) {
+		int slot = getSlot(handle);
+		return getChunkForSlot(slot).rotX[slot & CHUNK_MASK];
+	}
+
+	public float getRotY(long handle) {
+		int slot = getSlot(handle);
+		return getChunkForSlot(slot).rotY[slot & CHUNK_MASK];
+	}
+
+	public float getRotZ(long handle) {
+		int slot = getSlot(handle);
+		return getChunkForSlot(slot).rotZ[slot & CHUNK_MASK];
+	}
+
+	public void setRotation(long handle, float rotX, float rotY, float rotZ) {
+		int slot = getSlot(handle);
+		Chunk chunk = getChunkForSlot(slot);
+		int offset = slot & CHUNK_MASK;
+		chunk.rotX[offset] = rotX;
+		chunk.rotY[offset] = rotY;
+		chunk.rotZ[offset] = rotZ;
+	}
+
+	public float getScale(long handle) {
+		int slot = getSlot(handle);
+		return getChunkForSlot(slot).scale[slot & CHUNK_MASK];
+	}
+
+	public void setScale(long handle, float scale) {
+		int slot = getSlot(handle);
+		getChunkForSlot(slot).scale[slot & CHUNK_MASK] = scale;
+	}
+
+	public float getBoundingRadius(long handle) {
+		int slot = getSlot(handle);
+		return getChunkForSlot(slot).boundingRadius[slot & CHUNK_MASK];
+	}
+
+	public void setBoundingRadius(long handle, float radius) {
+		int slot = getSlot(handle);
+		getChunkForSlot(slot).boundingRadius[slot & CHUNK_MASK] = radius;
+	}
+
+	public int getFlags(long handle) {
+		int slot = getSlot(handle);
+		return getChunkForSlot(slot).flags[slot & CHUNK_MASK];
+	}
+
+	public void setFlags(long handle, int flags) {
+		int slot = getSlot(handle);
+		getChunkForSlot(slot).flags[slot & CHUNK_MASK] = flags;
+	}
+
+	//copy every component from one slot to another, and point the moved entity's handle at its new slot
+	private void moveSlot(int from, int to) {
+		Chunk source = getChunkForSlot(from);
+		Chunk target = getChunkForSlot(to);
+		int s = from & CHUNK_MASK;
+		int t = to & CHUNK_MASK;
+		target.x[t] = source.x[s];
+		target.y[t] = source.y[s];
+		target.z[t] = source.z[s];
+		target.rotX[t] = source.rotX[s];
+		target.rotY[t] = source.rotY[s];
+		target.rotZ[t] = source.rotZ[s];
+		target.scale[t] = source.scale[s];
+		target.modelID[t] = source.modelID[s];
+		target.boundingRadius[t] = source.boundingRadius[s];
+		target.flags[t] = source.flags[s];
+		target.handleIndex[t] = source.handleIndex[s];
+		slots[source.handleIndex[s]] = to;
+	}
+
+	private ExecutorService getWorkers() {
+		if (workers == null) {
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+			workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "entity-systems");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return workers;
+	}
+
+	private static long toHandle(int index, int generation) {
+		return ((long) generation << 32) | (index & 0xFFFFFFFFL);
+	}
+
+	private static int getIndex(long handle) {
+		return (int) handle;
+	}
+
+	private static int getGeneration(long handle) {
+		return (int) (handle >>> 32);
+	}
+
+	private static int[] grow(int[] array) {
+		int[] grown = new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
@@ -0,0 +1,8 @@
+package entities;
+
+//Work done on every entity in an EntityStore, one chunk at a time. The entities to process are
+//the first count entries of the chunk's arrays
+public interface EntitySystem {
+
+	void process(EntityStore.Chunk chunk, int count);
+}
@@ -6,9 +6,19 @@ public class Light {
 	private Vector3f position;
 	private Vector3f color;
 	
+	//how far a point light reaches, it fades out to nothing at this distance
+	private float radius;
+	
+	//the sun, it lights everything
 	public Light(Vector3f position, Vector3f color) {
+		this(position, color, Float.POSITIVE_INFINITY);
+	}
+	
+	//a point light like a torch or lamp, processed into the light clusters
+	public Light(Vector3f position, Vector3f color, float radius) {
 		this.position = position;
 		this.color = color;
+		this.radius = radius;
 	}
 
 	public Vector3f getPosition() {
@@ -26,4 +36,12 @@ public class Light {
 	public void setColor(Vector3f color) {
 		this.color = color;
 	}
+
+	public float getRadius() {
+		return radius;
+	}
+
+	public void setRadius(float radius) {
+		this.radius = radius;
+	}
 }
@@ -0,0 +1,261 @@
+package entities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import models.TexturedModel;
+
+//A binary scene written by SceneWriter, memory mapped and loaded into an EntityStore a sector at a time.
+//
+//The file is little endian:
+//	int magic "SCNE", int version, float sectorSize, int modelCount, int sectorCount, int entityCount
+//	model table: for each model, its name as a short length and UTF-8 bytes, padded to 4 bytes at the end
+//	sector table: for each sector, int sectorX, int sectorZ, int firstEntity, int entityCount
+//	entities: for each sector in turn, its components one array after another in the order of
+//	COMPONENTS, so each array can be copied straight into the store's chunk arrays
+//
+//Sector (x, z) holds the entities with x from sectorX * sectorSize to (sectorX + 1) * sectorSize, and
+//the same for z. Mapped buffers are limited to 2GB, which is around 60 million entities.
+public class SceneFile {
+
+	static final int MAGIC = 'S' | 'C' << 8 | 'N' << 16 | 'E' << 24;
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 24;
+	static final int SECTOR_BYTES = 16;
+
+	//modelID, x, y, z, rotX, rotY, rotZ, scale, flags
+	static final int COMPONENTS = 9;
+	static final int ENTITY_BYTES = COMPONENTS * 4;
+
+	private final EntityStore store;
+	private final MappedByteBuffer buffer;
+	private final float sectorSize;
+
+	private final String[] modelNames;
+
+	//the store's model ID for each model in the file, -1 until the model is given with setModel
+	private final int[] modelIDs;
+
+	private final int sectorCount;
+	private final int[] sectorX;
+	private final int[] sectorZ;
+	private final int[] firstEntity;
+	private final int[] entityCounts;
+	private final int entityCount;
+
+	//where the entity arrays start in the file
+	private final int dataStart;
+
+	//the handles of each loaded sector's entities, null while it isn't loaded
+	private final long[][] loadedHandles;
+	private int loadedEntities;
+
+	//map the file and read its tables. The entities aren't loaded until loadSector, loadAll or update
+	public SceneFile(File file, EntityStore store) throws IOException {
+		this.store = store;
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too big to map");
+			}
+
+			//the mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			in.close();
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException(file + " isn't a scene file");
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException(file + " is scene version " + version + ", expected " + VERSION);
+		}
+		sectorSize = buffer.getFloat();
+		int modelCount = buffer.getInt();
+		sectorCount = buffer.getInt();
+		entityCount = buffer.getInt();
+
+		modelNames = new String[modelCount];
+		modelIDs = new int[modelCount];
+		for (int i = 0; i < modelCount; i++) {
+			byte[] name = new byte[buffer.getShort() & 0xFFFF];
+			buffer.get(name);
+			modelNames[i] = new String(name, StandardCharsets.UTF_8);
+			modelIDs[i] = -1;
+		}
+		buffer.position((buffer.position() + 3) & ~3);
+
+		sectorX = new int[sectorCount];
+		sectorZ = new int[sectorCount];
+		firstEntity = new int[sectorCount];
+		entityCounts = new int[sectorCount];
+		for (int i = 0; i < sectorCount; i++) {
+			sectorX[i] = buffer.getInt();
+			sectorZ[i] = buffer.getInt();
+			firstEntity[i] = buffer.getInt();
+			entityCounts[i] = buffer.getInt();
+		}
+		dataStart = buffer.position();
+		if ((long) dataStart + (long) entityCount * ENTITY_BYTES > buffer.capacity()) {
+			throw new IOException(file + " is truncated");
+		}
+		loadedHandles = new long[sectorCount][];
+	}
+
+	public String[] getModelNames() {
+		return modelNames;
+	}
+
+	//the model to use for the file's model with this ID, every model a sector uses has to be given
+	//before the sector is loaded
+	public void setModel(int fileModelID, TexturedModel model) {
+		modelIDs[fileModelID] = store.getModelID(model);
+	}
+
+	//give a model by the name it has in the file, does nothing if the file doesn't use it
+	public void setModel(String name, TexturedModel model) {
+		for (int i = 0; i < modelNames.length; i++) {
+			if (modelNames[i].equals(name)) {
+				setModel(i, model);
+			}
+		}
+	}
+
+	public float getSectorSize() {
+		return sectorSize;
+	}
+
+	public int getSectorCount() {
+		return sectorCount;
+	}
+
+	public int getEntityCount() {
+		return entityCount;
+	}
+
+	//entities currently loaded into the store from this file
+	public int getLoadedEntityCount() {
+		return loadedEntities;
+	}
+
+	public boolean isLoaded(int sector) {
+		return loadedHandles[sector] != null;
+	}
+
+	public void loadAll() {
+		for (int i = 0; i < sectorCount; i++) {
+			loadSector(i);
+		}
+	}
+
+	//load the sectors that overlap a circle on the ground and unload the ones that don't, for streaming
+	//the scene in around the camera. Returns how many sectors were loaded or unloaded
+	public int update(float x, float z, float radius) {
+		int changes = 0;
+		for (int i = 0; i < sectorCount; i++) {
+			float minX = sectorX[i] * sectorSize;
+			float minZ = sectorZ[i] * sectorSize;
+			float dx = Math.max(Math.max(minX - x, x - minX - sectorSize), 0);
+			float dz = Math.max(Math.max(minZ - z, z - minZ - sectorSize), 0);
+			boolean inRange = dx * dx + dz * dz <= radius * radius;
+			if (inRange != isLoaded(i)) {
+				if (inRange) {
+					loadSector(i);
+				} else {
+					unloadSector(i);
+				}
+				changes++;
+			}
+		}
+		return changes;
+	}
+
+	//copy a sector's entities into the store, one bulk copy per component and chunk
+	public void loadSector(int sector) {
+		if (isLoaded(sector)) {
+			return;
+		}
+		int count = entityCounts[sector];
+		int start = dataStart + firstEntity[sector] * ENTITY_BYTES;
+
+		//each component array, viewed at the right place in the mapping
+		ByteBuffer data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+		//check every model is there before anything goes in the store, so a missing one leaves it as it was
+		IntBuffer fileModelIDs = getInts(data, start, count, 0, 0);
+		for (int i = 0; i < count; i++) {
+			int id = fileModelIDs.get(i);
+			if (id < 0 || id >= modelIDs.length || modelIDs[id] == -1) {
+				throw new IllegalStateException("No model given for scene model " + id);
+			}
+		}
+
+		int first = store.createBlock(count);
+		for (int slot = first; slot < first + count;) {
+			EntityStore.Chunk chunk = store.getChunkForSlot(slot);
+			int offset = slot & (EntityStore.CHUNK_SIZE - 1);
+			int length = Math.min(EntityStore.CHUNK_SIZE - offset, first + count - slot);
+			int entity = slot - first;
+			getInts(data, start, count, 0, entity).get(chunk.modelID, offset, length);
+			getFloats(data, start, count, 1, entity).get(chunk.x, offset, length);
+			getFloats(data, start, count, 2, entity).get(chunk.y, offset, length);
+			getFloats(data, start, count, 3, entity).get(chunk.z, offset, length);
+			getFloats(data, start, count, 4, entity).get(chunk.rotX, offset, length);
+			getFloats(data, start, count, 5, entity).get(chunk.rotY, offset, length);
+			getFloats(data, start, count, 6, entity).get(chunk.rotZ, offset, length);
+			getFloats(data, start, count, 7, entity).get(chunk.scale, offset, length);
+			getInts(data, start, count, 8, entity).get(chunk.flags, offset, length);
+
+			//turn the file's model IDs into the store's
+			int[] modelID = chunk.modelID;
+			for (int i = offset; i < offset + length; i++) {
+				modelID[i] = modelIDs[modelID[i]];
+			}
+			slot += length;
+		}
+
+		long[] handles = new long[count];
+		for (int i = 0; i < count; i++) {
+			handles[i] = store.getHandle(first + i);
+		}
+		loadedHandles[sector] = handles;
+		loadedEntities += count;
+	}
+
+	//remove a sector's entities from the store again, apart from any that were already destroyed
+	public void unloadSector(int sector) {
+		long[] handles = loadedHandles[sector];
+		if (handles == null) {
+			return;
+		}
+		for (int i = handles.length - 1; i >= 0; i--) {
+			if (store.isAlive(handles[i])) {
+				store.destroy(handles[i]);
+			}
+		}
+		loadedHandles[sector] = null;
+		loadedEntities -= handles.length;
+	}
+
+	private static FloatBuffer getFloats(ByteBuffer data, int start, int count, int component, int entity) {
+		data.position(start + (component * count + entity) * 4);
+		return data.asFloatBuffer();
+	}
+
+	private static IntBuffer getInts(ByteBuffer data, int start, int count, int component, int entity) {
+		data.position(start + (component * count + entity) * 4);
+		return data.asIntBuffer();
+	}
+}
@@ -0,0 +1,167 @@
+package entities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//Builds a scene file for SceneFile to load. Entities are added one at a time and sorted into sectors
+//by their x and z when the file is written
+public class SceneWriter {
+
+	private final float sectorSize;
+
+	private final List<String> modelNames = new ArrayList<String>();
+
+	//the entities added so far, with the seven float components of each one together
+	private int[] modelIDs = new int[1024];
+	private float[] components = new float[1024 * 7];
+	private int[] flags = new int[1024];
+	private int count;
+
+	public SceneWriter(float sectorSize) {
+		this.sectorSize = sectorSize;
+	}
+
+	//add a model to the model table and return its ID. SceneFile.setModel finds it by this name
+	public int addModel(String name) {
+		int id = modelNames.indexOf(name);
+		if (id == -1) {
+			id = modelNames.size();
+			modelNames.add(name);
+		}
+		return id;
+	}
+
+	public void add(int modelID, float x, float y, float z, float rotX, float rotY, float rotZ, float scale,
+			int flags) {
+		if (modelID < 0 || modelID >= modelNames.size()) {
+			throw new IllegalArgumentException("Unknown scene model " + modelID);
+		}
+		if (count == modelIDs.length) {
+			modelIDs = Arrays.copyOf(modelIDs, count * 2);
+			components = Arrays.copyOf(components, count * 2 * 7);
+			this.flags = Arrays.copyOf(this.flags, count * 2);
+		}
+		modelIDs[count] = modelID;
+		int c = count * 7;
+		components[c] = x;
+		components[c + 1] = y;
+		components[c + 2] = z;
+		components[c + 3] = rotX;
+		components[c + 4] = rotY;
+		components[c + 5] = rotZ;
+		components[c + 6] = scale;
+		this.flags[count] = flags;
+		count++;
+	}
+
+	public int getEntityCount() {
+		return count;
+	}
+
+	public void write(File file) throws IOException {
+		//every entity's sector, and the distinct sectors in key order
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			int sectorX = (int) Math.floor(components[i * 7] / sectorSize);
+			int sectorZ = (int) Math.floor(components[i * 7 + 2] / sectorSize);
+			keys[i] = toKey(sectorX, sectorZ);
+		}
+		long[] sectors = keys.clone();
+		Arrays.sort(sectors);
+		int sectorCount = 0;
+		for (int i = 0; i < sectors.length; i++) {
+			if (i == 0 || sectors[i] != sectors[i - 1]) {
+				sectors[sectorCount++] = sectors[i];
+			}
+		}
+		sectors = Arrays.copyOf(sectors, sectorCount);
+
+		//counting sort of the entities into their sectors
+		int[] sectorOf = new int[count];
+		int[] firstEntity = new int[sectorCount + 1];
+		for (int i = 0; i < count; i++) {
+			sectorOf[i] = Arrays.binarySearch(sectors, keys[i]);
+			firstEntity[sectorOf[i] + 1]++;
+		}
+		for (int i = 0; i < sectorCount; i++) {
+			firstEntity[i + 1] += firstEntity[i];
+		}
+		int[] order = new int[count];
+		int[] next = Arrays.copyOf(firstEntity, sectorCount);
+		for (int i = 0; i < count; i++) {
+			order[next[sectorOf[i]]++] = i;
+		}
+
+		byte[][] names = new byte[modelNames.size()][];
+		int tableBytes = 0;
+		for (int i = 0; i < names.length; i++) {
+			names[i] = modelNames.get(i).getBytes(StandardCharsets.UTF_8);
+			tableBytes += 2 + names[i].length;
+		}
+		tableBytes = (tableBytes + 3) & ~3;
+		ByteBuffer out = ByteBuffer.allocate(SceneFile.HEADER_BYTES + tableBytes
+				+ sectorCount * SceneFile.SECTOR_BYTES + count * SceneFile.ENTITY_BYTES);
+		out.order(ByteOrder.LITTLE_ENDIAN);
+		out.putInt(SceneFile.MAGIC);
+		out.putInt(SceneFile.VERSION);
+		out.putFloat(sectorSize);
+		out.putInt(names.length);
+		out.putInt(sectorCount);
+		out.putInt(count);
+		for (byte[] name : names) {
+			out.putShort((short) name.length);
+			out.put(name);
+		}
+		out.position((out.position() + 3) & ~3);
+		for (int i = 0; i < sectorCount; i++) {
+			out.putInt((int) (sectors[i] >> 32));
+			out.putInt((int) sectors[i]);
+			out.putInt(firstEntity[i]);
+			out.putInt(firstEntity[i + 1] - firstEntity[i]);
+		}
+
+		//each sector's components, an array at a time
+		for (int i = 0; i < sectorCount; i++) {
+			for (int component = 0; component < SceneFile.COMPONENTS; component++) {
+				for (int j = firstEntity[i]; j < firstEntity[i + 1]; j++) {
+					int entity = order[j];
+					if (component == 0) {
+						out.putInt(modelIDs[entity]);
+					} else if (component == SceneFile.COMPONENTS - 1) {
+						out.putInt(flags[entity]);
+					} else {
+						out.putFloat(components[entity * 7 + component - 1]);
+					}
+				}
+			}
+		}
+		out.flip();
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		FileOutputStream stream = new FileOutputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	//sorts by x first, so each column of sectors is together in the file
+	private static long toKey(int sectorX, int sectorZ) {
+		return ((long) sectorX << 32) | (sectorZ & 0xFFFFFFFFL);
+	}
+}
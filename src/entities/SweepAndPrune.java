@@ -0,0 +1,366 @@
+package entities;
+
+import java.util.Arrays;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import models.RawModel;
+
+//Broadphase collision: finds the pairs of entities whose bounding boxes overlap, without testing every
+//entity against every other one.
+//
+//Each entity added gets a proxy, a world space box worked out from its model's bounds (RawModel.getBounds)
+//and its position, rotation and scale. The start and end of every box are kept sorted along x, y and z.
+//When the entities move the lists are sorted again with an insertion sort, which is close to linear when
+//things have only moved a little since the last update. Two boxes only start or stop overlapping when the
+//start of one passes the end of the other on some axis, so the overlapping pairs are kept up to date from
+//the swaps the sort makes.
+//
+//Usage:
+//	SweepAndPrune broadphase = new SweepAndPrune(store);
+//	broadphase.add(handle);
+//	...
+//	broadphase.update();
+//	int pairCount = broadphase.getPairs(pairs);
+public class SweepAndPrune {
+
+	private static final Vector3f X_AXIS = new Vector3f(1, 0, 0);
+	private static final Vector3f Y_AXIS = new Vector3f(0, 1, 0);
+	private static final Vector3f Z_AXIS = new Vector3f(0, 0, 1);
+
+	private final EntityStore store;
+
+	//per proxy, the entity and its box as min x, y, z and max x, y, z
+	private long[] handles = new long[64];
+	private float[] bounds = new float[64 * 6];
+	private boolean[] used = new boolean[64];
+	private int proxyCapacity = 64;
+
+	//proxies that were removed, reused before new ones are made
+	private int[] freeProxies = new int[64];
+	private int freeCount;
+	private int proxyCount;
+
+	//the box ends sorted along each axis. An end is its proxy times 2, plus 1 for the max end
+	private final int[][] ends = new int[3][128];
+	private int endCount;
+
+	//the overlapping pairs, each one the two proxies with the smaller one in the high bits
+	private final PairSet pairs = new PairSet();
+
+	//the entity's rotation, reused for every entity
+	private final Matrix4f rotation = new Matrix4f();
+
+	public SweepAndPrune(EntityStore store) {
+		this.store = store;
+	}
+
+	//start tracking an entity, returns its proxy. Pairs with it are found on the next update
+	public int add(long handle) {
+		int proxy;
+		if (freeCount > 0) {
+			proxy = freeProxies[--freeCount];
+		} else {
+			if (proxyCount == proxyCapacity) {
+				grow();
+			}
+			proxy = proxyCount++;
+		}
+		handles[proxy] = handle;
+		used[proxy] = true;
+		updateBounds(proxy);
+
+		//the ends go on the end of the lists, the next update sorts them into place
+		for (int a = 0; a < 3; a++) {
+			if (endCount + 2 > ends[a].length) {
+				ends[a] = Arrays.copyOf(ends[a], ends[a].length * 2);
+			}
+			ends[a][endCount] = proxy * 2;
+			ends[a][endCount + 1] = proxy * 2 + 1;
+		}
+		endCount += 2;
+		return proxy;
+	}
+
+	//stop tracking a proxy, and forget every pair it was in
+	public void remove(int proxy) {
+		if (!used[proxy]) {
+			return;
+		}
+		for (int a = 0; a < 3; a++) {
+			int[] axisEnds = ends[a];
+			int kept = 0;
+			for (int i = 0; i < endCount; i++) {
+				if (axisEnds[i] >> 1 != proxy) {
+					axisEnds[kept++] = axisEnds[i];
+				}
+			}
+		}
+		endCount -= 2;
+		pairs.removeProxy(proxy);
+		used[proxy] = false;
+		if (freeCount == freeProxies.length) {
+			freeProxies = Arrays.copyOf(freeProxies, freeCount * 2);
+		}
+		freeProxies[freeCount++] = proxy;
+	}
+
+	//read every tracked entity's box from the store again and bring the pairs up to date. Proxies whose
+	//entity has been destroyed are removed
+	public void update() {
+		for (int proxy = 0; proxy < proxyCount; proxy++) {
+			if (!used[proxy]) {
+				continue;
+			}
+			if (store.isAlive(handles[proxy])) {
+				updateBounds(proxy);
+			} else {
+				remove(proxy);
+			}
+		}
+		for (int a = 0; a < 3; a++) {
+			sortAxis(a);
+		}
+	}
+
+	public int getPairCount() {
+		return pairs.size();
+	}
+
+	//put the entity handles of every overlapping pair into dest, two per pair, and return the pair count.
+	//dest needs room for twice getPairCount()
+	public int getPairs(long[] dest) {
+		long[] keys = pairs.keys;
+		int pair = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != PairSet.EMPTY) {
+				dest[pair * 2] = handles[(int) (keys[i] >>> 32)];
+				dest[pair * 2 + 1] = handles[(int) keys[i]];
+				pair++;
+			}
+		}
+		return pair;
+	}
+
+	public boolean isOverlapping(int proxyA, int proxyB) {
+		return pairs.contains(toPair(proxyA, proxyB));
+	}
+
+	//the proxy's world space box, min x, y, z then max x, y, z
+	public float[] getBounds(int proxy, float[] dest) {
+		System.arraycopy(bounds, proxy * 6, dest, 0, 6);
+		return dest;
+	}
+
+	//insertion sort one axis. Every time a min end moves down past another box's max end, the boxes may
+	//have started to overlap, and every time a max end moves down past a min end they've stopped
+	private void sortAxis(int a) {
+		int[] axisEnds = ends[a];
+		for (int i = 1; i < endCount; i++) {
+			int end = axisEnds[i];
+			float value = getValue(end, a);
+			int j = i - 1;
+			while (j >= 0 && isAfter(axisEnds[j], getValue(axisEnds[j], a), end, value)) {
+				int other = axisEnds[j];
+				int proxy = end >> 1;
+				int otherProxy = other >> 1;
+				if (proxy != otherProxy) {
+					boolean endIsMax = (end & 1) == 1;
+					boolean otherIsMax = (other & 1) == 1;
+					if (!endIsMax && otherIsMax) {
+						if (overlaps(proxy, otherProxy)) {
+							pairs.add(toPair(proxy, otherProxy));
+						}
+					} else if (endIsMax && !otherIsMax) {
+						pairs.remove(toPair(proxy, otherProxy));
+					}
+				}
+				axisEnds[j + 1] = other;
+				j--;
+			}
+			axisEnds[j + 1] = end;
+		}
+	}
+
+	//whether end a belongs after end b. Max ends go before min ends at the same value, so boxes that
+	//only touch don't count as overlapping, the same as in overlaps
+	private static boolean isAfter(int a, float valueA, int b, float valueB) {
+		return valueA > valueB || (valueA == valueB && (a & 1) == 0 && (b & 1) == 1);
+	}
+
+	private float getValue(int end, int a) {
+		return bounds[(end >> 1) * 6 + (end & 1) * 3 + a];
+	}
+
+	private boolean overlaps(int proxyA, int proxyB) {
+		int a = proxyA * 6;
+		int b = proxyB * 6;
+		return bounds[a] < bounds[b + 3] && bounds[b] < bounds[a + 3]
+				&& bounds[a + 1] < bounds[b + 4] && bounds[b + 1] < bounds[a + 4]
+				&& bounds[a + 2] < bounds[b + 5] && bounds[b + 2] < bounds[a + 5];
+	}
+
+	//the model's box rotated and scaled into world space. The rotated box's half size on each axis is
+	//the absolute rotation matrix times the half size, so it still fits however the model is turned
+	private void updateBounds(int proxy) {
+		int slot = store.getSlot(handles[proxy]);
+		EntityStore.Chunk chunk = store.getChunkForSlot(slot);
+		int offset = slot & (EntityStore.CHUNK_SIZE - 1);
+		RawModel model = store.getModelByID(chunk.modelID[offset]).getRawModel();
+		float[] modelBounds = model.getBounds();
+		int b = proxy * 6;
+		if (modelBounds == null) {
+			bounds[b] = bounds[b + 3] = chunk.x[offset];
+			bounds[b + 1] = bounds[b + 4] = chunk.y[offset];
+			bounds[b + 2] = bounds[b + 5] = chunk.z[offset];
+			return;
+		}
+		float scale = chunk.scale[offset];
+		float centerX = (modelBounds[0] + modelBounds[3]) / 2 * scale;
+		float centerY = (modelBounds[1] + modelBounds[4]) / 2 * scale;
+		float centerZ = (modelBounds[2] + modelBounds[5]) / 2 * scale;
+		float halfX = (modelBounds[3] - modelBounds[0]) / 2 * scale;
+		float halfY = (modelBounds[4] - modelBounds[1]) / 2 * scale;
+		float halfZ = (modelBounds[5] - modelBounds[2]) / 2 * scale;
+		float rotX = chunk.rotX[offset];
+		float rotY = chunk.rotY[offset];
+		float rotZ = chunk.rotZ[offset];
+		if (rotX != 0 || rotY != 0 || rotZ != 0) {
+			//the same rotations Maths.createTransformationMatrix makes
+			Matrix4f m = rotation;
+			m.setIdentity();
+			m.rotate(rotX, X_AXIS);
+			m.rotate(rotY, Y_AXIS);
+			m.rotate(rotZ, Z_AXIS);
+			float x = m.m00 * centerX + m.m10 * centerY + m.m20 * centerZ;
+			float y = m.m01 * centerX + m.m11 * centerY + m.m21 * centerZ;
+			float z = m.m02 * centerX + m.m12 * centerY + m.m22 * centerZ;
+			float extentX = Math.abs(m.m00) * halfX + Math.abs(m.m10) * halfY + Math.abs(m.m20) * halfZ;
+			float extentY = Math.abs(m.m01) * halfX + Math.abs(m.m11) * halfY + Math.abs(m.m21) * halfZ;
+			float extentZ = Math.abs(m.m02) * halfX + Math.abs(m.m12) * halfY + Math.abs(m.m22) * halfZ;
+			centerX = x;
+			centerY = y;
+			centerZ = z;
+			halfX = extentX;
+			halfY = extentY;
+			halfZ = extentZ;
+		}
+		bounds[b] = chunk.x[offset] + centerX - halfX;
+		bounds[b + 1] = chunk.y[offset] + centerY - halfY;
+		bounds[b + 2] = chunk.z[offset] + centerZ - halfZ;
+		bounds[b + 3] = chunk.x[offset] + centerX + halfX;
+		bounds[b + 4] = chunk.y[offset] + centerY + halfY;
+		bounds[b + 5] = chunk.z[offset] + centerZ + halfZ;
+	}
+
+	private void grow() {
+		proxyCapacity *= 2;
+		handles = Arrays.copyOf(handles, proxyCapacity);
+		bounds = Arrays.copyOf(bounds, proxyCapacity * 6);
+		used = Arrays.copyOf(used, proxyCapacity);
+	}
+
+	private static long toPair(int proxyA, int proxyB) {
+		int low = Math.min(proxyA, proxyB);
+		int high = Math.max(proxyA, proxyB);
+		return ((long) low << 32) | high;
+	}
+
+	//A set of pairs, open addressing with linear probing, so adding and removing doesn't allocate
+	private static class PairSet {
+
+		//no pair has the same proxy twice, so this is never a real pair
+		static final long EMPTY = -1;
+
+		long[] keys = newKeys(64);
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		boolean contains(long pair) {
+			int mask = keys.length - 1;
+			for (int i = hash(pair) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+				if (keys[i] == pair) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void add(long pair) {
+			if ((size + 1) * 2 > keys.length) {
+				rehash(keys.length * 2);
+			}
+			int mask = keys.length - 1;
+			int i = hash(pair) & mask;
+			while (keys[i] != EMPTY) {
+				if (keys[i] == pair) {
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			keys[i] = pair;
+			size++;
+		}
+
+		void remove(long pair) {
+			int mask = keys.length - 1;
+			int i = hash(pair) & mask;
+			while (keys[i] != pair) {
+				if (keys[i] == EMPTY) {
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			keys[i] = EMPTY;
+			size--;
+
+			//shift later entries of the run back, so lookups don't stop at the gap
+			int gap = i;
+			for (i = (i + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+				int home = hash(keys[i]) & mask;
+				if (((i - home) & mask) >= ((i - gap) & mask)) {
+					keys[gap] = keys[i];
+					keys[i] = EMPTY;
+					gap = i;
+				}
+			}
+		}
+
+		void removeProxy(int proxy) {
+			long[] old = keys;
+			keys = newKeys(old.length);
+			size = 0;
+			for (long pair : old) {
+				if (pair != EMPTY && (int) (pair >>> 32) != proxy && (int) pair != proxy) {
+					add(pair);
+				}
+			}
+		}
+
+		private void rehash(int capacity) {
+			long[] old = keys;
+			keys = newKeys(capacity);
+			size = 0;
+			for (long pair : old) {
+				if (pair != EMPTY) {
+					add(pair);
+				}
+			}
+		}
+
+		private static long[] newKeys(int capacity) {
+			long[] keys = new long[capacity];
+			Arrays.fill(keys, EMPTY);
+			return keys;
+		}
+
+		private static int hash(long pair) {
+			long hash = pair * 0x9E3779B97F4A7C15L;
+			return (int) (hash ^ (hash >>> 32));
+		}
+	}
+}
@@ -0,0 +1,469 @@
+package models;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+//Splits an indexed triangle mesh into meshlets of at most MAX_VERTICES vertices and MAX_TRIANGLES
+//triangles. Runs once when a model is loaded (or a static batch is baked), never per frame.
+//Meshlets are grown greedily from a seed triangle. Each step adds the neighbouring triangle that brings
+//in the fewest new vertices and faces most like the meshlet so far, which keeps meshlets compact (tight
+//spheres) and flat (narrow cones, so they can be culled by facing). Neighbours are found by position
+//rather than by vertex index, since flat shaded models have no shared vertices at all. When nothing next
+//to the meshlet is left, the closest unused triangle is taken instead, found through a grid over the
+//triangles' centroids so big meshes like merged static batches don't scan every triangle each time.
+//Triangles that face too far from the rest of the meshlet are left for another one
+public class MeshletBuilder {
+
+	//the usual limits for mesh shader meshlets, 124 triangles leaves room for 4 bytes of padding in 128
+	public static final int MAX_VERTICES = 64;
+	public static final int MAX_TRIANGLES = 124;
+
+	//below this the normals are too spread out for the cone to ever cull anything
+	private static final float MIN_CONE_DOT = 0.1f;
+
+	//how much a triangle facing the wrong way counts against it, next to one new vertex
+	private static final float CONE_WEIGHT = 1;
+
+	//triangles facing further than this (the cosine of 60 degrees) from the meshlet so far start a new
+	//meshlet instead, otherwise every meshlet of a curved model ends up too wide a cone to ever cull
+	private static final float MIN_FACING = 0.5f;
+
+	private MeshletBuilder() {
+	}
+
+	public static Meshlets build(float[] positions, int[] indices) {
+		int vertexCount = positions.length / 3;
+		int triangleCount = indices.length / 3;
+		float[] triangleNormals = getTriangleNormals(positions, indices);
+		float[] centroids = getCentroids(positions, indices);
+
+		//the triangles touching each welded position, packed one position after another
+		int[] welded = weldPositions(positions);
+		int[] adjacencyOffsets = new int[vertexCount + 1];
+		for (int index : indices) {
+			adjacencyOffsets[welded[index] + 1]++;
+		}
+		for (int i = 0; i < vertexCount; i++) {
+			adjacencyOffsets[i + 1] += adjacencyOffsets[i];
+		}
+		int[] adjacency = new int[indices.length];
+		int[] filled = new int[vertexCount];
+		for (int i = 0; i < indices.length; i++) {
+			int position = welded[indices[i]];
+			adjacency[adjacencyOffsets[position] + filled[position]++] = i / 3;
+		}
+
+		boolean[] used = new boolean[triangleCount];
+		CentroidGrid grid = new CentroidGrid(centroids, triangleCount);
+		boolean[] inMeshlet = new boolean[vertexCount];
+		int[] meshletVertices = new int[MAX_VERTICES];
+		int[] reordered = new int[indices.length];
+
+		//the triangle that ended up at each place in the reordered indices
+		int[] triangleOrder = new int[triangleCount];
+		int written = 0;
+		int nextUnused = 0;
+
+		int capacity = Math.max(1, triangleCount / MAX_TRIANGLES + 1);
+		int[] indexOffsets = new int[capacity];
+		int[] indexCounts = new int[capacity];
+		float[] spheres = new float[capacity * 4];
+		float[] cones = new float[capacity * 4];
+		int count = 0;
+
+		while (written < indices.length) {
+			int meshletStart = written;
+			int vertices = 0;
+			int triangles = 0;
+			float axisX = 0, axisY = 0, axisZ = 0;
+			float centerX = 0, centerY = 0, centerZ = 0;
+			while (true) {
+				int next = -1;
+				int nextNewVertices = 0;
+				float nextScore = Float.POSITIVE_INFINITY;
+				float axisLength = (float) Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+				for (int v = 0; v < vertices; v++) {
+					int position = welded[meshletVertices[v]];
+					for (int a = adjacencyOffsets[position]; a < adjacencyOffsets[position + 1]; a++) {
+						int triangle = adjacency[a];
+						if (used[triangle]) {
+							continue;
+						}
+						int newVertices = countNewVertices(indices, triangle, inMeshlet);
+						float facing = axisLength == 0 ? 1 : (triangleNormals[triangle * 3] * axisX
+								+ triangleNormals[triangle * 3 + 1] * axisY
+								+ triangleNormals[triangle * 3 + 2] * axisZ) / axisLength;
+						float score = newVertices + CONE_WEIGHT * (1 - facing);
+						if (facing >= MIN_FACING && score < nextScore) {
+							next = triangle;
+							nextNewVertices = newVertices;
+							nextScore = score;
+						}
+					}
+				}
+				if (next == -1) {
+					while (nextUnused < triangleCount && used[nextUnused]) {
+						nextUnused++;
+					}
+					if (nextUnused == triangleCount) {
+						break;
+					}
+					next = triangles == 0 ? nextUnused
+							: grid.findClosestUnused(triangleNormals, used, centerX / triangles, centerY / triangles,
+									centerZ / triangles, axisX / axisLength, axisY / axisLength, axisZ / axisLength);
+					if (next == -1) {
+						break;
+					}
+					nextNewVertices = countNewVertices(indices, next, inMeshlet);
+				}
+				if (vertices + nextNewVertices > MAX_VERTICES || triangles == MAX_TRIANGLES) {
+					break;
+				}
+				used[next] = true;
+				triangleOrder[written / 3] = next;
+				for (int corner = 0; corner < 3; corner++) {
+					int vertex = indices[next * 3 + corner];
+					if (!inMeshlet[vertex]) {
+						inMeshlet[vertex] = true;
+						meshletVertices[vertices++] = vertex;
+					}
+					reordered[written++] = vertex;
+				}
+				axisX += triangleNormals[next * 3];
+				axisY += triangleNormals[next * 3 + 1];
+				axisZ += triangleNormals[next * 3 + 2];
+				centerX += centroids[next * 3];
+				centerY += centroids[next * 3 + 1];
+				centerZ += centroids[next * 3 + 2];
+				triangles++;
+			}
+			for (int v = 0; v < vertices; v++) {
+				inMeshlet[meshletVertices[v]] = false;
+			}
+
+			if (count == indexOffsets.length) {
+				indexOffsets = Arrays.copyOf(indexOffsets, count * 2);
+				indexCounts = Arrays.copyOf(indexCounts, count * 2);
+				spheres = Arrays.copyOf(spheres, count * 8);
+				cones = Arrays.copyOf(cones, count * 8);
+			}
+			indexOffsets[count] = meshletStart;
+			indexCounts[count] = written - meshletStart;
+			computeSphere(positions, meshletVertices, vertices, spheres, count * 4);
+			computeCone(triangleNormals, triangleOrder, meshletStart / 3, written / 3, cones, count * 4);
+			count++;
+		}
+		return new Meshlets(reordered, count, Arrays.copyOf(indexOffsets, count), Arrays.copyOf(indexCounts, count),
+				Arrays.copyOf(spheres, count * 4), Arrays.copyOf(cones, count * 4));
+	}
+
+	//the same number for every vertex at the same position, the lowest index of any of them
+	private static int[] weldPositions(final float[] positions) {
+		int vertexCount = positions.length / 3;
+		Integer[] order = new Integer[vertexCount];
+		for (int i = 0; i < vertexCount; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				for (int axis = 0; axis < 3; axis++) {
+					int compared = Float.compare(positions[a * 3 + axis], positions[b * 3 + axis]);
+					if (compared != 0) {
+						return compared;
+					}
+				}
+				return a.compareTo(b);
+			}
+		});
+		int[] welded = new int[vertexCount];
+		int first = 0;
+		for (int i = 0; i < vertexCount; i++) {
+			if (i > 0 && !samePosition(positions, order[i], order[i - 1])) {
+				first = i;
+			}
+			welded[order[i]] = order[first];
+		}
+		return welded;
+	}
+
+	private static boolean samePosition(float[] positions, int a, int b) {
+		return positions[a * 3] == positions[b * 3] && positions[a * 3 + 1] == positions[b * 3 + 1]
+				&& positions[a * 3 + 2] == positions[b * 3 + 2];
+	}
+
+	private static int countNewVertices(int[] indices, int triangle, boolean[] inMeshlet) {
+		int newVertices = 0;
+		for (int corner = 0; corner < 3; corner++) {
+			if (!inMeshlet[indices[triangle * 3 + corner]]) {
+				newVertices++;
+			}
+		}
+		return newVertices;
+	}
+
+	//centered on the middle of the meshlet's box, big enough for its furthest vertex
+	private static void computeSphere(float[] positions, int[] vertices, int vertexCount, float[] spheres,
+			int offset) {
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		for (int v = 0; v < vertexCount; v++) {
+			int vertex = vertices[v] * 3;
+			minX = Math.min(minX, positions[vertex]);
+			minY = Math.min(minY, positions[vertex + 1]);
+			minZ = Math.min(minZ, positions[vertex + 2]);
+			maxX = Math.max(maxX, positions[vertex]);
+			maxY = Math.max(maxY, positions[vertex + 1]);
+			maxZ = Math.max(maxZ, positions[vertex + 2]);
+		}
+		float centerX = (minX + maxX) / 2;
+		float centerY = (minY + maxY) / 2;
+		float centerZ = (minZ + maxZ) / 2;
+		float radiusSquared = 0;
+		for (int v = 0; v < vertexCount; v++) {
+			int vertex = vertices[v] * 3;
+			float dx = positions[vertex] - centerX;
+			float dy = positions[vertex + 1] - centerY;
+			float dz = positions[vertex + 2] - centerZ;
+			radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+		}
+		spheres[offset] = centerX;
+		spheres[offset + 1] = centerY;
+		spheres[offset + 2] = centerZ;
+		spheres[offset + 3] = (float) Math.sqrt(radiusSquared);
+	}
+
+	//the average of the triangle normals, and how far the furthest one is from it.
+	//zero area triangles don't count
+	private static void computeCone(float[] triangleNormals, int[] triangleOrder, int start, int end,
+			float[] cones, int offset) {
+		cones[offset + 3] = 1;
+		float axisX = 0, axisY = 0, axisZ = 0;
+		for (int i = start; i < end; i++) {
+			int triangle = triangleOrder[i];
+			axisX += triangleNormals[triangle * 3];
+			axisY += triangleNormals[triangle * 3 + 1];
+			axisZ += triangleNormals[triangle * 3 + 2];
+		}
+		float length = (float) Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+		if (length == 0) {
+			return;
+		}
+		axisX /= length;
+		axisY /= length;
+		axisZ /= length;
+		cones[offset] = axisX;
+		cones[offset + 1] = axisY;
+		cones[offset + 2] = axisZ;
+
+		float minDot = 1;
+		for (int i = start; i < end; i++) {
+			int triangle = triangleOrder[i];
+			float x = triangleNormals[triangle * 3];
+			float y = triangleNormals[triangle * 3 + 1];
+			float z = triangleNormals[triangle * 3 + 2];
+			if (x != 0 || y != 0 || z != 0) {
+				minDot = Math.min(minDot, x * axisX + y * axisY + z * axisZ);
+			}
+		}
+		if (minDot > MIN_CONE_DOT) {
+			cones[offset + 3] = (float) Math.sqrt(1 - minDot * minDot);
+		}
+	}
+
+	//the unit normal of every triangle, zero for triangles with no area
+	private static float[] getTriangleNormals(float[] positions, int[] indices) {
+		float[] normals = new float[indices.length];
+		for (int i = 0; i < indices.length; i += 3) {
+			int a = indices[i] * 3;
+			int b = indices[i + 1] * 3;
+			int c = indices[i + 2] * 3;
+			float abX = positions[b] - positions[a];
+			float abY = positions[b + 1] - positions[a + 1];
+			float abZ = positions[b + 2] - positions[a + 2];
+			float acX = positions[c] - positions[a];
+			float acY = positions[c + 1] - positions[a + 1];
+			float acZ = positions[c + 2] - positions[a + 2];
+			float x = abY * acZ - abZ * acY;
+			float y = abZ * acX - abX * acZ;
+			float z = abX * acY - abY * acX;
+			float length = (float) Math.sqrt(x * x + y * y + z * z);
+			if (length > 0) {
+				normals[i] = x / length;
+				normals[i + 1] = y / length;
+				normals[i + 2] = z / length;
+			}
+		}
+		return normals;
+	}
+
+	private static float[] getCentroids(float[] positions, int[] indices) {
+		float[] centroids = new float[indices.length];
+		for (int i = 0; i < indices.length; i += 3) {
+			for (int axis = 0; axis < 3; axis++) {
+				centroids[i + axis] = (positions[indices[i] * 3 + axis] + positions[indices[i + 1] * 3 + axis]
+						+ positions[indices[i + 2] * 3 + axis]) / 3;
+			}
+		}
+		return centroids;
+	}
+
+	//The triangles bucketed by centroid into a uniform grid of cubes, about two to a cell. The closest
+	//unused triangle is searched for in rings of cells around the point, stopping once the cells left are
+	//all further away than the best triangle found. Used triangles are moved out of their cell's live
+	//range when they're come across, so they're only skipped once
+	private static class CentroidGrid {
+
+		private static final int TRIANGLES_PER_CELL = 2;
+
+		private final float[] centroids;
+		private final float minX, minY, minZ;
+		private final float cellSize;
+		private final int sizeX, sizeY, sizeZ;
+
+		//each cell's triangles, from cellStart to cellEnd. cellEnd moves down as they're used
+		private final int[] cellStart;
+		private final int[] cellEnd;
+		private final int[] triangles;
+
+		//the best triangle so far while searching
+		private int closest;
+		private float closestDistance;
+
+		private CentroidGrid(float[] centroids, int triangleCount) {
+			this.centroids = centroids;
+			float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+			float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < triangleCount; i++) {
+				minX = Math.min(minX, centroids[i * 3]);
+				minY = Math.min(minY, centroids[i * 3 + 1]);
+				minZ = Math.min(minZ, centroids[i * 3 + 2]);
+				maxX = Math.max(maxX, centroids[i * 3]);
+				maxY = Math.max(maxY, centroids[i * 3 + 1]);
+				maxZ = Math.max(maxZ, centroids[i * 3 + 2]);
+			}
+			this.minX = minX;
+			this.minY = minY;
+			this.minZ = minZ;
+
+			//sized for a solid, then made finer while flat meshes leave most of the cells out
+			int targetCells = Math.max(1, triangleCount / TRIANGLES_PER_CELL);
+			float extent = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+			float size = extent > 0 ? extent / (float) Math.cbrt(targetCells) : 1;
+			while (extent > 0 && getCells(maxX - minX, maxY - minY, maxZ - minZ, size / 2) <= targetCells) {
+				size /= 2;
+			}
+			cellSize = size;
+			sizeX = getCells(maxX - minX, size);
+			sizeY = getCells(maxY - minY, size);
+			sizeZ = getCells(maxZ - minZ, size);
+
+			int cellCount = sizeX * sizeY * sizeZ;
+			cellStart = new int[cellCount + 1];
+			cellEnd = new int[cellCount];
+			int[] cells = new int[triangleCount];
+			for (int i = 0; i < triangleCount; i++) {
+				cells[i] = getCell(centroids[i * 3], centroids[i * 3 + 1], centroids[i * 3 + 2]);
+				cellStart[cells[i] + 1]++;
+			}
+			for (int c = 0; c < cellCount; c++) {
+				cellStart[c + 1] += cellStart[c];
+			}
+			triangles = new int[triangleCount];
+			System.arraycopy(cellStart, 0, cellEnd, 0, cellCount);
+			for (int i = 0; i < triangleCount; i++) {
+				triangles[cellEnd[cells[i]]++] = i;
+			}
+		}
+
+		//the closest unused triangle that faces close enough to the axis, -1 if there isn't one
+		private int findClosestUnused(float[] triangleNormals, boolean[] used, float x, float y, float z,
+				float axisX, float axisY, float axisZ) {
+			int cellX = clamp((int) ((x - minX) / cellSize), sizeX);
+			int cellY = clamp((int) ((y - minY) / cellSize), sizeY);
+			int cellZ = clamp((int) ((z - minZ) / cellSize), sizeZ);
+			int maxRing = Math.max(Math.max(Math.max(cellX, sizeX - 1 - cellX), Math.max(cellY, sizeY - 1 - cellY)),
+					Math.max(cellZ, sizeZ - 1 - cellZ));
+			closest = -1;
+			closestDistance = Float.POSITIVE_INFINITY;
+			for (int ring = 0; ring <= maxRing; ring++) {
+
+				//every cell of this ring is at least ring - 1 cells from the point, which is inside its cell
+				float nearest = Math.max(0, ring - 1) * cellSize;
+				if (closest != -1 && closestDistance <= nearest * nearest) {
+					break;
+				}
+				for (int cz = Math.max(0, cellZ - ring); cz <= Math.min(sizeZ - 1, cellZ + ring); cz++) {
+					for (int cy = Math.max(0, cellY - ring); cy <= Math.min(sizeY - 1, cellY + ring); cy++) {
+						if (Math.abs(cz - cellZ) == ring || Math.abs(cy - cellY) == ring) {
+							for (int cx = Math.max(0, cellX - ring); cx <= Math.min(sizeX - 1, cellX + ring); cx++) {
+								searchCell((cz * sizeY + cy) * sizeX + cx, triangleNormals, used, x, y, z, axisX,
+										axisY, axisZ);
+							}
+							continue;
+						}
+
+						//inside the ring's faces in y and z only its two cells in x are on the ring
+						if (cellX - ring >= 0) {
+							searchCell((cz * sizeY + cy) * sizeX + cellX - ring, triangleNormals, used, x, y, z,
+									axisX, axisY, axisZ);
+						}
+						if (cellX + ring < sizeX) {
+							searchCell((cz * sizeY + cy) * sizeX + cellX + ring, triangleNormals, used, x, y, z,
+									axisX, axisY, axisZ);
+						}
+					}
+				}
+			}
+			return closest;
+		}
+
+		//ties go to the lowest triangle, the same one a scan through every triangle would pick
+		private void searchCell(int cell, float[] triangleNormals, boolean[] used, float x, float y, float z,
+				float axisX, float axisY, float axisZ) {
+			int i = cellStart[cell];
+			while (i < cellEnd[cell]) {
+				int triangle = triangles[i];
+				if (used[triangle]) {
+					triangles[i] = triangles[--cellEnd[cell]];
+					triangles[cellEnd[cell]] = triangle;
+					continue;
+				}
+				i++;
+				float facing = triangleNormals[triangle * 3] * axisX + triangleNormals[triangle * 3 + 1] * axisY
+						+ triangleNormals[triangle * 3 + 2] * axisZ;
+				if (facing < MIN_FACING) {
+					continue;
+				}
+				float dx = centroids[triangle * 3] - x;
+				float dy = centroids[triangle * 3 + 1] - y;
+				float dz = centroids[triangle * 3 + 2] - z;
+				float distance = dx * dx + dy * dy + dz * dz;
+				if (distance < closestDistance || (distance == closestDistance && triangle < closest)) {
+					closest = triangle;
+					closestDistance = distance;
+				}
+			}
+		}
+
+		private int getCell(float x, float y, float z) {
+			int cx = clamp((int) ((x - minX) / cellSize), sizeX);
+			int cy = clamp((int) ((y - minY) / cellSize), sizeY);
+			int cz = clamp((int) ((z - minZ) / cellSize), sizeZ);
+			return (cz * sizeY + cy) * sizeX + cx;
+		}
+
+		private static int getCells(float extentX, float extentY, float extentZ, float size) {
+			long cells = (long) getCells(extentX, size) * getCells(extentY, size) * getCells(extentZ, size);
+			return (int) Math.min(cells, Integer.MAX_VALUE);
+		}
+
+		private static int getCells(float extent, float size) {
+			return (int) Math.min(Integer.MAX_VALUE / 4, extent / size + 1);
+		}
+
+		private static int clamp(int cell, int size) {
+			return Math.max(0, Math.min(size - 1, cell));
+		}
+	}
+}
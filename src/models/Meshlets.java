@@ -0,0 +1,54 @@
+package models;
+
+//A mesh split into small clusters of triangles (meshlets) by MeshletBuilder. Every meshlet's triangles
+//are one contiguous run of the index buffer, and each has a bounding sphere and a normal cone, so a
+//whole meshlet can be skipped when it's off screen or all of its triangles face away from the camera
+public class Meshlets {
+
+	//the mesh's indices, reordered so that meshlet i is indexCounts[i] indices from indexOffsets[i]
+	private final int[] indices;
+
+	private final int count;
+	private final int[] indexOffsets;
+	private final int[] indexCounts;
+
+	//x, y, z and radius of each meshlet's bounding sphere
+	private final float[] spheres;
+
+	//x, y, z of each meshlet's cone axis and its cutoff, the sine of the widest angle between the axis
+	//and a triangle normal. 1 means the normals are too spread out to ever cull the meshlet by facing
+	private final float[] cones;
+
+	Meshlets(int[] indices, int count, int[] indexOffsets, int[] indexCounts, float[] spheres, float[] cones) {
+		this.indices = indices;
+		this.count = count;
+		this.indexOffsets = indexOffsets;
+		this.indexCounts = indexCounts;
+		this.spheres = spheres;
+		this.cones = cones;
+	}
+
+	public int[] getIndices() {
+		return indices;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int[] getIndexOffsets() {
+		return indexOffsets;
+	}
+
+	public int[] getIndexCounts() {
+		return indexCounts;
+	}
+
+	public float[] getSpheres() {
+		return spheres;
+	}
+
+	public float[] getCones() {
+		return cones;
+	}
+}
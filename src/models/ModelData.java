@@ -0,0 +1,34 @@
+package models;
+
+//the vertex data of a model while it's still on the CPU, before it goes into a VAO
+public class ModelData {
+	
+	private float[] vertices;
+	private float[] textureCoords;
+	private float[] normals;
+	private int[] indices;
+	
+	public ModelData(float[] vertices, float[] textureCoords, float[] normals, int[] indices) {
+		this.vertices = vertices;
+		this.textureCoords = textureCoords;
+		this.normals = normals;
+		this.indices = indices;
+	}
+
+	public float[] getVertices() {
+		return vertices;
+	}
+
+	public float[] getTextureCoords() {
+		return textureCoords;
+	}
+
+	public float[] getNormals() {
+		return normals;
+	}
+
+	public int[] getIndices() {
+		return indices;
+	}
+	
+}
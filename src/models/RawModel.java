@@ -9,6 +9,18 @@ public class RawModel {
 	//number of  vertices
 	private int vertexCount;
 	
+	//a copy of the mesh on the CPU, for baking into static batches. null if it wasn't kept
+	private ModelData data;
+	
+	//the mesh split into meshlets, whose index buffer is in meshlet order. null if it wasn't split
+	private Meshlets meshlets;
+	
+	//for casting rays against the mesh, see RayCaster. null if it wasn't built
+	private TriangleBvh bvh;
+	
+	//min x, y, z and max x, y, z of the mesh, worked out from the data the first time they're needed
+	private float[] bounds;
+	
 	//constructor
 	public RawModel(int vaoID, int vertexCount) {
 		this.vaoID = vaoID;
@@ -25,4 +37,50 @@ public class RawModel {
 		return vertexCount;
 	}
 	
+	public ModelData getData() {
+		return data;
+	}
+	
+	public void setData(ModelData data) {
+		this.data = data;
+	}
+	
+	public Meshlets getMeshlets() {
+		return meshlets;
+	}
+	
+	public void setMeshlets(Meshlets meshlets) {
+		this.meshlets = meshlets;
+	}
+	
+	//the model space bounding box, min x, y, z then max x, y, z. null if there's no data to work it out from
+	public float[] getBounds() {
+		if (bounds == null && data != null) {
+			float[] vertices = data.getVertices();
+			float[] box = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, 
+					Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+			for (int i = 0; i < vertices.length; i += 3) {
+				for (int axis = 0; axis < 3; axis++) {
+					box[axis] = Math.min(box[axis], vertices[i + axis]);
+					box[axis + 3] = Math.max(box[axis + 3], vertices[i + axis]);
+				}
+			}
+			bounds = box;
+		}
+		return bounds;
+	}
+	
+	//for models that don't keep their data
+	public void setBounds(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		bounds = new float[] {minX, minY, minZ, maxX, maxY, maxZ};
+	}
+	
+	public TriangleBvh getBvh() {
+		return bvh;
+	}
+	
+	public void setBvh(TriangleBvh bvh) {
+		this.bvh = bvh;
+	}
+	
 }
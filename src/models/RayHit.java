@@ -0,0 +1,37 @@
+package models;
+
+//Where a ray cast hit something. One hit can be reused for many casts, but only by one thread at a time,
+//since it also holds the scratch space the BVH traversal uses
+public class RayHit {
+
+	//the entity that was hit, or NO_ENTITY for terrain or a miss
+	public static final long NO_ENTITY = -1;
+
+	//distance along the ray to the hit, in units of the ray direction's length
+	public float distance;
+
+	//the hit point in world space
+	public float x;
+	public float y;
+	public float z;
+
+	//which triangle of the entity's model was hit, -1 for terrain
+	public int triangle = -1;
+
+	public long entity = NO_ENTITY;
+	public boolean terrain;
+
+	final int[] stack = new int[TriangleBvh.MAX_DEPTH];
+
+	//whether the last cast hit anything
+	public boolean isHit() {
+		return entity != NO_ENTITY || terrain;
+	}
+
+	public void clear() {
+		distance = Float.POSITIVE_INFINITY;
+		triangle = -1;
+		entity = NO_ENTITY;
+		terrain = false;
+	}
+}
@@ -0,0 +1,367 @@
+package models;
+
+//A bounding volume hierarchy over a mesh's triangles, for casting rays against the mesh without
+//testing every triangle. It's built top down, splitting each node where the surface area heuristic
+//says a ray will have the least work to do, with the candidate splits binned along the longest axis
+//of the node's triangle centroids.
+//
+//The nodes are flattened into arrays: a node's children are next to each other, and a leaf holds a
+//run of the triangles, which are copied out in leaf order so a leaf's corners are read straight through.
+public class TriangleBvh {
+
+	//leaves hold at most this many triangles
+	private static final int MAX_LEAF_TRIANGLES = 4;
+
+	//candidate split positions tried per node
+	private static final int BINS = 12;
+
+	//cost of visiting a node next to intersecting one triangle
+	private static final float TRAVERSAL_COST = 1;
+
+	//nodes this deep are always leaves, so the traversal stack never needs more room than this
+	static final int MAX_DEPTH = 64;
+
+	//min x, y, z and max x, y, z of each node
+	private final float[] bounds;
+
+	//for a leaf, the first triangle and the count. For an inner node the first child and 0
+	private final int[] nodes;
+	private int nodeCount;
+
+	//the 3 corners of each triangle in leaf order, and which triangle of the mesh each one is
+	private final float[] corners;
+	private final int[] triangles;
+
+	//furthest any vertex is from the model's origin, for a quick bounding sphere test
+	private final float radius;
+
+	private TriangleBvh(int triangleCount, float radius) {
+		int maxNodes = Math.max(1, 2 * triangleCount - 1);
+		this.bounds = new float[maxNodes * 6];
+		this.nodes = new int[maxNodes * 2];
+		this.corners = new float[triangleCount * 9];
+		this.triangles = new int[triangleCount];
+		this.radius = radius;
+	}
+
+	//positions are x, y, z per vertex and indices are 3 per triangle
+	public static TriangleBvh build(float[] positions, int[] indices) {
+		int triangleCount = indices.length / 3;
+		float radiusSquared = 0;
+		for (int i = 0; i < positions.length; i += 3) {
+			radiusSquared = Math.max(radiusSquared,
+					positions[i] * positions[i] + positions[i + 1] * positions[i + 1] + positions[i + 2] * positions[i + 2]);
+		}
+		TriangleBvh bvh = new TriangleBvh(triangleCount, (float) Math.sqrt(radiusSquared));
+
+		//bounds and centroid of every triangle
+		float[] triangleBounds = new float[triangleCount * 6];
+		float[] centroids = new float[triangleCount * 3];
+		int[] order = new int[triangleCount];
+		for (int t = 0; t < triangleCount; t++) {
+			order[t] = t;
+			emptyBounds(triangleBounds, t);
+			for (int corner = 0; corner < 3; corner++) {
+				int vertex = indices[t * 3 + corner] * 3;
+				growBounds(triangleBounds, t, positions[vertex], positions[vertex + 1], positions[vertex + 2]);
+			}
+			for (int axis = 0; axis < 3; axis++) {
+				centroids[t * 3 + axis] = (triangleBounds[t * 6 + axis] + triangleBounds[t * 6 + 3 + axis]) / 2;
+			}
+		}
+
+		bvh.nodeCount = 1;
+		bvh.split(0, 1, 0, triangleCount, order, triangleBounds, centroids);
+
+		for (int i = 0; i < triangleCount; i++) {
+			int t = order[i];
+			bvh.triangles[i] = t;
+			for (int corner = 0; corner < 3; corner++) {
+				int vertex = indices[t * 3 + corner] * 3;
+				bvh.corners[i * 9 + corner * 3] = positions[vertex];
+				bvh.corners[i * 9 + corner * 3 + 1] = positions[vertex + 1];
+				bvh.corners[i * 9 + corner * 3 + 2] = positions[vertex + 2];
+			}
+		}
+		return bvh;
+	}
+
+	//the closest hit along the ray within maxDistance, in units of the direction's length. The hit's
+	//distance and triangle are set and true is returned if the ray hits. The hit's scratch space is used
+	//for the traversal, so each thread needs its own hit
+	public boolean intersect(float originX, float originY, float originZ, float directionX, float directionY,
+			float directionZ, float maxDistance, RayHit hit) {
+		float inverseX = 1 / directionX;
+		float inverseY = 1 / directionY;
+		float inverseZ = 1 / directionZ;
+		float closest = maxDistance;
+		int closestTriangle = -1;
+		if (triangles.length == 0) {
+			return false;
+		}
+		int[] stack = hit.stack;
+		int stackSize = 0;
+		int node = 0;
+		while (true) {
+			int count = nodes[node * 2 + 1];
+			if (count > 0) {
+				int first = nodes[node * 2];
+				for (int i = first; i < first + count; i++) {
+					float t = intersectTriangle(i, originX, originY, originZ, directionX, directionY, directionZ);
+					if (t >= 0 && t < closest) {
+						closest = t;
+						closestTriangle = i;
+					}
+				}
+			} else {
+				//visit the nearer child first, so the further one can often be skipped
+				int left = nodes[node * 2];
+				int right = left + 1;
+				float leftDistance = intersectBounds(left, originX, originY, originZ, inverseX, inverseY, inverseZ, closest);
+				float rightDistance = intersectBounds(right, originX, originY, originZ, inverseX, inverseY, inverseZ, closest);
+				if (leftDistance > rightDistance) {
+					float distance = leftDistance;
+					leftDistance = rightDistance;
+					rightDistance = distance;
+					int child = left;
+					left = right;
+					right = child;
+				}
+				if (leftDistance != Float.POSITIVE_INFINITY) {
+					if (rightDistance != Float.POSITIVE_INFINITY) {
+						stack[stackSize++] = right;
+					}
+					node = left;
+					continue;
+				}
+			}
+			if (stackSize == 0) {
+				break;
+			}
+			node = stack[--stackSize];
+		}
+		if (closestTriangle == -1) {
+			return false;
+		}
+		hit.distance = closest;
+		hit.triangle = triangles[closestTriangle];
+		return true;
+	}
+
+	public float getRadius() {
+		return radius;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	//min x, y, z and max x, y, z of the whole mesh
+	public float[] getBounds(float[] dest) {
+		System.arraycopy(bounds, 0, dest, 0, 6);
+		return dest;
+	}
+
+	//work out the node's bounds and either make it a leaf or split it into two children
+	private void split(int node, int depth, int first, int count, int[] order, float[] triangleBounds,
+			float[] centroids) {
+		emptyBounds(bounds, node);
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		for (int i = first; i < first + count; i++) {
+			int t = order[i];
+			unionBounds(bounds, node, triangleBounds, t);
+			minX = Math.min(minX, centroids[t * 3]);
+			minY = Math.min(minY, centroids[t * 3 + 1]);
+			minZ = Math.min(minZ, centroids[t * 3 + 2]);
+			maxX = Math.max(maxX, centroids[t * 3]);
+			maxY = Math.max(maxY, centroids[t * 3 + 1]);
+			maxZ = Math.max(maxZ, centroids[t * 3 + 2]);
+		}
+		nodes[node * 2] = first;
+		nodes[node * 2 + 1] = count;
+
+		//the traversal stack only has room for MAX_DEPTH levels
+		if (count <= MAX_LEAF_TRIANGLES || depth == MAX_DEPTH) {
+			return;
+		}
+
+		//bin the centroids along the longest axis
+		int axis = 0;
+		float min = minX;
+		float extent = maxX - minX;
+		if (maxY - minY > extent) {
+			axis = 1;
+			min = minY;
+			extent = maxY - minY;
+		}
+		if (maxZ - minZ > extent) {
+			axis = 2;
+			min = minZ;
+			extent = maxZ - minZ;
+		}
+		if (extent <= 0) {
+			return;
+		}
+		int[] binCounts = new int[BINS];
+		float[] binBounds = new float[BINS * 6];
+		for (int bin = 0; bin < BINS; bin++) {
+			emptyBounds(binBounds, bin);
+		}
+		for (int i = first; i < first + count; i++) {
+			int t = order[i];
+			int bin = getBin(centroids[t * 3 + axis], min, extent);
+			binCounts[bin]++;
+			unionBounds(binBounds, bin, triangleBounds, t);
+		}
+
+		//sweep from the right to get the area of everything past each split, then from the left
+		float[] rightAreas = new float[BINS];
+		float[] sweep = new float[6];
+		emptyBounds(sweep, 0);
+		int rightCount = 0;
+		int[] rightCounts = new int[BINS];
+		for (int bin = BINS - 1; bin > 0; bin--) {
+			unionBounds(sweep, 0, binBounds, bin);
+			rightCount += binCounts[bin];
+			rightCounts[bin] = rightCount;
+			rightAreas[bin] = getArea(sweep, 0);
+		}
+		emptyBounds(sweep, 0);
+		int leftCount = 0;
+		float bestCost = Float.POSITIVE_INFINITY;
+		int bestSplit = -1;
+		for (int bin = 0; bin < BINS - 1; bin++) {
+			unionBounds(sweep, 0, binBounds, bin);
+			leftCount += binCounts[bin];
+			if (leftCount == 0 || rightCounts[bin + 1] == 0) {
+				continue;
+			}
+			float cost = getArea(sweep, 0) * leftCount + rightAreas[bin + 1] * rightCounts[bin + 1];
+			if (cost < bestCost) {
+				bestCost = cost;
+				bestSplit = bin;
+			}
+		}
+
+		//only split if it's cheaper than testing every triangle in a leaf
+		float leafCost = getArea(bounds, node) * count;
+		if (bestSplit == -1 || TRAVERSAL_COST * getArea(bounds, node) + bestCost >= leafCost) {
+			return;
+		}
+
+		//partition the triangles either side of the split
+		int i = first;
+		int j = first + count - 1;
+		while (i <= j) {
+			if (getBin(centroids[order[i] * 3 + axis], min, extent) <= bestSplit) {
+				i++;
+			} else {
+				int swap = order[i];
+				order[i] = order[j];
+				order[j--] = swap;
+			}
+		}
+		int leftSize = i - first;
+		int left = nodeCount;
+		nodeCount += 2;
+		nodes[node * 2] = left;
+		nodes[node * 2 + 1] = 0;
+		split(left, depth + 1, first, leftSize, order, triangleBounds, centroids);
+		split(left + 1, depth + 1, i, count - leftSize, order, triangleBounds, centroids);
+	}
+
+	//Moller-Trumbore, the distance along the ray or -1 for a miss. Both sides of a triangle count
+	private float intersectTriangle(int i, float originX, float originY, float originZ, float directionX,
+			float directionY, float directionZ) {
+		int c = i * 9;
+		float edge1X = corners[c + 3] - corners[c];
+		float edge1Y = corners[c + 4] - corners[c + 1];
+		float edge1Z = corners[c + 5] - corners[c + 2];
+		float edge2X = corners[c + 6] - corners[c];
+		float edge2Y = corners[c + 7] - corners[c + 1];
+		float edge2Z = corners[c + 8] - corners[c + 2];
+		float pX = directionY * edge2Z - directionZ * edge2Y;
+		float pY = directionZ * edge2X - directionX * edge2Z;
+		float pZ = directionX * edge2Y - directionY * edge2X;
+		float determinant = edge1X * pX + edge1Y * pY + edge1Z * pZ;
+		if (Math.abs(determinant) < 1e-12f) {
+			return -1;
+		}
+		float inverse = 1 / determinant;
+		float toOriginX = originX - corners[c];
+		float toOriginY = originY - corners[c + 1];
+		float toOriginZ = originZ - corners[c + 2];
+		float u = (toOriginX * pX + toOriginY * pY + toOriginZ * pZ) * inverse;
+		if (u < 0 || u > 1) {
+			return -1;
+		}
+		float qX = toOriginY * edge1Z - toOriginZ * edge1Y;
+		float qY = toOriginZ * edge1X - toOriginX * edge1Z;
+		float qZ = toOriginX * edge1Y - toOriginY * edge1X;
+		float v = (directionX * qX + directionY * qY + directionZ * qZ) * inverse;
+		if (v < 0 || u + v > 1) {
+			return -1;
+		}
+		return (edge2X * qX + edge2Y * qY + edge2Z * qZ) * inverse;
+	}
+
+	//slab test, the distance the ray enters the node or infinity if it misses or is past maxDistance
+	private float intersectBounds(int node, float originX, float originY, float originZ, float inverseX,
+			float inverseY, float inverseZ, float maxDistance) {
+		int b = node * 6;
+		float t1 = (bounds[b] - originX) * inverseX;
+		float t2 = (bounds[b + 3] - originX) * inverseX;
+		float near = Math.min(t1, t2);
+		float far = Math.max(t1, t2);
+		t1 = (bounds[b + 1] - originY) * inverseY;
+		t2 = (bounds[b + 4] - originY) * inverseY;
+		near = Math.max(near, Math.min(t1, t2));
+		far = Math.min(far, Math.max(t1, t2));
+		t1 = (bounds[b + 2] - originZ) * inverseZ;
+		t2 = (bounds[b + 5] - originZ) * inverseZ;
+		near = Math.max(near, Math.min(t1, t2));
+		far = Math.min(far, Math.max(t1, t2));
+		if (far < Math.max(near, 0) || near > maxDistance) {
+			return Float.POSITIVE_INFINITY;
+		}
+		return near;
+	}
+
+	private static int getBin(float centroid, float min, float extent) {
+		return Math.min(BINS - 1, (int) ((centroid - min) / extent * BINS));
+	}
+
+	private static void emptyBounds(float[] bounds, int i) {
+		bounds[i * 6] = bounds[i * 6 + 1] = bounds[i * 6 + 2] = Float.POSITIVE_INFINITY;
+		bounds[i * 6 + 3] = bounds[i * 6 + 4] = bounds[i * 6 + 5] = Float.NEGATIVE_INFINITY;
+	}
+
+	private static void growBounds(float[] bounds, int i, float x, float y, float z) {
+		bounds[i * 6] = Math.min(bounds[i * 6], x);
+		bounds[i * 6 + 1] = Math.min(bounds[i * 6 + 1], y);
+		bounds[i * 6 + 2] = Math.min(bounds[i * 6 + 2], z);
+		bounds[i * 6 + 3] = Math.max(bounds[i * 6 + 3], x);
+		bounds[i * 6 + 4] = Math.max(bounds[i * 6 + 4], y);
+		bounds[i * 6 + 5] = Math.max(bounds[i * 6 + 5], z);
+	}
+
+	//empty bounds (infinite the wrong way round) leave the other bounds as they are
+	private static void unionBounds(float[] bounds, int i, float[] other, int j) {
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[i * 6 + axis] = Math.min(bounds[i * 6 + axis], other[j * 6 + axis]);
+			bounds[i * 6 + 3 + axis] = Math.max(bounds[i * 6 + 3 + axis], other[j * 6 + 3 + axis]);
+		}
+	}
+
+	//half the surface area, which is all the heuristic needs
+	private static float getArea(float[] bounds, int i) {
+		float x = bounds[i * 6 + 3] - bounds[i * 6];
+		float y = bounds[i * 6 + 4] - bounds[i * 6 + 1];
+		float z = bounds[i * 6 + 5] - bounds[i * 6 + 2];
+		if (x < 0) {
+			return 0;
+		}
+		return x * y + y * z + z * x;
+	}
+}
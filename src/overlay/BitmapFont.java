@@ -0,0 +1,116 @@
+package overlay;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+//A monospaced font drawn into an atlas with AWT when the game starts, so there's no font file to ship.
+//The printable ASCII characters are laid out in a grid of COLUMNS cells, one per character, followed by
+//a solid white cell that untextured quads sample so they can be drawn in the same batch as the text.
+//Load the image with Loader.loadTexture(BufferedImage) and pass the ID to setTextureID
+public class BitmapFont {
+
+	private static final char FIRST_CHAR = 32;
+	private static final char LAST_CHAR = 126;
+	private static final int COLUMNS = 16;
+
+	//the cell after the last character
+	private static final int WHITE_CELL = LAST_CHAR - FIRST_CHAR + 1;
+
+	private final BufferedImage image;
+	private final int glyphWidth;
+	private final int glyphHeight;
+	private int textureID;
+
+	private BitmapFont(BufferedImage image, int glyphWidth, int glyphHeight) {
+		this.image = image;
+		this.glyphWidth = glyphWidth;
+		this.glyphHeight = glyphHeight;
+	}
+
+	//draw the atlas for the JVM's monospaced font at size points
+	public static BitmapFont create(int size) {
+		Font font = new Font(Font.MONOSPACED, Font.PLAIN, size);
+
+		//the metrics need a graphics context, any image's will do
+		BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D scratchGraphics = scratch.createGraphics();
+		FontMetrics metrics = scratchGraphics.getFontMetrics(font);
+		int glyphWidth = metrics.charWidth('M');
+		int glyphHeight = metrics.getAscent() + metrics.getDescent();
+		scratchGraphics.dispose();
+
+		int rows = (WHITE_CELL + COLUMNS) / COLUMNS;
+		BufferedImage image = new BufferedImage(COLUMNS * glyphWidth, rows * glyphHeight,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		graphics.setFont(font);
+		graphics.setColor(Color.WHITE);
+		char[] character = new char[1];
+		for (char c = FIRST_CHAR; c <= LAST_CHAR; c++) {
+			int cell = c - FIRST_CHAR;
+			character[0] = c;
+			graphics.drawChars(character, 0, 1, (cell % COLUMNS) * glyphWidth,
+					(cell / COLUMNS) * glyphHeight + metrics.getAscent());
+		}
+		graphics.fillRect((WHITE_CELL % COLUMNS) * glyphWidth, (WHITE_CELL / COLUMNS) * glyphHeight, glyphWidth,
+				glyphHeight);
+		graphics.dispose();
+		return new BitmapFont(image, glyphWidth, glyphHeight);
+	}
+
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	public void setTextureID(int textureID) {
+		this.textureID = textureID;
+	}
+
+	public int getTextureID() {
+		return textureID;
+	}
+
+	//every character is this wide, in pixels
+	public int getGlyphWidth() {
+		return glyphWidth;
+	}
+
+	public int getGlyphHeight() {
+		return glyphHeight;
+	}
+
+	//the cell a character is drawn from, characters outside printable ASCII show as a space
+	public int getCell(char c) {
+		if (c < FIRST_CHAR || c > LAST_CHAR) {
+			return 0;
+		}
+		return c - FIRST_CHAR;
+	}
+
+	public int getWhiteCell() {
+		return WHITE_CELL;
+	}
+
+	//the top left corner of a cell, 0 to 1 across the atlas
+	public float getCellU(int cell) {
+		return (float) ((cell % COLUMNS) * glyphWidth) / image.getWidth();
+	}
+
+	public float getCellV(int cell) {
+		return (float) ((cell / COLUMNS) * glyphHeight) / image.getHeight();
+	}
+
+	//the size of a cell, 0 to 1 across the atlas
+	public float getCellWidth() {
+		return (float) glyphWidth / image.getWidth();
+	}
+
+	public float getCellHeight() {
+		return (float) glyphHeight / image.getHeight();
+	}
+}
@@ -0,0 +1,105 @@
+package overlay;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+//Quads and text for the overlay, collected on the CPU over a frame and drawn by OverlayRenderer in
+//one draw call. Positions are in pixels from the top left of the window and colors are 0xRRGGBBAA.
+//Everything samples the font's atlas, plain quads from its white cell, so nothing ever has to be
+//flushed part way through to change texture
+public class OverlayBatch {
+
+	//position and texture coordinates as floats, then the color as four normalized bytes
+	public static final int BYTES_PER_VERTEX = 20;
+	public static final int BYTES_PER_QUAD = BYTES_PER_VERTEX * 4;
+
+	private final BitmapFont font;
+
+	//the middle of the white cell, so filtering never reaches a neighbouring character
+	private final float whiteU;
+	private final float whiteV;
+
+	private ByteBuffer vertices = createBuffer(BYTES_PER_QUAD * 1024);
+	private int quadCount;
+
+	public OverlayBatch(BitmapFont font) {
+		this.font = font;
+		whiteU = font.getCellU(font.getWhiteCell()) + font.getCellWidth() * 0.5f;
+		whiteV = font.getCellV(font.getWhiteCell()) + font.getCellHeight() * 0.5f;
+	}
+
+	public BitmapFont getFont() {
+		return font;
+	}
+
+	public void drawQuad(float x, float y, float width, float height, int color) {
+		putQuad(x, y, x + width, y + height, whiteU, whiteV, whiteU, whiteV, color);
+	}
+
+	//one line of text with its top left corner at x, y. Returns how wide it was, in pixels
+	public float drawText(CharSequence text, float x, float y, int color) {
+		float glyphWidth = font.getGlyphWidth();
+		float glyphHeight = font.getGlyphHeight();
+		float cellWidth = font.getCellWidth();
+		float cellHeight = font.getCellHeight();
+		float left = x;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c != ' ') {
+				int cell = font.getCell(c);
+				float u = font.getCellU(cell);
+				float v = font.getCellV(cell);
+				putQuad(left, y, left + glyphWidth, y + glyphHeight, u, v, u + cellWidth, v + cellHeight, color);
+			}
+			left += glyphWidth;
+		}
+		return left - x;
+	}
+
+	public int getQuadCount() {
+		return quadCount;
+	}
+
+	//the quads so far, from 0 to the limit, in the layout BYTES_PER_VERTEX describes. Nothing more can
+	//be drawn until clear is called
+	public ByteBuffer getVertices() {
+		vertices.flip();
+		return vertices;
+	}
+
+	//start the next frame's quads
+	public void clear() {
+		vertices.clear();
+		quadCount = 0;
+	}
+
+	private void putQuad(float x1, float y1, float x2, float y2, float u1, float v1, float u2, float v2,
+			int color) {
+		if (vertices.remaining() < BYTES_PER_QUAD) {
+			ByteBuffer larger = createBuffer(vertices.capacity() * 2);
+			vertices.flip();
+			larger.put(vertices);
+			vertices = larger;
+		}
+
+		//the color's bytes in RGBA order whatever the platform's byte order
+		int packed = vertices.order() == ByteOrder.BIG_ENDIAN ? color : Integer.reverseBytes(color);
+		putVertex(x1, y1, u1, v1, packed);
+		putVertex(x1, y2, u1, v2, packed);
+		putVertex(x2, y2, u2, v2, packed);
+		putVertex(x2, y1, u2, v1, packed);
+		quadCount++;
+	}
+
+	private void putVertex(float x, float y, float u, float v, int color) {
+		vertices.putFloat(x);
+		vertices.putFloat(y);
+		vertices.putFloat(u);
+		vertices.putFloat(v);
+		vertices.putInt(color);
+	}
+
+	private static ByteBuffer createBuffer(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+}
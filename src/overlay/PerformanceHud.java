@@ -0,0 +1,175 @@
+package overlay;
+
+import java.util.Arrays;
+
+import renderEngine.DrawStats;
+import renderEngine.Loader;
+
+//Graphs of the last few seconds of frame times, draw calls and heap use, with a line of text over them,
+//for watching performance during playtests. Record every frame with update, then build adds the whole
+//thing to an OverlayBatch. The text is only rebuilt a few times a second so it can be read, and nothing
+//is allocated per frame, so the HUD doesn't show up in the allocation numbers it's there to show
+public class PerformanceHud {
+
+	//one bar per frame, a pixel wide
+	private static final int FRAMES = 240;
+	private static final int GRAPH_HEIGHT = 40;
+	private static final int PADDING = 4;
+	private static final float TEXT_INTERVAL = 0.25f;
+
+	//the frame time graph is fixed from 0 to two 60Hz frames, with a line at one
+	private static final float FRAME_BUDGET_MS = 1000f / 60;
+	private static final float FRAME_GRAPH_MS = FRAME_BUDGET_MS * 2;
+
+	private static final int BACKGROUND = 0x000000B0;
+	private static final int TEXT = 0xFFFFFFFF;
+	private static final int LINE = 0xFFFFFF60;
+	private static final int GOOD = 0x40D040FF;
+	private static final int SLOW = 0xE0C030FF;
+	private static final int BAD = 0xE04030FF;
+	private static final int DRAWS = 0x50A0F0FF;
+	private static final int HEAP = 0xC080F0FF;
+
+	private static final long MEGABYTE = 1024 * 1024;
+
+	//GPU memory in the text comes from here, can be null
+	private final Loader loader;
+
+	//the last FRAMES frames, next is where the newest goes
+	private final float[] frameMillis = new float[FRAMES];
+	private final float[] drawCalls = new float[FRAMES];
+	private final float[] heapMegabytes = new float[FRAMES];
+	private int next;
+	private int recorded;
+	private long triangles;
+
+	private final float[] sorted = new float[FRAMES];
+	private final StringBuilder[] lines = {new StringBuilder(), new StringBuilder(), new StringBuilder()};
+	private float sinceText = TEXT_INTERVAL;
+	private boolean visible = true;
+
+	public PerformanceHud(Loader loader) {
+		this.loader = loader;
+	}
+
+	public boolean isVisible() {
+		return visible;
+	}
+
+	public void setVisible(boolean visible) {
+		this.visible = visible;
+	}
+
+	//record a frame, with the backend's counts for it. Recorded while hidden too so the graphs are full
+	//when it's shown
+	public void update(float frameSeconds, DrawStats frameStats) {
+		Runtime runtime = Runtime.getRuntime();
+		frameMillis[next] = frameSeconds * 1000;
+		drawCalls[next] = frameStats.getDrawCalls();
+		heapMegabytes[next] = (float) (runtime.totalMemory() - runtime.freeMemory()) / MEGABYTE;
+		triangles = frameStats.getTriangles();
+		next = (next + 1) % FRAMES;
+		recorded = Math.min(recorded + 1, FRAMES);
+		sinceText += frameSeconds;
+		if (visible && sinceText >= TEXT_INTERVAL) {
+			sinceText = 0;
+			updateText();
+		}
+	}
+
+	//how wide and tall build draws the HUD, in pixels
+	public int getWidth() {
+		return FRAMES + PADDING * 2;
+	}
+
+	public int getHeight(BitmapFont font) {
+		return lines.length * font.getGlyphHeight() + (GRAPH_HEIGHT + PADDING) * 3 + PADDING;
+	}
+
+	//add the HUD to the batch with its top left corner at x, y
+	public void build(OverlayBatch batch, float x, float y) {
+		if (!visible) {
+			return;
+		}
+		BitmapFont font = batch.getFont();
+		batch.drawQuad(x, y, getWidth(), getHeight(font), BACKGROUND);
+		float left = x + PADDING;
+		float top = y + PADDING;
+		for (StringBuilder line : lines) {
+			batch.drawText(line, left, top, TEXT);
+			top += font.getGlyphHeight();
+		}
+
+		//frame times against the budget
+		top += PADDING;
+		float bottom = top + GRAPH_HEIGHT;
+		for (int i = 0; i < recorded; i++) {
+			float millis = frameMillis[getIndex(i)];
+			int color = millis <= FRAME_BUDGET_MS ? GOOD : millis <= FRAME_GRAPH_MS ? SLOW : BAD;
+			float height = Math.min(millis / FRAME_GRAPH_MS, 1) * GRAPH_HEIGHT;
+			batch.drawQuad(left + FRAMES - recorded + i, bottom - height, 1, height, color);
+		}
+		batch.drawQuad(left, bottom - GRAPH_HEIGHT * FRAME_BUDGET_MS / FRAME_GRAPH_MS, FRAMES, 1, LINE);
+
+		top = bottom + PADDING;
+		drawGraph(batch, drawCalls, left, top, DRAWS);
+		top += GRAPH_HEIGHT + PADDING;
+		drawGraph(batch, heapMegabytes, left, top, HEAP);
+	}
+
+	//a graph scaled so its highest frame fills it
+	private void drawGraph(OverlayBatch batch, float[] values, float left, float top, int color) {
+		float max = 0;
+		for (int i = 0; i < recorded; i++) {
+			max = Math.max(max, values[i]);
+		}
+		if (max == 0) {
+			return;
+		}
+		float bottom = top + GRAPH_HEIGHT;
+		for (int i = 0; i < recorded; i++) {
+			float height = values[getIndex(i)] / max * GRAPH_HEIGHT;
+			batch.drawQuad(left + FRAMES - recorded + i, bottom - height, 1, height, color);
+		}
+	}
+
+	//where the i'th oldest recorded frame is
+	private int getIndex(int i) {
+		return (next - recorded + i + FRAMES) % FRAMES;
+	}
+
+	private void updateText() {
+		int newest = (next - 1 + FRAMES) % FRAMES;
+		System.arraycopy(frameMillis, 0, sorted, 0, recorded);
+		Arrays.sort(sorted, 0, recorded);
+		float p99 = sorted[Math.min(recorded - 1, (int) (recorded * 0.99f))];
+
+		StringBuilder line = lines[0];
+		line.setLength(0);
+		line.append("frame ");
+		appendDecimal(line, frameMillis[newest]);
+		line.append(" ms  p99 ");
+		appendDecimal(line, p99);
+		line.append(" ms");
+
+		line = lines[1];
+		line.setLength(0);
+		line.append("draws ").append((int) drawCalls[newest]).append("  tris ");
+		appendDecimal(line, triangles / 1000f);
+		line.append('k');
+
+		line = lines[2];
+		line.setLength(0);
+		line.append("heap ").append((int) heapMegabytes[newest]).append(" MB");
+		if (loader != null) {
+			line.append("  gpu ").append((loader.getBufferBytes() + loader.getTextureBytes()) / MEGABYTE)
+					.append(" MB");
+		}
+	}
+
+	//one decimal place, without the garbage String.format makes
+	private static void appendDecimal(StringBuilder line, float value) {
+		int tenths = Math.round(value * 10);
+		line.append(tenths / 10).append('.').append(tenths % 10);
+	}
+}
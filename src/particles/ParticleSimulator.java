@@ -0,0 +1,144 @@
+package particles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+//Steps every particle system it's given. Each system is cut into ranges of RANGE_SIZE particles and
+//the ranges of all the systems are simulated together on worker threads, each range packing its own
+//survivors at its front. Then the survivors of each range are moved down against the ones before, and
+//the new particles are emitted onto the end. With fewer particles than one range everything stays on
+//the calling thread
+public class ParticleSimulator {
+
+	//particles per job, enough that a job is worth handing to another thread
+	private static final int RANGE_SIZE = 4096;
+
+	private static class Range implements Callable<Void> {
+
+		private ParticleSystem system;
+		private int start;
+		private int end;
+		private int alive;
+		private float seconds;
+
+		@Override
+		public Void call() {
+			alive = system.simulate(start, end, seconds);
+			return null;
+		}
+	}
+
+	private final List<ParticleSystem> systems = new ArrayList<ParticleSystem>();
+
+	//this step's ranges, the objects are kept and reused every step
+	private final List<Range> ranges = new ArrayList<Range>();
+	private final List<Range> rangePool = new ArrayList<Range>();
+
+	//made the first time there are enough particles to share out
+	private ExecutorService workers;
+
+	public void addSystem(ParticleSystem system) {
+		systems.add(system);
+	}
+
+	public void removeSystem(ParticleSystem system) {
+		systems.remove(system);
+	}
+
+	public List<ParticleSystem> getSystems() {
+		return systems;
+	}
+
+	//how many particles are alive across every system
+	public int getParticleCount() {
+		int count = 0;
+		for (ParticleSystem system : systems) {
+			count += system.getCount();
+		}
+		return count;
+	}
+
+	public void update(float seconds) {
+		ranges.clear();
+		int total = 0;
+		for (ParticleSystem system : systems) {
+			int count = system.getCount();
+			for (int start = 0; start < count; start += RANGE_SIZE) {
+				addRange(system, start, Math.min(count, start + RANGE_SIZE), seconds);
+			}
+			total += count;
+		}
+
+		if (total <= RANGE_SIZE) {
+			for (Range range : ranges) {
+				range.call();
+			}
+		} else {
+			try {
+				for (Future<Void> job : getWorkers().invokeAll(ranges)) {
+					job.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Particle simulation failed", e.getCause());
+			}
+		}
+
+		//close the gaps the dead left at the end of each range, a system's ranges are in order
+		int next = 0;
+		for (ParticleSystem system : systems) {
+			int packed = 0;
+			while (next < ranges.size() && ranges.get(next).system == system) {
+				Range range = ranges.get(next++);
+				if (range.start != packed) {
+					system.move(range.start, packed, range.alive);
+				}
+				packed += range.alive;
+			}
+			system.setCount(packed);
+			system.emit(seconds);
+		}
+	}
+
+	public void cleanUp() {
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+	}
+
+	private void addRange(ParticleSystem system, int start, int end, float seconds) {
+		if (rangePool.size() == ranges.size()) {
+			rangePool.add(new Range());
+		}
+		Range range = rangePool.get(ranges.size());
+		range.system = system;
+		range.start = start;
+		range.end = end;
+		range.seconds = seconds;
+		ranges.add(range);
+	}
+
+	private ExecutorService getWorkers() {
+		if (workers == null) {
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+			workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "particle-simulation");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return workers;
+	}
+}
@@ -0,0 +1,199 @@
+package particles;
+
+import java.util.Random;
+
+import textures.ParticleTexture;
+
+//One effect's particles, kept as parallel arrays with the live particles packed at the front, so
+//simulating them is a straight run through a handful of float arrays and a particle that dies is
+//replaced by the last one instead of shifting everything after it along. New particles are emitted
+//around the emitter at a steady rate, each with its own slightly random velocity, life and size.
+//Simulated by a ParticleSimulator and drawn by the renderer with MasterRenderer.processParticles
+public class ParticleSystem {
+
+	private final ParticleTexture texture;
+	private final int maxParticles;
+	private final Random random = new Random();
+
+	//the particles, the first count entries of each array are alive
+	final float[] x;
+	final float[] y;
+	final float[] z;
+	final float[] velocityX;
+	final float[] velocityY;
+	final float[] velocityZ;
+	final float[] age;
+	final float[] lifeLength;
+	final float[] size;
+	private int count;
+
+	//where particles are emitted, anywhere within radius of the position on each axis
+	private float emitterX;
+	private float emitterY;
+	private float emitterZ;
+	private float emitterRadius;
+
+	private float particlesPerSecond;
+	private float baseVelocityX;
+	private float baseVelocityY;
+	private float baseVelocityZ;
+	private float randomSpeed;
+	private float gravity = -10;
+	private float baseLifeLength = 1;
+	private float baseSize = 1;
+
+	//part of a particle left over from the last step, so low rates still emit the right amount
+	private float emitRemainder;
+
+	public ParticleSystem(ParticleTexture texture, int maxParticles) {
+		this.texture = texture;
+		this.maxParticles = maxParticles;
+		x = new float[maxParticles];
+		y = new float[maxParticles];
+		z = new float[maxParticles];
+		velocityX = new float[maxParticles];
+		velocityY = new float[maxParticles];
+		velocityZ = new float[maxParticles];
+		age = new float[maxParticles];
+		lifeLength = new float[maxParticles];
+		size = new float[maxParticles];
+	}
+
+	public void setEmitter(float x, float y, float z, float radius) {
+		emitterX = x;
+		emitterY = y;
+		emitterZ = z;
+		emitterRadius = radius;
+	}
+
+	//0 stops emitting, the particles already out carry on until they die
+	public void setParticlesPerSecond(float rate) {
+		particlesPerSecond = rate;
+	}
+
+	//every particle starts with this velocity plus one in a random direction of up to randomSpeed
+	public void setVelocity(float x, float y, float z, float randomSpeed) {
+		baseVelocityX = x;
+		baseVelocityY = y;
+		baseVelocityZ = z;
+		this.randomSpeed = randomSpeed;
+	}
+
+	//added to the vertical velocity every second, negative pulls down
+	public void setGravity(float gravity) {
+		this.gravity = gravity;
+	}
+
+	//each particle lives and is sized within a quarter either side of these
+	public void setLifeLength(float seconds) {
+		baseLifeLength = seconds;
+	}
+
+	public void setSize(float size) {
+		baseSize = size;
+	}
+
+	public ParticleTexture getTexture() {
+		return texture;
+	}
+
+	//how many particles are alive
+	public int getCount() {
+		return count;
+	}
+
+	//the live particles are the first getCount entries
+	public float[] getX() {
+		return x;
+	}
+
+	public float[] getY() {
+		return y;
+	}
+
+	public float[] getZ() {
+		return z;
+	}
+
+	public float[] getAge() {
+		return age;
+	}
+
+	public float[] getLifeLength() {
+		return lifeLength;
+	}
+
+	public float[] getSize() {
+		return size;
+	}
+
+	//move and age the particles from start to end, packing the ones still alive at the front of the
+	//range. Returns how many are left. Only touches that range, so ranges can run on different threads
+	int simulate(int start, int end, float seconds) {
+		float gravityStep = gravity * seconds;
+		int i = start;
+		while (i < end) {
+			age[i] += seconds;
+			if (age[i] >= lifeLength[i]) {
+
+				//the range's last particle takes its place, and is simulated on the next time round
+				end--;
+				move(end, i, 1);
+				continue;
+			}
+			velocityY[i] += gravityStep;
+			x[i] += velocityX[i] * seconds;
+			y[i] += velocityY[i] * seconds;
+			z[i] += velocityZ[i] * seconds;
+			i++;
+		}
+		return end - start;
+	}
+
+	//copy length particles from one index to another, the ranges may overlap
+	void move(int from, int to, int length) {
+		System.arraycopy(x, from, x, to, length);
+		System.arraycopy(y, from, y, to, length);
+		System.arraycopy(z, from, z, to, length);
+		System.arraycopy(velocityX, from, velocityX, to, length);
+		System.arraycopy(velocityY, from, velocityY, to, length);
+		System.arraycopy(velocityZ, from, velocityZ, to, length);
+		System.arraycopy(age, from, age, to, length);
+		System.arraycopy(lifeLength, from, lifeLength, to, length);
+		System.arraycopy(size, from, size, to, length);
+	}
+
+	void setCount(int count) {
+		this.count = count;
+	}
+
+	//add the particles due over the step onto the end, as many as there's room for
+	void emit(float seconds) {
+		float due = particlesPerSecond * seconds + emitRemainder;
+		int emitted = (int) due;
+		emitRemainder = due - emitted;
+		emitted = Math.min(emitted, maxParticles - count);
+		for (int i = count; i < count + emitted; i++) {
+			x[i] = emitterX + (random.nextFloat() * 2 - 1) * emitterRadius;
+			y[i] = emitterY + (random.nextFloat() * 2 - 1) * emitterRadius;
+			z[i] = emitterZ + (random.nextFloat() * 2 - 1) * emitterRadius;
+
+			//a random point in the unit sphere, for a direction and a speed
+			float dx;
+			float dy;
+			float dz;
+			do {
+				dx = random.nextFloat() * 2 - 1;
+				dy = random.nextFloat() * 2 - 1;
+				dz = random.nextFloat() * 2 - 1;
+			} while (dx * dx + dy * dy + dz * dz > 1);
+			velocityX[i] = baseVelocityX + dx * randomSpeed;
+			velocityY[i] = baseVelocityY + dy * randomSpeed;
+			velocityZ[i] = baseVelocityZ + dz * randomSpeed;
+			age[i] = 0;
+			lifeLength[i] = baseLifeLength * (0.75f + random.nextFloat() * 0.5f);
+			size[i] = baseSize * (0.75f + random.nextFloat() * 0.5f);
+		}
+		count += emitted;
+	}
+}
@@ -0,0 +1,97 @@
+package profiling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//A histogram of durations in microseconds that can be recorded into from one thread and read from
+//others without locking. Values up to 127us get a bucket each, above that every power of two is split
+//into 64 buckets, so a percentile is never off by more than about 1.5%.
+public class FrameTimeHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	//enough for anything up to a day and a half
+	private static final int BUCKETS = SUB_BUCKETS * 32;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long micros) {
+		long value = Math.max(0, micros);
+		counts.incrementAndGet(getBucket(value));
+		count.incrementAndGet();
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	//copy the bucket counts into dest, which needs room for getBucketCount() of them. Returns the total
+	public long getCounts(long[] dest) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			dest[i] = counts.get(i);
+			total += dest[i];
+		}
+		return total;
+	}
+
+	//the value at a percentile (0 to 100) of everything recorded so far, the top of its bucket
+	public long getPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		return getPercentile(snapshot, getCounts(snapshot), percentile);
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		max.set(0);
+	}
+
+	public static int getBucketCount() {
+		return BUCKETS;
+	}
+
+	//the value at a percentile of bucket counts from getCounts, or of the difference between two of them
+	public static long getPercentile(long[] counts, long total, double percentile) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return getBucketTop(i);
+			}
+		}
+		return getBucketTop(BUCKETS - 1);
+	}
+
+	//values under 128 are their own bucket. Above that the value is shifted down until it's 64 to 127,
+	//and the bucket is that plus 64 for each shift
+	private static int getBucket(long value) {
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+		return (int) Math.min(BUCKETS - 1, SUB_BUCKETS * shift + (value >> shift));
+	}
+
+	private static long getBucketTop(int bucket) {
+		if (bucket < SUB_BUCKETS * 2) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long mantissa = bucket - (long) SUB_BUCKETS * shift;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,92 @@
+package profiling;
+
+import java.util.Arrays;
+
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GLContext;
+
+//Times GPU work with GL_TIME_ELAPSED queries. Every scope has two queries: one being recorded this
+//frame and one from last frame that we read back. If last frame's result isn't ready yet we drop it
+//instead of waiting, so the profiler never stalls the pipeline.
+class GpuTimer {
+	
+	private static final int BUFFERS = 2;
+	
+	//query IDs and state per scope and buffer, grown as new scopes are used
+	private int[][] queries = new int[0][];
+	private boolean[][] issued = new boolean[0][];
+	private long[][] cpuStarts = new long[0][];
+	
+	private int frame;
+	
+	//timer queries are core in 3.3. LWJGL only loads the GL33 entry points on a 3.3 context, so the
+	//ARB_timer_query extension on its own isn't enough
+	static boolean isSupported() {
+		//no context at all when rendering headless with the null backend
+		ContextCapabilities capabilities = GLContext.getCapabilities();
+		return capabilities != null && capabilities.OpenGL33;
+	}
+	
+	void begin(int scope) {
+		ensureScope(scope);
+		int buffer = frame % BUFFERS;
+		if (queries[scope][buffer] == 0) {
+			queries[scope][buffer] = GL15.glGenQueries();
+		}
+		cpuStarts[scope][buffer] = System.nanoTime();
+		GL15.glBeginQuery(GL33.GL_TIME_ELAPSED, queries[scope][buffer]);
+	}
+	
+	void end(int scope) {
+		GL15.glEndQuery(GL33.GL_TIME_ELAPSED);
+		issued[scope][frame % BUFFERS] = true;
+	}
+	
+	//collect last frame's results if they're ready, then switch buffers
+	void endFrame() {
+		frame++;
+		int buffer = frame % BUFFERS;
+		for (int scope = 0; scope < queries.length; scope++) {
+			if (!issued[scope][buffer]) {
+				continue;
+			}
+			issued[scope][buffer] = false;
+			int query = queries[scope][buffer];
+			if (GL15.glGetQueryObjecti(query, GL15.GL_QUERY_RESULT_AVAILABLE) == 0) {
+				continue;
+			}
+			long elapsed = GL33.glGetQueryObjecti64(query, GL15.GL_QUERY_RESULT);
+			
+			//there's no GPU clock in the trace, so line the GPU scope up with when it was submitted
+			Profiler.record(scope, Profiler.GPU_TRACK, cpuStarts[scope][buffer], elapsed);
+		}
+	}
+	
+	void cleanUp() {
+		for (int[] scopeQueries : queries) {
+			for (int query : scopeQueries) {
+				if (query != 0) {
+					GL15.glDeleteQueries(query);
+				}
+			}
+		}
+		queries = new int[0][];
+	}
+	
+	private void ensureScope(int scope) {
+		if (scope < queries.length) {
+			return;
+		}
+		int oldLength = queries.length;
+		queries = Arrays.copyOf(queries, scope + 1);
+		issued = Arrays.copyOf(issued, scope + 1);
+		cpuStarts = Arrays.copyOf(cpuStarts, scope + 1);
+		for (int i = oldLength; i <= scope; i++) {
+			queries[i] = new int[BUFFERS];
+			issued[i] = new boolean[BUFFERS];
+			cpuStarts[i] = new long[BUFFERS];
+		}
+	}
+}
@@ -0,0 +1,422 @@
+package profiling;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import renderEngine.DrawStats;
+import renderEngine.Loader;
+import renderEngine.StagingBufferPool;
+import renderEngine.TextureStreamer;
+import shaders.ProgramBinaryCache;
+
+//Numbers for keeping an eye on a running game: frame time percentiles, what the renderers drew, how much
+//the loader has on the GPU, and how much the render thread allocates. Everything is gathered on the render
+//thread at the end of each frame and published for other threads to read, over JMX as
+//lwjgldriver:type=Metrics, and in a log written every -DmetricsInterval seconds (10 by default) when
+//-DmetricsLog is set. A log file ending in .json gets a JSON object per line, anything else is CSV.
+//
+//On unless -Dmetrics=false, in which case every call returns straight away.
+public class Metrics {
+
+	public static final boolean ENABLED = !"false".equals(System.getProperty("metrics"));
+
+	private static final String LOG_FILE = System.getProperty("metricsLog");
+	private static final long LOG_INTERVAL = Long.getLong("metricsInterval", 10);
+
+	private static final String OBJECT_NAME = "lwjgldriver:type=Metrics";
+
+	private static final FrameTimeHistogram frameTimes = new FrameTimeHistogram();
+
+	//the last frame's numbers, written on the render thread and read from anywhere
+	private static volatile int drawCalls;
+	private static volatile long triangles;
+	private static volatile int entityDrawCalls;
+	private static volatile long entityTriangles;
+	private static volatile int terrainDrawCalls;
+	private static volatile long terrainTriangles;
+	private static volatile float entityOverdraw = -1;
+	private static volatile int vaoCount;
+	private static volatile int vboCount;
+	private static volatile int textureCount;
+	private static volatile long bufferBytes;
+	private static volatile long textureBytes;
+	private static volatile long allocatedBytes = -1;
+	private static volatile long streamedTextureBytes = -1;
+	private static volatile long textureBudgetBytes = -1;
+
+	private static Loader loader;
+	private static TextureStreamer textureStreamer;
+	private static boolean started;
+
+	//the render thread's allocation counter, if the JVM has one
+	private static com.sun.management.ThreadMXBean threadBean;
+	private static long renderThreadID;
+	private static long lastAllocatedTotal = -1;
+
+	private static ScheduledExecutorService logger;
+	private static BufferedWriter log;
+	private static long[] lastLoggedCounts;
+
+	//count the loader's VAOs, VBOs and textures every frame
+	public static void setLoader(Loader frameLoader) {
+		loader = frameLoader;
+	}
+
+	//report how much the streamer has of its budget every frame
+	public static void setTextureStreamer(TextureStreamer streamer) {
+		textureStreamer = streamer;
+	}
+
+	//what the entity renderer drew this frame, including impostors
+	public static void setEntityDraws(int draws, long entityTriangleCount) {
+		entityDrawCalls = draws;
+		entityTriangles = entityTriangleCount;
+	}
+
+	//how many times the entity shading wrote each pixel on average, see MasterRenderer.getOverdraw
+	public static void setEntityOverdraw(float overdraw) {
+		entityOverdraw = overdraw;
+	}
+
+	//what the terrain renderer drew this frame
+	public static void setTerrainDraws(int draws, long terrainTriangleCount) {
+		terrainDrawCalls = draws;
+		terrainTriangles = terrainTriangleCount;
+	}
+
+	//call on the render thread once a frame has been shown, with how long it took and its draw counters
+	public static void endFrame(long frameNanos, DrawStats frameStats) {
+		if (!ENABLED) {
+			return;
+		}
+		if (!started) {
+			start();
+		}
+		frameTimes.record(frameNanos / 1000);
+		drawCalls = frameStats.getDrawCalls();
+		triangles = frameStats.getTriangles();
+		if (loader != null) {
+			vaoCount = loader.getVaoCount();
+			vboCount = loader.getVboCount();
+			textureCount = loader.getTextureCount();
+			bufferBytes = loader.getBufferBytes();
+			textureBytes = loader.getTextureBytes();
+		}
+		if (textureStreamer != null) {
+			streamedTextureBytes = textureStreamer.getUsedBytes();
+			textureBudgetBytes = textureStreamer.getBudget();
+		}
+		if (threadBean != null) {
+			long allocated = threadBean.getThreadAllocatedBytes(renderThreadID);
+			if (lastAllocatedTotal >= 0 && allocated >= 0) {
+				allocatedBytes = allocated - lastAllocatedTotal;
+			}
+			lastAllocatedTotal = allocated;
+		}
+	}
+
+	public static FrameTimeHistogram getFrameTimes() {
+		return frameTimes;
+	}
+
+	//stop logging, writing one last line first, and take the bean out of JMX
+	public static void cleanUp() {
+		if (logger != null) {
+			logger.shutdownNow();
+			logger = null;
+			writeLog();
+			try {
+				log.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			log = null;
+		}
+		if (started) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+			} catch (JMException e) {
+				//already gone
+			}
+			started = false;
+		}
+	}
+
+	private static void start() {
+		started = true;
+		renderThreadID = Thread.currentThread().getId();
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+			if (allocations.isThreadAllocatedMemorySupported()) {
+				allocations.setThreadAllocatedMemoryEnabled(true);
+				threadBean = allocations;
+			}
+		}
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new Bean(), name);
+			}
+		} catch (JMException e) {
+			System.err.println("Couldn't register metrics with JMX");
+			e.printStackTrace();
+		}
+
+		if (LOG_FILE != null) {
+			try {
+				log = new BufferedWriter(new FileWriter(LOG_FILE));
+				if (!isJson()) {
+					log.write("time,frames,frameP50Ms,frameP99Ms,frameP999Ms,frameMaxMs,drawCalls,triangles,"
+							+ "entityDrawCalls,entityTriangles,entityOverdraw,terrainDrawCalls,terrainTriangles,vaos,"
+							+ "vbos,textures,bufferBytes,textureBytes,allocatedBytesPerFrame,heapUsedBytes"
+							+ ",streamedTextureBytes,textureBudgetBytes"
+							+ ",stagingHits,stagingMisses,stagingPeakBytesInUse"
+							+ ",shaderCacheHits,shaderCacheMisses,shaderCacheRejects\n");
+					log.flush();
+				}
+			} catch (IOException e) {
+				System.err.println("Couldn't open metrics log " + LOG_FILE);
+				e.printStackTrace();
+				return;
+			}
+			lastLoggedCounts = new long[FrameTimeHistogram.getBucketCount()];
+			logger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "metrics-log");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			logger.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					writeLog();
+				}
+			}, LOG_INTERVAL, LOG_INTERVAL, TimeUnit.SECONDS);
+		}
+	}
+
+	//one line of the log, with the frame times of the frames since the last line
+	private static synchronized void writeLog() {
+		if (log == null) {
+			return;
+		}
+		long[] counts = new long[FrameTimeHistogram.getBucketCount()];
+		frameTimes.getCounts(counts);
+		long frames = 0;
+		long[] interval = new long[counts.length];
+		for (int i = 0; i < counts.length; i++) {
+			interval[i] = counts[i] - lastLoggedCounts[i];
+			frames += interval[i];
+		}
+		lastLoggedCounts = counts;
+		Object[] values = {System.currentTimeMillis(), frames,
+				toMillis(FrameTimeHistogram.getPercentile(interval, frames, 50)),
+				toMillis(FrameTimeHistogram.getPercentile(interval, frames, 99)),
+				toMillis(FrameTimeHistogram.getPercentile(interval, frames, 99.9)),
+				toMillis(FrameTimeHistogram.getPercentile(interval, frames, 100)),
+				drawCalls, triangles, entityDrawCalls, entityTriangles, entityOverdraw, terrainDrawCalls,
+				terrainTriangles,
+				vaoCount, vboCount, textureCount, bufferBytes, textureBytes, allocatedBytes, getHeapUsed(),
+				streamedTextureBytes, textureBudgetBytes,
+				StagingBufferPool.getHits(), StagingBufferPool.getMisses(), StagingBufferPool.getPeakBytesInUse(),
+				ProgramBinaryCache.getHits(), ProgramBinaryCache.getMisses(), ProgramBinaryCache.getRejects()};
+		String[] names = {"time", "frames", "frameP50Ms", "frameP99Ms", "frameP999Ms", "frameMaxMs", "drawCalls",
+				"triangles", "entityDrawCalls", "entityTriangles", "entityOverdraw", "terrainDrawCalls",
+				"terrainTriangles", "vaos", "vbos", "textures", "bufferBytes", "textureBytes", "allocatedBytesPerFrame", "heapUsedBytes",
+				"streamedTextureBytes", "textureBudgetBytes",
+				"stagingHits", "stagingMisses", "stagingPeakBytesInUse",
+				"shaderCacheHits", "shaderCacheMisses", "shaderCacheRejects"};
+		StringBuilder line = new StringBuilder();
+		boolean json = isJson();
+		if (json) {
+			line.append('{');
+		}
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				line.append(',');
+			}
+			if (json) {
+				line.append('"').append(names[i]).append("\":");
+			}
+			line.append(values[i]);
+		}
+		line.append(json ? "}\n" : "\n");
+		try {
+			log.write(line.toString());
+			log.flush();
+		} catch (IOException e) {
+			System.err.println("Couldn't write metrics log " + LOG_FILE);
+		}
+	}
+
+	private static boolean isJson() {
+		return LOG_FILE.endsWith(".json");
+	}
+
+	private static double toMillis(long micros) {
+		return micros / 1000.0;
+	}
+
+	private static long getHeapUsed() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static class Bean implements MetricsMXBean {
+
+		@Override
+		public long getFrameCount() {
+			return frameTimes.getCount();
+		}
+
+		@Override
+		public double getFrameTimeP50Millis() {
+			return toMillis(frameTimes.getPercentile(50));
+		}
+
+		@Override
+		public double getFrameTimeP99Millis() {
+			return toMillis(frameTimes.getPercentile(99));
+		}
+
+		@Override
+		public double getFrameTimeP999Millis() {
+			return toMillis(frameTimes.getPercentile(99.9));
+		}
+
+		@Override
+		public double getFrameTimeMaxMillis() {
+			return toMillis(frameTimes.getMax());
+		}
+
+		@Override
+		public int getDrawCalls() {
+			return drawCalls;
+		}
+
+		@Override
+		public long getTriangles() {
+			return triangles;
+		}
+
+		@Override
+		public int getEntityDrawCalls() {
+			return entityDrawCalls;
+		}
+
+		@Override
+		public long getEntityTriangles() {
+			return entityTriangles;
+		}
+
+		@Override
+		public float getEntityOverdraw() {
+			return entityOverdraw;
+		}
+
+		@Override
+		public int getTerrainDrawCalls() {
+			return terrainDrawCalls;
+		}
+
+		@Override
+		public long getTerrainTriangles() {
+			return terrainTriangles;
+		}
+
+		@Override
+		public int getVaoCount() {
+			return vaoCount;
+		}
+
+		@Override
+		public int getVboCount() {
+			return vboCount;
+		}
+
+		@Override
+		public int getTextureCount() {
+			return textureCount;
+		}
+
+		@Override
+		public long getBufferBytes() {
+			return bufferBytes;
+		}
+
+		@Override
+		public long getTextureBytes() {
+			return textureBytes;
+		}
+
+		@Override
+		public long getAllocatedBytesPerFrame() {
+			return allocatedBytes;
+		}
+
+		@Override
+		public long getHeapUsedBytes() {
+			return getHeapUsed();
+		}
+
+		@Override
+		public long getStreamedTextureBytes() {
+			return streamedTextureBytes;
+		}
+
+		@Override
+		public long getTextureBudgetBytes() {
+			return textureBudgetBytes;
+		}
+
+		@Override
+		public int getShaderCacheHits() {
+			return ProgramBinaryCache.getHits();
+		}
+
+		@Override
+		public int getShaderCacheMisses() {
+			return ProgramBinaryCache.getMisses();
+		}
+
+		@Override
+		public int getShaderCacheRejects() {
+			return ProgramBinaryCache.getRejects();
+		}
+
+		@Override
+		public long getStagingHits() {
+			return StagingBufferPool.getHits();
+		}
+
+		@Override
+		public long getStagingMisses() {
+			return StagingBufferPool.getMisses();
+		}
+
+		@Override
+		public long getStagingPeakBytesInUse() {
+			return StagingBufferPool.getPeakBytesInUse();
+		}
+
+		@Override
+		public void resetFrameTimes() {
+			frameTimes.reset();
+		}
+	}
+}
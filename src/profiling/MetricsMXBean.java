@@ -0,0 +1,68 @@
+package profiling;
+
+//What Metrics shows over JMX, e.g. in JConsole or VisualVM under lwjgldriver:type=Metrics.
+//Frame times are over every frame since the start or the last reset, the counters are the last frame's
+public interface MetricsMXBean {
+
+	long getFrameCount();
+
+	double getFrameTimeP50Millis();
+
+	double getFrameTimeP99Millis();
+
+	double getFrameTimeP999Millis();
+
+	double getFrameTimeMaxMillis();
+
+	int getDrawCalls();
+
+	long getTriangles();
+
+	int getEntityDrawCalls();
+
+	long getEntityTriangles();
+
+	//samples the entity shading wrote per pixel, -1 unless MasterRenderer is counting overdraw
+	float getEntityOverdraw();
+
+	int getTerrainDrawCalls();
+
+	long getTerrainTriangles();
+
+	int getVaoCount();
+
+	int getVboCount();
+
+	int getTextureCount();
+
+	long getBufferBytes();
+
+	long getTextureBytes();
+
+	//bytes the render thread allocated during the last frame, -1 if the JVM can't tell
+	long getAllocatedBytesPerFrame();
+
+	long getHeapUsedBytes();
+
+	//bytes of streamed texture levels on the GPU or being decoded, and the budget they share,
+	//-1 without a TextureStreamer
+	long getStreamedTextureBytes();
+
+	long getTextureBudgetBytes();
+
+	//programs loaded from ProgramBinaryCache, compiled because they weren't in it, and rejected by the driver
+	int getShaderCacheHits();
+
+	int getShaderCacheMisses();
+
+	int getShaderCacheRejects();
+
+	//StagingBufferPool acquires that reused a buffer and that allocated one, and the most bytes out at once
+	long getStagingHits();
+
+	long getStagingMisses();
+
+	long getStagingPeakBytesInUse();
+
+	void resetFrameTimes();
+}
@@ -0,0 +1,150 @@
+package profiling;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Low overhead frame profiler. CPU scopes are timed with the high resolution clock, GPU scopes with
+//timer queries, and every finished scope goes into a ring buffer that is allocated up front.
+//The ring can be written out in Chrome's trace event format and opened in chrome://tracing.
+//
+//Turn it on with -Dprofiler=true. ENABLED is a static final, so when it's off the JIT folds every
+//call down to nothing and the ring buffer is never allocated.
+//
+//Usage:
+//	private static final int SCOPE = Profiler.registerScope("MasterRenderer.render");
+//	long start = Profiler.begin();
+//	...
+//	Profiler.end(SCOPE, start);
+public class Profiler {
+	
+	public static final boolean ENABLED = Boolean.getBoolean("profiler");
+	
+	//number of scopes kept before the oldest ones are overwritten, must be a power of two
+	private static final int CAPACITY = 1 << 16;
+	
+	//the trace track GPU scopes are shown on, CPU scopes use their thread ID
+	static final long GPU_TRACK = -1;
+	
+	//the ring buffer, one entry per finished scope
+	private static final int[] scopes = new int[ENABLED ? CAPACITY : 0];
+	private static final long[] tracks = new long[ENABLED ? CAPACITY : 0];
+	private static final long[] starts = new long[ENABLED ? CAPACITY : 0];
+	private static final long[] durations = new long[ENABLED ? CAPACITY : 0];
+	private static final AtomicLong written = new AtomicLong();
+	
+	private static final List<String> scopeNames = new ArrayList<String>();
+	
+	//timestamps in the trace are relative to when the profiler started
+	private static final long startTime = System.nanoTime();
+	
+	private static GpuTimer gpuTimer;
+	
+	//give a scope a name, do this once and keep the ID in a static final
+	public static synchronized int registerScope(String name) {
+		scopeNames.add(name);
+		return scopeNames.size() - 1;
+	}
+	
+	//start timing a CPU scope, pass the result to end()
+	public static long begin() {
+		return ENABLED ? System.nanoTime() : 0;
+	}
+	
+	//finish timing a CPU scope. scopes on the same thread nest by time, so there's no stack to keep
+	public static void end(int scope, long start) {
+		if (ENABLED) {
+			record(scope, Thread.currentThread().getId(), start, System.nanoTime() - start);
+		}
+	}
+	
+	//start timing a GPU scope. GL_TIME_ELAPSED queries can't be nested, so GPU scopes mustn't overlap
+	public static void beginGpu(int scope) {
+		if (ENABLED && getGpuTimer() != null) {
+			gpuTimer.begin(scope);
+		}
+	}
+	
+	public static void endGpu(int scope) {
+		if (ENABLED && gpuTimer != null) {
+			gpuTimer.end(scope);
+		}
+	}
+	
+	//call once per frame, collects GPU results that have arrived and flips the query buffers
+	public static void endFrame() {
+		if (ENABLED && gpuTimer != null) {
+			gpuTimer.endFrame();
+		}
+	}
+	
+	//write everything in the ring buffer as Chrome trace event JSON
+	public static void exportChromeTrace(String file) {
+		if (!ENABLED) {
+			return;
+		}
+		long end = written.get();
+		long begin = Math.max(0, end - CAPACITY);
+		try {
+			BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+			writer.write("{\"traceEvents\":[\n");
+			writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":0,\"tid\":" + GPU_TRACK 
+					+ ",\"args\":{\"name\":\"GPU\"}}");
+			for (long i = begin; i < end; i++) {
+				int slot = (int) (i & (CAPACITY - 1));
+				writer.write(",\n{\"name\":\"");
+				writer.write(escape(getScopeName(scopes[slot])));
+				writer.write("\",\"ph\":\"X\",\"pid\":0,\"tid\":");
+				writer.write(Long.toString(tracks[slot]));
+				writer.write(",\"ts\":");
+				writer.write(toMicros(starts[slot] - startTime));
+				writer.write(",\"dur\":");
+				writer.write(toMicros(durations[slot]));
+				writer.write("}");
+			}
+			writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+			writer.close();
+		} catch (IOException e) {
+			System.err.println("Couldn't write profile to " + file);
+			e.printStackTrace();
+		}
+	}
+	
+	public static void cleanUp() {
+		if (gpuTimer != null) {
+			gpuTimer.cleanUp();
+			gpuTimer = null;
+		}
+	}
+	
+	static void record(int scope, long track, long start, long duration) {
+		int slot = (int) (written.getAndIncrement() & (CAPACITY - 1));
+		scopes[slot] = scope;
+		tracks[slot] = track;
+		starts[slot] = start;
+		durations[slot] = duration;
+	}
+	
+	//the GPU timer needs a GL context, so it's made the first time a GPU scope is used
+	private static GpuTimer getGpuTimer() {
+		if (gpuTimer == null && GpuTimer.isSupported()) {
+			gpuTimer = new GpuTimer();
+		}
+		return gpuTimer;
+	}
+	
+	private static synchronized String getScopeName(int scope) {
+		return scopeNames.get(scope);
+	}
+	
+	private static String toMicros(long nanos) {
+		return Long.toString(nanos / 1000) + "." + String.format("%03d", Math.abs(nanos % 1000));
+	}
+	
+	private static String escape(String name) {
+		return name.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
@@ -7,11 +7,36 @@ import org.lwjgl.opengl.DisplayMode;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.PixelFormat;
 
+import profiling.Metrics;
+import profiling.Profiler;
+
 public class DisplayManager {
 	private static final int WIDTH = 1920;
 	private static final int HEIGHT = 1080;
 	private static final int FPS_CAP = 60;
 	
+	private static final int UPDATE_SCOPE = Profiler.registerScope("DisplayManager.updateDisplay");
+	
+	//when holding a frame rate, stop sleeping this long before the deadline and spin instead,
+	//because sleep often wakes up a millisecond or more late
+	private static final long SPIN_NANOS = 2000000;
+	
+	//how quickly the adaptive mode's average frame time follows the real one
+	private static final float ADAPTIVE_SMOOTHING = 0.1f;
+	
+	//everything the renderers draw goes through this, swap it for a NullBackend to run headless
+	private static RenderBackend backend = new LwjglBackend();
+	
+	private static PacingMode pacingMode = PacingMode.TARGET_FPS;
+	private static int targetFps = FPS_CAP;
+	private static boolean vsyncEnabled;
+	
+	//frame timing, measured with the high resolution clock
+	private static long lastFrameTime;
+	private static long nextFrameDeadline;
+	private static float delta;
+	private static float averageFrameTime;
+	
 	public static void createDisplay() {
 		ContextAttribs attribs = new ContextAttribs(3,2)
 			.withForwardCompatible(true)
@@ -27,15 +52,117 @@ public class DisplayManager {
 		
 		GL11.glViewport(0, 0, WIDTH, HEIGHT);
 		
-		
+		applyVSync(pacingMode == PacingMode.VSYNC || pacingMode == PacingMode.ADAPTIVE);
+		lastFrameTime = System.nanoTime();
+		nextFrameDeadline = lastFrameTime;
+		averageFrameTime = 1f / getRefreshRate();
 	};
 	
 	public static void updateDisplay() {
-		Display.sync(FPS_CAP);
+		long profileStart = Profiler.begin();
+		if (pacingMode == PacingMode.TARGET_FPS) {
+			waitForNextFrame();
+		}
 		Display.update();
+		
+		long currentFrameTime = System.nanoTime();
+		long frameNanos = currentFrameTime - lastFrameTime;
+		delta = frameNanos / 1000000000f;
+		lastFrameTime = currentFrameTime;
+		
+		if (pacingMode == PacingMode.ADAPTIVE) {
+			adaptVSync();
+		}
+		Profiler.end(UPDATE_SCOPE, profileStart);
+		Profiler.endFrame();
+		backend.endFrame();
+		Metrics.endFrame(frameNanos, backend.getFrameStats());
 	};
 	
 	public static void closeDisplay (){
+		Profiler.cleanUp();
+		Metrics.cleanUp();
 		Display.destroy();
 	};
+	
+	public static RenderBackend getBackend() {
+		return backend;
+	}
+	
+	//change the backend before creating any renderers or shaders, they hold on to the one they were made with
+	public static void setBackend(RenderBackend renderBackend) {
+		backend = renderBackend;
+	}
+	
+	//how long the last frame took, in seconds
+	public static float getFrameTimeSeconds() {
+		return delta;
+	}
+	
+	public static PacingMode getPacingMode() {
+		return pacingMode;
+	}
+	
+	public static void setPacingMode(PacingMode mode) {
+		pacingMode = mode;
+		nextFrameDeadline = System.nanoTime();
+		if (Display.isCreated()) {
+			applyVSync(mode == PacingMode.VSYNC || mode == PacingMode.ADAPTIVE);
+		}
+	}
+	
+	//the frame rate the TARGET_FPS mode holds
+	public static void setTargetFps(int fps) {
+		targetFps = fps;
+	}
+	
+	//sleep for most of the time left in the frame, then spin for the last bit so we wake up on time
+	private static void waitForNextFrame() {
+		long frameNanos = 1000000000L / targetFps;
+		nextFrameDeadline += frameNanos;
+		long now = System.nanoTime();
+		
+		//if we've fallen more than a frame behind, start again from now instead of rushing to catch up
+		if (now - nextFrameDeadline > frameNanos) {
+			nextFrameDeadline = now;
+			return;
+		}
+		
+		long remaining;
+		while ((remaining = nextFrameDeadline - System.nanoTime()) > SPIN_NANOS) {
+			try {
+				Thread.sleep((remaining - SPIN_NANOS) / 1000000, (int) ((remaining - SPIN_NANOS) % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		while (System.nanoTime() < nextFrameDeadline) {
+			Thread.yield();
+		}
+	}
+	
+	//keep vsync on while we're fast enough for the monitor, turn it off while we aren't,
+	//so a slow frame tears a little instead of waiting for a whole extra refresh
+	private static void adaptVSync() {
+		averageFrameTime += (delta - averageFrameTime) * ADAPTIVE_SMOOTHING;
+		float refreshInterval = 1f / getRefreshRate();
+		
+		//a little slack either way so we don't flip back and forth every frame
+		if (vsyncEnabled && averageFrameTime > refreshInterval * 1.1f) {
+			applyVSync(false);
+		} else if (!vsyncEnabled && averageFrameTime < refreshInterval * 0.9f) {
+			applyVSync(true);
+		}
+	}
+	
+	private static void applyVSync(boolean enabled) {
+		vsyncEnabled = enabled;
+		Display.setVSyncEnabled(enabled);
+	}
+	
+	private static int getRefreshRate() {
+		int frequency = Display.getDisplayMode().getFrequency();
+		return frequency > 0 ? frequency : FPS_CAP;
+	}
 }
@@ -0,0 +1,109 @@
+package renderEngine;
+
+import org.lwjgl.opengl.GL11;
+
+//Per frame counters of the work the renderers submitted through the render backend
+public class DrawStats {
+	
+	private int drawCalls;
+	private long triangles;
+	private int vaoBinds;
+	private int textureBinds;
+	private int programBinds;
+	private int uniformUploads;
+	private int stateChanges;
+	private long bufferUploadBytes;
+	
+	public void countDraw(int mode, int indexCount, int instances) {
+		drawCalls++;
+		if (mode == GL11.GL_TRIANGLES) {
+			triangles += (long) (indexCount / 3) * instances;
+		}
+	}
+	
+	public void countVaoBind() {
+		vaoBinds++;
+	}
+	
+	public void countTextureBind() {
+		textureBinds++;
+	}
+	
+	public void countProgramBind() {
+		programBinds++;
+	}
+	
+	public void countUniformUpload() {
+		uniformUploads++;
+	}
+	
+	public void countStateChange() {
+		stateChanges++;
+	}
+	
+	public void countBufferUpload(long bytes) {
+		bufferUploadBytes += bytes;
+	}
+	
+	public void reset() {
+		drawCalls = 0;
+		triangles = 0;
+		vaoBinds = 0;
+		textureBinds = 0;
+		programBinds = 0;
+		uniformUploads = 0;
+		stateChanges = 0;
+		bufferUploadBytes = 0;
+	}
+	
+	public void set(DrawStats other) {
+		drawCalls = other.drawCalls;
+		triangles = other.triangles;
+		vaoBinds = other.vaoBinds;
+		textureBinds = other.textureBinds;
+		programBinds = other.programBinds;
+		uniformUploads = other.uniformUploads;
+		stateChanges = other.stateChanges;
+		bufferUploadBytes = other.bufferUploadBytes;
+	}
+
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+
+	public long getTriangles() {
+		return triangles;
+	}
+
+	public int getVaoBinds() {
+		return vaoBinds;
+	}
+
+	public int getTextureBinds() {
+		return textureBinds;
+	}
+
+	public int getProgramBinds() {
+		return programBinds;
+	}
+
+	public int getUniformUploads() {
+		return uniformUploads;
+	}
+
+	public int getStateChanges() {
+		return stateChanges;
+	}
+
+	public long getBufferUploadBytes() {
+		return bufferUploadBytes;
+	}
+	
+	@Override
+	public String toString() {
+		return "draws=" + drawCalls + " triangles=" + triangles + " vaoBinds=" + vaoBinds 
+				+ " textureBinds=" + textureBinds + " programBinds=" + programBinds 
+				+ " uniforms=" + uniformUploads + " stateChanges=" + stateChanges 
+				+ " bufferUploadBytes=" + bufferUploadBytes;
+	}
+}
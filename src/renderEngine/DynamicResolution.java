@@ -0,0 +1,272 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GLContext;
+
+import models.RawModel;
+import shaders.UpscaleShader;
+
+//Renders the scene into an offscreen framebuffer at a fraction of the window's resolution and stretches
+//it over the window, turning the fraction down when the GPU takes longer than its budget and back up
+//when there's time to spare. The framebuffer is always the window's size and only the viewport shrinks,
+//so changing the scale never reallocates anything.
+//
+//The GPU time of the scene is measured with GL_TIMESTAMP queries rather than GL_TIME_ELAPSED ones, so
+//they don't clash with the profiler's GPU scopes. A frame's timestamps are read when its query slot comes
+//round again, and if they still haven't arrived the slot is left pending and that frame goes untimed,
+//rather than waiting for them or throwing them away. The scale only goes down when the smoothed time is over budget and only goes up when it's
+//well under, and after every change it's left alone for a while, so it doesn't flip back and forth.
+//
+//Tune it with -DgpuBudgetMs (14 by default), -DminResolutionScale and -DmaxResolutionScale (0.5 and 1)
+//and -DupscaleSharpness (0.3, 0 for a plain bilinear stretch).
+public class DynamicResolution {
+
+	private static final float DEFAULT_BUDGET_MILLIS = Float.parseFloat(System.getProperty("gpuBudgetMs", "14"));
+	private static final float DEFAULT_MIN_SCALE = Float.parseFloat(System.getProperty("minResolutionScale", "0.5"));
+	private static final float DEFAULT_MAX_SCALE = Float.parseFloat(System.getProperty("maxResolutionScale", "1"));
+	private static final float DEFAULT_SHARPNESS = Float.parseFloat(System.getProperty("upscaleSharpness", "0.3"));
+
+	//frames of queries in flight, results are read when their slot is next needed, this many frames after
+	//they were issued or later if the GPU is further behind than that
+	private static final int QUERY_FRAMES = 3;
+
+	//how quickly the smoothed GPU time follows the measured one
+	private static final float SMOOTHING = 0.1f;
+
+	//the scale goes up once the smoothed time is under this much of the budget, and aims for a little under it
+	private static final float RAISE_BELOW = 0.75f;
+	private static final float AIM = 0.9f;
+
+	//scales are multiples of this, and never change by more than MAX_STEP at once
+	private static final float SCALE_STEP = 0.05f;
+	private static final float MAX_STEP = 0.15f;
+
+	//frames to wait after a change before changing again, long enough for the new scale's timings to arrive
+	private static final int COOLDOWN_FRAMES = 20;
+
+	private final RenderBackend backend = DisplayManager.getBackend();
+	private final int width;
+	private final int height;
+
+	private final int framebufferID;
+	private final int colorTextureID;
+	private final int depthBufferID;
+	private final UpscaleShader shader = new UpscaleShader();
+	private final RawModel quad;
+
+	//a start and an end timestamp per frame in flight
+	private final boolean timed;
+	private final int[] startQueries = new int[QUERY_FRAMES];
+	private final int[] endQueries = new int[QUERY_FRAMES];
+	private final boolean[] issued = new boolean[QUERY_FRAMES];
+	private int frame;
+	private boolean timingFrame;
+
+	private float budgetMillis = DEFAULT_BUDGET_MILLIS;
+	private float minScale = DEFAULT_MIN_SCALE;
+	private float maxScale = DEFAULT_MAX_SCALE;
+	private float sharpness = DEFAULT_SHARPNESS;
+
+	private float scale;
+	private int scaledWidth;
+	private int scaledHeight;
+	private float smoothedMillis = -1;
+	private int cooldown;
+
+	//width and height are the window's, in pixels
+	public DynamicResolution(Loader loader, int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		colorTextureID = GL11.glGenTextures();
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, colorTextureID);
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, width, height, 0, GL11.GL_RGBA,
+				GL11.GL_UNSIGNED_BYTE, (ByteBuffer) null);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+
+		depthBufferID = GL30.glGenRenderbuffers();
+		GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, depthBufferID);
+		GL30.glRenderbufferStorage(GL30.GL_RENDERBUFFER, GL14.GL_DEPTH_COMPONENT24, width, height);
+		GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, 0);
+
+		framebufferID = GL30.glGenFramebuffers();
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebufferID);
+		GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D,
+				colorTextureID, 0);
+		GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_ATTACHMENT, GL30.GL_RENDERBUFFER,
+				depthBufferID);
+		int status = GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER);
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+		if (status != GL30.GL_FRAMEBUFFER_COMPLETE) {
+			throw new IllegalStateException("Dynamic resolution framebuffer is incomplete: 0x"
+					+ Integer.toHexString(status));
+		}
+
+		quad = loader.loadToVao(new float[] {-1, -1, 1, -1, 1, 1, -1, 1}, 2, new int[] {0, 1, 2, 2, 3, 0});
+		shader.start();
+		shader.connectTextureUnits();
+		shader.stop();
+
+		//timestamps are core in 3.3, without them the scale stays put
+		ContextCapabilities capabilities = GLContext.getCapabilities();
+		timed = capabilities != null && capabilities.OpenGL33;
+		if (timed) {
+			for (int i = 0; i < QUERY_FRAMES; i++) {
+				startQueries[i] = GL15.glGenQueries();
+				endQueries[i] = GL15.glGenQueries();
+			}
+		}
+		setScale(maxScale);
+	}
+
+	//draw into the framebuffer at the current scale, call before anything of the scene is drawn
+	public void bind() {
+		int slot = frame % QUERY_FRAMES;
+		timingFrame = timed && (!issued[slot] || readTimings(slot));
+		backend.bindFramebuffer(GL30.GL_FRAMEBUFFER, framebufferID);
+		backend.viewport(0, 0, scaledWidth, scaledHeight);
+		if (timingFrame) {
+			backend.queryCounter(startQueries[slot], GL33.GL_TIMESTAMP);
+		}
+	}
+
+	//stretch the scene over the window, then pick the scale for the next frame
+	public void resolve() {
+		if (timingFrame) {
+			backend.queryCounter(endQueries[frame % QUERY_FRAMES], GL33.GL_TIMESTAMP);
+			issued[frame % QUERY_FRAMES] = true;
+		}
+		backend.bindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+		backend.viewport(0, 0, width, height);
+
+		backend.disable(GL11.GL_DEPTH_TEST);
+		shader.start();
+		shader.loadSceneSize((float) scaledWidth / width, (float) scaledHeight / height, 1f / width, 1f / height);
+		shader.loadSharpness(scale < 1 ? sharpness : 0);
+		backend.bindVertexArray(quad.getVaoID());
+		backend.enableVertexAttribArray(0);
+		backend.activeTexture(GL13.GL_TEXTURE0);
+		backend.bindTexture(GL11.GL_TEXTURE_2D, colorTextureID);
+		backend.drawElements(GL11.GL_TRIANGLES, quad.getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
+		backend.disableVertexAttribArray(0);
+		backend.bindVertexArray(0);
+		shader.stop();
+		backend.enable(GL11.GL_DEPTH_TEST);
+
+		frame++;
+	}
+
+	//the fraction of the window's width and height the scene is drawn at
+	public float getScale() {
+		return scale;
+	}
+
+	//the size the scene is drawn at this frame, in pixels
+	public int getWidth() {
+		return scaledWidth;
+	}
+
+	public int getHeight() {
+		return scaledHeight;
+	}
+
+	//the GPU time the scene took, smoothed over the last few frames. -1 until the first result arrives
+	public float getGpuMillis() {
+		return smoothedMillis;
+	}
+
+	//the GPU time the scene is allowed, the resolution is scaled to keep getGpuMillis under it
+	public void setBudget(float millis) {
+		budgetMillis = millis;
+	}
+
+	//keep the scale between these, e.g. setBounds(1, 1) to turn the scaling off
+	public void setBounds(float min, float max) {
+		minScale = min;
+		maxScale = max;
+		setScale(Math.max(min, Math.min(max, scale)));
+	}
+
+	//0 for a plain bilinear stretch
+	public void setSharpness(float upscaleSharpness) {
+		sharpness = upscaleSharpness;
+	}
+
+	public void cleanUp() {
+		shader.cleanUp();
+		GL30.glDeleteFramebuffers(framebufferID);
+		GL30.glDeleteRenderbuffers(depthBufferID);
+		GL11.glDeleteTextures(colorTextureID);
+		if (timed) {
+			for (int i = 0; i < QUERY_FRAMES; i++) {
+				GL15.glDeleteQueries(startQueries[i]);
+				GL15.glDeleteQueries(endQueries[i]);
+			}
+		}
+	}
+
+	//puts the slot's timestamps into the smoothed time and frees the slot, returns false and leaves it
+	//pending if they haven't arrived yet. The end timestamp is written last, so once it's there both are
+	private boolean readTimings(int slot) {
+		if (!backend.isQueryResultAvailable(endQueries[slot])) {
+			return false;
+		}
+		issued[slot] = false;
+		long start = backend.getQueryResult(startQueries[slot]);
+		long end = backend.getQueryResult(endQueries[slot]);
+		float millis = (end - start) / 1000000f;
+		smoothedMillis = smoothedMillis < 0 ? millis : smoothedMillis + (millis - smoothedMillis) * SMOOTHING;
+		adapt();
+		return true;
+	}
+
+	private void adapt() {
+		if (cooldown > 0) {
+			cooldown--;
+			return;
+		}
+		boolean over = smoothedMillis > budgetMillis;
+		boolean under = smoothedMillis < budgetMillis * RAISE_BELOW;
+		if (!over && !under) {
+			return;
+		}
+
+		//GPU time goes roughly with the number of pixels, the square of the scale
+		float wanted = scale * (float) Math.sqrt(budgetMillis * AIM / smoothedMillis);
+		wanted = Math.max(scale - MAX_STEP, Math.min(scale + MAX_STEP, wanted));
+		float next = Math.round(wanted / SCALE_STEP) * SCALE_STEP;
+		if (over && next >= scale) {
+			next = scale - SCALE_STEP;
+		} else if (under && next <= scale) {
+			next = scale + SCALE_STEP;
+		}
+		next = Math.max(minScale, Math.min(maxScale, next));
+		if (next == scale) {
+			return;
+		}
+
+		//expect the time to follow the pixels, so the old scale's timings still in flight don't push it further
+		smoothedMillis *= (next * next) / (scale * scale);
+		setScale(next);
+		cooldown = COOLDOWN_FRAMES;
+	}
+
+	private void setScale(float newScale) {
+		scale = newScale;
+		scaledWidth = Math.max(1, Math.round(width * scale));
+		scaledHeight = Math.max(1, Math.round(height * scale));
+	}
+}
@@ -0,0 +1,71 @@
+package renderEngine;
+
+import models.TexturedModel;
+
+//The entities drawn with one textured model this frame, as slots in the batcher's entity store
+public class EntityBatch {
+	
+	private final TexturedModel model;
+	private int[] slots = new int[64];
+	private int size;
+	
+	//how far each entity has faded into its impostor, only for batches made by the impostor renderer
+	private float[] fades;
+	
+	EntityBatch(TexturedModel model) {
+		this.model = model;
+	}
+	
+	void add(int slot) {
+		if (size == slots.length) {
+			int[] grown = new int[slots.length * 2];
+			System.arraycopy(slots, 0, grown, 0, size);
+			slots = grown;
+		}
+		slots[size++] = slot;
+	}
+	
+	//an entity that's part way through fading into its impostor
+	void add(int slot, float fade) {
+		add(slot);
+		if (fades == null || fades.length < slots.length) {
+			float[] grown = new float[slots.length];
+			if (fades != null) {
+				System.arraycopy(fades, 0, grown, 0, size - 1);
+			}
+			fades = grown;
+		}
+		fades[size - 1] = fade;
+	}
+	
+	//drop everything after the first size entities
+	void truncate(int size) {
+		this.size = size;
+	}
+	
+	void clear() {
+		size = 0;
+	}
+	
+	public TexturedModel getModel() {
+		return model;
+	}
+	
+	//only the first size() are this frame's
+	public int[] getSlots() {
+		return slots;
+	}
+	
+	//null unless the entities are fading into impostors, 0 is fully drawn and 1 fully faded out
+	public float[] getFades() {
+		return fades;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
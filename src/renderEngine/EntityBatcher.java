@@ -0,0 +1,90 @@
+package renderEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import entities.Entity;
+import entities.EntityStore;
+import models.TexturedModel;
+
+//Groups the entities submitted each frame by textured model, so every model only has to be
+//bound once no matter how many times it's drawn. Entities are kept as slots in the entity store
+//and batches are found by the store's model ID, so there's no hashing per entity, and the batches
+//are kept between frames and only emptied, so after the first frame batching doesn't allocate anything
+public class EntityBatcher {
+	
+	private final EntityStore store;
+	
+	//batches by model ID, null for models that haven't been drawn yet
+	private EntityBatch[] batches = new EntityBatch[16];
+	
+	//the batches that have entities in them this frame, in the order they were first used
+	private List<EntityBatch> usedBatches = new ArrayList<EntityBatch>();
+	
+	public EntityBatcher() {
+		this(EntityStore.getDefault());
+	}
+	
+	public EntityBatcher(EntityStore store) {
+		this.store = store;
+	}
+	
+	public void add(Entity entity) {
+		if (entity.getStore() != store) {
+			throw new IllegalArgumentException("Entity is in a different store to the one being rendered");
+		}
+		int slot = store.getSlot(entity.getHandle());
+		add(store.getChunkForSlot(slot).modelID[slot & (EntityStore.CHUNK_SIZE - 1)], slot);
+	}
+	
+	//every visible entity in the store, straight from the chunks. Static entities are left out,
+	//they're drawn from their static batches
+	public void addVisible() {
+		for (int i = 0; i < store.getChunkCount(); i++) {
+			EntityStore.Chunk chunk = store.getChunk(i);
+			int firstSlot = i << EntityStore.CHUNK_SHIFT;
+			int[] flags = chunk.flags;
+			int[] modelIDs = chunk.modelID;
+			for (int j = 0; j < chunk.getCount(); j++) {
+				if ((flags[j] & (EntityStore.VISIBLE | EntityStore.STATIC)) == EntityStore.VISIBLE) {
+					add(modelIDs[j], firstSlot + j);
+				}
+			}
+		}
+	}
+	
+	//empty every batch but keep them for next frame
+	public void clear() {
+		for (EntityBatch batch : usedBatches) {
+			batch.clear();
+		}
+		usedBatches.clear();
+	}
+	
+	//this frame's batches, none of them are empty until the impostor renderer takes the far entities out
+	public List<EntityBatch> getBatches() {
+		return usedBatches;
+	}
+	
+	public EntityStore getStore() {
+		return store;
+	}
+	
+	private void add(int modelID, int slot) {
+		if (modelID >= batches.length) {
+			EntityBatch[] grown = new EntityBatch[Math.max(modelID + 1, batches.length * 2)];
+			System.arraycopy(batches, 0, grown, 0, batches.length);
+			batches = grown;
+		}
+		EntityBatch batch = batches[modelID];
+		if (batch == null) {
+			TexturedModel model = store.getModelByID(modelID);
+			batch = new EntityBatch(model);
+			batches[modelID] = batch;
+		}
+		if (batch.isEmpty()) {
+			usedBatches.add(batch);
+		}
+		batch.add(slot);
+	}
+}
@@ -1,87 +1,358 @@
 package renderEngine;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
 import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
 
-import entities.Entity;
+import entities.Camera;
+import entities.EntityStore;
+import entities.Light;
+import models.Meshlets;
 import models.RawModel;
 import models.TexturedModel;
+import profiling.Profiler;
+import shaders.DepthShader;
+import shaders.ShaderFeatures;
 import shaders.StaticShader;
 import textures.ModelTexture;
+import toolbox.Frustum;
 import toolbox.Maths;
 
 //A class that can render the model from the VAO
 public class EntityRenderer {
 	
+	private static final int RENDER_SCOPE = Profiler.registerScope("EntityRenderer.render");
+	
+	//one shader for each combination of features, built the first time a texture needs it
+	private StaticShader[] shaders = new StaticShader[ShaderFeatures.COUNT];
+	
+	//this frame's batches, sorted by the shader they need so each shader is only started once
+	private List<List<EntityBatch>> batchesByShader = new ArrayList<List<EntityBatch>>();
+	private List<List<StaticBatch>> staticBatchesByShader = new ArrayList<List<StaticBatch>>();
+	private List<List<TexturedModel>> culledModelsByShader = new ArrayList<List<TexturedModel>>();
+	
+	//static batches are already in world space
+	private Matrix4f identityMatrix = new Matrix4f();
+	
+	//the depth pre-pass only needs a variant per combination of the features that drop fragments
+	private DepthShader[] depthShaders = new DepthShader[DepthShader.FEATURES + 1];
+	
+	//the shader being drawn with
 	private StaticShader shader;
 	
-	public EntityRenderer(StaticShader shader, Matrix4f projectionMatrix) {
-		this.shader = shader;
-		shader.start();
-		shader.loadProjectionMatrix(projectionMatrix);
-		shader.stop();
+	private boolean depthPrepass;
+	private boolean overdrawView;
+	private OverdrawCounter overdrawCounter;
+	
+	//reused for every instance's position
+	private Vector3f position = new Vector3f();
+	
+	//drops the meshlets of models split into them that can't be seen
+	private MeshletCuller meshletCuller = new MeshletCuller();
+	
+	//told which mips of the textures are needed this frame, null when textures aren't streamed
+	private TextureStreamer textureStreamer;
+	
+	//draws the store's entities from the commands it culled this frame as well, null if it didn't cull them
+	private GpuCulling gpuCulling;
+	
+	private Matrix4f projectionMatrix;
+	private LightClusters lightClusters;
+	private boolean fog;
+	private RenderBackend backend;
+	
+	public EntityRenderer(Matrix4f projectionMatrix, LightClusters lightClusters, boolean fog) {
+		this.projectionMatrix = projectionMatrix;
+		this.lightClusters = lightClusters;
+		this.fog = fog;
+		this.backend = DisplayManager.getBackend();
+		for (int i = 0; i < ShaderFeatures.COUNT; i++) {
+			batchesByShader.add(new ArrayList<EntityBatch>());
+			staticBatchesByShader.add(new ArrayList<StaticBatch>());
+			culledModelsByShader.add(new ArrayList<TexturedModel>());
+		}
 	}
 	
 	//call this once per frame, prepares openGL to render the game 
 	public void prepare() {
 		
 		//test which triangles are in front of each other
-		GL11.glEnable(GL11.GL_DEPTH_TEST);
+		backend.enable(GL11.GL_DEPTH_TEST);
 		
 		//clear the color
-		GL11.glClear(GL11.GL_COLOR_BUFFER_BIT|GL11.GL_DEPTH_BUFFER_BIT);
-		GL11.glClearColor(0, 0, 0, 1);
+		backend.clear(GL11.GL_COLOR_BUFFER_BIT|GL11.GL_DEPTH_BUFFER_BIT);
+		backend.clearColor(0, 0, 0, 1);
 		
 	}
 	
-	public void render(Map<TexturedModel, List<Entity>> entities) {
-		for (TexturedModel model: entities.keySet()) {
-			prepareTexturedModel(model);
-			List<Entity> batch = entities.get(model);
+	public void render(List<EntityBatch> entities, EntityStore store, List<StaticBatch> staticBatches, 
+			Light sun, Camera camera, Frustum frustum, float skyRed, float skyGreen, float skyBlue) {
+		long profileStart = Profiler.begin();
+		for (EntityBatch batch: entities) {
+			if (batch.isEmpty()) {
+				continue;
+			}
+			int features = ShaderFeatures.forTexture(batch.getModel().getTexture(), fog);
+			if (batch.getFades() != null) {
+				features |= ShaderFeatures.DITHER_FADE;
+			}
+			batchesByShader.get(features).add(batch);
+		}
+		for (StaticBatch batch: staticBatches) {
+			int features = ShaderFeatures.forTexture(batch.getModel().getTexture(), fog);
+			if (batch.getFade() > 0) {
+				features |= ShaderFeatures.DITHER_FADE;
+			}
+			staticBatchesByShader.get(features).add(batch);
+		}
+		if (gpuCulling != null) {
+			for (int i = 0; i < gpuCulling.getModelCount(); i++) {
+				TexturedModel model = gpuCulling.getModel(i);
+				int features = ShaderFeatures.forTexture(model.getTexture(), fog) | ShaderFeatures.INSTANCED;
+				culledModelsByShader.get(features).add(model);
+				if (gpuCulling.hasImpostor(i)) {
+					culledModelsByShader.get(features | ShaderFeatures.DITHER_FADE).add(model);
+				}
+			}
+		}
+		
+		if (depthPrepass) {
+			renderDepth(store, camera, frustum);
 			
-			for (Entity entity:batch) {
-				prepareInstance(entity);
+			//only the nearest layer is left to shade, depth is already written
+			backend.depthFunc(GL11.GL_LEQUAL);
+			backend.depthMask(false);
+		}
+		if (overdrawView) {
+			backend.enable(GL11.GL_BLEND);
+			backend.blendFunc(GL11.GL_ONE, GL11.GL_ONE);
+		}
+		if (overdrawCounter != null) {
+			overdrawCounter.begin();
+		}
+		for (int features = 0; features < ShaderFeatures.COUNT; features++) {
+			List<EntityBatch> batches = batchesByShader.get(features);
+			List<StaticBatch> staticBatchesForShader = staticBatchesByShader.get(features);
+			List<TexturedModel> culledModels = culledModelsByShader.get(features);
+			if (batches.isEmpty() && staticBatchesForShader.isEmpty() && culledModels.isEmpty()) {
+				continue;
+			}
+			shader = getShader(overdrawView ? features | ShaderFeatures.OVERDRAW : features);
+			shader.start();
+			shader.loadSkyColor(skyRed, skyGreen, skyBlue);
+			shader.loadLight(sun);
+			shader.loadViewMatrix(camera);
+			shader.loadLightClusters(lightClusters);
+			for (EntityBatch batch: batches) {
+				TexturedModel model = batch.getModel();
+				if (textureStreamer != null) {
+					requestMips(batch, store, camera);
+				}
+				prepareTexturedModel(model);
+				shader.loadShineVariables(model.getTexture().getShineDamper(), model.getTexture().getReflectivity());
+				
+				int[] slots = batch.getSlots();
+				float[] fades = batch.getFades();
+				for (int i = 0; i < batch.size(); i++) {
+					Matrix4f transformationMatrix = getTransformation(store, slots[i]);
+					shader.loadTransformationMatrix(transformationMatrix);
+					if (fades != null) {
+						shader.loadFade(fades[i]);
+					}
+					draw(model, transformationMatrix, camera, frustum);
+				}
 				
-				//render everything, with GL_TRIANGLES primative
-				GL11.glDrawElements(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
+				unbindTexturedModel();
 			}
 			
-			unbindTexturedModel();
+			//one draw per static batch, with no per entity transformation
+			for (StaticBatch batch: staticBatchesForShader) {
+				TexturedModel model = batch.getModel();
+				if (textureStreamer != null) {
+					requestMips(batch, camera);
+				}
+				prepareTexturedModel(model);
+				shader.loadShineVariables(model.getTexture().getShineDamper(), model.getTexture().getReflectivity());
+				shader.loadTransformationMatrix(identityMatrix);
+				if (batch.getFade() > 0) {
+					shader.loadFade(batch.getFade());
+				}
+				draw(model, identityMatrix, camera, frustum);
+				unbindTexturedModel();
+			}
+			
+			//one indirect draw per model for the entities the GPU culled
+			for (TexturedModel model: culledModels) {
+				if (textureStreamer != null) {
+					requestMips(model);
+				}
+				prepareTexturedModel(model);
+				shader.loadShineVariables(model.getTexture().getShineDamper(), model.getTexture().getReflectivity());
+				drawCulled(model, features);
+				unbindTexturedModel();
+			}
+			shader.stop();
+			batches.clear();
+			staticBatchesForShader.clear();
+			culledModels.clear();
 		}
+		if (overdrawCounter != null) {
+			overdrawCounter.end();
+		}
+		if (overdrawView) {
+			backend.disable(GL11.GL_BLEND);
+		}
+		if (depthPrepass) {
+			backend.depthFunc(GL11.GL_LESS);
+			backend.depthMask(true);
+		}
+		Profiler.end(RENDER_SCOPE, profileStart);
+	}
+	
+	public void setTextureStreamer(TextureStreamer streamer) {
+		textureStreamer = streamer;
+	}
+	
+	//also draw what the GPU culling culled this frame, null when it didn't run
+	public void setGpuCulling(GpuCulling culling) {
+		gpuCulling = culling;
+	}
+	
+	//lay down the entities' depth first, then shade only the fragments that end up on screen
+	public void setDepthPrepass(boolean enabled) {
+		depthPrepass = enabled;
+	}
+	
+	public boolean isDepthPrepass() {
+		return depthPrepass;
+	}
+	
+	//draw every fragment the main pass shades as the same grey, added up, instead of lighting it
+	public void setOverdrawView(boolean enabled) {
+		overdrawView = enabled;
+	}
+	
+	public boolean isOverdrawView() {
+		return overdrawView;
+	}
+	
+	//counts the samples the main pass writes, null to stop counting
+	public void setOverdrawCounter(OverdrawCounter counter) {
+		overdrawCounter = counter;
+	}
+	
+	public void cleanUp() {
+		for (StaticShader variant : shaders) {
+			if (variant != null) {
+				variant.cleanUp();
+			}
+		}
+		for (DepthShader variant : depthShaders) {
+			if (variant != null) {
+				variant.cleanUp();
+			}
+		}
+	}
+	
+	private StaticShader getShader(int features) {
+		if (shaders[features] == null) {
+			StaticShader variant = new StaticShader(features);
+			variant.start();
+			variant.connectTextureUnits();
+			variant.loadProjectionMatrix(projectionMatrix);
+			variant.stop();
+			shaders[features] = variant;
+		}
+		return shaders[features];
+	}
+	
+	private DepthShader getDepthShader(int features) {
+		int depthFeatures = features & DepthShader.FEATURES;
+		if (depthShaders[depthFeatures] == null) {
+			DepthShader variant = new DepthShader(depthFeatures);
+			variant.start();
+			variant.connectTextureUnits();
+			variant.loadProjectionMatrix(projectionMatrix);
+			variant.stop();
+			depthShaders[depthFeatures] = variant;
+		}
+		return depthShaders[depthFeatures];
+	}
+	
+	//the same batches drawn with the depth shaders and no color writes
+	private void renderDepth(EntityStore store, Camera camera, Frustum frustum) {
+		backend.colorMask(false, false, false, false);
+		for (int features = 0; features < ShaderFeatures.COUNT; features++) {
+			List<EntityBatch> batches = batchesByShader.get(features);
+			List<StaticBatch> staticBatchesForShader = staticBatchesByShader.get(features);
+			List<TexturedModel> culledModels = culledModelsByShader.get(features);
+			if (batches.isEmpty() && staticBatchesForShader.isEmpty() && culledModels.isEmpty()) {
+				continue;
+			}
+			DepthShader depthShader = getDepthShader(features);
+			depthShader.start();
+			depthShader.loadViewMatrix(camera);
+			for (EntityBatch batch: batches) {
+				TexturedModel model = batch.getModel();
+				prepareTexturedModel(model);
+				int[] slots = batch.getSlots();
+				float[] fades = batch.getFades();
+				for (int i = 0; i < batch.size(); i++) {
+					Matrix4f transformationMatrix = getTransformation(store, slots[i]);
+					depthShader.loadTransformationMatrix(transformationMatrix);
+					if (fades != null) {
+						depthShader.loadFade(fades[i]);
+					}
+					draw(model, transformationMatrix, camera, frustum);
+				}
+				unbindTexturedModel();
+			}
+			for (StaticBatch batch: staticBatchesForShader) {
+				TexturedModel model = batch.getModel();
+				prepareTexturedModel(model);
+				depthShader.loadTransformationMatrix(identityMatrix);
+				if (batch.getFade() > 0) {
+					depthShader.loadFade(batch.getFade());
+				}
+				draw(model, identityMatrix, camera, frustum);
+				unbindTexturedModel();
+			}
+			for (TexturedModel model: culledModels) {
+				prepareTexturedModel(model);
+				drawCulled(model, features);
+				unbindTexturedModel();
+			}
+			depthShader.stop();
+		}
+		backend.colorMask(true, true, true, true);
 	}
 	
 	private void prepareTexturedModel(TexturedModel model) {
 		RawModel rawModel = model.getRawModel();
 		
 		//bind the VAO and activate the attribute arrays we want
-		GL30.glBindVertexArray(rawModel.getVaoID());
-		GL20.glEnableVertexAttribArray(0);
-		GL20.glEnableVertexAttribArray(1);
-		GL20.glEnableVertexAttribArray(2);
+		backend.bindVertexArray(rawModel.getVaoID());
+		backend.enableVertexAttribArray(0);
+		backend.enableVertexAttribArray(1);
+		backend.enableVertexAttribArray(2);
 		
-		//Load the shine to the shaders
 		ModelTexture texture = model.getTexture();
-		shader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
 		
 		//disable culling if it has transparency 
 		if (texture.isHasTransparency()) {
 			MasterRenderer.disableCulling();
 		}
 		
-		//load Fake lighting if applicable
-		shader.loadFakeLightingVariable(texture.isUseFakeLighting());
-		
 		//activate one of open GL's texture banks 
-		GL13.glActiveTexture(GL13.GL_TEXTURE0);
+		backend.activeTexture(GL13.GL_TEXTURE0);
 		
 		//bind the texture model to OpenGL's texture bank
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, model.getTexture().getID());
+		backend.bindTexture(GL11.GL_TEXTURE_2D, model.getTexture().getID());
 	}
 	
 	private void unbindTexturedModel() {
@@ -89,20 +360,111 @@ public class EntityRenderer {
 		MasterRenderer.enableCulling();
 		
 		//disable the attribute arrays now that they've been rendered
-		GL20.glDisableVertexAttribArray(0);
-		GL20.glDisableVertexAttribArray(1);
-		GL20.glDisableVertexAttribArray(2);
+		backend.disableVertexAttribArray(0);
+		backend.disableVertexAttribArray(1);
+		backend.disableVertexAttribArray(2);
 		
 		//unbind the VAO array
-		GL30.glBindVertexArray(0);
+		backend.bindVertexArray(0);
 	}
 	
-	private void prepareInstance(Entity entity) {
-		//Load the entities transformation to the vertex shader
-		Matrix4f transformationMatrix = Maths.createTransformationMatrix(entity.getPosition(), 
-				entity.getRotX(), entity.getRotY(), entity.getRotZ(), entity.getScale());
+	//render the model with GL_TRIANGLES, all of it or only the meshlets that can be seen
+	private void draw(TexturedModel model, Matrix4f transformationMatrix, Camera camera, Frustum frustum) {
+		RawModel rawModel = model.getRawModel();
+		Meshlets meshlets = rawModel.getMeshlets();
+		if (meshlets == null) {
+			backend.drawElements(GL11.GL_TRIANGLES, rawModel.getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
+			return;
+		}
 		
-		shader.loadTransformationMatrix(transformationMatrix);
+		//two sided models have culling turned off, so their back faces can be seen
+		boolean cullBackFacing = !model.getTexture().isHasTransparency();
+		if (meshletCuller.cull(meshlets, transformationMatrix, camera.getPosition(), frustum, cullBackFacing) > 0) {
+			backend.multiDrawElements(GL11.GL_TRIANGLES, meshletCuller.getCounts(), meshletCuller.getOffsets(), 
+					GL11.GL_UNSIGNED_INT);
+		}
+	}
+	
+	//the model's solid or fading instances, whichever the shader's features are for
+	private void drawCulled(TexturedModel model, int features) {
+		int command = (features & ShaderFeatures.DITHER_FADE) != 0 ? GpuCulling.FADING : GpuCulling.SOLID;
+		gpuCulling.drawMeshes(gpuCulling.getModelID(model), command);
+	}
+	
+	private Matrix4f getTransformation(EntityStore store, int slot) {
+		//the entity's transformation, straight from the store's arrays
+		EntityStore.Chunk chunk = store.getChunkForSlot(slot);
+		int offset = slot & (EntityStore.CHUNK_SIZE - 1);
+		position.set(chunk.x[offset], chunk.y[offset], chunk.z[offset]);
+		return Maths.createTransformationMatrix(position, 
+				chunk.rotX[offset], chunk.rotY[offset], chunk.rotZ[offset], chunk.scale[offset]);
 	}
 	
+	//ask for the mips the batch's nearest entity needs, the one that's biggest on screen
+	private void requestMips(EntityBatch batch, EntityStore store, Camera camera) {
+		float size = getSize(batch.getModel());
+		if (size == 0) {
+			return;
+		}
+		Vector3f eye = camera.getPosition();
+		int[] slots = batch.getSlots();
+		float bestScale = 0;
+		float bestDistance = 1;
+		for (int i = 0; i < batch.size(); i++) {
+			EntityStore.Chunk chunk = store.getChunkForSlot(slots[i]);
+			int offset = slots[i] & (EntityStore.CHUNK_SIZE - 1);
+			float dx = chunk.x[offset] - eye.x;
+			float dy = chunk.y[offset] - eye.y;
+			float dz = chunk.z[offset] - eye.z;
+			float scale = chunk.scale[offset];
+			
+			//to the near side of the entity rather than its middle
+			float distance = Math.max(0.1f, (float) Math.sqrt(dx * dx + dy * dy + dz * dz) - size * scale / 2);
+			if (scale * bestDistance > bestScale * distance) {
+				bestScale = scale;
+				bestDistance = distance;
+			}
+		}
+		textureStreamer.request(batch.getModel().getTexture().getID(), size * bestScale, bestDistance);
+	}
+	
+	//the CPU doesn't know where the GPU culled entities are, the culling reads back how near the nearest
+	//one was a couple of frames ago. Nothing's asked for until then, the small mips are always there
+	private void requestMips(TexturedModel model) {
+		float size = getSize(model);
+		float scaleOverDistance = gpuCulling.getScaleOverDistance(gpuCulling.getModelID(model));
+		if (size == 0 || scaleOverDistance == 0) {
+			return;
+		}
+		textureStreamer.request(model.getTexture().getID(), size * scaleOverDistance, 1);
+	}
+	
+	//static batches are already scaled, the texture's density is the model's they were made from.
+	//Batches of several models get every level, there's no one size to go by
+	private void requestMips(StaticBatch batch, Camera camera) {
+		int textureID = batch.getModel().getTexture().getID();
+		if (batch.getSourceModel() == null) {
+			textureStreamer.request(textureID, Float.POSITIVE_INFINITY, 1);
+			return;
+		}
+		float size = getSize(batch.getSourceModel());
+		if (size == 0) {
+			return;
+		}
+		Vector3f eye = camera.getPosition();
+		float dx = Math.max(0, Math.max(batch.getMinX() - eye.x, eye.x - batch.getMaxX()));
+		float dy = Math.max(0, Math.max(batch.getMinY() - eye.y, eye.y - batch.getMaxY()));
+		float dz = Math.max(0, Math.max(batch.getMinZ() - eye.z, eye.z - batch.getMaxZ()));
+		float distance = Math.max(0.1f, (float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+		textureStreamer.request(textureID, size, distance);
+	}
+	
+	//the longest side of the model's bounding box, 0 if it didn't keep the data to work that out
+	private static float getSize(TexturedModel model) {
+		float[] bounds = model.getRawModel().getBounds();
+		if (bounds == null) {
+			return 0;
+		}
+		return Math.max(bounds[3] - bounds[0], Math.max(bounds[4] - bounds[1], bounds[5] - bounds[2]));
+	}
 }
@@ -0,0 +1,40 @@
+package renderEngine;
+
+//Runs the game's updates at a fixed rate whatever the frame rate is. Each frame the measured frame
+//time is added to an accumulator, and the game steps forward in fixed size steps until it's used up.
+//Whatever is left over is the alpha used to interpolate between the last two steps when rendering
+public class FixedTimestep {
+	
+	//frames longer than this are cut short, so one long hitch doesn't make us simulate forever
+	private static final float MAX_FRAME_TIME = 0.25f;
+	
+	private final float stepSeconds;
+	private float accumulator;
+	
+	public FixedTimestep(float stepSeconds) {
+		this.stepSeconds = stepSeconds;
+	}
+	
+	//call once per frame with how long the last frame took
+	public void advance(float frameSeconds) {
+		accumulator += Math.min(frameSeconds, MAX_FRAME_TIME);
+	}
+	
+	//returns true, and uses up one step, while there is a whole step left to simulate
+	public boolean step() {
+		if (accumulator >= stepSeconds) {
+			accumulator -= stepSeconds;
+			return true;
+		}
+		return false;
+	}
+	
+	public float getStepSeconds() {
+		return stepSeconds;
+	}
+	
+	//how far we are from the last step to the next one, from 0 to 1
+	public float getAlpha() {
+		return accumulator / stepSeconds;
+	}
+}
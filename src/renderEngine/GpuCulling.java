@@ -0,0 +1,450 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GL42;
+import org.lwjgl.opengl.GL43;
+import org.lwjgl.opengl.GLContext;
+
+import entities.Camera;
+import entities.EntityStore;
+import models.RawModel;
+import models.TexturedModel;
+import profiling.Profiler;
+import shaders.CullingShader;
+import toolbox.Frustum;
+
+//Culls the entity store's dynamic entities on the GPU instead of batching them on the CPU.
+//Every frame the store's component arrays are copied whole into shader storage buffers, and a compute
+//shader tests each entity's bounding sphere against the frustum, picks mesh, cross-fade or impostor by
+//its distance like ImpostorRenderer.process does, and writes its transformation into an instance buffer
+//and a DrawElementsIndirectCommand's instance count. The renderers then draw each model with indirect
+//draws reading those commands. The CPU still copies every entity's components into the upload buffers
+//each frame, but that's a bulk copy of the arrays, the testing, sorting and matrix building per entity
+//are all on the GPU.
+//
+//The only thing read back is how close each model's nearest visible mesh is, for texture streaming. It's
+//written into one of a few buffers in turn and read a couple of frames later, once a fence says the GPU
+//is done with it, so reading it never waits.
+//
+//Each model has three commands one after another: its solid meshes, its meshes fading out and its
+//impostors. The instances are read as vertex attributes with a divisor of 1, and the command's
+//baseInstance says where its instances start, so nothing has to be set between draws but the model.
+//Static entities are left to their static batches. Needs GL 4.3, see isSupported
+public class GpuCulling {
+
+	private static final int CULL_SCOPE = Profiler.registerScope("GpuCulling.cull");
+
+	//the commands of each model, in this order from model ID * COMMANDS_PER_MODEL
+	public static final int SOLID = 0;
+	public static final int FADING = 1;
+	public static final int IMPOSTOR = 2;
+	private static final int COMMANDS_PER_MODEL = 3;
+
+	//the five ints of a DrawElementsIndirectCommand
+	private static final int COMMAND_BYTES = 5 * 4;
+
+	//a mesh instance is its transformation then its fade, an impostor instance uses the first two vec4s
+	private static final int INSTANCE_BYTES = 5 * 16;
+
+	//where the instance attributes go in the VAOs, the shaders bind their names to these
+	private static final int TRANSFORMATION_ATTRIBUTE = 3;
+	private static final int FADE_ATTRIBUTE = 7;
+	private static final int IMPOSTOR_POSITION_ATTRIBUTE = 1;
+	private static final int IMPOSTOR_ROTATION_ATTRIBUTE = 2;
+
+	//float sections of the entity buffer: x, y, z, rotX, rotY, rotZ, scale
+	private static final int FLOAT_SECTIONS = 7;
+
+	//the nearest distance buffers written in turn, so the one read back was written this many frames ago
+	private static final int DISTANCE_BUFFERS = 3;
+
+	private final RenderBackend backend = DisplayManager.getBackend();
+	private final EntityStore store;
+	private final ImpostorRenderer impostorRenderer;
+	private final CullingShader shader = new CullingShader();
+
+	private final int entityFloatBuffer;
+	private final int entityIntBuffer;
+	private final int modelBuffer;
+	private final int commandBuffer;
+	private final int cursorBuffer;
+	private final int instanceBuffer;
+
+	//per model, the largest scale over distance of its visible meshes, as float bits so the shader can
+	//atomicMax them. Each buffer has the fence of the frame that wrote it and how many models it had
+	private final int[] distanceBuffers = new int[DISTANCE_BUFFERS];
+	private final int[] distanceFences = new int[DISTANCE_BUFFERS];
+	private final int[] distanceModelCounts = new int[DISTANCE_BUFFERS];
+	private int frame;
+	private ByteBuffer zeros = createBuffer(4);
+	private ByteBuffer readBack = createBuffer(4);
+
+	//what was last read back, by model ID
+	private float[] scaleOverDistance = new float[16];
+
+	//entities each section of the entity buffers has room for, grown in powers of two
+	private int capacity;
+	private int cursorCapacity;
+	private ByteBuffer entityFloats = createBuffer(4);
+	private ByteBuffer entityInts = createBuffer(4);
+	private ByteBuffer modelData = createBuffer(16);
+	private ByteBuffer commands = createBuffer(COMMAND_BYTES);
+
+	//the models the commands are for, by model ID, and the VAOs that have the instance attributes set up
+	private final List<TexturedModel> models = new ArrayList<TexturedModel>();
+	private final Map<TexturedModel, Integer> modelIDs = new HashMap<TexturedModel, Integer>();
+	private final List<Float> radii = new ArrayList<Float>();
+	private final List<Float> sizes = new ArrayList<Float>();
+	private boolean[] hasImpostor = new boolean[16];
+	private final Set<Integer> preparedVaos = new HashSet<Integer>();
+
+	public GpuCulling(EntityStore store, ImpostorRenderer impostorRenderer) {
+		this.store = store;
+		this.impostorRenderer = impostorRenderer;
+		entityFloatBuffer = backend.createBuffer();
+		entityIntBuffer = backend.createBuffer();
+		modelBuffer = backend.createBuffer();
+		commandBuffer = backend.createBuffer();
+		cursorBuffer = backend.createBuffer();
+		instanceBuffer = backend.createBuffer();
+		for (int i = 0; i < DISTANCE_BUFFERS; i++) {
+			distanceBuffers[i] = backend.createBuffer();
+		}
+	}
+
+	//compute shaders, shader storage buffers and multi draw indirect are all core in 4.3
+	public static boolean isSupported() {
+		ContextCapabilities capabilities = GLContext.getCapabilities();
+		return capabilities != null && capabilities.OpenGL43;
+	}
+
+	//upload the store and write this frame's commands and instances, before anything is drawn with them
+	public void cull(Frustum frustum, Camera camera) {
+		long profileStart = Profiler.begin();
+		for (int i = models.size(); i < store.getModelCount(); i++) {
+			addModel(store.getModelByID(i));
+		}
+		int entityCount = uploadEntities();
+		int commandCount = uploadModels();
+		int distanceBuffer = distanceBuffers[frame % DISTANCE_BUFFERS];
+		readDistances(frame % DISTANCE_BUFFERS);
+		zeros = ensureCapacity(zeros, models.size() * 4);
+		zeros.clear();
+		zeros.limit(models.size() * 4);
+		backend.bufferData(GL43.GL_SHADER_STORAGE_BUFFER, distanceBuffer, zeros, GL15.GL_STREAM_READ);
+
+		shader.start();
+		shader.loadEntities(entityCount, capacity);
+		shader.loadCommandCount(commandCount);
+		shader.loadFrustum(frustum);
+		shader.loadCameraPosition(camera.getPosition());
+		backend.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, 0, entityFloatBuffer);
+		backend.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, 1, entityIntBuffer);
+		backend.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, 2, modelBuffer);
+		backend.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, 3, commandBuffer);
+		backend.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, 4, cursorBuffer);
+		backend.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, 5, instanceBuffer);
+		backend.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, 6, distanceBuffer);
+		int groups = (entityCount + CullingShader.GROUP_SIZE - 1) / CullingShader.GROUP_SIZE;
+		if (groups > 0) {
+			shader.loadStage(CullingShader.COUNT);
+			backend.dispatchCompute(groups, 1, 1);
+			backend.memoryBarrier(GL43.GL_SHADER_STORAGE_BARRIER_BIT);
+			shader.loadStage(CullingShader.PLACE);
+			backend.dispatchCompute(1, 1, 1);
+			backend.memoryBarrier(GL43.GL_SHADER_STORAGE_BARRIER_BIT);
+			shader.loadStage(CullingShader.WRITE);
+			backend.dispatchCompute(groups, 1, 1);
+		}
+
+		//the draws read the commands and the instances next, and a later frame the distances
+		backend.memoryBarrier(GL42.GL_COMMAND_BARRIER_BIT | GL42.GL_VERTEX_ATTRIB_ARRAY_BARRIER_BIT
+				| GL42.GL_BUFFER_UPDATE_BARRIER_BIT);
+		for (int i = 0; i <= 6; i++) {
+			backend.bindBufferBase(GL43.GL_SHADER_STORAGE_BUFFER, i, 0);
+		}
+		shader.stop();
+		distanceFences[frame % DISTANCE_BUFFERS] = backend.fenceSync();
+		distanceModelCounts[frame % DISTANCE_BUFFERS] = models.size();
+		frame++;
+		Profiler.end(CULL_SCOPE, profileStart);
+	}
+
+	//the models there are commands for, by model ID
+	public int getModelCount() {
+		return models.size();
+	}
+
+	public TexturedModel getModel(int modelID) {
+		return models.get(modelID);
+	}
+
+	//whether the model's FADING command can have instances, only models with an impostor fade
+	public boolean hasImpostor(int modelID) {
+		return hasImpostor[modelID];
+	}
+
+	//the model's ID in the commands, -1 if it has none
+	public int getModelID(TexturedModel model) {
+		Integer id = modelIDs.get(model);
+		return id == null ? -1 : id;
+	}
+
+	//the largest scale over distance to the near side of the model's visible meshes a couple of frames
+	//ago, to ask the texture streamer for the mips it needs. 0 if none were seen or nothing's read back yet
+	public float getScaleOverDistance(int modelID) {
+		return modelID < scaleOverDistance.length ? scaleOverDistance[modelID] : 0;
+	}
+
+	//draw one of the model's commands, with its VAO bound and its other attributes enabled
+	public void drawMeshes(int modelID, int command) {
+		enableAttributes(TRANSFORMATION_ATTRIBUTE, FADE_ATTRIBUTE);
+		backend.multiDrawElementsIndirect(GL11.GL_TRIANGLES, GL11.GL_UNSIGNED_INT, commandBuffer,
+				(long) (modelID * COMMANDS_PER_MODEL + command) * COMMAND_BYTES, 1);
+		disableAttributes(TRANSFORMATION_ATTRIBUTE, FADE_ATTRIBUTE);
+	}
+
+	//draw the model's impostors, with the impostor's quad bound
+	public void drawImpostors(int modelID) {
+		enableAttributes(IMPOSTOR_POSITION_ATTRIBUTE, IMPOSTOR_ROTATION_ATTRIBUTE);
+		backend.multiDrawElementsIndirect(GL11.GL_TRIANGLES, GL11.GL_UNSIGNED_INT, commandBuffer,
+				(long) (modelID * COMMANDS_PER_MODEL + IMPOSTOR) * COMMAND_BYTES, 1);
+		disableAttributes(IMPOSTOR_POSITION_ATTRIBUTE, IMPOSTOR_ROTATION_ATTRIBUTE);
+	}
+
+	public void cleanUp() {
+		shader.cleanUp();
+		backend.deleteBuffer(entityFloatBuffer);
+		backend.deleteBuffer(entityIntBuffer);
+		backend.deleteBuffer(modelBuffer);
+		backend.deleteBuffer(commandBuffer);
+		backend.deleteBuffer(cursorBuffer);
+		backend.deleteBuffer(instanceBuffer);
+		for (int i = 0; i < DISTANCE_BUFFERS; i++) {
+			backend.deleteBuffer(distanceBuffers[i]);
+			if (distanceFences[i] != 0) {
+				backend.deleteFence(distanceFences[i]);
+				distanceFences[i] = 0;
+			}
+		}
+	}
+
+	//read the buffer about to be written again if the GPU has finished with it, otherwise keep what was
+	//read before rather than wait
+	private void readDistances(int buffer) {
+		int fence = distanceFences[buffer];
+		if (fence == 0) {
+			return;
+		}
+		boolean signaled = backend.isFenceSignaled(fence);
+		backend.deleteFence(fence);
+		distanceFences[buffer] = 0;
+		if (!signaled) {
+			return;
+		}
+		int modelCount = distanceModelCounts[buffer];
+		readBack = ensureCapacity(readBack, modelCount * 4);
+		readBack.clear();
+		readBack.limit(modelCount * 4);
+		backend.getBufferSubData(GL43.GL_SHADER_STORAGE_BUFFER, distanceBuffers[buffer], 0, readBack);
+		if (scaleOverDistance.length < modelCount) {
+			scaleOverDistance = new float[Math.max(modelCount, scaleOverDistance.length * 2)];
+		}
+		for (int i = 0; i < modelCount; i++) {
+			scaleOverDistance[i] = readBack.getFloat(i * 4);
+		}
+	}
+
+	private void addModel(TexturedModel model) {
+		modelIDs.put(model, models.size());
+		models.add(model);
+
+		//a sphere around the origin that holds the model however it's turned, models that didn't keep their
+		//vertices are never culled
+		float[] bounds = model.getRawModel().getBounds();
+		float radius = Float.MAX_VALUE;
+		float size = 0;
+		if (bounds != null) {
+			float x = Math.max(Math.abs(bounds[0]), Math.abs(bounds[3]));
+			float y = Math.max(Math.abs(bounds[1]), Math.abs(bounds[4]));
+			float z = Math.max(Math.abs(bounds[2]), Math.abs(bounds[5]));
+			radius = (float) Math.sqrt(x * x + y * y + z * z);
+
+			//the longest side of the bounding box, what the texture streamer measures models by
+			size = Math.max(bounds[3] - bounds[0], Math.max(bounds[4] - bounds[1], bounds[5] - bounds[2]));
+		}
+		radii.add(radius);
+		sizes.add(size);
+
+		//the VAO reads the instances straight from the instance buffer. The pointers stay good when the
+		//buffer grows, they point at the buffer and not its storage
+		int vaoID = model.getRawModel().getVaoID();
+		if (preparedVaos.add(vaoID)) {
+			GL30.glBindVertexArray(vaoID);
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, instanceBuffer);
+			for (int column = 0; column < 4; column++) {
+				setInstanceAttribute(TRANSFORMATION_ATTRIBUTE + column, 4, column * 16);
+			}
+			setInstanceAttribute(FADE_ATTRIBUTE, 1, 64);
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+			GL30.glBindVertexArray(0);
+		}
+	}
+
+	private void prepareImpostorQuad(RawModel quad) {
+		if (!preparedVaos.add(quad.getVaoID())) {
+			return;
+		}
+		GL30.glBindVertexArray(quad.getVaoID());
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, instanceBuffer);
+		setInstanceAttribute(IMPOSTOR_POSITION_ATTRIBUTE, 4, 0);
+		setInstanceAttribute(IMPOSTOR_ROTATION_ATTRIBUTE, 4, 16);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		GL30.glBindVertexArray(0);
+	}
+
+	private static void setInstanceAttribute(int index, int size, int offset) {
+		GL20.glVertexAttribPointer(index, size, GL11.GL_FLOAT, false, INSTANCE_BYTES, offset);
+		GL33.glVertexAttribDivisor(index, 1);
+	}
+
+	//copy the store's arrays into the entity buffers a chunk at a time, returns how many entities there are
+	private int uploadEntities() {
+		int chunkCount = store.getChunkCount();
+		int entityCount = 0;
+		for (int i = 0; i < chunkCount; i++) {
+			entityCount += store.getChunk(i).getCount();
+		}
+		if (entityCount > capacity || capacity == 0) {
+			capacity = Math.max(EntityStore.CHUNK_SIZE, Integer.highestOneBit(Math.max(1, entityCount - 1)) << 1);
+			entityFloats = createBuffer(capacity * FLOAT_SECTIONS * 4);
+			entityInts = createBuffer(capacity * 2 * 4);
+
+			//an entity can be drawn twice at most, as a mesh and as an impostor while it's fading
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, instanceBuffer);
+			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, (long) capacity * 2 * INSTANCE_BYTES, GL15.GL_DYNAMIC_COPY);
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		}
+
+		FloatBuffer floats = entityFloats.asFloatBuffer();
+		IntBuffer ints = entityInts.asIntBuffer();
+		for (int i = 0; i < chunkCount; i++) {
+			EntityStore.Chunk chunk = store.getChunk(i);
+			int first = i << EntityStore.CHUNK_SHIFT;
+			int count = chunk.getCount();
+			putSection(floats, 0, first, chunk.x, count);
+			putSection(floats, 1, first, chunk.y, count);
+			putSection(floats, 2, first, chunk.z, count);
+			putSection(floats, 3, first, chunk.rotX, count);
+			putSection(floats, 4, first, chunk.rotY, count);
+			putSection(floats, 5, first, chunk.rotZ, count);
+			putSection(floats, 6, first, chunk.scale, count);
+			ints.position(first);
+			ints.put(chunk.flags, 0, count);
+			ints.position(capacity + first);
+			ints.put(chunk.modelID, 0, count);
+		}
+		entityFloats.clear();
+		entityInts.clear();
+		backend.bufferData(GL43.GL_SHADER_STORAGE_BUFFER, entityFloatBuffer, entityFloats, GL15.GL_STREAM_DRAW);
+		backend.bufferData(GL43.GL_SHADER_STORAGE_BUFFER, entityIntBuffer, entityInts, GL15.GL_STREAM_DRAW);
+		return entityCount;
+	}
+
+	private void putSection(FloatBuffer floats, int section, int first, float[] values, int count) {
+		floats.position(section * capacity + first);
+		floats.put(values, 0, count);
+	}
+
+	//the models' spheres and impostor distances, and their commands with no instances yet. Returns how
+	//many commands there are
+	private int uploadModels() {
+		int modelCount = models.size();
+		int commandCount = modelCount * COMMANDS_PER_MODEL;
+		modelData = ensureCapacity(modelData, modelCount * 16);
+		commands = ensureCapacity(commands, commandCount * COMMAND_BYTES);
+		modelData.clear();
+		commands.clear();
+		if (hasImpostor.length < modelCount) {
+			hasImpostor = new boolean[Math.max(modelCount, hasImpostor.length * 2)];
+		}
+		for (int i = 0; i < modelCount; i++) {
+			TexturedModel model = models.get(i);
+			Impostor impostor = impostorRenderer.getImpostor(model);
+			hasImpostor[i] = impostor != null;
+			modelData.putFloat(radii.get(i));
+			modelData.putFloat(impostor != null ? impostorRenderer.getDistance() : -1);
+			modelData.putFloat(impostorRenderer.getFadeRange());
+			modelData.putFloat(sizes.get(i));
+
+			int vertexCount = model.getRawModel().getVertexCount();
+			putCommand(vertexCount);
+			putCommand(vertexCount);
+			if (impostor != null) {
+				prepareImpostorQuad(impostor.getQuad());
+				putCommand(impostor.getQuad().getVertexCount());
+			} else {
+				putCommand(0);
+			}
+		}
+		modelData.flip();
+		commands.flip();
+		backend.bufferData(GL43.GL_SHADER_STORAGE_BUFFER, modelBuffer, modelData, GL15.GL_STREAM_DRAW);
+		backend.bufferData(GL43.GL_SHADER_STORAGE_BUFFER, commandBuffer, commands, GL15.GL_STREAM_DRAW);
+		if (commandCount > cursorCapacity) {
+			cursorCapacity = Math.max(commandCount, cursorCapacity * 2);
+			GL15.glBindBuffer(GL43.GL_SHADER_STORAGE_BUFFER, cursorBuffer);
+			GL15.glBufferData(GL43.GL_SHADER_STORAGE_BUFFER, (long) cursorCapacity * 4, GL15.GL_DYNAMIC_COPY);
+			GL15.glBindBuffer(GL43.GL_SHADER_STORAGE_BUFFER, 0);
+		}
+		return commandCount;
+	}
+
+	//count, instance count, first index, base vertex and base instance, the compute shader fills in the rest
+	private void putCommand(int count) {
+		commands.putInt(count);
+		commands.putInt(0);
+		commands.putInt(0);
+		commands.putInt(0);
+		commands.putInt(0);
+	}
+
+	private void enableAttributes(int first, int last) {
+		for (int i = first; i <= last; i++) {
+			backend.enableVertexAttribArray(i);
+		}
+	}
+
+	private void disableAttributes(int first, int last) {
+		for (int i = first; i <= last; i++) {
+			backend.disableVertexAttribArray(i);
+		}
+	}
+
+	private static ByteBuffer createBuffer(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int bytes) {
+		if (buffer.capacity() >= bytes) {
+			return buffer;
+		}
+		return createBuffer(Math.max(bytes, buffer.capacity() * 2));
+	}
+}
@@ -0,0 +1,66 @@
+package renderEngine;
+
+import models.RawModel;
+import models.TexturedModel;
+
+//A textured model rendered from every direction into an atlas, so far away copies of it can be drawn
+//as one camera facing quad each. The atlas is a grid of framesPerSide x framesPerSide views, and the
+//view for a direction is found with an octahedral mapping: the direction's octahedron is unfolded
+//onto a square, so the views are spread evenly over the whole sphere
+public class Impostor {
+	
+	private final TexturedModel model;
+	private final int textureID;
+	private final int framesPerSide;
+	private final RawModel quad;
+	
+	//model space sphere around the mesh, every frame shows this sphere from its direction
+	private final float centerX, centerY, centerZ;
+	private final float radius;
+	
+	Impostor(TexturedModel model, int textureID, int framesPerSide, RawModel quad, float[] bounds) {
+		this.model = model;
+		this.textureID = textureID;
+		this.framesPerSide = framesPerSide;
+		this.quad = quad;
+		this.centerX = bounds[0];
+		this.centerY = bounds[1];
+		this.centerZ = bounds[2];
+		this.radius = bounds[3];
+	}
+	
+	//the model the impostor stands in for
+	public TexturedModel getModel() {
+		return model;
+	}
+	
+	//the atlas
+	public int getTextureID() {
+		return textureID;
+	}
+	
+	public int getFramesPerSide() {
+		return framesPerSide;
+	}
+	
+	//corners from -1 to 1 in two dimensions
+	public RawModel getQuad() {
+		return quad;
+	}
+
+	public float getCenterX() {
+		return centerX;
+	}
+
+	public float getCenterY() {
+		return centerY;
+	}
+
+	public float getCenterZ() {
+		return centerZ;
+	}
+
+	public float getRadius() {
+		return radius;
+	}
+}
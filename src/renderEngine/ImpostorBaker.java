@@ -0,0 +1,240 @@
+package renderEngine;
+
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL14;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.util.vector.Matrix4f;
+
+import models.ModelData;
+import models.RawModel;
+import models.TexturedModel;
+import shaders.ImpostorBakeShader;
+
+//Renders textured models into impostor atlases at load time. Every frame of the atlas is an
+//orthographic view of the model's bounding sphere from one direction of the octahedral mapping,
+//drawn into an offscreen framebuffer with a plain RGBA8 color texture and a 24 bit depth
+//renderbuffer, which every GL 3 driver can render to, software ones like Mesa's llvmpipe included
+public class ImpostorBaker {
+
+	//8 x 8 frames of 128 x 128 pixels makes a 1024 x 1024 atlas per model
+	public static final int DEFAULT_FRAMES_PER_SIDE = 8;
+	public static final int DEFAULT_FRAME_SIZE = 128;
+
+	private final Loader loader;
+	private final int framesPerSide;
+	private final int frameSize;
+	private final RenderBackend backend = DisplayManager.getBackend();
+
+	private ImpostorBakeShader shader = new ImpostorBakeShader();
+	private int framebufferID;
+	private int depthBufferID;
+
+	//the quad every impostor is drawn with
+	private RawModel quad;
+
+	//reused for every frame
+	private Matrix4f viewMatrix = new Matrix4f();
+	private Matrix4f projectionMatrix = new Matrix4f();
+	private float[] direction = new float[3];
+
+	public ImpostorBaker(Loader loader) {
+		this(loader, DEFAULT_FRAMES_PER_SIDE, DEFAULT_FRAME_SIZE);
+	}
+
+	public ImpostorBaker(Loader loader, int framesPerSide, int frameSize) {
+		this.loader = loader;
+		this.framesPerSide = framesPerSide;
+		this.frameSize = frameSize;
+		int atlasSize = framesPerSide * frameSize;
+
+		framebufferID = GL30.glGenFramebuffers();
+		depthBufferID = GL30.glGenRenderbuffers();
+		GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, depthBufferID);
+		GL30.glRenderbufferStorage(GL30.GL_RENDERBUFFER, GL14.GL_DEPTH_COMPONENT24, atlasSize, atlasSize);
+		GL30.glBindRenderbuffer(GL30.GL_RENDERBUFFER, 0);
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebufferID);
+		GL30.glFramebufferRenderbuffer(GL30.GL_FRAMEBUFFER, GL30.GL_DEPTH_ATTACHMENT, GL30.GL_RENDERBUFFER,
+				depthBufferID);
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+
+		shader.start();
+		shader.connectTextureUnits();
+		shader.stop();
+	}
+
+	//the model has to have been loaded with its mesh data kept, e.g. through OBJLoader
+	public Impostor bake(TexturedModel model) {
+		ModelData data = model.getRawModel().getData();
+		if (data == null) {
+			throw new IllegalStateException("Impostors need models loaded with their mesh data kept, "
+					+ "e.g. through OBJLoader");
+		}
+		float[] bounds = getBoundingSphere(data.getVertices());
+		float radius = bounds[3];
+		int atlasSize = framesPerSide * frameSize;
+		int textureID = loader.createRenderTexture(atlasSize, atlasSize);
+
+		//remember the window's viewport to put it back afterwards
+		IntBuffer viewport = BufferUtils.createIntBuffer(16);
+		GL11.glGetInteger(GL11.GL_VIEWPORT, viewport);
+
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, framebufferID);
+		GL30.glFramebufferTexture2D(GL30.GL_FRAMEBUFFER, GL30.GL_COLOR_ATTACHMENT0, GL11.GL_TEXTURE_2D,
+				textureID, 0);
+		int status = GL30.glCheckFramebufferStatus(GL30.GL_FRAMEBUFFER);
+		if (status != GL30.GL_FRAMEBUFFER_COMPLETE) {
+			GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+			throw new IllegalStateException("Impostor framebuffer isn't complete: 0x" + Integer.toHexString(status));
+		}
+
+		//transparent everywhere the model isn't
+		backend.clearColor(0, 0, 0, 0);
+		backend.clear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+		backend.enable(GL11.GL_DEPTH_TEST);
+
+		//foliage is seen from both sides
+		MasterRenderer.disableCulling();
+
+		shader.start();
+		createProjectionMatrix(radius);
+		shader.loadProjectionMatrix(projectionMatrix);
+		RawModel rawModel = model.getRawModel();
+		backend.bindVertexArray(rawModel.getVaoID());
+		backend.enableVertexAttribArray(0);
+		backend.enableVertexAttribArray(1);
+		backend.activeTexture(GL13.GL_TEXTURE0);
+		backend.bindTexture(GL11.GL_TEXTURE_2D, model.getTexture().getID());
+		for (int y = 0; y < framesPerSide; y++) {
+			for (int x = 0; x < framesPerSide; x++) {
+				GL11.glViewport(x * frameSize, y * frameSize, frameSize, frameSize);
+				getFrameDirection(x, y, framesPerSide, direction);
+				createViewMatrix(bounds, direction);
+				shader.loadViewMatrix(viewMatrix);
+				backend.drawElements(GL11.GL_TRIANGLES, rawModel.getVertexCount(), GL11.GL_UNSIGNED_INT, 0);
+			}
+		}
+		backend.disableVertexAttribArray(0);
+		backend.disableVertexAttribArray(1);
+		backend.bindVertexArray(0);
+		shader.stop();
+		MasterRenderer.enableCulling();
+
+		GL30.glBindFramebuffer(GL30.GL_FRAMEBUFFER, 0);
+		GL11.glViewport(viewport.get(0), viewport.get(1), viewport.get(2), viewport.get(3));
+
+		//the frames are tiny on screen, so they need mipmaps not to shimmer
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+		GL30.glGenerateMipmap(GL11.GL_TEXTURE_2D);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+
+		return new Impostor(model, textureID, framesPerSide, getQuad(), bounds);
+	}
+
+	//the framebuffer and the bake shader, the atlases and the quad belong to the loader
+	public void cleanUp() {
+		shader.cleanUp();
+		GL30.glDeleteFramebuffers(framebufferID);
+		GL30.glDeleteRenderbuffers(depthBufferID);
+	}
+
+	//the direction from the model to the camera that frame x, y of the atlas shows.
+	//The middle of the frame is unfolded from the octahedron, the top half of the square is the top
+	//half of the sphere and the corners fold down to the bottom half
+	private static void getFrameDirection(int x, int y, int framesPerSide, float[] direction) {
+		float u = (x + 0.5f) / framesPerSide * 2 - 1;
+		float v = (y + 0.5f) / framesPerSide * 2 - 1;
+		float dx = u;
+		float dy = 1 - Math.abs(u) - Math.abs(v);
+		float dz = v;
+		if (dy < 0) {
+			dx = (1 - Math.abs(v)) * Math.signum(u);
+			dz = (1 - Math.abs(u)) * Math.signum(v);
+		}
+		float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+		direction[0] = dx / length;
+		direction[1] = dy / length;
+		direction[2] = dz / length;
+	}
+
+	//center and radius of a sphere around every vertex
+	private static float[] getBoundingSphere(float[] vertices) {
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < vertices.length; i += 3) {
+			minX = Math.min(minX, vertices[i]);
+			minY = Math.min(minY, vertices[i + 1]);
+			minZ = Math.min(minZ, vertices[i + 2]);
+			maxX = Math.max(maxX, vertices[i]);
+			maxY = Math.max(maxY, vertices[i + 1]);
+			maxZ = Math.max(maxZ, vertices[i + 2]);
+		}
+		float centerX = (minX + maxX) / 2;
+		float centerY = (minY + maxY) / 2;
+		float centerZ = (minZ + maxZ) / 2;
+		float radiusSquared = 0;
+		for (int i = 0; i < vertices.length; i += 3) {
+			float dx = vertices[i] - centerX;
+			float dy = vertices[i + 1] - centerY;
+			float dz = vertices[i + 2] - centerZ;
+			radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+		}
+		return new float[] {centerX, centerY, centerZ, (float) Math.sqrt(radiusSquared)};
+	}
+
+	//looks at the sphere's center from two radii away along the direction. The axes are the same ones
+	//the impostor vertex shader builds its quad from, so the frames line up with the quads they're drawn on
+	private void createViewMatrix(float[] sphere, float[] direction) {
+		float dx = direction[0], dy = direction[1], dz = direction[2];
+
+		//right is up x direction, straight above or below there's no up to cross with
+		float rightX = 1, rightY = 0, rightZ = 0;
+		if (Math.abs(dy) < 0.999f) {
+			float length = (float) Math.sqrt(dz * dz + dx * dx);
+			rightX = dz / length;
+			rightZ = -dx / length;
+		}
+		float upX = dy * rightZ - dz * rightY;
+		float upY = dz * rightX - dx * rightZ;
+		float upZ = dx * rightY - dy * rightX;
+
+		float eyeX = sphere[0] + dx * sphere[3] * 2;
+		float eyeY = sphere[1] + dy * sphere[3] * 2;
+		float eyeZ = sphere[2] + dz * sphere[3] * 2;
+
+		viewMatrix.setIdentity();
+		viewMatrix.m00 = rightX;
+		viewMatrix.m10 = rightY;
+		viewMatrix.m20 = rightZ;
+		viewMatrix.m30 = -(rightX * eyeX + rightY * eyeY + rightZ * eyeZ);
+		viewMatrix.m01 = upX;
+		viewMatrix.m11 = upY;
+		viewMatrix.m21 = upZ;
+		viewMatrix.m31 = -(upX * eyeX + upY * eyeY + upZ * eyeZ);
+		viewMatrix.m02 = dx;
+		viewMatrix.m12 = dy;
+		viewMatrix.m22 = dz;
+		viewMatrix.m32 = -(dx * eyeX + dy * eyeY + dz * eyeZ);
+	}
+
+	//orthographic, just big enough for the sphere, which is between one and three radii in front
+	private void createProjectionMatrix(float radius) {
+		float near = radius;
+		float far = radius * 3;
+		projectionMatrix.setIdentity();
+		projectionMatrix.m00 = 1 / radius;
+		projectionMatrix.m11 = 1 / radius;
+		projectionMatrix.m22 = -2 / (far - near);
+		projectionMatrix.m32 = -(far + near) / (far - near);
+	}
+
+	private RawModel getQuad() {
+		if (quad == null) {
+			quad = loader.loadToVao(new float[] {-1, -1, 1, -1, 1, 1, -1, 1}, 2, new int[] {0, 1, 2, 2, 3, 0});
+		}
+		return quad;
+	}
+}
@@ -0,0 +1,342 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import entities.EntityStore;
+import entities.Light;
+import models.TexturedModel;
+import profiling.Profiler;
+import shaders.ImpostorShader;
+import shaders.ShaderFeatures;
+
+//Draws far away entities of models that have an impostor as instanced quads instead of meshes.
+//Past the distance an entity (or a whole static batch) starts cross-fading: its mesh is drawn with a
+//DITHER_FADE shader that drops more pixels the further it gets, and its impostor draws exactly the
+//pixels the mesh dropped. Past distance + fade range only the impostor is left.
+//All the instances of every impostor go into one buffer texture each frame, and each impostor is one
+//instanced draw call
+public class ImpostorRenderer {
+
+	private static final int RENDER_SCOPE = Profiler.registerScope("ImpostorRenderer.render");
+
+	//two RGBA32F texels: position and scale, then y rotation and fade
+	private static final int FLOATS_PER_INSTANCE = 8;
+
+	private static class Entry {
+
+		private final Impostor impostor;
+
+		//the entities that are part way through fading, drawn by the entity renderer
+		private final EntityBatch fading;
+
+		private float[] instances = new float[FLOATS_PER_INSTANCE * 64];
+		private int count;
+		private int firstInstance;
+
+		private Entry(Impostor impostor) {
+			this.impostor = impostor;
+			this.fading = new EntityBatch(impostor.getModel());
+		}
+
+		private void add(float x, float y, float z, float scale, float rotY, float fade) {
+			if ((count + 1) * FLOATS_PER_INSTANCE > instances.length) {
+				float[] grown = new float[instances.length * 2];
+				System.arraycopy(instances, 0, grown, 0, count * FLOATS_PER_INSTANCE);
+				instances = grown;
+			}
+			int offset = count * FLOATS_PER_INSTANCE;
+			instances[offset] = x;
+			instances[offset + 1] = y;
+			instances[offset + 2] = z;
+			instances[offset + 3] = scale;
+			instances[offset + 4] = rotY;
+			instances[offset + 5] = fade;
+			count++;
+		}
+	}
+
+	private final Map<TexturedModel, Entry> entries = new HashMap<TexturedModel, Entry>();
+	private final List<Entry> entryList = new ArrayList<Entry>();
+
+	//this frame's batches of entities that are fading out
+	private final List<EntityBatch> fadingBatches = new ArrayList<EntityBatch>();
+	private int instanceCount;
+
+	private float distance;
+	private float fadeRange;
+
+	private ImpostorShader shader;
+	
+	//reads the instances the GPU culling wrote from vertex attributes, made the first time it's needed
+	private ImpostorShader culledShader;
+	private int features;
+	private Matrix4f projectionMatrix;
+	private LightClusters lightClusters;
+	private RenderBackend backend;
+	private int instanceBuffer;
+	private int instanceTexture;
+	private ByteBuffer instanceData = createBuffer(FLOATS_PER_INSTANCE * 4 * 256);
+
+	public ImpostorRenderer(Matrix4f projectionMatrix, LightClusters lightClusters, boolean fog, float distance,
+			float fadeRange) {
+		this.lightClusters = lightClusters;
+		this.distance = distance;
+		this.fadeRange = fadeRange;
+		this.backend = DisplayManager.getBackend();
+		this.projectionMatrix = projectionMatrix;
+		features = fog ? ShaderFeatures.FOG : 0;
+		shader = createShader(features);
+		instanceBuffer = backend.createBuffer();
+		instanceTexture = backend.createBufferTexture(GL30.GL_RGBA32F, instanceBuffer);
+	}
+
+	//entities of the impostor's model past the distance are drawn as the impostor from now on
+	public void addImpostor(Impostor impostor) {
+		Entry entry = new Entry(impostor);
+		entries.put(impostor.getModel(), entry);
+		entryList.add(entry);
+	}
+
+	//the model's impostor, null if it has none
+	public Impostor getImpostor(TexturedModel model) {
+		Entry entry = entries.get(model);
+		return entry == null ? null : entry.impostor;
+	}
+
+	//impostors start fading in at distance and have completely replaced the meshes at distance + fadeRange
+	public void setDistance(float distance, float fadeRange) {
+		this.distance = distance;
+		this.fadeRange = fadeRange;
+	}
+
+	public float getDistance() {
+		return distance;
+	}
+
+	public float getFadeRange() {
+		return fadeRange;
+	}
+
+	//Takes this frame's far entities out of the batches, and the far static batches out of the list.
+	//Entities that are fading stay drawn as meshes through getFadingBatches, fading static batches stay
+	//in the list with their fade set
+	public void process(List<EntityBatch> batches, EntityStore store, List<StaticBatch> staticBatches,
+			Camera camera) {
+		for (Entry entry : entryList) {
+			entry.count = 0;
+			entry.fading.clear();
+		}
+		fadingBatches.clear();
+		if (entryList.isEmpty()) {
+			return;
+		}
+		Vector3f cameraPosition = camera.getPosition();
+
+		for (EntityBatch batch : batches) {
+			Entry entry = entries.get(batch.getModel());
+			if (entry == null) {
+				continue;
+			}
+			int[] slots = batch.getSlots();
+			int kept = 0;
+			for (int i = 0; i < batch.size(); i++) {
+				int slot = slots[i];
+				EntityStore.Chunk chunk = store.getChunkForSlot(slot);
+				int offset = slot & (EntityStore.CHUNK_SIZE - 1);
+				float dx = chunk.x[offset] - cameraPosition.x;
+				float dy = chunk.y[offset] - cameraPosition.y;
+				float dz = chunk.z[offset] - cameraPosition.z;
+				float fade = getFade((float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+				if (fade == 0) {
+					slots[kept++] = slot;
+					continue;
+				}
+				entry.add(chunk.x[offset], chunk.y[offset], chunk.z[offset], chunk.scale[offset],
+						chunk.rotY[offset], fade);
+				if (fade < 1) {
+					entry.fading.add(slot, fade);
+				}
+			}
+			batch.truncate(kept);
+		}
+
+		int kept = 0;
+		for (int i = 0; i < staticBatches.size(); i++) {
+			StaticBatch batch = staticBatches.get(i);
+			batch.fade = 0;
+			Entry entry = batch.getSourceModel() == null ? null : entries.get(batch.getSourceModel());
+			if (entry != null) {
+				batch.fade = getFade(getDistanceToBox(batch, cameraPosition));
+				if (batch.fade > 0) {
+					float[] instances = batch.getInstances();
+					for (int j = 0; j < instances.length; j += StaticBatch.FLOATS_PER_INSTANCE) {
+						entry.add(instances[j], instances[j + 1], instances[j + 2], instances[j + 3],
+								instances[j + 4], batch.fade);
+					}
+				}
+			}
+			if (batch.fade < 1) {
+				staticBatches.set(kept++, batch);
+			}
+		}
+		staticBatches.subList(kept, staticBatches.size()).clear();
+
+		for (Entry entry : entryList) {
+			if (!entry.fading.isEmpty()) {
+				fadingBatches.add(entry.fading);
+			}
+		}
+	}
+
+	//the entities fading out this frame, to be drawn by the entity renderer along with everything else
+	public List<EntityBatch> getFadingBatches() {
+		return fadingBatches;
+	}
+
+	//how many impostors were drawn last frame
+	public int getInstanceCount() {
+		return instanceCount;
+	}
+
+	public void render(Light sun, Camera camera, float skyRed, float skyGreen, float skyBlue) {
+		long profileStart = Profiler.begin();
+		instanceCount = 0;
+		for (Entry entry : entryList) {
+			entry.firstInstance = instanceCount;
+			instanceCount += entry.count;
+		}
+		if (instanceCount == 0) {
+			Profiler.end(RENDER_SCOPE, profileStart);
+			return;
+		}
+
+		instanceData = ensureCapacity(instanceData, instanceCount * FLOATS_PER_INSTANCE * 4);
+		instanceData.clear();
+		for (Entry entry : entryList) {
+			for (int i = 0; i < entry.count * FLOATS_PER_INSTANCE; i++) {
+				instanceData.putFloat(entry.instances[i]);
+			}
+		}
+		instanceData.flip();
+		backend.bufferData(GL31.GL_TEXTURE_BUFFER, instanceBuffer, instanceData, GL15.GL_STREAM_DRAW);
+
+		shader.start();
+		shader.loadViewMatrix(camera);
+		shader.loadLight(sun);
+		shader.loadSkyColor(skyRed, skyGreen, skyBlue);
+		shader.loadLightClusters(lightClusters);
+		backend.activeTexture(GL13.GL_TEXTURE0 + ImpostorShader.INSTANCES_UNIT);
+		backend.bindTexture(GL31.GL_TEXTURE_BUFFER, instanceTexture);
+		backend.activeTexture(GL13.GL_TEXTURE0 + ImpostorShader.ATLAS_UNIT);
+		for (Entry entry : entryList) {
+			if (entry.count == 0) {
+				continue;
+			}
+			Impostor impostor = entry.impostor;
+			backend.bindVertexArray(impostor.getQuad().getVaoID());
+			backend.enableVertexAttribArray(0);
+			backend.bindTexture(GL11.GL_TEXTURE_2D, impostor.getTextureID());
+			shader.loadImpostor(impostor);
+			shader.loadFirstInstance(entry.firstInstance);
+			backend.drawElementsInstanced(GL11.GL_TRIANGLES, impostor.getQuad().getVertexCount(),
+					GL11.GL_UNSIGNED_INT, 0, entry.count);
+			backend.disableVertexAttribArray(0);
+		}
+		backend.bindVertexArray(0);
+		shader.stop();
+		Profiler.end(RENDER_SCOPE, profileStart);
+	}
+
+	//the impostors of the entities the GPU culling culled this frame, one indirect draw per impostor
+	public void renderCulled(GpuCulling culling, Light sun, Camera camera, float skyRed, float skyGreen,
+			float skyBlue) {
+		long profileStart = Profiler.begin();
+		if (culledShader == null) {
+			culledShader = createShader(features | ShaderFeatures.INSTANCED);
+		}
+		culledShader.start();
+		culledShader.loadViewMatrix(camera);
+		culledShader.loadLight(sun);
+		culledShader.loadSkyColor(skyRed, skyGreen, skyBlue);
+		culledShader.loadLightClusters(lightClusters);
+		backend.activeTexture(GL13.GL_TEXTURE0 + ImpostorShader.ATLAS_UNIT);
+		for (Entry entry : entryList) {
+			Impostor impostor = entry.impostor;
+			int modelID = culling.getModelID(impostor.getModel());
+			if (modelID < 0) {
+				continue;
+			}
+			backend.bindVertexArray(impostor.getQuad().getVaoID());
+			backend.enableVertexAttribArray(0);
+			backend.bindTexture(GL11.GL_TEXTURE_2D, impostor.getTextureID());
+			culledShader.loadImpostor(impostor);
+			culling.drawImpostors(modelID);
+			backend.disableVertexAttribArray(0);
+		}
+		backend.bindVertexArray(0);
+		culledShader.stop();
+		Profiler.end(RENDER_SCOPE, profileStart);
+	}
+
+	public void cleanUp() {
+		shader.cleanUp();
+		if (culledShader != null) {
+			culledShader.cleanUp();
+		}
+		backend.deleteTexture(instanceTexture);
+		backend.deleteBuffer(instanceBuffer);
+	}
+
+	private ImpostorShader createShader(int shaderFeatures) {
+		ImpostorShader variant = new ImpostorShader(shaderFeatures);
+		variant.start();
+		variant.connectTextureUnits();
+		variant.loadProjectionMatrix(projectionMatrix);
+		variant.stop();
+		return variant;
+	}
+
+	//0 before the distance, 1 past the end of the fade
+	private float getFade(float distanceToCamera) {
+		if (distanceToCamera <= distance) {
+			return 0;
+		}
+		if (fadeRange <= 0 || distanceToCamera >= distance + fadeRange) {
+			return 1;
+		}
+		return (distanceToCamera - distance) / fadeRange;
+	}
+
+	//0 inside the box, a static batch fades as a whole once all of it is far enough away
+	private static float getDistanceToBox(StaticBatch batch, Vector3f point) {
+		float dx = Math.max(0, Math.max(batch.getMinX() - point.x, point.x - batch.getMaxX()));
+		float dy = Math.max(0, Math.max(batch.getMinY() - point.y, point.y - batch.getMaxY()));
+		float dz = Math.max(0, Math.max(batch.getMinZ() - point.z, point.z - batch.getMaxZ()));
+		return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	private static ByteBuffer createBuffer(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int bytes) {
+		if (buffer.capacity() >= bytes) {
+			return buffer;
+		}
+		return createBuffer(Math.max(bytes, buffer.capacity() * 2));
+	}
+}
@@ -0,0 +1,364 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.util.vector.Matrix4f;
+
+import entities.Light;
+
+//Clustered forward lighting for lots of point lights.
+//The view frustum is cut into a grid of clusters: tiles across the screen, and slices into the
+//distance that get thicker the further away they are. Every frame each point light is added to the
+//list of every cluster its sphere touches, on the CPU with one job per group of slices. The lists go
+//to the GPU in buffer textures, and each fragment only loops over the lights in its own cluster,
+//so the cost per fragment depends on how many lights overlap it and not on how many are in the scene.
+public class LightClusters {
+
+	//the size of the grid, must match clusteredLights.txt
+	public static final int TILES_X = 16;
+	public static final int TILES_Y = 9;
+	public static final int SLICES = 24;
+	private static final int TILES = TILES_X * TILES_Y;
+	private static final int CLUSTER_COUNT = TILES * SLICES;
+
+	//a cluster never holds more lights than this, any more are left out of it
+	private static final int MAX_LIGHTS_PER_CLUSTER = 128;
+
+	//slices are spaced exponentially from here to the far plane, anything closer is in the first slice
+	private static final float CLUSTER_NEAR = 1;
+
+	//texture units the shaders read the clusters from, out of the way of the model and terrain textures
+	public static final int LIGHT_DATA_UNIT = 5;
+	public static final int CLUSTER_GRID_UNIT = 6;
+	public static final int LIGHT_INDICES_UNIT = 7;
+
+	//per light: position and radius, then color
+	private static final int FLOATS_PER_LIGHT = 8;
+
+	private final RenderBackend backend;
+
+	private final float farPlane;
+	private final float xScale;
+	private final float yScale;
+	private final float sliceScale;
+	private final float sliceBias;
+	private float tileWidth;
+	private float tileHeight;
+
+	//this frame's lights in view space
+	private int lightCount;
+	private float[] centerX = new float[0];
+	private float[] centerY = new float[0];
+	private float[] depth = new float[0];
+	private float[] radius = new float[0];
+	private int[] firstSlice = new int[0];
+	private int[] lastSlice = new int[0];
+
+	//what each slice's job worked out, the lights in every cluster of the slice and how many there are
+	private final int[][] sliceLights = new int[SLICES][TILES * MAX_LIGHTS_PER_CLUSTER];
+	private final int[] clusterCounts = new int[CLUSTER_COUNT];
+	private int assignedCount;
+
+	private final ExecutorService workers;
+	private final List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+
+	//data for the GPU, kept between frames and only grown
+	private ByteBuffer lightData = createBuffer(FLOATS_PER_LIGHT * 4);
+	private ByteBuffer clusterGrid = createBuffer(CLUSTER_COUNT * 2 * 4);
+	private ByteBuffer lightIndices = createBuffer(4);
+
+	private final int lightDataBuffer;
+	private final int clusterGridBuffer;
+	private final int lightIndicesBuffer;
+	private final int lightDataTexture;
+	private final int clusterGridTexture;
+	private final int lightIndicesTexture;
+
+	public LightClusters(Matrix4f projectionMatrix, float farPlane, int width, int height) {
+		this.backend = DisplayManager.getBackend();
+		this.farPlane = farPlane;
+		this.xScale = projectionMatrix.m00;
+		this.yScale = projectionMatrix.m11;
+		this.sliceScale = (float) (SLICES / Math.log(farPlane / CLUSTER_NEAR));
+		this.sliceBias = (float) (-Math.log(CLUSTER_NEAR) * sliceScale);
+		setScreenSize(width, height);
+
+		lightDataBuffer = backend.createBuffer();
+		clusterGridBuffer = backend.createBuffer();
+		lightIndicesBuffer = backend.createBuffer();
+		lightDataTexture = backend.createBufferTexture(GL30.GL_RGBA32F, lightDataBuffer);
+		clusterGridTexture = backend.createBufferTexture(GL30.GL_RG32UI, clusterGridBuffer);
+		lightIndicesTexture = backend.createBufferTexture(GL30.GL_R32UI, lightIndicesBuffer);
+
+		int threads = Math.max(1, Math.min(SLICES, Runtime.getRuntime().availableProcessors()));
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "light-clusters");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		for (int i = 0; i < threads; i++) {
+			final int firstJobSlice = i;
+			final int step = threads;
+			jobs.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int slice = firstJobSlice; slice < SLICES; slice += step) {
+						assignSlice(slice);
+					}
+					return null;
+				}
+			});
+		}
+	}
+
+	//the size of what we're drawing into, in pixels
+	public void setScreenSize(int width, int height) {
+		tileWidth = (float) width / TILES_X;
+		tileHeight = (float) height / TILES_Y;
+	}
+
+	//sort this frame's point lights into the clusters and send them to the GPU
+	public void update(List<Light> lights, Matrix4f viewMatrix) {
+		transformLights(lights, viewMatrix);
+		try {
+			for (Future<Void> job : workers.invokeAll(jobs)) {
+				job.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Couldn't assign lights to clusters", e.getCause());
+		}
+		upload(lights);
+	}
+
+	//binds the clusters to their texture units, they stay bound for every shader that uses them
+	public void bind() {
+		backend.activeTexture(GL13.GL_TEXTURE0 + LIGHT_DATA_UNIT);
+		backend.bindTexture(GL31.GL_TEXTURE_BUFFER, lightDataTexture);
+		backend.activeTexture(GL13.GL_TEXTURE0 + CLUSTER_GRID_UNIT);
+		backend.bindTexture(GL31.GL_TEXTURE_BUFFER, clusterGridTexture);
+		backend.activeTexture(GL13.GL_TEXTURE0 + LIGHT_INDICES_UNIT);
+		backend.bindTexture(GL31.GL_TEXTURE_BUFFER, lightIndicesTexture);
+		backend.activeTexture(GL13.GL_TEXTURE0);
+	}
+
+	public float getTileWidth() {
+		return tileWidth;
+	}
+
+	public float getTileHeight() {
+		return tileHeight;
+	}
+
+	//slice of a fragment = floor(log(view depth) * scale + bias)
+	public float getSliceScale() {
+		return sliceScale;
+	}
+
+	public float getSliceBias() {
+		return sliceBias;
+	}
+
+	public int getLightCount() {
+		return lightCount;
+	}
+
+	//how many entries there are over all the cluster lists this frame
+	public int getAssignedCount() {
+		return assignedCount;
+	}
+
+	public void cleanUp() {
+		workers.shutdownNow();
+		backend.deleteTexture(lightDataTexture);
+		backend.deleteTexture(clusterGridTexture);
+		backend.deleteTexture(lightIndicesTexture);
+		backend.deleteBuffer(lightDataBuffer);
+		backend.deleteBuffer(clusterGridBuffer);
+		backend.deleteBuffer(lightIndicesBuffer);
+	}
+
+	//move the lights into view space and work out which slices each one reaches
+	private void transformLights(List<Light> lights, Matrix4f view) {
+		lightCount = lights.size();
+		if (centerX.length < lightCount) {
+			int capacity = Math.max(lightCount, centerX.length * 2);
+			centerX = new float[capacity];
+			centerY = new float[capacity];
+			depth = new float[capacity];
+			radius = new float[capacity];
+			firstSlice = new int[capacity];
+			lastSlice = new int[capacity];
+		}
+		for (int i = 0; i < lightCount; i++) {
+			Light light = lights.get(i);
+			float x = light.getPosition().x;
+			float y = light.getPosition().y;
+			float z = light.getPosition().z;
+			centerX[i] = view.m00 * x + view.m10 * y + view.m20 * z + view.m30;
+			centerY[i] = view.m01 * x + view.m11 * y + view.m21 * z + view.m31;
+			depth[i] = -(view.m02 * x + view.m12 * y + view.m22 * z + view.m32);
+			radius[i] = light.getRadius();
+			float nearest = depth[i] - radius[i];
+			float furthest = depth[i] + radius[i];
+			if (furthest < 0 || nearest > farPlane) {
+				//behind the camera or past the far plane, in no slices at all
+				firstSlice[i] = 1;
+				lastSlice[i] = 0;
+			} else {
+				firstSlice[i] = getSlice(nearest);
+				lastSlice[i] = getSlice(Math.min(furthest, farPlane));
+			}
+		}
+	}
+
+	//runs on the worker threads, only touches this slice's part of the arrays
+	private void assignSlice(int slice) {
+		int[] lights = sliceLights[slice];
+		int clusterBase = slice * TILES;
+		Arrays.fill(clusterCounts, clusterBase, clusterBase + TILES, 0);
+		float sliceNear = slice == 0 ? 0 : getSliceDepth(slice);
+		float sliceFar = slice == SLICES - 1 ? farPlane : getSliceDepth(slice + 1);
+		for (int i = 0; i < lightCount; i++) {
+			if (slice < firstSlice[i] || slice > lastSlice[i]) {
+				continue;
+			}
+
+			//the part of the light's depth range inside this slice
+			float near = Math.max(depth[i] - radius[i], sliceNear);
+			float far = Math.min(depth[i] + radius[i], sliceFar);
+			int minTileX = 0;
+			int maxTileX = TILES_X - 1;
+			int minTileY = 0;
+			int maxTileY = TILES_Y - 1;
+
+			//if the light reaches the camera it could cover the whole screen
+			if (near > 0.0001f) {
+				float left = getScreenMin(centerX[i] - radius[i], near, far) * xScale;
+				float right = getScreenMax(centerX[i] + radius[i], near, far) * xScale;
+				float bottom = getScreenMin(centerY[i] - radius[i], near, far) * yScale;
+				float top = getScreenMax(centerY[i] + radius[i], near, far) * yScale;
+				if (left > 1 || right < -1 || bottom > 1 || top < -1) {
+					continue;
+				}
+				minTileX = toTile(left, TILES_X);
+				maxTileX = toTile(right, TILES_X);
+				minTileY = toTile(bottom, TILES_Y);
+				maxTileY = toTile(top, TILES_Y);
+			}
+			for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+				for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+					int tile = tileY * TILES_X + tileX;
+					int count = clusterCounts[clusterBase + tile];
+					if (count < MAX_LIGHTS_PER_CLUSTER) {
+						lights[tile * MAX_LIGHTS_PER_CLUSTER + count] = i;
+						clusterCounts[clusterBase + tile] = count + 1;
+					}
+				}
+			}
+		}
+	}
+
+	//pack the cluster lists one after another and upload everything
+	private void upload(List<Light> lights) {
+		assignedCount = 0;
+		for (int cluster = 0; cluster < CLUSTER_COUNT; cluster++) {
+			assignedCount += clusterCounts[cluster];
+		}
+		lightIndices = ensureCapacity(lightIndices, Math.max(assignedCount, 1) * 4);
+		clusterGrid.clear();
+		lightIndices.clear();
+		int offset = 0;
+		for (int cluster = 0; cluster < CLUSTER_COUNT; cluster++) {
+			int count = clusterCounts[cluster];
+			clusterGrid.putInt(offset).putInt(count);
+			int[] lightsInSlice = sliceLights[cluster / TILES];
+			int start = (cluster % TILES) * MAX_LIGHTS_PER_CLUSTER;
+			for (int i = 0; i < count; i++) {
+				lightIndices.putInt(lightsInSlice[start + i]);
+			}
+			offset += count;
+		}
+		if (assignedCount == 0) {
+			lightIndices.putInt(0);
+		}
+		clusterGrid.flip();
+		lightIndices.flip();
+
+		lightData = ensureCapacity(lightData, Math.max(lightCount, 1) * FLOATS_PER_LIGHT * 4);
+		lightData.clear();
+		for (int i = 0; i < lightCount; i++) {
+			Light light = lights.get(i);
+			lightData.putFloat(light.getPosition().x).putFloat(light.getPosition().y)
+					.putFloat(light.getPosition().z).putFloat(light.getRadius());
+			lightData.putFloat(light.getColor().x).putFloat(light.getColor().y)
+					.putFloat(light.getColor().z).putFloat(0);
+		}
+		if (lightCount == 0) {
+			lightData.position(FLOATS_PER_LIGHT * 4);
+		}
+		lightData.flip();
+
+		backend.bufferData(GL31.GL_TEXTURE_BUFFER, lightDataBuffer, lightData, GL15.GL_STREAM_DRAW);
+		backend.bufferData(GL31.GL_TEXTURE_BUFFER, clusterGridBuffer, clusterGrid, GL15.GL_STREAM_DRAW);
+		backend.bufferData(GL31.GL_TEXTURE_BUFFER, lightIndicesBuffer, lightIndices, GL15.GL_STREAM_DRAW);
+	}
+
+	private int getSlice(float viewDepth) {
+		if (viewDepth <= 0) {
+			return 0;
+		}
+		int slice = (int) Math.floor(Math.log(viewDepth) * sliceScale + sliceBias);
+		return Math.max(0, Math.min(SLICES - 1, slice));
+	}
+
+	//the view depth a slice starts at
+	private float getSliceDepth(int slice) {
+		return (float) Math.exp((slice - sliceBias) / sliceScale);
+	}
+
+	//the smallest x / depth (or y / depth) of the sphere's box between the two depths
+	private static float getScreenMin(float edge, float near, float far) {
+		return edge < 0 ? edge / near : edge / far;
+	}
+
+	private static float getScreenMax(float edge, float near, float far) {
+		return edge > 0 ? edge / near : edge / far;
+	}
+
+	//from -1 to 1 across the screen to a tile, clamped to the grid
+	private static int toTile(float ndc, int tiles) {
+		int tile = (int) Math.floor((ndc + 1) * 0.5f * tiles);
+		return Math.max(0, Math.min(tiles - 1, tile));
+	}
+
+	private static ByteBuffer createBuffer(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int bytes) {
+		if (buffer.capacity() >= bytes) {
+			return buffer;
+		}
+		return createBuffer(Math.max(bytes, buffer.capacity() * 2));
+	}
+}
@@ -1,22 +1,26 @@
 package renderEngine;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
 
-import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
-import org.newdawn.slick.opengl.Texture;
-import org.newdawn.slick.opengl.TextureLoader;
 
 import models.RawModel;
+import terrains.HeightMap;
 
 //Load 3D models into memory, by storing visual data in a VAO
 public class Loader {
@@ -26,6 +30,19 @@ public class Loader {
 	private List<Integer> vbos = new ArrayList<Integer>();
 	private List<Integer> textures = new ArrayList<Integer>();
 	
+	//the VBOs that belong to each VAO, so one model can be deleted on its own
+	private Map<Integer, List<Integer>> vaoBuffers = new HashMap<Integer, List<Integer>>();
+	
+	//VBOs created while a VAO is bound get added to this list
+	private List<Integer> boundVaoBuffers;
+	
+	//roughly how much GPU memory the buffers and textures take, for the metrics. Kept per ID so deleting
+	//one takes its bytes off again
+	private Map<Integer, Long> vboBytes = new HashMap<Integer, Long>();
+	private Map<Integer, Long> textureSizes = new HashMap<Integer, Long>();
+	private long bufferBytes;
+	private long textureBytes;
+	
 	/**Take in positions of a model's vertices
 	  *Load this data into a VAO, 
 	  *Return information about VAO as a raw model object **/
@@ -55,22 +72,141 @@ public class Loader {
 		return new RawModel(vaoID, indices.length);
 	}
 	
+	//load a model whose indices are already in a buffer shared with other models, like terrain tiles
+	public RawModel loadToVao(float[] positions, float[] textureCoords, float[] normals, int indexBufferID, 
+			int indexCount) {
+		int vaoID = createVao();
+		vaos.add(vaoID);
+		
+		//the element buffer binding is part of the VAO's state, so binding it here attaches it
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indexBufferID);
+		storeDataInAttributeList(0, 3, positions);
+		storeDataInAttributeList(1, 2, textureCoords);
+		storeDataInAttributeList(2, 3, normals);
+		unbindVao();
+		return new RawModel(vaoID, indexCount);
+	}
+	
+	//load indices into a buffer that isn't owned by any one VAO, and return its ID
+	public int loadIndexBuffer(int[] indices) {
+		int vboID = GL15.glGenBuffers();
+		vbos.add(vboID);
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboID);
+		ByteBuffer buffer = storeDataInIntBuffer(indices);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+		countBufferBytes(vboID, buffer.remaining());
+		StagingBufferPool.release(buffer);
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, 0);
+		return vboID;
+	}
+	
+	//delete one model's VAO and the VBOs it owns straight away, instead of waiting for cleanUp.
+	//shared index buffers are left alone
+	public void unloadVao(RawModel model) {
+		Integer vaoID = model.getVaoID();
+		List<Integer> buffers = vaoBuffers.remove(vaoID);
+		if (buffers != null) {
+			for (Integer vbo : buffers) {
+				GL15.glDeleteBuffers(vbo);
+				vbos.remove(vbo);
+				Long bytes = vboBytes.remove(vbo);
+				if (bytes != null) {
+					bufferBytes -= bytes;
+				}
+			}
+		}
+		GL30.glDeleteVertexArrays(vaoID);
+		vaos.remove(vaoID);
+	}
+	
+	//load a model that only has positions, like the terrain patch grid, into a VAO
+	public RawModel loadToVao(float[] positions, int dimensions, int[] indices) {
+		int vaoID = createVao();
+		vaos.add(vaoID);
+		bindIndicesBuffer(indices);
+		storeDataInAttributeList(0, dimensions, positions);
+		unbindVao();
+		return new RawModel(vaoID, indices.length);
+	}
+	
+	//upload a height map into a single channel float texture so the vertex shader can read heights from it
+	public int loadHeightTexture(HeightMap heightMap) {
+		int textureID = GL11.glGenTextures();
+		textures.add(textureID);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+		
+		//height rows aren't always a multiple of 4 bytes wide
+		GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
+		ByteBuffer buffer = storeDataInFloatBuffer(heightMap.getHeights());
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL30.GL_R32F, heightMap.getSize(), heightMap.getSize(), 0, 
+				GL11.GL_RED, GL11.GL_FLOAT, buffer);
+		countTextureBytes(textureID, buffer.remaining());
+		StagingBufferPool.release(buffer);
+		GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 4);
+		
+		//tileable maps wrap round, others stop at the edge
+		int wrap = heightMap.isTileable() ? GL11.GL_REPEAT : GL12.GL_CLAMP_TO_EDGE;
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, wrap);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, wrap);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+		return textureID;
+	}
+	
+	//an empty RGBA texture to render into, with mipmaps that have to be generated once it's drawn
+	public int createRenderTexture(int width, int height) {
+		int textureID = GL11.glGenTextures();
+		textures.add(textureID);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, width, height, 0, GL11.GL_RGBA, 
+				GL11.GL_UNSIGNED_BYTE, (ByteBuffer) null);
+		
+		//a full mip chain adds another third
+		countTextureBytes(textureID, (long) width * height * 4 * 4 / 3);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+		return textureID;
+	}
+	
 	//load a texture into memory and return the texture ID
 	public int loadTexture(String file) {
-		Texture texture = null;
+		BufferedImage image = null;
 		
 		try {
 			//read from a texture file, texture files are always stored in the res file
-			texture = TextureLoader.getTexture("PNG", new FileInputStream("res/" + file + ".png"));
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			image = ImageIO.read(new File("res/" + file + ".png"));
 		} catch (IOException e) {
+			System.err.println("Couldn't load texture " + file);
 			e.printStackTrace();
+			System.exit(-1);
 		}
 		
-		//create the texture ID from the texture and return it
-		int textureID = texture.getTextureID();
+		return loadTexture(image);
+	}
+	
+	//load an image made in memory, e.g. a font atlas, the same way loadTexture(String) loads a file
+	public int loadTexture(BufferedImage image) {
+		
+		//decode it as RGBA into a staging buffer and upload it
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+		ByteBuffer pixels = StagingBufferPool.acquire(width * height * 4);
+		putPixels(pixels, argb);
+		pixels.flip();
+		
+		//create the texture ID and return it
+		int textureID = GL11.glGenTextures();
 		textures.add(textureID);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, textureID);
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL11.GL_RGBA8, width, height, 0, GL11.GL_RGBA, 
+				GL11.GL_UNSIGNED_BYTE, pixels);
+		countTextureBytes(textureID, pixels.remaining());
+		StagingBufferPool.release(pixels);
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
 		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL11.GL_REPEAT);
@@ -78,6 +214,74 @@ public class Loader {
 		return textureID;
 	}
 	
+	//load several textures from the res folder into the layers of one texture array.
+	//every layer of an array has to be the same size, so smaller images are scaled up to the biggest one
+	public int loadTextureArray(String... files) {
+		BufferedImage[] images = new BufferedImage[files.length];
+		int size = 0;
+		for (int i = 0; i < files.length; i++) {
+			try {
+				images[i] = ImageIO.read(new File("res/" + files[i] + ".png"));
+			} catch (IOException e) {
+				System.err.println("Couldn't load texture array layer " + files[i]);
+				e.printStackTrace();
+				System.exit(-1);
+			}
+			size = Math.max(size, Math.max(images[i].getWidth(), images[i].getHeight()));
+		}
+		
+		//pack every layer one after another as RGBA bytes
+		ByteBuffer pixels = StagingBufferPool.acquire(size * size * 4 * files.length);
+		int[] argb = new int[size * size];
+		for (BufferedImage image : images) {
+			BufferedImage scaled = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D graphics = scaled.createGraphics();
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.drawImage(image, 0, 0, size, size, null);
+			graphics.dispose();
+			scaled.getRGB(0, 0, size, size, argb, 0, size);
+			putPixels(pixels, argb);
+		}
+		pixels.flip();
+		
+		int textureID = GL11.glGenTextures();
+		textures.add(textureID);
+		GL11.glBindTexture(GL30.GL_TEXTURE_2D_ARRAY, textureID);
+		GL12.glTexImage3D(GL30.GL_TEXTURE_2D_ARRAY, 0, GL11.GL_RGBA8, size, size, files.length, 0, 
+				GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, pixels);
+		countTextureBytes(textureID, (long) pixels.remaining() * 4 / 3);
+		StagingBufferPool.release(pixels);
+		GL30.glGenerateMipmap(GL30.GL_TEXTURE_2D_ARRAY);
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_WRAP_S, GL11.GL_REPEAT);
+		GL11.glTexParameteri(GL30.GL_TEXTURE_2D_ARRAY, GL11.GL_TEXTURE_WRAP_T, GL11.GL_REPEAT);
+		GL11.glBindTexture(GL30.GL_TEXTURE_2D_ARRAY, 0);
+		return textureID;
+	}
+	
+	//a texture made somewhere else, e.g. by the texture streamer, to be deleted with the rest
+	void addTexture(int textureID) {
+		textures.add(textureID);
+	}
+	
+	//for textures whose size changes after they're made, bytes is negative when they shrink
+	void countTextureBytes(int textureID, long bytes) {
+		Long size = textureSizes.get(textureID);
+		textureSizes.put(textureID, size == null ? bytes : size + bytes);
+		textureBytes += bytes;
+	}
+	
+	//delete one texture straight away, instead of waiting for cleanUp
+	public void unloadTexture(int textureID) {
+		GL11.glDeleteTextures(textureID);
+		textures.remove((Integer) textureID);
+		Long size = textureSizes.remove(textureID);
+		if (size != null) {
+			textureBytes -= size;
+		}
+	}
+	
 	//delete the VAOs and the VBOs when we close the game
 	public void cleanUp() {
 		
@@ -95,6 +299,38 @@ public class Loader {
 		for (int texture:textures) {
 			GL11.glDeleteTextures(texture);
 		}
+		vaos.clear();
+		vbos.clear();
+		textures.clear();
+		vboBytes.clear();
+		textureSizes.clear();
+		bufferBytes = 0;
+		textureBytes = 0;
+	}
+	
+	public int getVaoCount() {
+		return vaos.size();
+	}
+	
+	public int getVboCount() {
+		return vbos.size();
+	}
+	
+	public int getTextureCount() {
+		return textures.size();
+	}
+	
+	//bytes uploaded into the VBOs made here that are still alive. Buffers renderers make themselves,
+	//like GpuCulling's and the instance buffers, aren't counted
+	public long getBufferBytes() {
+		return bufferBytes;
+	}
+	
+	//an estimate of the size of the textures made here or by the texture streamer that are still alive,
+	//from their dimensions and format. Textures renderers make themselves, like the dynamic resolution
+	//target, aren't counted
+	public long getTextureBytes() {
+		return textureBytes;
 	}
 	
 	//create a new, empty, VAO, and return its ID 
@@ -102,6 +338,8 @@ public class Loader {
 		
 		//create an empty VAO and return its ID 
 		int vaoID = GL30.glGenVertexArrays();
+		boundVaoBuffers = new ArrayList<Integer>();
+		vaoBuffers.put(vaoID, boundVaoBuffers);
 		
 		//activate the vaoID by "binding it", then return the ID
 		GL30.glBindVertexArray(vaoID);
@@ -117,15 +355,18 @@ public class Loader {
 		
 		//store the VBO in the vbos array, so we can delete it later
 		vbos.add(vboID);
+		boundVaoBuffers.add(vboID);
 		
 		//"Bind" the VBO so that we can do stuff to it
 		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vboID);
 		
 		//convert the data into a buffer
-		FloatBuffer buffer = storeDataInFloatBuffer(data);
+		ByteBuffer buffer = storeDataInFloatBuffer(data);
 		
-		//Store the buffer into the VBO 
+		//Store the buffer into the VBO, GL has its own copy now so the buffer can go back to the pool
 		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+		countBufferBytes(vboID, buffer.remaining());
+		StagingBufferPool.release(buffer);
 		
 		//store the VBO into the VAO
 		GL20.glVertexAttribPointer(attributeNumber, coordinateSize, GL11.GL_FLOAT,false, 0, 0);
@@ -138,6 +379,7 @@ public class Loader {
 		
 		//instead of putting in a VAO ID, pass in 0 to "unbind" it 
 		GL30.glBindVertexArray(0);
+		boundVaoBuffers = null;
 	}
 	
 	//load an indices buffer array and bind it to a VAO
@@ -148,41 +390,55 @@ public class Loader {
 		
 		//add it to the array of vbos so it gets deleted in the end
 		vbos.add(vboID);
+		boundVaoBuffers.add(vboID);
 		
 		//bind the vbo
 		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, vboID);
 		
 		//convert the data into an intbuffer
-		IntBuffer buffer = storeDataInIntBuffer(indices);
+		ByteBuffer buffer = storeDataInIntBuffer(indices);
 		
 		//store the buffer in the VBO
 		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+		countBufferBytes(vboID, buffer.remaining());
+		StagingBufferPool.release(buffer);
 	}
 	
-	//convert an array of indidices into an IntBuffer
-	private IntBuffer storeDataInIntBuffer(int[] data) {
+	//copy an array of indidices into a staging buffer, release it once it's uploaded
+	private ByteBuffer storeDataInIntBuffer(int[] data) {
 		
-		//create an empty intbuffer
-		IntBuffer buffer = BufferUtils.createIntBuffer(data.length);
+		//take a buffer from the pool, its limit is already the size of the data
+		ByteBuffer buffer = StagingBufferPool.acquire(data.length * 4);
 		
-		//same as with the float buffers, we have to put the data in and then flip it
-		buffer.put(data);
-		buffer.flip();
+		//writing through a view leaves the buffer's own position at 0, ready to be read
+		buffer.asIntBuffer().put(data);
 		return buffer;
 		
 	}
 	
-	//convert an array of floats to a buffer
-	private FloatBuffer storeDataInFloatBuffer(float[] data) {
+	//copy an array of floats into a staging buffer, release it once it's uploaded
+	private ByteBuffer storeDataInFloatBuffer(float[] data) {
 		
-		//create a new buffer
-		FloatBuffer buffer = BufferUtils.createFloatBuffer(data.length);
+		//take a buffer from the pool
+		ByteBuffer buffer = StagingBufferPool.acquire(data.length * 4);
 		
 		//put the data in the buffer
-		buffer.put(data);
-		
-		//we have to flip it, because buffer expects to be written to not read
-		buffer.flip();
+		buffer.asFloatBuffer().put(data);
 		return buffer;
 	}
+	
+	private void countBufferBytes(int vboID, long bytes) {
+		vboBytes.put(vboID, bytes);
+		bufferBytes += bytes;
+	}
+	
+	//put ARGB pixels in a buffer as RGBA bytes
+	static void putPixels(ByteBuffer pixels, int[] argb) {
+		for (int pixel : argb) {
+			pixels.put((byte) (pixel >> 16));
+			pixels.put((byte) (pixel >> 8));
+			pixels.put((byte) pixel);
+			pixels.put((byte) (pixel >> 24));
+		}
+	}
 }
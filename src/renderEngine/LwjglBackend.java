@@ -0,0 +1,425 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ContextCapabilities;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GL40;
+import org.lwjgl.opengl.GL41;
+import org.lwjgl.opengl.GL42;
+import org.lwjgl.opengl.GL43;
+import org.lwjgl.opengl.GLContext;
+import org.lwjgl.opengl.GLSync;
+
+//The real backend, every call goes straight to OpenGL. It keeps the same counters as the
+//null backend, which only costs an increment per call
+public class LwjglBackend implements RenderBackend {
+	
+	private final DrawStats stats = new DrawStats();
+	private final DrawStats frameStats = new DrawStats();
+	
+	//fences by handle, LWJGL's GLSync can't be made from a plain number
+	private final Map<Integer, GLSync> fences = new HashMap<Integer, GLSync>();
+	private int nextFence = 1;
+
+	@Override
+	public void enable(int capability) {
+		stats.countStateChange();
+		GL11.glEnable(capability);
+	}
+
+	@Override
+	public void disable(int capability) {
+		stats.countStateChange();
+		GL11.glDisable(capability);
+	}
+
+	@Override
+	public void cullFace(int mode) {
+		stats.countStateChange();
+		GL11.glCullFace(mode);
+	}
+
+	@Override
+	public void clear(int mask) {
+		GL11.glClear(mask);
+	}
+
+	@Override
+	public void clearColor(float r, float g, float b, float a) {
+		GL11.glClearColor(r, g, b, a);
+	}
+
+	@Override
+	public void depthFunc(int function) {
+		stats.countStateChange();
+		GL11.glDepthFunc(function);
+	}
+
+	@Override
+	public void depthMask(boolean write) {
+		stats.countStateChange();
+		GL11.glDepthMask(write);
+	}
+
+	@Override
+	public void colorMask(boolean red, boolean green, boolean blue, boolean alpha) {
+		stats.countStateChange();
+		GL11.glColorMask(red, green, blue, alpha);
+	}
+
+	@Override
+	public void blendFunc(int source, int destination) {
+		stats.countStateChange();
+		GL11.glBlendFunc(source, destination);
+	}
+
+	@Override
+	public void bindVertexArray(int vaoID) {
+		stats.countVaoBind();
+		GL30.glBindVertexArray(vaoID);
+	}
+
+	@Override
+	public void enableVertexAttribArray(int index) {
+		GL20.glEnableVertexAttribArray(index);
+	}
+
+	@Override
+	public void disableVertexAttribArray(int index) {
+		GL20.glDisableVertexAttribArray(index);
+	}
+
+	@Override
+	public void activeTexture(int unit) {
+		GL13.glActiveTexture(unit);
+	}
+
+	@Override
+	public void bindTexture(int target, int textureID) {
+		stats.countTextureBind();
+		GL11.glBindTexture(target, textureID);
+	}
+
+	@Override
+	public void bindFramebuffer(int target, int framebufferID) {
+		stats.countStateChange();
+		GL30.glBindFramebuffer(target, framebufferID);
+	}
+
+	@Override
+	public void viewport(int x, int y, int width, int height) {
+		stats.countStateChange();
+		GL11.glViewport(x, y, width, height);
+	}
+
+	@Override
+	public int createBuffer() {
+		return GL15.glGenBuffers();
+	}
+
+	@Override
+	public void bufferData(int target, int bufferID, ByteBuffer data, int usage) {
+		stats.countBufferUpload(data.remaining());
+		GL15.glBindBuffer(target, bufferID);
+		GL15.glBufferData(target, data, usage);
+		GL15.glBindBuffer(target, 0);
+	}
+
+	@Override
+	public int createBufferTexture(int internalFormat, int bufferID) {
+		int textureID = GL11.glGenTextures();
+		GL11.glBindTexture(GL31.GL_TEXTURE_BUFFER, textureID);
+		GL31.glTexBuffer(GL31.GL_TEXTURE_BUFFER, internalFormat, bufferID);
+		GL11.glBindTexture(GL31.GL_TEXTURE_BUFFER, 0);
+		return textureID;
+	}
+
+	@Override
+	public void deleteBuffer(int bufferID) {
+		GL15.glDeleteBuffers(bufferID);
+	}
+
+	@Override
+	public void deleteTexture(int textureID) {
+		GL11.glDeleteTextures(textureID);
+	}
+
+	@Override
+	public void drawElements(int mode, int count, int type, long offset) {
+		stats.countDraw(mode, count, 1);
+		GL11.glDrawElements(mode, count, type, offset);
+	}
+
+	@Override
+	public void drawElementsInstanced(int mode, int count, int type, long offset, int instances) {
+		stats.countDraw(mode, count, instances);
+		GL31.glDrawElementsInstanced(mode, count, type, offset, instances);
+	}
+
+	//LWJGL 2 has no binding for glMultiDrawElements, so the ranges are drawn one after another.
+	//The culler merges neighbouring meshlets into one range, so there are far fewer of these than meshlets
+	@Override
+	public void multiDrawElements(int mode, IntBuffer counts, IntBuffer offsets, int type) {
+		for (int i = counts.position(); i < counts.limit(); i++) {
+			stats.countDraw(mode, counts.get(i), 1);
+			GL11.glDrawElements(mode, counts.get(i), type, offsets.get(i));
+		}
+	}
+
+	@Override
+	public void multiDrawElementsIndirect(int mode, int type, int commandBuffer, long offset, int drawCount) {
+		for (int i = 0; i < drawCount; i++) {
+			stats.countDraw(mode, 0, 0);
+		}
+		GL15.glBindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+		GL43.glMultiDrawElementsIndirect(mode, type, offset, drawCount, 0);
+		GL15.glBindBuffer(GL40.GL_DRAW_INDIRECT_BUFFER, 0);
+	}
+
+	@Override
+	public void beginQuery(int target, int queryID) {
+		GL15.glBeginQuery(target, queryID);
+	}
+
+	@Override
+	public void endQuery(int target) {
+		GL15.glEndQuery(target);
+	}
+
+	@Override
+	public void queryCounter(int queryID, int target) {
+		GL33.glQueryCounter(queryID, target);
+	}
+
+	@Override
+	public boolean isQueryResultAvailable(int queryID) {
+		return GL15.glGetQueryObjecti(queryID, GL15.GL_QUERY_RESULT_AVAILABLE) != 0;
+	}
+
+	//timestamps need all 64 bits, which are only there from 3.3
+	@Override
+	public long getQueryResult(int queryID) {
+		if (GLContext.getCapabilities().OpenGL33) {
+			return GL33.glGetQueryObjectui64(queryID, GL15.GL_QUERY_RESULT);
+		}
+		return GL15.glGetQueryObjectui(queryID, GL15.GL_QUERY_RESULT) & 0xffffffffL;
+	}
+
+	@Override
+	public void bindBufferBase(int target, int index, int bufferID) {
+		stats.countStateChange();
+		GL30.glBindBufferBase(target, index, bufferID);
+	}
+
+	@Override
+	public void dispatchCompute(int groupsX, int groupsY, int groupsZ) {
+		GL43.glDispatchCompute(groupsX, groupsY, groupsZ);
+	}
+
+	@Override
+	public void memoryBarrier(int barriers) {
+		GL42.glMemoryBarrier(barriers);
+	}
+
+	@Override
+	public void getBufferSubData(int target, int bufferID, long offset, ByteBuffer data) {
+		GL15.glBindBuffer(target, bufferID);
+		GL15.glGetBufferSubData(target, offset, data);
+		GL15.glBindBuffer(target, 0);
+	}
+
+	@Override
+	public int fenceSync() {
+		int fence = nextFence++;
+		fences.put(fence, GL32.glFenceSync(GL32.GL_SYNC_GPU_COMMANDS_COMPLETE, 0));
+		return fence;
+	}
+
+	@Override
+	public boolean isFenceSignaled(int fence) {
+		int status = GL32.glClientWaitSync(fences.get(fence), 0, 0);
+		return status == GL32.GL_ALREADY_SIGNALED || status == GL32.GL_CONDITION_SATISFIED;
+	}
+
+	@Override
+	public void deleteFence(int fence) {
+		GLSync sync = fences.remove(fence);
+		if (sync != null) {
+			GL32.glDeleteSync(sync);
+		}
+	}
+
+	@Override
+	public int createProgram() {
+		return GL20.glCreateProgram();
+	}
+
+	@Override
+	public int createShader(int type) {
+		return GL20.glCreateShader(type);
+	}
+
+	@Override
+	public String compileShader(int shaderID, CharSequence source) {
+		GL20.glShaderSource(shaderID, source);
+		GL20.glCompileShader(shaderID);
+		if (GL20.glGetShaderi(shaderID, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
+			return GL20.glGetShaderInfoLog(shaderID, 500);
+		}
+		return null;
+	}
+
+	@Override
+	public void attachShader(int programID, int shaderID) {
+		GL20.glAttachShader(programID, shaderID);
+	}
+
+	@Override
+	public void detachShader(int programID, int shaderID) {
+		GL20.glDetachShader(programID, shaderID);
+	}
+
+	@Override
+	public void bindAttribLocation(int programID, int index, String name) {
+		GL20.glBindAttribLocation(programID, index, name);
+	}
+
+	@Override
+	public String linkProgram(int programID) {
+		GL20.glLinkProgram(programID);
+		if (GL20.glGetProgrami(programID, GL20.GL_LINK_STATUS) == GL11.GL_FALSE) {
+			return GL20.glGetProgramInfoLog(programID, 500);
+		}
+		return null;
+	}
+
+	@Override
+	public void validateProgram(int programID) {
+		GL20.glValidateProgram(programID);
+	}
+
+	@Override
+	public int getUniformLocation(int programID, String name) {
+		return GL20.glGetUniformLocation(programID, name);
+	}
+
+	@Override
+	public void useProgram(int programID) {
+		stats.countProgramBind();
+		GL20.glUseProgram(programID);
+	}
+
+	@Override
+	public void deleteShader(int shaderID) {
+		GL20.glDeleteShader(shaderID);
+	}
+
+	@Override
+	public void deleteProgram(int programID) {
+		GL20.glDeleteProgram(programID);
+	}
+
+	@Override
+	public boolean supportsProgramBinaries() {
+		ContextCapabilities capabilities = GLContext.getCapabilities();
+		if (!capabilities.OpenGL41 && !capabilities.GL_ARB_get_program_binary) {
+			return false;
+		}
+		
+		//drivers are allowed to support the functions but not have any formats
+		return GL11.glGetInteger(GL41.GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+	}
+
+	@Override
+	public String getDriverDescription() {
+		return GL11.glGetString(GL11.GL_VENDOR) + " | " + GL11.glGetString(GL11.GL_RENDERER) + " | "
+				+ GL11.glGetString(GL11.GL_VERSION);
+	}
+
+	@Override
+	public void programParameteri(int programID, int name, int value) {
+		GL41.glProgramParameteri(programID, name, value);
+	}
+
+	@Override
+	public ByteBuffer getProgramBinary(int programID, IntBuffer format) {
+		int length = GL20.glGetProgrami(programID, GL41.GL_PROGRAM_BINARY_LENGTH);
+		ByteBuffer binary = BufferUtils.createByteBuffer(length);
+		IntBuffer written = BufferUtils.createIntBuffer(1);
+		GL41.glGetProgramBinary(programID, written, format, binary);
+		binary.limit(written.get(0));
+		return binary;
+	}
+
+	@Override
+	public boolean programBinary(int programID, int format, ByteBuffer binary) {
+		GL41.glProgramBinary(programID, format, binary);
+		return GL20.glGetProgrami(programID, GL20.GL_LINK_STATUS) == GL11.GL_TRUE;
+	}
+
+	@Override
+	public void uniform1f(int location, float value) {
+		stats.countUniformUpload();
+		GL20.glUniform1f(location, value);
+	}
+
+	@Override
+	public void uniform1i(int location, int value) {
+		stats.countUniformUpload();
+		GL20.glUniform1i(location, value);
+	}
+
+	@Override
+	public void uniform2f(int location, float x, float y) {
+		stats.countUniformUpload();
+		GL20.glUniform2f(location, x, y);
+	}
+
+	@Override
+	public void uniform3f(int location, float x, float y, float z) {
+		stats.countUniformUpload();
+		GL20.glUniform3f(location, x, y, z);
+	}
+
+	@Override
+	public void uniform4f(int location, float x, float y, float z, float w) {
+		stats.countUniformUpload();
+		GL20.glUniform4f(location, x, y, z, w);
+	}
+
+	@Override
+	public void uniformMatrix4(int location, boolean transpose, FloatBuffer matrix) {
+		stats.countUniformUpload();
+		GL20.glUniformMatrix4(location, transpose, matrix);
+	}
+
+	@Override
+	public DrawStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public DrawStats getFrameStats() {
+		return frameStats;
+	}
+
+	@Override
+	public void endFrame() {
+		frameStats.set(stats);
+		stats.reset();
+	}
+}
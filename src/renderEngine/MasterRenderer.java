@@ -1,9 +1,7 @@
 package renderEngine;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.GL11;
@@ -11,15 +9,42 @@ import org.lwjgl.util.vector.Matrix4f;
 
 import entities.Camera;
 import entities.Entity;
+import entities.EntityStore;
 import entities.Light;
-import models.TexturedModel;
-import shaders.StaticShader;
+import particles.ParticleSystem;
+import profiling.Metrics;
+import profiling.Profiler;
+import shaders.LodTerrainShader;
+import shaders.ShaderFeatures;
 import shaders.TerrainShader;
 import terrains.Terrain;
+import toolbox.Frustum;
+import toolbox.Maths;
 
 public class MasterRenderer {
-	private StaticShader shader = new StaticShader();
+	
+	//profiler scopes
+	private static final int RENDER_SCOPE = Profiler.registerScope("MasterRenderer.render");
+	private static final int ENTITIES_GPU_SCOPE = Profiler.registerScope("Entities (GPU)");
+	private static final int TERRAIN_GPU_SCOPE = Profiler.registerScope("Terrain (GPU)");
+	
+	//fog is compiled into the shaders, turn it off with -Dfog=false
+	private static final boolean FOG = !"false".equals(System.getProperty("fog"));
+	private static final int TERRAIN_FEATURES = FOG ? ShaderFeatures.FOG : 0;
+	
+	//where models with impostors start turning into them, and over how far, e.g. -DimpostorDistance=200
+	private static final float IMPOSTOR_DISTANCE = Float.parseFloat(System.getProperty("impostorDistance", "150"));
+	private static final float IMPOSTOR_FADE = Float.parseFloat(System.getProperty("impostorFade", "20"));
+	
+	//draw the entities' depth before shading them, and count how many samples the shading writes
+	private static final boolean DEPTH_PREPASS = Boolean.getBoolean("depthPrepass");
+	private static final boolean COUNT_OVERDRAW = Boolean.getBoolean("countOverdraw");
+	
+	//cull the entity store on the GPU when the context has 4.3, turn it off with -DgpuCulling=false
+	private static final boolean GPU_CULLING = !"false".equals(System.getProperty("gpuCulling"));
+	
 	private EntityRenderer renderer;
+	private ImpostorRenderer impostorRenderer;
 	
 	//projection matrix inputs
 	private static final float FOV = 70;
@@ -31,7 +56,8 @@ public class MasterRenderer {
 	
 	//terrain stuff
 	private TerrainRenderer terrainRenderer;
-	private TerrainShader terrainShader = new TerrainShader();
+	private TerrainShader terrainShader = new TerrainShader(TERRAIN_FEATURES);
+	private LodTerrainShader lodTerrainShader = new LodTerrainShader(TERRAIN_FEATURES);
 	private List<Terrain> terrains = new ArrayList<Terrain>();
 	
 	//sky constants
@@ -39,42 +65,155 @@ public class MasterRenderer {
 	private static final float GREEN = 0.80f;
 	private static final float BLUE = 0.92f;
 	
-	//Hashmap of textured models to entities, so that we can keep track of which models are rendered multiple times
-	private Map<TexturedModel, List<Entity>> entities = new HashMap<TexturedModel, List<Entity>>();
+	//what the camera can see this frame
+	private Frustum frustum = new Frustum();
+	
+	//entities submitted this frame, grouped by model
+	private EntityBatcher entities = new EntityBatcher();
+	
+	//static batches submitted this frame, and the ones of them the camera can see
+	private List<StaticBatch> staticBatches = new ArrayList<StaticBatch>();
+	private List<StaticBatch> visibleStaticBatches = new ArrayList<StaticBatch>();
+	
+	//the entity batches left after the impostors took the far entities, plus the ones fading out
+	private List<EntityBatch> meshBatches = new ArrayList<EntityBatch>();
+	
+	//point lights submitted this frame, sorted into clusters before anything is drawn
+	private List<Light> lights = new ArrayList<Light>();
+	private LightClusters lightClusters;
 	
+	//draws the scene below the window's resolution when the GPU falls behind, null to draw straight to the window
+	private DynamicResolution dynamicResolution;
+	
+	//streams texture mips in and out by how close the entities using them are, null if nothing is streamed
+	private TextureStreamer textureStreamer;
+	private int width;
+	private int height;
+	
+	//null unless overdraw is being counted
+	private OverdrawCounter overdrawCounter;
+	
+	//culls the store's entities instead of the batcher and the impostor renderer when it isn't null,
+	//and cullEntities says whether processEntities was called this frame
+	private GpuCulling gpuCulling;
+	private boolean cullEntities;
+	
+	//draws the particle systems submitted this frame, null until enableParticles is called
+	private ParticleRenderer particleRenderer;
+	private List<ParticleSystem> particleSystems = new ArrayList<ParticleSystem>();
 	
 	public MasterRenderer() {
+		this(Display.getWidth(), Display.getHeight());
+		setOverdrawCounted(COUNT_OVERDRAW);
+		if (GPU_CULLING) {
+			enableGpuCulling();
+		}
+	}
+	
+	//for rendering without a window, e.g. with the null backend
+	public MasterRenderer(int width, int height) {
+		this.width = width;
+		this.height = height;
 		enableCulling();
-		createProjectionMatrix();
-		renderer = new EntityRenderer(shader, projectionMatrix);
-		terrainRenderer = new TerrainRenderer(terrainShader, projectionMatrix);
+		createProjectionMatrix((float) width / (float) height);
+		lightClusters = new LightClusters(projectionMatrix, FAR_PLANE, width, height);
+		renderer = new EntityRenderer(projectionMatrix, lightClusters, FOG);
+		renderer.setDepthPrepass(DEPTH_PREPASS);
+		impostorRenderer = new ImpostorRenderer(projectionMatrix, lightClusters, FOG, IMPOSTOR_DISTANCE, 
+				IMPOSTOR_FADE);
+		terrainRenderer = new TerrainRenderer(terrainShader, lodTerrainShader, projectionMatrix);
 	}
 	
 	public static void enableCulling() {
-		GL11.glEnable(GL11.GL_CULL_FACE);
-		GL11.glCullFace(GL11.GL_BACK);
+		DisplayManager.getBackend().enable(GL11.GL_CULL_FACE);
+		DisplayManager.getBackend().cullFace(GL11.GL_BACK);
 	}
 	
 	public static void disableCulling() {
-		GL11.glDisable(GL11.GL_CULL_FACE);
+		DisplayManager.getBackend().disable(GL11.GL_CULL_FACE);
 	}
 	
 	public void render(Light sun, Camera camera) {
+		long profileStart = Profiler.begin();
+		if (dynamicResolution != null) {
+			dynamicResolution.bind();
+			lightClusters.setScreenSize(dynamicResolution.getWidth(), dynamicResolution.getHeight());
+		}
+		if (textureStreamer != null) {
+			textureStreamer.setViewport(projectionMatrix.m11, 
+					dynamicResolution != null ? dynamicResolution.getHeight() : height);
+		}
 		prepare();
-		shader.start();
-		shader.loadSkyColor(RED, GREEN, BLUE);
-		shader.loadLight(sun);
-		shader.loadViewMatrix(camera);
-		renderer.render(entities);
-		shader.stop();
+		Matrix4f viewMatrix = Maths.createViewMatrix(camera);
+		frustum.update(projectionMatrix, viewMatrix);
+		lightClusters.update(lights, viewMatrix);
+		lightClusters.bind();
+		DrawStats stats = DisplayManager.getBackend().getStats();
+		int drawsBefore = stats.getDrawCalls();
+		long trianglesBefore = stats.getTriangles();
+		Profiler.beginGpu(ENTITIES_GPU_SCOPE);
+		for (StaticBatch batch : staticBatches) {
+			if (frustum.intersectsBox(batch.getMinX(), batch.getMinY(), batch.getMinZ(), 
+					batch.getMaxX(), batch.getMaxY(), batch.getMaxZ())) {
+				visibleStaticBatches.add(batch);
+			}
+		}
+		impostorRenderer.process(entities.getBatches(), entities.getStore(), visibleStaticBatches, camera);
+		meshBatches.addAll(entities.getBatches());
+		meshBatches.addAll(impostorRenderer.getFadingBatches());
+		if (cullEntities) {
+			gpuCulling.cull(frustum, camera);
+			renderer.setGpuCulling(gpuCulling);
+		}
+		renderer.render(meshBatches, entities.getStore(), visibleStaticBatches, sun, camera, frustum,
+				RED, GREEN, BLUE);
+		impostorRenderer.render(sun, camera, RED, GREEN, BLUE);
+		if (cullEntities) {
+			impostorRenderer.renderCulled(gpuCulling, sun, camera, RED, GREEN, BLUE);
+			renderer.setGpuCulling(null);
+		}
+		Profiler.endGpu(ENTITIES_GPU_SCOPE);
+		if (overdrawCounter != null) {
+			Metrics.setEntityOverdraw(getOverdraw());
+		}
+		Metrics.setEntityDraws(stats.getDrawCalls() - drawsBefore, stats.getTriangles() - trianglesBefore);
+		drawsBefore = stats.getDrawCalls();
+		trianglesBefore = stats.getTriangles();
+		Profiler.beginGpu(TERRAIN_GPU_SCOPE);
 		terrainShader.start();
 		terrainShader.loadSkyColor(RED, GREEN, BLUE);
 		terrainShader.loadLight(sun);
 		terrainShader.loadViewMatrix(camera);
+		terrainShader.loadLightClusters(lightClusters);
 		terrainRenderer.render(terrains);
 		terrainShader.stop();
+		lodTerrainShader.start();
+		lodTerrainShader.loadSkyColor(RED, GREEN, BLUE);
+		lodTerrainShader.loadLight(sun);
+		lodTerrainShader.loadViewMatrix(camera);
+		lodTerrainShader.loadLightClusters(lightClusters);
+		terrainRenderer.renderLod(terrains, frustum, camera);
+		lodTerrainShader.stop();
+		Profiler.endGpu(TERRAIN_GPU_SCOPE);
+		Metrics.setTerrainDraws(stats.getDrawCalls() - drawsBefore, stats.getTriangles() - trianglesBefore);
+		if (particleRenderer != null) {
+			particleRenderer.render(particleSystems, camera);
+		}
+		if (dynamicResolution != null) {
+			dynamicResolution.resolve();
+		}
+		if (textureStreamer != null) {
+			textureStreamer.update();
+		}
 		entities.clear();
+		staticBatches.clear();
+		visibleStaticBatches.clear();
+		meshBatches.clear();
+		cullEntities = false;
+		particleSystems.clear();
 		terrains.clear();
+		lights.clear();
+		Profiler.end(RENDER_SCOPE, profileStart);
 	}
 	
 	public void processTerrain(Terrain terrain) {
@@ -82,38 +221,170 @@ public class MasterRenderer {
 	}
 	
 	public void processEntity(Entity entity) {
-		TexturedModel entityModel = entity.getModel();
-		List<Entity> batch = entities.get(entityModel);
-		
-		if (batch != null) {
-			batch.add(entity);
+		entities.add(entity);
+	}
+	
+	//merged static entities from a StaticBatcher, batches outside the view are skipped
+	public void processStaticBatch(StaticBatch batch) {
+		staticBatches.add(batch);
+	}
+	
+	//every visible entity in the entity store in one go, instead of calling processEntity for each.
+	//With GPU culling the store is handed to the GPU whole instead
+	public void processEntities() {
+		if (gpuCulling != null) {
+			cullEntities = true;
 		} else {
-			List<Entity> newBatch = new ArrayList<Entity>();
-			newBatch.add(entity);
-			entities.put(entityModel, newBatch);
+			entities.addVisible();
 		}
-		
+	}
+	
+	//the store processEntity and processEntities draw from
+	public EntityStore getEntityStore() {
+		return entities.getStore();
+	}
+	
+	//far entities of the impostor's model are drawn as the impostor
+	public void addImpostor(Impostor impostor) {
+		impostorRenderer.addImpostor(impostor);
+	}
+	
+	//impostors start fading in at distance and have completely replaced the meshes at distance + fadeRange
+	public void setImpostorDistance(float distance, float fadeRange) {
+		impostorRenderer.setDistance(distance, fadeRange);
+	}
+	
+	//draw the scene into an offscreen framebuffer whose resolution follows the GPU's frame time,
+	//see DynamicResolution. Needs a window
+	public void enableDynamicResolution(Loader loader) {
+		if (dynamicResolution == null) {
+			dynamicResolution = new DynamicResolution(loader, Display.getWidth(), Display.getHeight());
+		}
+	}
+	
+	//entities drawn with textures loaded through the streamer get the mips they need, see TextureStreamer
+	public void setTextureStreamer(TextureStreamer streamer) {
+		textureStreamer = streamer;
+		renderer.setTextureStreamer(streamer);
+	}
+	
+	//see EntityRenderer.setDepthPrepass, also turned on with -DdepthPrepass=true
+	public void setDepthPrepass(boolean enabled) {
+		renderer.setDepthPrepass(enabled);
+	}
+	
+	public boolean isDepthPrepass() {
+		return renderer.isDepthPrepass();
+	}
+	
+	//draw the entities as grey layers added together on black, so the brighter a pixel the more
+	//times it was shaded
+	public void setOverdrawView(boolean enabled) {
+		renderer.setOverdrawView(enabled);
+	}
+	
+	public boolean isOverdrawView() {
+		return renderer.isOverdrawView();
+	}
+	
+	//count the samples the entities' shading writes each frame, for getOverdraw. Needs a window,
+	//also turned on with -DcountOverdraw=true
+	public void setOverdrawCounted(boolean counted) {
+		if (counted && overdrawCounter == null) {
+			overdrawCounter = new OverdrawCounter();
+		} else if (!counted && overdrawCounter != null) {
+			overdrawCounter.cleanUp();
+			overdrawCounter = null;
+		}
+		renderer.setOverdrawCounter(overdrawCounter);
+	}
+	
+	//how many times the entity shading wrote each pixel on average, a couple of frames ago. Compare it
+	//with and without the depth pre-pass to see whether the pre-pass pays for itself. -1 if not counted
+	public float getOverdraw() {
+		if (overdrawCounter == null || overdrawCounter.getSamples() < 0) {
+			return -1;
+		}
+		int pixels = dynamicResolution != null ? dynamicResolution.getWidth() * dynamicResolution.getHeight()
+				: width * height;
+		return (float) overdrawCounter.getSamples() / pixels;
+	}
+	
+	//cull and draw the entity store's dynamic entities on the GPU, see GpuCulling. Returns false, and leaves
+	//them to the CPU, if the context doesn't have GL 4.3. On by default with a window
+	public boolean enableGpuCulling() {
+		if (gpuCulling == null && GpuCulling.isSupported()) {
+			gpuCulling = new GpuCulling(entities.getStore(), impostorRenderer);
+		}
+		return gpuCulling != null;
+	}
+	
+	public boolean isGpuCulling() {
+		return gpuCulling != null;
+	}
+	
+	//null unless enableDynamicResolution was called
+	public DynamicResolution getDynamicResolution() {
+		return dynamicResolution;
+	}
+	
+	//draw the particle systems passed to processParticles, after everything solid
+	public void enableParticles(Loader loader) {
+		if (particleRenderer == null) {
+			particleRenderer = new ParticleRenderer(loader, projectionMatrix, FOG);
+		}
+	}
+	
+	//a particle system to draw this frame, see enableParticles
+	public void processParticles(ParticleSystem system) {
+		particleSystems.add(system);
+	}
+	
+	//a point light with a radius, the sun is passed to render instead
+	public void processLight(Light light) {
+		lights.add(light);
 	}
 	
 	public void cleanUp() {
-		shader.cleanUp();
+		renderer.cleanUp();
+		impostorRenderer.cleanUp();
+		lightClusters.cleanUp();
 		terrainShader.cleanUp();
+		lodTerrainShader.cleanUp();
+		if (dynamicResolution != null) {
+			dynamicResolution.cleanUp();
+		}
+		if (overdrawCounter != null) {
+			overdrawCounter.cleanUp();
+		}
+		if (gpuCulling != null) {
+			gpuCulling.cleanUp();
+		}
+		if (particleRenderer != null) {
+			particleRenderer.cleanUp();
+		}
 	}
 	
 	//call this once per frame, prepares openGL to render the game 
 	public void prepare() {
 			
 		//test which triangles are in front of each other
-		GL11.glEnable(GL11.GL_DEPTH_TEST);
+		RenderBackend backend = DisplayManager.getBackend();
+		backend.enable(GL11.GL_DEPTH_TEST);
 		
 		//clear the color
-		GL11.glClear(GL11.GL_COLOR_BUFFER_BIT|GL11.GL_DEPTH_BUFFER_BIT);
-		GL11.glClearColor(RED, GREEN, BLUE, 1);
+		backend.clear(GL11.GL_COLOR_BUFFER_BIT|GL11.GL_DEPTH_BUFFER_BIT);
+		
+		//the overdraw view adds the layers up from black
+		if (renderer.isOverdrawView()) {
+			backend.clearColor(0, 0, 0, 1);
+		} else {
+			backend.clearColor(RED, GREEN, BLUE, 1);
+		}
 		
 	}
 	
-	private void createProjectionMatrix(){
-        float aspectRatio = (float) Display.getWidth() / (float) Display.getHeight();
+	private void createProjectionMatrix(float aspectRatio){
         float y_scale = (float) ((1f / Math.tan(Math.toRadians(FOV / 2f))) * aspectRatio);
         float x_scale = y_scale / aspectRatio;
         float frustum_length = FAR_PLANE - NEAR_PLANE;
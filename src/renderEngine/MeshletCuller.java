@@ -0,0 +1,119 @@
+package renderEngine;
+
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import models.Meshlets;
+import toolbox.Frustum;
+
+//Picks the meshlets of one instance that can be seen, before anything is submitted.
+//A meshlet is dropped if its bounding sphere is outside the frustum, or if its normal cone shows every
+//triangle in it faces away from the camera. The survivors that sit next to each other in the index
+//buffer are merged into one range, and the ranges are what gets passed to multiDrawElements
+public class MeshletCuller {
+
+	//draw ranges for multiDrawElements, counts in indices and offsets in bytes
+	private IntBuffer counts = BufferUtils.createIntBuffer(64);
+	private IntBuffer offsets = BufferUtils.createIntBuffer(64);
+
+	//running totals, for seeing how much is culled
+	private long meshletsTested;
+	private long meshletsDrawn;
+
+	//cull the instance's meshlets, returns how many ranges are left in getCounts and getOffsets.
+	//The transformation can rotate, translate and scale, but only uniformly.
+	//Two sided meshes (culling turned off for transparency) shouldn't be culled by facing
+	public int cull(Meshlets meshlets, Matrix4f transformation, Vector3f cameraPosition, Frustum frustum,
+			boolean cullBackFacing) {
+		Matrix4f m = transformation;
+		float scaleSquared = m.m00 * m.m00 + m.m01 * m.m01 + m.m02 * m.m02;
+		float scale = (float) Math.sqrt(scaleSquared);
+
+		//the camera in model space, the transpose of the rotation undoes it and leaves the scale squared
+		float toCameraX = cameraPosition.x - m.m30;
+		float toCameraY = cameraPosition.y - m.m31;
+		float toCameraZ = cameraPosition.z - m.m32;
+		float cameraX = (m.m00 * toCameraX + m.m01 * toCameraY + m.m02 * toCameraZ) / scaleSquared;
+		float cameraY = (m.m10 * toCameraX + m.m11 * toCameraY + m.m12 * toCameraZ) / scaleSquared;
+		float cameraZ = (m.m20 * toCameraX + m.m21 * toCameraY + m.m22 * toCameraZ) / scaleSquared;
+
+		int count = meshlets.getCount();
+		int[] indexOffsets = meshlets.getIndexOffsets();
+		int[] indexCounts = meshlets.getIndexCounts();
+		float[] spheres = meshlets.getSpheres();
+		float[] cones = meshlets.getCones();
+		counts = ensureCapacity(counts, count);
+		offsets = ensureCapacity(offsets, count);
+		counts.clear();
+		offsets.clear();
+		int rangeEnd = -1;
+		int drawn = 0;
+		for (int i = 0; i < count; i++) {
+			float x = spheres[i * 4];
+			float y = spheres[i * 4 + 1];
+			float z = spheres[i * 4 + 2];
+			float radius = spheres[i * 4 + 3];
+
+			if (cullBackFacing) {
+				float dx = x - cameraX;
+				float dy = y - cameraY;
+				float dz = z - cameraZ;
+				float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+				if (dx * cones[i * 4] + dy * cones[i * 4 + 1] + dz * cones[i * 4 + 2]
+						>= cones[i * 4 + 3] * distance + radius) {
+					continue;
+				}
+			}
+
+			float worldX = m.m00 * x + m.m10 * y + m.m20 * z + m.m30;
+			float worldY = m.m01 * x + m.m11 * y + m.m21 * z + m.m31;
+			float worldZ = m.m02 * x + m.m12 * y + m.m22 * z + m.m32;
+			if (!frustum.intersectsSphere(worldX, worldY, worldZ, radius * scale)) {
+				continue;
+			}
+
+			drawn++;
+			if (indexOffsets[i] == rangeEnd) {
+				int last = counts.position() - 1;
+				counts.put(last, counts.get(last) + indexCounts[i]);
+			} else {
+				counts.put(indexCounts[i]);
+				offsets.put(indexOffsets[i] * 4);
+			}
+			rangeEnd = indexOffsets[i] + indexCounts[i];
+		}
+		counts.flip();
+		offsets.flip();
+		meshletsTested += count;
+		meshletsDrawn += drawn;
+		return counts.remaining();
+	}
+
+	//index counts of the ranges from the last cull
+	public IntBuffer getCounts() {
+		return counts;
+	}
+
+	//byte offsets into the index buffer of the ranges from the last cull
+	public IntBuffer getOffsets() {
+		return offsets;
+	}
+
+	public long getMeshletsTested() {
+		return meshletsTested;
+	}
+
+	public long getMeshletsDrawn() {
+		return meshletsDrawn;
+	}
+
+	private static IntBuffer ensureCapacity(IntBuffer buffer, int size) {
+		if (buffer.capacity() >= size) {
+			return buffer;
+		}
+		return BufferUtils.createIntBuffer(Math.max(size, buffer.capacity() * 2));
+	}
+}
@@ -0,0 +1,323 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+//A backend that draws nothing. It needs no GL context, hands out made up IDs, and only counts what
+//would have been submitted, so the CPU side of rendering can be profiled and tested headless
+public class NullBackend implements RenderBackend {
+	
+	private final DrawStats stats = new DrawStats();
+	private final DrawStats frameStats = new DrawStats();
+	
+	//made up IDs for programs, shaders and uniform locations
+	private int nextID = 1;
+
+	@Override
+	public void enable(int capability) {
+		stats.countStateChange();
+	}
+
+	@Override
+	public void disable(int capability) {
+		stats.countStateChange();
+	}
+
+	@Override
+	public void cullFace(int mode) {
+		stats.countStateChange();
+	}
+
+	@Override
+	public void clear(int mask) {
+	}
+
+	@Override
+	public void clearColor(float r, float g, float b, float a) {
+	}
+
+	@Override
+	public void depthFunc(int function) {
+		stats.countStateChange();
+	}
+
+	@Override
+	public void depthMask(boolean write) {
+		stats.countStateChange();
+	}
+
+	@Override
+	public void colorMask(boolean red, boolean green, boolean blue, boolean alpha) {
+		stats.countStateChange();
+	}
+
+	@Override
+	public void blendFunc(int source, int destination) {
+		stats.countStateChange();
+	}
+
+	@Override
+	public void bindVertexArray(int vaoID) {
+		stats.countVaoBind();
+	}
+
+	@Override
+	public void enableVertexAttribArray(int index) {
+	}
+
+	@Override
+	public void disableVertexAttribArray(int index) {
+	}
+
+	@Override
+	public void activeTexture(int unit) {
+	}
+
+	@Override
+	public void bindTexture(int target, int textureID) {
+		stats.countTextureBind();
+	}
+
+	@Override
+	public void bindFramebuffer(int target, int framebufferID) {
+		stats.countStateChange();
+	}
+
+	@Override
+	public void viewport(int x, int y, int width, int height) {
+		stats.countStateChange();
+	}
+
+	@Override
+	public int createBuffer() {
+		return nextID++;
+	}
+
+	@Override
+	public void bufferData(int target, int bufferID, ByteBuffer data, int usage) {
+		stats.countBufferUpload(data.remaining());
+	}
+
+	@Override
+	public int createBufferTexture(int internalFormat, int bufferID) {
+		return nextID++;
+	}
+
+	@Override
+	public void deleteBuffer(int bufferID) {
+	}
+
+	@Override
+	public void deleteTexture(int textureID) {
+	}
+
+	@Override
+	public void drawElements(int mode, int count, int type, long offset) {
+		stats.countDraw(mode, count, 1);
+	}
+
+	@Override
+	public void drawElementsInstanced(int mode, int count, int type, long offset, int instances) {
+		stats.countDraw(mode, count, instances);
+	}
+
+	@Override
+	public void multiDrawElements(int mode, IntBuffer counts, IntBuffer offsets, int type) {
+		for (int i = counts.position(); i < counts.limit(); i++) {
+			stats.countDraw(mode, counts.get(i), 1);
+		}
+	}
+
+	@Override
+	public void multiDrawElementsIndirect(int mode, int type, int commandBuffer, long offset, int drawCount) {
+		for (int i = 0; i < drawCount; i++) {
+			stats.countDraw(mode, 0, 0);
+		}
+	}
+
+	//nothing is ever drawn, so nothing is ever measured
+	@Override
+	public void beginQuery(int target, int queryID) {
+	}
+
+	@Override
+	public void endQuery(int target) {
+	}
+
+	@Override
+	public void queryCounter(int queryID, int target) {
+	}
+
+	@Override
+	public boolean isQueryResultAvailable(int queryID) {
+		return false;
+	}
+
+	@Override
+	public long getQueryResult(int queryID) {
+		return 0;
+	}
+
+	@Override
+	public void bindBufferBase(int target, int index, int bufferID) {
+		stats.countStateChange();
+	}
+
+	@Override
+	public void dispatchCompute(int groupsX, int groupsY, int groupsZ) {
+	}
+
+	@Override
+	public void memoryBarrier(int barriers) {
+	}
+
+	//nothing was ever written, so everything reads back as zeros
+	@Override
+	public void getBufferSubData(int target, int bufferID, long offset, ByteBuffer data) {
+		for (int i = data.position(); i < data.limit(); i++) {
+			data.put(i, (byte) 0);
+		}
+	}
+
+	//there's no GPU to wait for, every fence has already passed
+	@Override
+	public int fenceSync() {
+		return nextID++;
+	}
+
+	@Override
+	public boolean isFenceSignaled(int fence) {
+		return true;
+	}
+
+	@Override
+	public void deleteFence(int fence) {
+	}
+
+	@Override
+	public int createProgram() {
+		return nextID++;
+	}
+
+	@Override
+	public int createShader(int type) {
+		return nextID++;
+	}
+
+	@Override
+	public String compileShader(int shaderID, CharSequence source) {
+		return null;
+	}
+
+	@Override
+	public void attachShader(int programID, int shaderID) {
+	}
+
+	@Override
+	public void detachShader(int programID, int shaderID) {
+	}
+
+	@Override
+	public void bindAttribLocation(int programID, int index, String name) {
+	}
+
+	@Override
+	public String linkProgram(int programID) {
+		return null;
+	}
+
+	@Override
+	public void validateProgram(int programID) {
+	}
+
+	@Override
+	public int getUniformLocation(int programID, String name) {
+		return nextID++;
+	}
+
+	@Override
+	public void useProgram(int programID) {
+		stats.countProgramBind();
+	}
+
+	@Override
+	public void deleteShader(int shaderID) {
+	}
+
+	@Override
+	public void deleteProgram(int programID) {
+	}
+
+	//there's no driver to cache for, so programs are always "compiled"
+	@Override
+	public boolean supportsProgramBinaries() {
+		return false;
+	}
+
+	@Override
+	public String getDriverDescription() {
+		return "null";
+	}
+
+	@Override
+	public void programParameteri(int programID, int name, int value) {
+	}
+
+	@Override
+	public ByteBuffer getProgramBinary(int programID, IntBuffer format) {
+		//no binary, ProgramBinaryCache.store skips empty ones
+		return ByteBuffer.allocate(0);
+	}
+
+	@Override
+	public boolean programBinary(int programID, int format, ByteBuffer binary) {
+		return false;
+	}
+
+	@Override
+	public void uniform1f(int location, float value) {
+		stats.countUniformUpload();
+	}
+
+	@Override
+	public void uniform1i(int location, int value) {
+		stats.countUniformUpload();
+	}
+
+	@Override
+	public void uniform2f(int location, float x, float y) {
+		stats.countUniformUpload();
+	}
+
+	@Override
+	public void uniform3f(int location, float x, float y, float z) {
+		stats.countUniformUpload();
+	}
+
+	@Override
+	public void uniform4f(int location, float x, float y, float z, float w) {
+		stats.countUniformUpload();
+	}
+
+	@Override
+	public void uniformMatrix4(int location, boolean transpose, FloatBuffer matrix) {
+		stats.countUniformUpload();
+	}
+
+	@Override
+	public DrawStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public DrawStats getFrameStats() {
+		return frameStats;
+	}
+
+	@Override
+	public void endFrame() {
+		frameStats.set(stats);
+		stats.reset();
+	}
+}
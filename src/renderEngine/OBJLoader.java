@@ -10,13 +10,42 @@ import java.util.List;
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 
+import models.MeshletBuilder;
+import models.Meshlets;
+import models.ModelData;
 import models.RawModel;
+import models.TriangleBvh;
 
 //Parses OBJ files into Raw Models 
 public class OBJLoader {
 	
-	//parses the OBJ file, stores it in the VAO, and returns it as a raw model
+	//parses the OBJ file, stores it in the VAO, and returns it as a raw model.
+	//the parsed mesh is kept with the model so it can be baked into static batches, along with a BVH
+	//over its triangles for ray casts
 	public static RawModel loadObjModel (String filename, Loader loader) {
+		ModelData data = parseObjModel(filename);
+		RawModel model = loader.loadToVao(data.getVertices(), data.getTextureCoords(), data.getNormals(), data.getIndices());
+		model.setData(data);
+		model.setBvh(TriangleBvh.build(data.getVertices(), data.getIndices()));
+		return model;
+	}
+	
+	//like loadObjModel, but splits the mesh into meshlets first, so the entity renderer can cull the parts
+	//of it that face away or are off screen. Worth it for big models, small ones are cheaper drawn whole
+	public static RawModel loadMeshletModel (String filename, Loader loader) {
+		ModelData parsed = parseObjModel(filename);
+		Meshlets meshlets = MeshletBuilder.build(parsed.getVertices(), parsed.getIndices());
+		ModelData data = new ModelData(parsed.getVertices(), parsed.getTextureCoords(), parsed.getNormals(), 
+				meshlets.getIndices());
+		RawModel model = loader.loadToVao(data.getVertices(), data.getTextureCoords(), data.getNormals(), data.getIndices());
+		model.setData(data);
+		model.setMeshlets(meshlets);
+		model.setBvh(TriangleBvh.build(data.getVertices(), data.getIndices()));
+		return model;
+	}
+	
+	//parses the OBJ file into arrays ready for a VAO, without touching OpenGL
+	public static ModelData parseObjModel (String filename) {
 		FileReader fr = null;
 		try {
 			fr = new FileReader(new File("./res/" + filename + ".obj"));
@@ -96,7 +125,7 @@ public class OBJLoader {
 			indicesArray[i] = indices.get(i);
 		}
 		
-		return loader.loadToVao(verticesArray, texturesArray, normalsArray, indicesArray);
+		return new ModelData(verticesArray, texturesArray, normalsArray, indicesArray);
 	}
 	
 	//We need to take the vertices provided by the face and get the corresponding normals 
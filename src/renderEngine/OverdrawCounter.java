@@ -0,0 +1,62 @@
+package renderEngine;
+
+import org.lwjgl.opengl.GL15;
+
+//Counts the samples a pass writes with GL_SAMPLES_PASSED queries. Divided by the pixels drawn into,
+//that's how many times each pixel was shaded on average: about 1 when every fragment is only shaded
+//once, e.g. after a depth pre-pass, and more the more layers get shaded and then covered up.
+//Fragments that are discarded aren't counted, so alpha tested ones only count where they're drawn.
+//
+//A frame's count is read when its query comes round again a few frames later. If it still isn't
+//ready it's left pending and that frame isn't counted, rather than waiting for it or throwing it away
+public class OverdrawCounter {
+	
+	private static final int BUFFERS = 3;
+	
+	private final RenderBackend backend = DisplayManager.getBackend();
+	private final int[] queries = new int[BUFFERS];
+	private final boolean[] issued = new boolean[BUFFERS];
+	private int frame;
+	private boolean counting;
+	private long samples = -1;
+	
+	public OverdrawCounter() {
+		for (int i = 0; i < BUFFERS; i++) {
+			queries[i] = GL15.glGenQueries();
+		}
+	}
+	
+	//pick up the count this query slot last held if it's arrived, and start this frame's
+	public void begin() {
+		int query = queries[frame % BUFFERS];
+		if (issued[frame % BUFFERS]) {
+			if (!backend.isQueryResultAvailable(query)) {
+				counting = false;
+				return;
+			}
+			issued[frame % BUFFERS] = false;
+			samples = backend.getQueryResult(query);
+		}
+		counting = true;
+		backend.beginQuery(GL15.GL_SAMPLES_PASSED, query);
+	}
+	
+	public void end() {
+		if (counting) {
+			backend.endQuery(GL15.GL_SAMPLES_PASSED);
+			issued[frame % BUFFERS] = true;
+		}
+		frame++;
+	}
+	
+	//the samples written in the last frame whose result has arrived, -1 before the first one
+	public long getSamples() {
+		return samples;
+	}
+	
+	public void cleanUp() {
+		for (int query : queries) {
+			GL15.glDeleteQueries(query);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+import overlay.OverlayBatch;
+import profiling.Profiler;
+import shaders.OverlayShader;
+
+//Draws an OverlayBatch over the finished frame. The batch's vertices are streamed into one buffer,
+//orphaned every frame so the driver never waits for the GPU to finish with last frame's, and drawn with
+//a single call. The index buffer never changes, every quad is two triangles of its four vertices, so
+//it's only rebuilt when a batch has more quads than it has room for
+public class OverlayRenderer {
+
+	private static final int RENDER_SCOPE = Profiler.registerScope("OverlayRenderer.render");
+
+	private final RenderBackend backend;
+	private final OverlayShader shader;
+	private final int vaoID;
+	private final int vertexBuffer;
+	private final int indexBuffer;
+	private int quadCapacity;
+
+	//the size of the window, in pixels
+	public OverlayRenderer(int width, int height) {
+		this.backend = DisplayManager.getBackend();
+		shader = new OverlayShader();
+		shader.start();
+		shader.connectTextureUnits();
+		shader.loadScreenSize(width, height);
+		shader.stop();
+
+		vaoID = GL30.glGenVertexArrays();
+		GL30.glBindVertexArray(vaoID);
+		vertexBuffer = GL15.glGenBuffers();
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vertexBuffer);
+		GL20.glVertexAttribPointer(0, 2, GL11.GL_FLOAT, false, OverlayBatch.BYTES_PER_VERTEX, 0);
+		GL20.glVertexAttribPointer(1, 2, GL11.GL_FLOAT, false, OverlayBatch.BYTES_PER_VERTEX, 8);
+		GL20.glVertexAttribPointer(2, 4, GL11.GL_UNSIGNED_BYTE, true, OverlayBatch.BYTES_PER_VERTEX, 16);
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+		GL30.glBindVertexArray(0);
+		indexBuffer = GL15.glGenBuffers();
+		fillIndices(1024);
+	}
+
+	//draw everything in the batch, then clear it for the next frame
+	public void render(OverlayBatch batch) {
+		int quads = batch.getQuadCount();
+		if (quads == 0) {
+			batch.clear();
+			return;
+		}
+		long profileStart = Profiler.begin();
+		if (quads > quadCapacity) {
+			fillIndices(Math.max(quads, quadCapacity * 2));
+		}
+		backend.bufferData(GL15.GL_ARRAY_BUFFER, vertexBuffer, batch.getVertices(), GL15.GL_STREAM_DRAW);
+
+		backend.disable(GL11.GL_DEPTH_TEST);
+		backend.enable(GL11.GL_BLEND);
+		backend.blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+		MasterRenderer.disableCulling();
+		shader.start();
+		backend.activeTexture(GL13.GL_TEXTURE0);
+		backend.bindTexture(GL11.GL_TEXTURE_2D, batch.getFont().getTextureID());
+		backend.bindVertexArray(vaoID);
+		backend.enableVertexAttribArray(0);
+		backend.enableVertexAttribArray(1);
+		backend.enableVertexAttribArray(2);
+		backend.drawElements(GL11.GL_TRIANGLES, quads * 6, GL11.GL_UNSIGNED_INT, 0);
+		backend.disableVertexAttribArray(0);
+		backend.disableVertexAttribArray(1);
+		backend.disableVertexAttribArray(2);
+		backend.bindVertexArray(0);
+		shader.stop();
+		MasterRenderer.enableCulling();
+		backend.disable(GL11.GL_BLEND);
+		backend.enable(GL11.GL_DEPTH_TEST);
+		batch.clear();
+		Profiler.end(RENDER_SCOPE, profileStart);
+	}
+
+	public void cleanUp() {
+		shader.cleanUp();
+		GL15.glDeleteBuffers(vertexBuffer);
+		GL15.glDeleteBuffers(indexBuffer);
+		GL30.glDeleteVertexArrays(vaoID);
+	}
+
+	//indices for quads quads, each split into the triangles 0 1 2 and 2 3 0
+	private void fillIndices(int quads) {
+		ByteBuffer indices = ByteBuffer.allocateDirect(quads * 6 * 4).order(ByteOrder.nativeOrder());
+		for (int i = 0; i < quads; i++) {
+			int first = i * 4;
+			indices.putInt(first).putInt(first + 1).putInt(first + 2);
+			indices.putInt(first + 2).putInt(first + 3).putInt(first);
+		}
+		indices.flip();
+
+		//the element buffer binding is part of the VAO's state, so it's bound and filled with the VAO bound
+		GL30.glBindVertexArray(vaoID);
+		GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+		GL15.glBufferData(GL15.GL_ELEMENT_ARRAY_BUFFER, indices, GL15.GL_STATIC_DRAW);
+		GL30.glBindVertexArray(0);
+		quadCapacity = quads;
+	}
+}
@@ -0,0 +1,17 @@
+package renderEngine;
+
+//How DisplayManager paces frames
+public enum PacingMode {
+	
+	//let the driver wait for the monitor's refresh
+	VSYNC,
+	
+	//draw as fast as possible, for measuring raw throughput
+	UNCAPPED,
+	
+	//hold a target frame rate ourselves by sleeping most of the wait and spinning the rest
+	TARGET_FPS,
+	
+	//vsync while we keep up with the monitor, tear instead of dropping to half rate when we can't
+	ADAPTIVE
+}
@@ -0,0 +1,217 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import models.RawModel;
+import particles.ParticleSystem;
+import profiling.Profiler;
+import shaders.ParticleShader;
+import shaders.ShaderFeatures;
+import textures.ParticleTexture;
+
+//Draws particle systems as camera facing quads. Every particle of every system goes into one buffer
+//texture uploaded once a frame, the systems grouped by their atlas, and each atlas is one instanced draw.
+//Additive atlases are drawn in whatever order the particles are in, blended ones are sorted back to front
+//first since each particle covers what's behind it. Drawn after everything solid, with depth testing
+//but no depth writes, so particles hide behind the scene but not behind each other
+public class ParticleRenderer {
+
+	private static final int RENDER_SCOPE = Profiler.registerScope("ParticleRenderer.render");
+
+	//two RGBA32F texels: position and size, then the fraction of its life gone
+	private static final int FLOATS_PER_INSTANCE = 8;
+
+	private static class Group {
+
+		private final ParticleTexture texture;
+
+		//this frame's systems using the atlas
+		private final List<ParticleSystem> systems = new ArrayList<ParticleSystem>();
+		private int firstInstance;
+		private int count;
+
+		private Group(ParticleTexture texture) {
+			this.texture = texture;
+		}
+	}
+
+	private final Map<ParticleTexture, Group> groups = new HashMap<ParticleTexture, Group>();
+	private final List<Group> groupList = new ArrayList<Group>();
+	private int instanceCount;
+
+	//one group's instances before they're put in order, and the keys they're sorted by
+	private float[] staging = new float[FLOATS_PER_INSTANCE * 1024];
+	private long[] sortKeys = new long[1024];
+
+	private ParticleShader shader;
+	private RawModel quad;
+	private RenderBackend backend;
+	private int instanceBuffer;
+	private int instanceTexture;
+	private ByteBuffer instanceData = createBuffer(FLOATS_PER_INSTANCE * 4 * 1024);
+	private FloatBuffer instanceFloats = instanceData.asFloatBuffer();
+
+	public ParticleRenderer(Loader loader, Matrix4f projectionMatrix, boolean fog) {
+		this.backend = DisplayManager.getBackend();
+		quad = loader.loadToVao(new float[] {-1, -1, 1, -1, 1, 1, -1, 1}, 2, new int[] {0, 1, 2, 2, 3, 0});
+		shader = new ParticleShader(fog ? ShaderFeatures.FOG : 0);
+		shader.start();
+		shader.connectTextureUnits();
+		shader.loadProjectionMatrix(projectionMatrix);
+		shader.stop();
+		instanceBuffer = backend.createBuffer();
+		instanceTexture = backend.createBufferTexture(GL30.GL_RGBA32F, instanceBuffer);
+	}
+
+	//how many particles were drawn last frame
+	public int getInstanceCount() {
+		return instanceCount;
+	}
+
+	public void render(List<ParticleSystem> systems, Camera camera) {
+		long profileStart = Profiler.begin();
+		for (Group group : groupList) {
+			group.systems.clear();
+		}
+		for (ParticleSystem system : systems) {
+			if (system.getCount() == 0) {
+				continue;
+			}
+			Group group = groups.get(system.getTexture());
+			if (group == null) {
+				group = new Group(system.getTexture());
+				groups.put(system.getTexture(), group);
+				groupList.add(group);
+			}
+			group.systems.add(system);
+		}
+		instanceCount = 0;
+		for (Group group : groupList) {
+			group.firstInstance = instanceCount;
+			group.count = 0;
+			for (ParticleSystem system : group.systems) {
+				group.count += system.getCount();
+			}
+			instanceCount += group.count;
+		}
+		if (instanceCount == 0) {
+			Profiler.end(RENDER_SCOPE, profileStart);
+			return;
+		}
+
+		int bytes = instanceCount * FLOATS_PER_INSTANCE * 4;
+		if (instanceData.capacity() < bytes) {
+			instanceData = createBuffer(Math.max(bytes, instanceData.capacity() * 2));
+			instanceFloats = instanceData.asFloatBuffer();
+		}
+		instanceFloats.clear();
+		for (Group group : groupList) {
+			putInstances(group, camera.getPosition());
+		}
+		instanceData.clear();
+		instanceData.limit(bytes);
+		backend.bufferData(GL31.GL_TEXTURE_BUFFER, instanceBuffer, instanceData, GL15.GL_STREAM_DRAW);
+
+		backend.enable(GL11.GL_BLEND);
+		backend.depthMask(false);
+		MasterRenderer.disableCulling();
+		shader.start();
+		shader.loadViewMatrix(camera);
+		backend.activeTexture(GL13.GL_TEXTURE0 + ParticleShader.INSTANCES_UNIT);
+		backend.bindTexture(GL31.GL_TEXTURE_BUFFER, instanceTexture);
+		backend.activeTexture(GL13.GL_TEXTURE0 + ParticleShader.ATLAS_UNIT);
+		backend.bindVertexArray(quad.getVaoID());
+		backend.enableVertexAttribArray(0);
+		for (Group group : groupList) {
+			if (group.count == 0) {
+				continue;
+			}
+			ParticleTexture texture = group.texture;
+			backend.blendFunc(GL11.GL_SRC_ALPHA, texture.isAdditive() ? GL11.GL_ONE : GL11.GL_ONE_MINUS_SRC_ALPHA);
+			backend.bindTexture(GL11.GL_TEXTURE_2D, texture.getID());
+			shader.loadNumberOfRows(texture.getNumberOfRows());
+			shader.loadFirstInstance(group.firstInstance);
+			backend.drawElementsInstanced(GL11.GL_TRIANGLES, quad.getVertexCount(), GL11.GL_UNSIGNED_INT, 0,
+					group.count);
+		}
+		backend.disableVertexAttribArray(0);
+		backend.bindVertexArray(0);
+		shader.stop();
+		MasterRenderer.enableCulling();
+		backend.depthMask(true);
+		backend.disable(GL11.GL_BLEND);
+		Profiler.end(RENDER_SCOPE, profileStart);
+	}
+
+	public void cleanUp() {
+		shader.cleanUp();
+		backend.deleteTexture(instanceTexture);
+		backend.deleteBuffer(instanceBuffer);
+	}
+
+	//the group's particles into the instance buffer, furthest from the camera first unless it's additive
+	private void putInstances(Group group, Vector3f cameraPosition) {
+		if (staging.length < group.count * FLOATS_PER_INSTANCE) {
+			staging = new float[Math.max(group.count * FLOATS_PER_INSTANCE, staging.length * 2)];
+		}
+		int offset = 0;
+		for (ParticleSystem system : group.systems) {
+			float[] x = system.getX();
+			float[] y = system.getY();
+			float[] z = system.getZ();
+			float[] size = system.getSize();
+			float[] age = system.getAge();
+			float[] lifeLength = system.getLifeLength();
+			for (int i = 0; i < system.getCount(); i++) {
+				staging[offset] = x[i];
+				staging[offset + 1] = y[i];
+				staging[offset + 2] = z[i];
+				staging[offset + 3] = size[i];
+				staging[offset + 4] = age[i] / lifeLength[i];
+				offset += FLOATS_PER_INSTANCE;
+			}
+		}
+		if (group.texture.isAdditive()) {
+			instanceFloats.put(staging, 0, offset);
+			return;
+		}
+
+		//the squared distance goes in the top half of the key and the instance in the bottom. Distances
+		//are positive, so their bits sort like the floats do, and subtracting them sorts far to near
+		if (sortKeys.length < group.count) {
+			sortKeys = new long[Math.max(group.count, sortKeys.length * 2)];
+		}
+		for (int i = 0; i < group.count; i++) {
+			int index = i * FLOATS_PER_INSTANCE;
+			float dx = staging[index] - cameraPosition.x;
+			float dy = staging[index + 1] - cameraPosition.y;
+			float dz = staging[index + 2] - cameraPosition.z;
+			int distanceBits = Float.floatToIntBits(dx * dx + dy * dy + dz * dz);
+			sortKeys[i] = ((long) (Integer.MAX_VALUE - distanceBits) << 32) | i;
+		}
+		Arrays.sort(sortKeys, 0, group.count);
+		for (int i = 0; i < group.count; i++) {
+			instanceFloats.put(staging, (int) sortKeys[i] * FLOATS_PER_INSTANCE, FLOATS_PER_INSTANCE);
+		}
+	}
+
+	private static ByteBuffer createBuffer(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+}
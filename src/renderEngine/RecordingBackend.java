@@ -0,0 +1,247 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+//A null backend that also writes down every call that changes what would be drawn, one line per
+//call, e.g. "drawElements(4, 1536, 5125, 0)". Comparing the recording of a frame against a known
+//good one catches changes in submission order, redundant binds and missing draws.
+//Shader creation isn't recorded, only the per frame commands
+public class RecordingBackend extends NullBackend {
+	
+	private final List<String> commands = new ArrayList<String>();
+	
+	//everything recorded since the last clear
+	public List<String> getCommands() {
+		return commands;
+	}
+	
+	public void clearCommands() {
+		commands.clear();
+	}
+
+	@Override
+	public void enable(int capability) {
+		super.enable(capability);
+		commands.add("enable(" + capability + ")");
+	}
+
+	@Override
+	public void disable(int capability) {
+		super.disable(capability);
+		commands.add("disable(" + capability + ")");
+	}
+
+	@Override
+	public void cullFace(int mode) {
+		super.cullFace(mode);
+		commands.add("cullFace(" + mode + ")");
+	}
+
+	@Override
+	public void clear(int mask) {
+		super.clear(mask);
+		commands.add("clear(" + mask + ")");
+	}
+
+	@Override
+	public void clearColor(float r, float g, float b, float a) {
+		super.clearColor(r, g, b, a);
+		commands.add("clearColor(" + r + ", " + g + ", " + b + ", " + a + ")");
+	}
+
+	@Override
+	public void depthFunc(int function) {
+		super.depthFunc(function);
+		commands.add("depthFunc(" + function + ")");
+	}
+
+	@Override
+	public void depthMask(boolean write) {
+		super.depthMask(write);
+		commands.add("depthMask(" + write + ")");
+	}
+
+	@Override
+	public void colorMask(boolean red, boolean green, boolean blue, boolean alpha) {
+		super.colorMask(red, green, blue, alpha);
+		commands.add("colorMask(" + red + ", " + green + ", " + blue + ", " + alpha + ")");
+	}
+
+	@Override
+	public void blendFunc(int source, int destination) {
+		super.blendFunc(source, destination);
+		commands.add("blendFunc(" + source + ", " + destination + ")");
+	}
+
+	@Override
+	public void bindVertexArray(int vaoID) {
+		super.bindVertexArray(vaoID);
+		commands.add("bindVertexArray(" + vaoID + ")");
+	}
+
+	@Override
+	public void enableVertexAttribArray(int index) {
+		super.enableVertexAttribArray(index);
+		commands.add("enableVertexAttribArray(" + index + ")");
+	}
+
+	@Override
+	public void disableVertexAttribArray(int index) {
+		super.disableVertexAttribArray(index);
+		commands.add("disableVertexAttribArray(" + index + ")");
+	}
+
+	@Override
+	public void activeTexture(int unit) {
+		super.activeTexture(unit);
+		commands.add("activeTexture(" + unit + ")");
+	}
+
+	@Override
+	public void bindTexture(int target, int textureID) {
+		super.bindTexture(target, textureID);
+		commands.add("bindTexture(" + target + ", " + textureID + ")");
+	}
+
+	@Override
+	public void bindFramebuffer(int target, int framebufferID) {
+		super.bindFramebuffer(target, framebufferID);
+		commands.add("bindFramebuffer(" + target + ", " + framebufferID + ")");
+	}
+
+	@Override
+	public void viewport(int x, int y, int width, int height) {
+		super.viewport(x, y, width, height);
+		commands.add("viewport(" + x + ", " + y + ", " + width + ", " + height + ")");
+	}
+
+	@Override
+	public void bufferData(int target, int bufferID, ByteBuffer data, int usage) {
+		super.bufferData(target, bufferID, data, usage);
+		commands.add("bufferData(" + target + ", " + bufferID + ", " + data.remaining() + " bytes, " + usage + ")");
+	}
+
+	@Override
+	public void drawElements(int mode, int count, int type, long offset) {
+		super.drawElements(mode, count, type, offset);
+		commands.add("drawElements(" + mode + ", " + count + ", " + type + ", " + offset + ")");
+	}
+
+	@Override
+	public void drawElementsInstanced(int mode, int count, int type, long offset, int instances) {
+		super.drawElementsInstanced(mode, count, type, offset, instances);
+		commands.add("drawElementsInstanced(" + mode + ", " + count + ", " + type + ", " + offset + ", " 
+				+ instances + ")");
+	}
+
+	@Override
+	public void multiDrawElements(int mode, IntBuffer counts, IntBuffer offsets, int type) {
+		super.multiDrawElements(mode, counts, offsets, type);
+		StringBuilder command = new StringBuilder("multiDrawElements(").append(mode).append(", [");
+		for (int i = counts.position(); i < counts.limit(); i++) {
+			command.append(i == counts.position() ? "" : ", ").append(counts.get(i)).append('@')
+					.append(offsets.get(i));
+		}
+		commands.add(command.append("], ").append(type).append(')').toString());
+	}
+
+	@Override
+	public void multiDrawElementsIndirect(int mode, int type, int commandBuffer, long offset, int drawCount) {
+		super.multiDrawElementsIndirect(mode, type, commandBuffer, offset, drawCount);
+		commands.add("multiDrawElementsIndirect(" + mode + ", " + type + ", " + commandBuffer + ", " + offset + ", "
+				+ drawCount + ")");
+	}
+
+	@Override
+	public void beginQuery(int target, int queryID) {
+		super.beginQuery(target, queryID);
+		commands.add("beginQuery(" + target + ", " + queryID + ")");
+	}
+
+	@Override
+	public void endQuery(int target) {
+		super.endQuery(target);
+		commands.add("endQuery(" + target + ")");
+	}
+
+	@Override
+	public void queryCounter(int queryID, int target) {
+		super.queryCounter(queryID, target);
+		commands.add("queryCounter(" + queryID + ", " + target + ")");
+	}
+
+	@Override
+	public void bindBufferBase(int target, int index, int bufferID) {
+		super.bindBufferBase(target, index, bufferID);
+		commands.add("bindBufferBase(" + target + ", " + index + ", " + bufferID + ")");
+	}
+
+	@Override
+	public void dispatchCompute(int groupsX, int groupsY, int groupsZ) {
+		super.dispatchCompute(groupsX, groupsY, groupsZ);
+		commands.add("dispatchCompute(" + groupsX + ", " + groupsY + ", " + groupsZ + ")");
+	}
+
+	@Override
+	public void memoryBarrier(int barriers) {
+		super.memoryBarrier(barriers);
+		commands.add("memoryBarrier(" + barriers + ")");
+	}
+
+	@Override
+	public int fenceSync() {
+		int fence = super.fenceSync();
+		commands.add("fenceSync() = " + fence);
+		return fence;
+	}
+
+	@Override
+	public void useProgram(int programID) {
+		super.useProgram(programID);
+		commands.add("useProgram(" + programID + ")");
+	}
+
+	@Override
+	public void uniform1f(int location, float value) {
+		super.uniform1f(location, value);
+		commands.add("uniform1f(" + location + ", " + value + ")");
+	}
+
+	@Override
+	public void uniform1i(int location, int value) {
+		super.uniform1i(location, value);
+		commands.add("uniform1i(" + location + ", " + value + ")");
+	}
+
+	@Override
+	public void uniform2f(int location, float x, float y) {
+		super.uniform2f(location, x, y);
+		commands.add("uniform2f(" + location + ", " + x + ", " + y + ")");
+	}
+
+	@Override
+	public void uniform3f(int location, float x, float y, float z) {
+		super.uniform3f(location, x, y, z);
+		commands.add("uniform3f(" + location + ", " + x + ", " + y + ", " + z + ")");
+	}
+
+	@Override
+	public void uniform4f(int location, float x, float y, float z, float w) {
+		super.uniform4f(location, x, y, z, w);
+		commands.add("uniform4f(" + location + ", " + x + ", " + y + ", " + z + ", " + w + ")");
+	}
+
+	@Override
+	public void uniformMatrix4(int location, boolean transpose, FloatBuffer matrix) {
+		super.uniformMatrix4(location, transpose, matrix);
+		StringBuilder command = new StringBuilder("uniformMatrix4(").append(location).append(", ").append(transpose);
+		for (int i = matrix.position(); i < matrix.limit(); i++) {
+			command.append(", ").append(matrix.get(i));
+		}
+		commands.add(command.append(")").toString());
+	}
+}
@@ -0,0 +1,126 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+//The thin layer between the renderers and OpenGL. Everything MasterRenderer, EntityRenderer,
+//TerrainRenderer and the shader programs do each frame goes through here, so the same rendering
+//code can run against real OpenGL, against nothing at all, or against a recorder, and the CPU cost
+//of submitting a frame can be measured and tested without a GPU.
+//The methods mirror the GL calls they replace and take the same GL constants.
+public interface RenderBackend {
+	
+	//fixed function state
+	void enable(int capability);
+	void disable(int capability);
+	void cullFace(int mode);
+	void clear(int mask);
+	void clearColor(float r, float g, float b, float a);
+	void depthFunc(int function);
+	void depthMask(boolean write);
+	void colorMask(boolean red, boolean green, boolean blue, boolean alpha);
+	void blendFunc(int source, int destination);
+	
+	//vertex arrays
+	void bindVertexArray(int vaoID);
+	void enableVertexAttribArray(int index);
+	void disableVertexAttribArray(int index);
+	
+	//textures
+	void activeTexture(int unit);
+	void bindTexture(int target, int textureID);
+	
+	//framebuffers, 0 is the window's
+	void bindFramebuffer(int target, int framebufferID);
+	void viewport(int x, int y, int width, int height);
+	
+	//buffers, and buffer textures for reading them from shaders
+	int createBuffer();
+	void bufferData(int target, int bufferID, ByteBuffer data, int usage);
+	int createBufferTexture(int internalFormat, int bufferID);
+	void deleteBuffer(int bufferID);
+	void deleteTexture(int textureID);
+	
+	//drawing
+	void drawElements(int mode, int count, int type, long offset);
+	void drawElementsInstanced(int mode, int count, int type, long offset, int instances);
+	
+	//one draw per range, counts.get(i) indices from byte offset offsets.get(i)
+	void multiDrawElements(int mode, IntBuffer counts, IntBuffer offsets, int type);
+	
+	//drawCount DrawElementsIndirectCommands from byte offset in commandBuffer, written by the GPU.
+	//The CPU never sees how many instances they draw, so only the draws are counted, not their triangles
+	void multiDrawElementsIndirect(int mode, int type, int commandBuffer, long offset, int drawCount);
+	
+	//queries, created with glGenQueries. Results are polled rather than waited for, getQueryResult
+	//is only called once isQueryResultAvailable says it's there
+	void beginQuery(int target, int queryID);
+	void endQuery(int target);
+	void queryCounter(int queryID, int target);
+	boolean isQueryResultAvailable(int queryID);
+	long getQueryResult(int queryID);
+	
+	//compute, and what it writes
+	void bindBufferBase(int target, int index, int bufferID);
+	void dispatchCompute(int groupsX, int groupsY, int groupsZ);
+	void memoryBarrier(int barriers);
+	
+	//copies the buffer from offset into data, from data's position to its limit
+	void getBufferSubData(int target, int bufferID, long offset, ByteBuffer data);
+	
+	//fences after everything submitted so far. The handles are the backend's own, never 0, and
+	//isFenceSignaled only checks, it doesn't wait
+	int fenceSync();
+	boolean isFenceSignaled(int fence);
+	void deleteFence(int fence);
+	
+	//shader programs
+	int createProgram();
+	int createShader(int type);
+	
+	//compile the shader, returns null if it compiled or the info log if it didn't
+	String compileShader(int shaderID, CharSequence source);
+	
+	void attachShader(int programID, int shaderID);
+	void detachShader(int programID, int shaderID);
+	void bindAttribLocation(int programID, int index, String name);
+	//link the program, returns null if it linked or the info log if it didn't
+	String linkProgram(int programID);
+	void validateProgram(int programID);
+	int getUniformLocation(int programID, String name);
+	void useProgram(int programID);
+	void deleteShader(int shaderID);
+	void deleteProgram(int programID);
+	
+	//linked program binaries, so programs can be cached between runs
+	boolean supportsProgramBinaries();
+	
+	//vendor, renderer and version of the driver, a cached binary is only good for the same driver
+	String getDriverDescription();
+	
+	void programParameteri(int programID, int name, int value);
+	
+	//returns the binary of a linked program and puts its format in format.get(0)
+	ByteBuffer getProgramBinary(int programID, IntBuffer format);
+	
+	//load a cached binary into the program, returns false if the driver rejected it
+	boolean programBinary(int programID, int format, ByteBuffer binary);
+	
+	//uniforms
+	void uniform1f(int location, float value);
+	void uniform1i(int location, int value);
+	void uniform2f(int location, float x, float y);
+	void uniform3f(int location, float x, float y, float z);
+	void uniform4f(int location, float x, float y, float z, float w);
+	void uniformMatrix4(int location, boolean transpose, FloatBuffer matrix);
+	
+	//counters for the frame being built
+	DrawStats getStats();
+	
+	//counters for the last finished frame
+	DrawStats getFrameStats();
+	
+	//called once per frame when the frame is shown, moves the current counters to the frame counters
+	void endFrame();
+}
@@ -0,0 +1,103 @@
+package renderEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+//Direct buffers to copy data through on its way to GL, handed out and taken back instead of being
+//allocated for every upload. A direct buffer's memory is only freed once the GC gets round to the
+//buffer object, so allocating one per mesh while tiles stream in runs out of direct memory, or stalls
+//in the System.gc() the JDK calls when it's about to.
+//
+//Buffers come in power of two size classes from 4KB up, so a buffer is never more than twice the size
+//asked for. Anything released goes back on its class's free list, unless the pool is already keeping
+//-DstagingPoolBytes (64MB by default) of free buffers, then it's left for the GC.
+//
+//Usage:
+//	ByteBuffer buffer = StagingBufferPool.acquire(data.length * 4);
+//	buffer.asFloatBuffer().put(data);
+//	GL15.glBufferData(GL15.GL_ARRAY_BUFFER, buffer, GL15.GL_STATIC_DRAW);
+//	StagingBufferPool.release(buffer);
+public class StagingBufferPool {
+
+	private static final int MIN_CLASS = 12;
+	private static final int CLASSES = 31 - MIN_CLASS;
+
+	private static final long MAX_FREE_BYTES = Long.getLong("stagingPoolBytes", 64 << 20);
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static final ArrayDeque<ByteBuffer>[] free = new ArrayDeque[CLASSES];
+	static {
+		for (int i = 0; i < CLASSES; i++) {
+			free[i] = new ArrayDeque<ByteBuffer>();
+		}
+	}
+
+	private static long freeBytes;
+	private static long bytesInUse;
+	private static long peakBytesInUse;
+	private static long hits;
+	private static long misses;
+
+	//a direct, native order buffer with room for at least the given number of bytes. Its position is
+	//0 and its limit is the size asked for. Give it back with release once GL has the data
+	public static synchronized ByteBuffer acquire(int bytes) {
+		int sizeClass = getSizeClass(bytes);
+		ByteBuffer buffer = free[sizeClass].pollFirst();
+		if (buffer != null) {
+			hits++;
+			freeBytes -= buffer.capacity();
+		} else {
+			misses++;
+			buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_CLASS)).order(ByteOrder.nativeOrder());
+		}
+		bytesInUse += buffer.capacity();
+		peakBytesInUse = Math.max(peakBytesInUse, bytesInUse);
+		buffer.clear();
+		buffer.limit(bytes);
+		return buffer;
+	}
+
+	//give back a buffer from acquire. GL copies the data before glBufferData and glTexImage return,
+	//so it's safe straight after the upload
+	public static synchronized void release(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+		bytesInUse -= capacity;
+		if (freeBytes + capacity <= MAX_FREE_BYTES) {
+			free[Integer.numberOfTrailingZeros(capacity) - MIN_CLASS].addFirst(buffer);
+			freeBytes += capacity;
+		}
+	}
+
+	//acquires that reused a free buffer
+	public static synchronized long getHits() {
+		return hits;
+	}
+
+	//acquires that had to allocate a new buffer
+	public static synchronized long getMisses() {
+		return misses;
+	}
+
+	//the most bytes that have been acquired and not released at once
+	public static synchronized long getPeakBytesInUse() {
+		return peakBytesInUse;
+	}
+
+	public static synchronized long getBytesInUse() {
+		return bytesInUse;
+	}
+
+	//bytes sitting in the free lists
+	public static synchronized long getFreeBytes() {
+		return freeBytes;
+	}
+
+	private static int getSizeClass(int bytes) {
+		if (bytes < 0 || bytes > 1 << 30) {
+			throw new IllegalArgumentException("Can't stage " + bytes + " bytes");
+		}
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+		return Math.max(bits - MIN_CLASS, 0);
+	}
+}
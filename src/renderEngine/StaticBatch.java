@@ -0,0 +1,84 @@
+package renderEngine;
+
+import models.TexturedModel;
+
+//The static entities in one cell of the world that share a texture, merged into one mesh that's
+//already in world space. Drawn with one draw call and an identity transformation
+public class StaticBatch {
+	
+	static final int FLOATS_PER_INSTANCE = 5;
+	
+	private final TexturedModel model;
+	private final TexturedModel sourceModel;
+	private final int entityCount;
+	
+	//world space box around the merged mesh
+	private final float minX, minY, minZ;
+	private final float maxX, maxY, maxZ;
+	
+	//x, y, z, scale and y rotation of every merged entity, for drawing them as impostors instead
+	private final float[] instances;
+	
+	//how far the batch has faded into impostors this frame, set by the impostor renderer
+	float fade;
+	
+	StaticBatch(TexturedModel model, TexturedModel sourceModel, float[] instances, float[] bounds) {
+		this.model = model;
+		this.sourceModel = sourceModel;
+		this.entityCount = instances.length / FLOATS_PER_INSTANCE;
+		this.instances = instances;
+		this.minX = bounds[0];
+		this.minY = bounds[1];
+		this.minZ = bounds[2];
+		this.maxX = bounds[3];
+		this.maxY = bounds[4];
+		this.maxZ = bounds[5];
+	}
+	
+	public TexturedModel getModel() {
+		return model;
+	}
+	
+	//the model every merged entity uses, or null if the batch mixes models that share a texture
+	public TexturedModel getSourceModel() {
+		return sourceModel;
+	}
+	
+	//how many entities were merged into it
+	public int getEntityCount() {
+		return entityCount;
+	}
+
+	float[] getInstances() {
+		return instances;
+	}
+	
+	//0 is fully drawn and 1 fully faded out
+	public float getFade() {
+		return fade;
+	}
+
+	public float getMinX() {
+		return minX;
+	}
+
+	public float getMinY() {
+		return minY;
+	}
+
+	public float getMinZ() {
+		return minZ;
+	}
+
+	public float getMaxX() {
+		return maxX;
+	}
+
+	public float getMaxY() {
+		return maxY;
+	}
+
+	public float getMaxZ() {
+		return maxZ;
+	}
+}
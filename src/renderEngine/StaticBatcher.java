@@ -0,0 +1,288 @@
+package renderEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.EntityStore;
+import models.MeshletBuilder;
+import models.Meshlets;
+import models.ModelData;
+import models.RawModel;
+import models.TexturedModel;
+import textures.ModelTexture;
+import toolbox.Maths;
+
+//Bakes entities flagged STATIC into merged meshes, so things that never move (trees, grass, rocks)
+//aren't transformed and drawn one at a time every frame.
+//The world is split into square cells. All the static entities in a cell that share a texture are
+//transformed into world space once and merged into one VAO, which is drawn with one call and an
+//identity transformation. Every update works out a checksum of each cell's entities, and only the
+//cells whose checksum changed (something added, removed, moved or retextured) are baked again.
+public class StaticBatcher {
+
+	//width and depth of a cell in world units
+	private static final float CELL_SIZE = 64;
+
+	private final Loader loader;
+	private final EntityStore store;
+
+	private final Map<Long, Cell> cells = new HashMap<Long, Cell>();
+	private final List<StaticBatch> batches = new ArrayList<StaticBatch>();
+	private int cellsRebuilt;
+
+	//reused while baking
+	private final Vector3f position = new Vector3f();
+
+	private static class Cell {
+
+		//checksum and entity count of what's baked into the batches
+		private long builtChecksum;
+		private int builtCount;
+
+		//checksum, count and slots of the entities in the cell this update
+		private long checksum;
+		private int count;
+		private int[] slots = new int[64];
+
+		private final List<StaticBatch> batches = new ArrayList<StaticBatch>();
+
+		private void add(int slot, long hash) {
+			if (count == slots.length) {
+				int[] grown = new int[slots.length * 2];
+				System.arraycopy(slots, 0, grown, 0, count);
+				slots = grown;
+			}
+			slots[count++] = slot;
+			checksum += hash;
+		}
+	}
+
+	public StaticBatcher(Loader loader, EntityStore store) {
+		this.loader = loader;
+		this.store = store;
+	}
+
+	//call once per frame, before the batches are drawn
+	public void update() {
+		for (Cell cell : cells.values()) {
+			cell.checksum = 0;
+			cell.count = 0;
+		}
+		for (int i = 0; i < store.getChunkCount(); i++) {
+			EntityStore.Chunk chunk = store.getChunk(i);
+			int firstSlot = i << EntityStore.CHUNK_SHIFT;
+			for (int j = 0; j < chunk.getCount(); j++) {
+				int flags = chunk.flags[j];
+				if ((flags & EntityStore.STATIC) == 0 || (flags & EntityStore.VISIBLE) == 0) {
+					continue;
+				}
+				long key = toKey((int) Math.floor(chunk.x[j] / CELL_SIZE), (int) Math.floor(chunk.z[j] / CELL_SIZE));
+				Cell cell = cells.get(key);
+				if (cell == null) {
+					cell = new Cell();
+					cells.put(key, cell);
+				}
+				int slot = firstSlot + j;
+				cell.add(slot, hashEntity(chunk, j, store.getHandle(slot)));
+			}
+		}
+
+		cellsRebuilt = 0;
+		Iterator<Cell> cellIterator = cells.values().iterator();
+		while (cellIterator.hasNext()) {
+			Cell cell = cellIterator.next();
+			if (cell.count == 0) {
+				unload(cell);
+				cellIterator.remove();
+				cellsRebuilt++;
+			} else if (cell.checksum != cell.builtChecksum || cell.count != cell.builtCount) {
+				unload(cell);
+				bake(cell);
+				cellsRebuilt++;
+			}
+		}
+		if (cellsRebuilt > 0) {
+			batches.clear();
+			for (Cell cell : cells.values()) {
+				batches.addAll(cell.batches);
+			}
+		}
+	}
+
+	public List<StaticBatch> getBatches() {
+		return batches;
+	}
+
+	//how many cells the last update had to bake again
+	public int getCellsRebuilt() {
+		return cellsRebuilt;
+	}
+
+	public void cleanUp() {
+		for (Cell cell : cells.values()) {
+			unload(cell);
+		}
+		cells.clear();
+		batches.clear();
+	}
+
+	//merge the cell's entities into one mesh per texture
+	private void bake(Cell cell) {
+		Map<ModelTexture, List<Integer>> byTexture = new LinkedHashMap<ModelTexture, List<Integer>>();
+		for (int i = 0; i < cell.count; i++) {
+			int slot = cell.slots[i];
+			EntityStore.Chunk chunk = store.getChunkForSlot(slot);
+			ModelTexture texture = store.getModelByID(chunk.modelID[slot & (EntityStore.CHUNK_SIZE - 1)]).getTexture();
+			List<Integer> slots = byTexture.get(texture);
+			if (slots == null) {
+				slots = new ArrayList<Integer>();
+				byTexture.put(texture, slots);
+			}
+			slots.add(slot);
+		}
+		for (Map.Entry<ModelTexture, List<Integer>> entry : byTexture.entrySet()) {
+			cell.batches.add(bake(entry.getKey(), entry.getValue()));
+		}
+		cell.builtChecksum = cell.checksum;
+		cell.builtCount = cell.count;
+	}
+
+	private StaticBatch bake(ModelTexture texture, List<Integer> slots) {
+		int vertexCount = 0;
+		int indexCount = 0;
+		boolean splitIntoMeshlets = true;
+		for (int slot : slots) {
+			ModelData data = getData(slot);
+			splitIntoMeshlets &= getRawModel(slot).getMeshlets() != null;
+			vertexCount += data.getVertices().length / 3;
+			indexCount += data.getIndices().length;
+		}
+		float[] positions = new float[vertexCount * 3];
+		float[] textureCoords = new float[vertexCount * 2];
+		float[] normals = new float[vertexCount * 3];
+		int[] indices = new int[indexCount];
+		float[] instances = new float[slots.size() * StaticBatch.FLOATS_PER_INSTANCE];
+		float[] bounds = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+				Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+
+		int vertexOffset = 0;
+		int indexOffset = 0;
+		int instanceOffset = 0;
+		TexturedModel sourceModel = null;
+		int sourceModelID = -1;
+		for (int slot : slots) {
+			EntityStore.Chunk chunk = store.getChunkForSlot(slot);
+			int offset = slot & (EntityStore.CHUNK_SIZE - 1);
+			position.set(chunk.x[offset], chunk.y[offset], chunk.z[offset]);
+			instances[instanceOffset++] = chunk.x[offset];
+			instances[instanceOffset++] = chunk.y[offset];
+			instances[instanceOffset++] = chunk.z[offset];
+			instances[instanceOffset++] = chunk.scale[offset];
+			instances[instanceOffset++] = chunk.rotY[offset];
+			int modelID = chunk.modelID[offset];
+			if (sourceModelID == -1) {
+				sourceModelID = modelID;
+				sourceModel = store.getModelByID(modelID);
+			} else if (modelID != sourceModelID) {
+				sourceModel = null;
+			}
+
+			//exactly the matrix the entity renderer would have used
+			Matrix4f matrix = Maths.createTransformationMatrix(position, chunk.rotX[offset], chunk.rotY[offset],
+					chunk.rotZ[offset], chunk.scale[offset]);
+			ModelData data = getData(slot);
+			float[] vertices = data.getVertices();
+			float[] modelNormals = data.getNormals();
+			int modelVertices = vertices.length / 3;
+			for (int v = 0; v < modelVertices; v++) {
+				float x = vertices[v * 3];
+				float y = vertices[v * 3 + 1];
+				float z = vertices[v * 3 + 2];
+				int out = (vertexOffset + v) * 3;
+				positions[out] = matrix.m00 * x + matrix.m10 * y + matrix.m20 * z + matrix.m30;
+				positions[out + 1] = matrix.m01 * x + matrix.m11 * y + matrix.m21 * z + matrix.m31;
+				positions[out + 2] = matrix.m02 * x + matrix.m12 * y + matrix.m22 * z + matrix.m32;
+				for (int axis = 0; axis < 3; axis++) {
+					bounds[axis] = Math.min(bounds[axis], positions[out + axis]);
+					bounds[axis + 3] = Math.max(bounds[axis + 3], positions[out + axis]);
+				}
+
+				//normals get the rotation and scale but not the translation, like in the vertex shader
+				float nx = modelNormals[v * 3];
+				float ny = modelNormals[v * 3 + 1];
+				float nz = modelNormals[v * 3 + 2];
+				normals[out] = matrix.m00 * nx + matrix.m10 * ny + matrix.m20 * nz;
+				normals[out + 1] = matrix.m01 * nx + matrix.m11 * ny + matrix.m21 * nz;
+				normals[out + 2] = matrix.m02 * nx + matrix.m12 * ny + matrix.m22 * nz;
+			}
+			System.arraycopy(data.getTextureCoords(), 0, textureCoords, vertexOffset * 2, modelVertices * 2);
+			int[] modelIndices = data.getIndices();
+			for (int i = 0; i < modelIndices.length; i++) {
+				indices[indexOffset + i] = modelIndices[i] + vertexOffset;
+			}
+			vertexOffset += modelVertices;
+			indexOffset += modelIndices.length;
+		}
+		
+		//if the models were split into meshlets, so is the merged mesh. Its meshlets are already in world
+		//space, so the same culling works with an identity transformation
+		Meshlets meshlets = null;
+		if (splitIntoMeshlets) {
+			meshlets = MeshletBuilder.build(positions, indices);
+			indices = meshlets.getIndices();
+		}
+		RawModel merged = loader.loadToVao(positions, textureCoords, normals, indices);
+		merged.setMeshlets(meshlets);
+		return new StaticBatch(new TexturedModel(merged, texture), sourceModel, instances, bounds);
+	}
+
+	private RawModel getRawModel(int slot) {
+		EntityStore.Chunk chunk = store.getChunkForSlot(slot);
+		return store.getModelByID(chunk.modelID[slot & (EntityStore.CHUNK_SIZE - 1)]).getRawModel();
+	}
+	
+	private ModelData getData(int slot) {
+		RawModel model = getRawModel(slot);
+		if (model.getData() == null) {
+			throw new IllegalStateException("Static entities need models loaded with their mesh data kept, "
+					+ "e.g. through OBJLoader");
+		}
+		return model.getData();
+	}
+
+	private void unload(Cell cell) {
+		for (StaticBatch batch : cell.batches) {
+			loader.unloadVao(batch.getModel().getRawModel());
+		}
+		cell.batches.clear();
+	}
+
+	//a hash of everything about the entity that ends up in the baked mesh
+	private static long hashEntity(EntityStore.Chunk chunk, int offset, long handle) {
+		long hash = handle;
+		hash = hash * 31 + chunk.modelID[offset];
+		hash = hash * 31 + Float.floatToIntBits(chunk.x[offset]);
+		hash = hash * 31 + Float.floatToIntBits(chunk.y[offset]);
+		hash = hash * 31 + Float.floatToIntBits(chunk.z[offset]);
+		hash = hash * 31 + Float.floatToIntBits(chunk.rotX[offset]);
+		hash = hash * 31 + Float.floatToIntBits(chunk.rotY[offset]);
+		hash = hash * 31 + Float.floatToIntBits(chunk.rotZ[offset]);
+		hash = hash * 31 + Float.floatToIntBits(chunk.scale[offset]);
+
+		//mix the bits so that summing the hashes of a cell doesn't cancel out simple changes
+		hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+		hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return hash ^ (hash >>> 33);
+	}
+
+	private static long toKey(int cellX, int cellZ) {
+		return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+	}
+}
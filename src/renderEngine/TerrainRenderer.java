@@ -4,67 +4,146 @@ import java.util.List;
 
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
-import org.lwjgl.opengl.GL20;
 import org.lwjgl.opengl.GL30;
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
 
+import entities.Camera;
 import models.RawModel;
+import profiling.Profiler;
+import shaders.LodTerrainShader;
 import shaders.TerrainShader;
 import terrains.Terrain;
+import terrains.TerrainNode;
 import textures.ModelTexture;
+import textures.TerrainTexturePack;
+import toolbox.Frustum;
 import toolbox.Maths;
 
 public class TerrainRenderer {
+	
+	private static final int RENDER_SCOPE = Profiler.registerScope("TerrainRenderer.render");
+	private static final int RENDER_LOD_SCOPE = Profiler.registerScope("TerrainRenderer.renderLod");
+	
 	private TerrainShader shader;
+	private LodTerrainShader lodShader;
+	private RenderBackend backend;
 	
-	public TerrainRenderer(TerrainShader shader, Matrix4f projectionMatrix) {
+	public TerrainRenderer(TerrainShader shader, LodTerrainShader lodShader, Matrix4f projectionMatrix) {
 		this.shader = shader;
+		this.backend = DisplayManager.getBackend();
+		this.lodShader = lodShader;
 		shader.start();
 		shader.loadProjectionMatrix(projectionMatrix);
+		shader.connectTextureUnits();
 		shader.stop();
+		lodShader.start();
+		lodShader.loadProjectionMatrix(projectionMatrix);
+		lodShader.connectTextureUnits();
+		lodShader.stop();
 	}
 	
+	//draw the terrains that are one mesh each
 	public void render(List<Terrain> terrains) {
+		long profileStart = Profiler.begin();
 		for (Terrain terrain : terrains) {
+			if (terrain.isLodTerrain()) {
+				continue;
+			}
 			prepareTerrain(terrain);
 			loadModelMatrix(terrain);
 			
 			//render everything, with GL_TRIANGLES primative
-			GL11.glDrawElements(GL11.GL_TRIANGLES, terrain.getModel().getVertexCount(), 
+			backend.drawElements(GL11.GL_TRIANGLES, terrain.getModel().getVertexCount(), 
 					GL11.GL_UNSIGNED_INT, 0);
 			unbindTexturedModel();
 		}
+		Profiler.end(RENDER_SCOPE, profileStart);
+	}
+	
+	//draw the height map terrains, only the patches the quad tree picks for this frame
+	public void renderLod(List<Terrain> terrains, Frustum frustum, Camera camera) {
+		long profileStart = Profiler.begin();
+		for (Terrain terrain : terrains) {
+			if (!terrain.isLodTerrain()) {
+				continue;
+			}
+			List<TerrainNode> nodes = terrain.getQuadTree().select(frustum, camera.getPosition());
+			if (nodes.isEmpty()) {
+				continue;
+			}
+			prepareLodTerrain(terrain);
+			for (TerrainNode node : nodes) {
+				lodShader.loadNode(node, terrain.getQuadTree());
+				backend.drawElements(GL11.GL_TRIANGLES, terrain.getModel().getVertexCount(), 
+						GL11.GL_UNSIGNED_INT, 0);
+			}
+			unbindLodTerrain();
+		}
+		Profiler.end(RENDER_LOD_SCOPE, profileStart);
+	}
+	
+	private void prepareLodTerrain(Terrain terrain) {
+		//the patch only has positions, everything else comes from the height map
+		backend.bindVertexArray(terrain.getModel().getVaoID());
+		backend.enableVertexAttribArray(0);
+		
+		ModelTexture texture = terrain.getTexture();
+		lodShader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
+		lodShader.loadTerrain(terrain);
+		lodShader.loadTexturePack(terrain);
+		
+		bindTextures(terrain);
+		backend.activeTexture(GL13.GL_TEXTURE1);
+		backend.bindTexture(GL11.GL_TEXTURE_2D, terrain.getHeightTextureID());
+	}
+	
+	//bind either the blend map and texture array, or the single model texture
+	private void bindTextures(Terrain terrain) {
+		TerrainTexturePack pack = terrain.getTexturePack();
+		if (pack != null) {
+			backend.activeTexture(GL13.GL_TEXTURE2);
+			backend.bindTexture(GL11.GL_TEXTURE_2D, pack.getBlendMapID());
+			backend.activeTexture(GL13.GL_TEXTURE3);
+			backend.bindTexture(GL30.GL_TEXTURE_2D_ARRAY, pack.getTextureArrayID());
+		} else {
+			backend.activeTexture(GL13.GL_TEXTURE0);
+			backend.bindTexture(GL11.GL_TEXTURE_2D, terrain.getTexture().getID());
+		}
+	}
+	
+	private void unbindLodTerrain() {
+		backend.disableVertexAttribArray(0);
+		backend.bindVertexArray(0);
+		backend.activeTexture(GL13.GL_TEXTURE0);
 	}
 	
 	private void prepareTerrain(Terrain terrain) {
 		RawModel rawModel = terrain.getModel();
 		
 		//bind the VAO and activate the attribute arrays we want
-		GL30.glBindVertexArray(rawModel.getVaoID());
-		GL20.glEnableVertexAttribArray(0);
-		GL20.glEnableVertexAttribArray(1);
-		GL20.glEnableVertexAttribArray(2);
+		backend.bindVertexArray(rawModel.getVaoID());
+		backend.enableVertexAttribArray(0);
+		backend.enableVertexAttribArray(1);
+		backend.enableVertexAttribArray(2);
 		
 		//Load the shine to the shaders
 		ModelTexture texture = terrain.getTexture();
 		shader.loadShineVariables(texture.getShineDamper(), texture.getReflectivity());
+		shader.loadTexturePack(terrain);
 		
-		//activate one of open GL's texture banks 
-		GL13.glActiveTexture(GL13.GL_TEXTURE0);
-		
-		//bind the texture model to OpenGL's texture bank
-		GL11.glBindTexture(GL11.GL_TEXTURE_2D, terrain.getTexture().getID());
+		//bind the ground textures to OpenGL's texture banks
+		bindTextures(terrain);
 	}
 	
 	private void unbindTexturedModel() {
 		//disable the attribute arrays now that they've been rendered
-		GL20.glDisableVertexAttribArray(0);
-		GL20.glDisableVertexAttribArray(1);
-		GL20.glDisableVertexAttribArray(2);
+		backend.disableVertexAttribArray(0);
+		backend.disableVertexAttribArray(1);
+		backend.disableVertexAttribArray(2);
 		
 		//unbind the VAO array
-		GL30.glBindVertexArray(0);
+		backend.bindVertexArray(0);
 	}
 	
 	private void loadModelMatrix(Terrain terrain) {
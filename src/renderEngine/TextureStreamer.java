@@ -0,0 +1,431 @@
+package renderEngine;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+
+//Streams the fine mip levels of textures in and out by how big they are on screen. A texture loaded
+//through here starts with only the mips of 64 pixels and smaller, which always stay. Every frame the
+//entity renderer asks for the finest mip each texture needs, from how many pixels its nearest entity
+//covers, and update() has the missing levels decoded and downsampled on a background thread, uploads
+//them when they're ready and moves GL_TEXTURE_BASE_LEVEL down to them.
+//
+//The streamed levels share one budget, -DtextureBudgetMB (64 by default). When a texture needs more
+//than is left, levels finer than their textures need this frame are dropped, the longest unused first,
+//and if that isn't enough the texture gets the finest level that fits.
+//
+//Everything but the decoding happens on the render thread
+public class TextureStreamer {
+
+	private static final long DEFAULT_BUDGET = Long.getLong("textureBudgetMB", 64) << 20;
+
+	//levels this big and smaller are loaded with the texture and never dropped
+	private static final int RESIDENT_SIZE = 64;
+
+	//ask for one level finer than the projected size says, for textures that repeat across their model
+	//and surfaces seen at an angle
+	private static final int MIP_BIAS = 1;
+
+	//at most this much is uploaded in one frame, the rest waits for the next, so a burst doesn't hitch
+	private static final long MAX_UPLOAD_PER_FRAME = 8 << 20;
+
+	private final Loader loader;
+	private final long budget;
+
+	private final Map<Integer, StreamedTexture> texturesByID = new HashMap<Integer, StreamedTexture>();
+	private final List<StreamedTexture> textures = new ArrayList<StreamedTexture>();
+
+	//decoded levels waiting to be uploaded
+	private final Queue<LoadedLevels> loaded = new ConcurrentLinkedQueue<LoadedLevels>();
+	private final ExecutorService worker;
+
+	//bytes of streamed levels on the GPU, plus the ones being decoded
+	private long usedBytes;
+	private int frame;
+
+	//pixels one world unit covers at a distance of one
+	private float pixelsPerUnit = 1;
+
+	public TextureStreamer(Loader loader) {
+		this(loader, DEFAULT_BUDGET);
+	}
+
+	//budget is in bytes
+	public TextureStreamer(Loader loader, long budget) {
+		this.loader = loader;
+		this.budget = budget;
+		worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "texture-streamer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	//load a texture from the res folder with only its small mips, and return the texture ID
+	public int loadTexture(String file) {
+		int[] argb = null;
+		int width = 0;
+		int height = 0;
+		try {
+			BufferedImage image = ImageIO.read(new File("res/" + file + ".png"));
+			width = image.getWidth();
+			height = image.getHeight();
+			argb = image.getRGB(0, 0, width, height, null, 0, width);
+		} catch (IOException e) {
+			System.err.println("Couldn't load texture " + file);
+			e.printStackTrace();
+			System.exit(-1);
+		}
+
+		StreamedTexture texture = new StreamedTexture(file, GL11.glGenTextures(), width, height);
+		loader.addTexture(texture.textureID);
+		texture.residentLevel = texture.levelCount - 1;
+		while (texture.residentLevel > 0 && Math.max(texture.getWidth(texture.residentLevel - 1),
+				texture.getHeight(texture.residentLevel - 1)) <= RESIDENT_SIZE) {
+			texture.residentLevel--;
+		}
+		texture.smallestStreamedLevel = texture.residentLevel - 1;
+		texture.wantedLevel = texture.residentLevel;
+
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture.textureID);
+		int levelWidth = width;
+		int levelHeight = height;
+		for (int level = 0; level < texture.levelCount; level++) {
+			if (level >= texture.residentLevel) {
+				upload(texture, level, argb);
+				loader.countTextureBytes(texture.textureID, texture.getBytes(level));
+			}
+			if (level + 1 < texture.levelCount) {
+				argb = downsample(argb, levelWidth, levelHeight);
+				levelWidth = Math.max(1, levelWidth / 2);
+				levelHeight = Math.max(1, levelHeight / 2);
+			}
+		}
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_BASE_LEVEL, texture.residentLevel);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_MAX_LEVEL, texture.levelCount - 1);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR_MIPMAP_LINEAR);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL11.GL_REPEAT);
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL11.GL_REPEAT);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+
+		texturesByID.put(texture.textureID, texture);
+		textures.add(texture);
+		return texture.textureID;
+	}
+
+	//load every level of a texture right now, e.g. before baking impostors from it. The levels count
+	//against the budget and can be dropped again like any others once nothing needs them
+	public void loadAllLevels(int textureID) {
+		StreamedTexture texture = texturesByID.get(textureID);
+		if (texture == null || texture.residentLevel == 0 || texture.pendingLevel >= 0) {
+			return;
+		}
+		texture.pendingLevel = 0;
+		texture.pendingBytes = texture.getBytes(0, texture.residentLevel);
+		usedBytes += texture.pendingBytes;
+		upload(decode(texture, 0, texture.residentLevel - 1));
+	}
+
+	//how the renderer projects, the projection matrix's y scale and the height of the viewport in pixels
+	public void setViewport(float projectionScale, int viewportHeight) {
+		pixelsPerUnit = projectionScale * viewportHeight / 2;
+	}
+
+	//the texture is drawn this frame on something size world units across at distance from the camera.
+	//Textures that weren't loaded through here are ignored
+	public void request(int textureID, float size, float distance) {
+		StreamedTexture texture = texturesByID.get(textureID);
+		if (texture == null) {
+			return;
+		}
+		texture.lastUsedFrame = frame;
+		float pixels = size * pixelsPerUnit / Math.max(distance, 0.0001f);
+		int texels = Math.max(texture.width, texture.height);
+		int level = pixels >= texels ? 0 : 31 - Integer.numberOfLeadingZeros((int) (texels / Math.max(pixels, 1)));
+		level = Math.max(0, Math.min(texture.smallestStreamedLevel + 1, level - MIP_BIAS));
+		texture.wantedLevel = Math.min(texture.wantedLevel, level);
+	}
+
+	//call once a frame after everything has been drawn: uploads the levels that have arrived, and starts
+	//loading the ones asked for this frame
+	public void update() {
+		uploadLoaded();
+		for (StreamedTexture texture : textures) {
+			if (texture.wantedLevel < texture.residentLevel && texture.pendingLevel < 0) {
+				requestLevels(texture);
+			}
+		}
+
+		//start over for the next frame, a texture nothing draws only needs its small mips
+		for (StreamedTexture texture : textures) {
+			texture.wantedLevel = texture.smallestStreamedLevel + 1;
+		}
+		frame++;
+	}
+
+	//bytes of streamed levels on the GPU or on their way there
+	public long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	//the finest level of a texture loaded through here that's on the GPU, -1 for other textures
+	public int getResidentLevel(int textureID) {
+		StreamedTexture texture = texturesByID.get(textureID);
+		return texture != null ? texture.residentLevel : -1;
+	}
+
+	//the textures themselves belong to the loader
+	public void cleanUp() {
+		worker.shutdownNow();
+		LoadedLevels levels;
+		while ((levels = loaded.poll()) != null) {
+			for (ByteBuffer pixels : levels.pixels) {
+				StagingBufferPool.release(pixels);
+			}
+		}
+	}
+
+	//make room for the levels the texture wants, or as many of them as fit, and have them decoded
+	private void requestLevels(StreamedTexture texture) {
+		int level = texture.wantedLevel;
+		long needed = texture.getBytes(level, texture.residentLevel);
+		if (usedBytes + needed > budget) {
+			evict(usedBytes + needed - budget, texture);
+		}
+		while (level < texture.residentLevel && usedBytes + texture.getBytes(level, texture.residentLevel) > budget) {
+			level++;
+		}
+		if (level == texture.residentLevel) {
+			return;
+		}
+		final StreamedTexture target = texture;
+		final int first = level;
+		final int last = texture.residentLevel - 1;
+		texture.pendingLevel = first;
+		texture.pendingBytes = texture.getBytes(first, texture.residentLevel);
+		usedBytes += texture.pendingBytes;
+		worker.execute(new Runnable() {
+			@Override
+			public void run() {
+				loaded.add(decode(target, first, last));
+			}
+		});
+	}
+
+	//drop levels finer than their textures need this frame, from the longest unused textures first,
+	//until bytes have been freed or there's nothing more to drop
+	private void evict(long bytes, StreamedTexture requester) {
+		long freed = 0;
+		while (freed < bytes) {
+			StreamedTexture oldest = null;
+			for (StreamedTexture texture : textures) {
+				if (texture != requester && texture.pendingLevel < 0 && texture.residentLevel < texture.wantedLevel
+						&& (oldest == null || texture.lastUsedFrame < oldest.lastUsedFrame)) {
+					oldest = texture;
+				}
+			}
+			if (oldest == null) {
+				return;
+			}
+
+			//the finest levels go first, one at a time, so textures keep as much as they can
+			while (freed < bytes && oldest.residentLevel < oldest.wantedLevel) {
+				int level = oldest.residentLevel;
+				long levelBytes = oldest.getBytes(level);
+				oldest.residentLevel++;
+				GL11.glBindTexture(GL11.GL_TEXTURE_2D, oldest.textureID);
+				GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_BASE_LEVEL, oldest.residentLevel);
+				GL11.glTexImage2D(GL11.GL_TEXTURE_2D, level, GL11.GL_RGBA8, 0, 0, 0, GL11.GL_RGBA,
+						GL11.GL_UNSIGNED_BYTE, (ByteBuffer) null);
+				usedBytes -= levelBytes;
+				loader.countTextureBytes(oldest.textureID, -levelBytes);
+				freed += levelBytes;
+			}
+		}
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+	}
+
+	private void uploadLoaded() {
+		long uploaded = 0;
+		LoadedLevels levels;
+		while (uploaded < MAX_UPLOAD_PER_FRAME && (levels = loaded.poll()) != null) {
+			uploaded += upload(levels);
+		}
+	}
+
+	//returns the bytes uploaded
+	private long upload(LoadedLevels levels) {
+		StreamedTexture texture = levels.texture;
+		long bytes = texture.pendingBytes;
+		texture.pendingBytes = 0;
+		texture.pendingLevel = -1;
+		if (levels.pixels == null) {
+			usedBytes -= bytes;
+			return 0;
+		}
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, texture.textureID);
+
+		//coarsest first, so each level is complete when the base level moves down to it
+		for (int i = levels.pixels.length - 1; i >= 0; i--) {
+			int level = levels.first + i;
+			GL11.glTexImage2D(GL11.GL_TEXTURE_2D, level, GL11.GL_RGBA8, texture.getWidth(level),
+					texture.getHeight(level), 0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, levels.pixels[i]);
+			StagingBufferPool.release(levels.pixels[i]);
+		}
+		GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL12.GL_TEXTURE_BASE_LEVEL, levels.first);
+		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+		texture.residentLevel = levels.first;
+		loader.countTextureBytes(texture.textureID, bytes);
+		return bytes;
+	}
+
+	private void upload(StreamedTexture texture, int level, int[] argb) {
+		ByteBuffer pixels = StagingBufferPool.acquire(argb.length * 4);
+		Loader.putPixels(pixels, argb);
+		pixels.flip();
+		GL11.glTexImage2D(GL11.GL_TEXTURE_2D, level, GL11.GL_RGBA8, texture.getWidth(level), texture.getHeight(level),
+				0, GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, pixels);
+		StagingBufferPool.release(pixels);
+	}
+
+	//on the worker thread: read the image again and downsample it to the levels from first to last
+	private static LoadedLevels decode(StreamedTexture texture, int first, int last) {
+		int[] argb;
+		try {
+			BufferedImage image = ImageIO.read(new File("res/" + texture.file + ".png"));
+			argb = image.getRGB(0, 0, texture.width, texture.height, null, 0, texture.width);
+		} catch (IOException e) {
+			System.err.println("Couldn't stream texture " + texture.file);
+			e.printStackTrace();
+			return new LoadedLevels(texture, first, null);
+		}
+		ByteBuffer[] pixels = new ByteBuffer[last - first + 1];
+		for (int level = 0; level <= last; level++) {
+			if (level >= first) {
+				ByteBuffer levelPixels = StagingBufferPool.acquire(argb.length * 4);
+				Loader.putPixels(levelPixels, argb);
+				levelPixels.flip();
+				pixels[level - first] = levelPixels;
+			}
+			if (level < last) {
+				argb = downsample(argb, texture.getWidth(level), texture.getHeight(level));
+			}
+		}
+		return new LoadedLevels(texture, first, pixels);
+	}
+
+	//half the size with a 2x2 box filter, the last row or column is repeated for odd sizes
+	private static int[] downsample(int[] argb, int width, int height) {
+		int halfWidth = Math.max(1, width / 2);
+		int halfHeight = Math.max(1, height / 2);
+		int[] half = new int[halfWidth * halfHeight];
+		for (int y = 0; y < halfHeight; y++) {
+			int row0 = Math.min(y * 2, height - 1) * width;
+			int row1 = Math.min(y * 2 + 1, height - 1) * width;
+			for (int x = 0; x < halfWidth; x++) {
+				int x0 = Math.min(x * 2, width - 1);
+				int x1 = Math.min(x * 2 + 1, width - 1);
+				int a = argb[row0 + x0];
+				int b = argb[row0 + x1];
+				int c = argb[row1 + x0];
+				int d = argb[row1 + x1];
+				int pixel = 0;
+				for (int shift = 0; shift < 32; shift += 8) {
+					int sum = ((a >>> shift) & 0xff) + ((b >>> shift) & 0xff) + ((c >>> shift) & 0xff)
+							+ ((d >>> shift) & 0xff);
+					pixel |= ((sum + 2) >> 2) << shift;
+				}
+				half[y * halfWidth + x] = pixel;
+			}
+		}
+		return half;
+	}
+
+	private static class StreamedTexture {
+
+		final String file;
+		final int textureID;
+		final int width;
+		final int height;
+		final int levelCount;
+
+		//the finest level on the GPU, and the coarsest one that's ever dropped
+		int residentLevel;
+		int smallestStreamedLevel;
+
+		//the finest level asked for this frame
+		int wantedLevel;
+		int lastUsedFrame;
+
+		//the finest level being decoded, -1 if none, and what it and the levels up to the resident one take
+		int pendingLevel = -1;
+		long pendingBytes;
+
+		StreamedTexture(String file, int textureID, int width, int height) {
+			this.file = file;
+			this.textureID = textureID;
+			this.width = width;
+			this.height = height;
+			this.levelCount = 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+		}
+
+		int getWidth(int level) {
+			return Math.max(1, width >> level);
+		}
+
+		int getHeight(int level) {
+			return Math.max(1, height >> level);
+		}
+
+		long getBytes(int level) {
+			return (long) getWidth(level) * getHeight(level) * 4;
+		}
+
+		//the levels from first up to but not including end
+		long getBytes(int first, int end) {
+			long bytes = 0;
+			for (int level = first; level < end; level++) {
+				bytes += getBytes(level);
+			}
+			return bytes;
+		}
+	}
+
+	private static class LoadedLevels {
+
+		final StreamedTexture texture;
+		final int first;
+		
+		//one buffer per level from first on, null if the image couldn't be read
+		final ByteBuffer[] pixels;
+
+		LoadedLevels(StreamedTexture texture, int first, ByteBuffer[] pixels) {
+			this.texture = texture;
+			this.first = first;
+			this.pixels = pixels;
+		}
+	}
+}
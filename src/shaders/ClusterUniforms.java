@@ -0,0 +1,30 @@
+package shaders;
+
+import renderEngine.LightClusters;
+
+//The uniforms every shader that includes clusteredLights.txt has, so each shader doesn't repeat them
+class ClusterUniforms {
+	
+	private int location_lightData;
+	private int location_clusterGrid;
+	private int location_lightIndices;
+	private int location_clusterParams;
+	
+	ClusterUniforms(ShaderProgram shader) {
+		location_lightData = shader.getUniformLocation("lightData");
+		location_clusterGrid = shader.getUniformLocation("clusterGrid");
+		location_lightIndices = shader.getUniformLocation("lightIndices");
+		location_clusterParams = shader.getUniformLocation("clusterParams");
+	}
+	
+	void connectTextureUnits(ShaderProgram shader) {
+		shader.loadInt(location_lightData, LightClusters.LIGHT_DATA_UNIT);
+		shader.loadInt(location_clusterGrid, LightClusters.CLUSTER_GRID_UNIT);
+		shader.loadInt(location_lightIndices, LightClusters.LIGHT_INDICES_UNIT);
+	}
+	
+	void load(ShaderProgram shader, LightClusters clusters) {
+		shader.load4DVector(location_clusterParams, clusters.getTileWidth(), clusters.getTileHeight(), 
+				clusters.getSliceScale(), clusters.getSliceBias());
+	}
+}
@@ -0,0 +1,114 @@
+package shaders;
+
+import java.io.IOException;
+
+import org.lwjgl.opengl.GL43;
+import org.lwjgl.util.vector.Vector3f;
+
+import renderEngine.DisplayManager;
+import renderEngine.RenderBackend;
+import toolbox.Frustum;
+
+//The compute program that culls entities and writes their draw commands, see GpuCulling.
+//It has no vertex or fragment shader, so it isn't a ShaderProgram, and it isn't put in the program
+//cache since there's only ever one of it
+public class CullingShader {
+
+	private static final String COMPUTE_FILE = "src/shaders/cullComputeShader.txt";
+
+	//the stages, see the shader
+	public static final int COUNT = 0;
+	public static final int PLACE = 1;
+	public static final int WRITE = 2;
+
+	//invocations per work group, the shader's local_size_x
+	public static final int GROUP_SIZE = 64;
+
+	private final RenderBackend backend = DisplayManager.getBackend();
+	private int programID;
+	private int shaderID;
+
+	private int location_stage;
+	private int location_entityCount;
+	private int location_capacity;
+	private int location_commandCount;
+	private int[] location_planes = new int[6];
+	private int location_cameraPosition;
+
+	public CullingShader() {
+		StringBuilder source;
+		try {
+			source = ShaderPreprocessor.process(COMPUTE_FILE);
+		} catch (IOException e) {
+			System.err.println("Couldn't read file!");
+			e.printStackTrace();
+			System.exit(-1);
+			return;
+		}
+		programID = backend.createProgram();
+		shaderID = backend.createShader(GL43.GL_COMPUTE_SHADER);
+		String log = backend.compileShader(shaderID, source);
+		if (log != null) {
+			System.out.println(log);
+			System.err.println("Could not compile shader " + COMPUTE_FILE);
+			System.exit(-1);
+		}
+		backend.attachShader(programID, shaderID);
+		log = backend.linkProgram(programID);
+		if (log != null) {
+			System.out.println(log);
+			System.err.println("Could not link " + COMPUTE_FILE);
+			System.exit(-1);
+		}
+
+		location_stage = backend.getUniformLocation(programID, "stage");
+		location_entityCount = backend.getUniformLocation(programID, "entityCount");
+		location_capacity = backend.getUniformLocation(programID, "capacity");
+		location_commandCount = backend.getUniformLocation(programID, "commandCount");
+		for (int i = 0; i < 6; i++) {
+			location_planes[i] = backend.getUniformLocation(programID, "planes[" + i + "]");
+		}
+		location_cameraPosition = backend.getUniformLocation(programID, "cameraPosition");
+	}
+
+	public void start() {
+		backend.useProgram(programID);
+	}
+
+	public void stop() {
+		backend.useProgram(0);
+	}
+
+	public void loadStage(int stage) {
+		backend.uniform1i(location_stage, stage);
+	}
+
+	//how many entities there are, and how many each section of the entity buffers has room for
+	public void loadEntities(int count, int capacity) {
+		backend.uniform1i(location_entityCount, count);
+		backend.uniform1i(location_capacity, capacity);
+	}
+
+	public void loadCommandCount(int count) {
+		backend.uniform1i(location_commandCount, count);
+	}
+
+	public void loadFrustum(Frustum frustum) {
+		float[] planes = frustum.getPlanes();
+		for (int i = 0; i < 6; i++) {
+			backend.uniform4f(location_planes[i], planes[i * 4], planes[i * 4 + 1], planes[i * 4 + 2],
+					planes[i * 4 + 3]);
+		}
+	}
+
+	public void loadCameraPosition(Vector3f position) {
+		backend.uniform3f(location_cameraPosition, position.x, position.y, position.z);
+	}
+
+	public void cleanUp() {
+		stop();
+		backend.detachShader(programID, shaderID);
+		backend.deleteShader(shaderID);
+		backend.deleteProgram(programID);
+	}
+}
@@ -0,0 +1,69 @@
+package shaders;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+import entities.Camera;
+import toolbox.Maths;
+
+//writes the depth of entities for the depth pre-pass, one for each combination of the ALPHA_TEST
+//and DITHER_FADE features, since those are the ones that change which fragments are drawn, and of
+//INSTANCED, which changes where the transformation comes from
+public class DepthShader extends ShaderProgram {
+	
+	//the features that matter for depth, the rest are ignored
+	public static final int FEATURES = ShaderFeatures.ALPHA_TEST | ShaderFeatures.DITHER_FADE 
+			| ShaderFeatures.INSTANCED;
+	
+	//shader files
+	private static final String VERTEX_FILE = "src/shaders/depthVertexShader.txt";
+	private static final String FRAGMENT_FILE = "src/shaders/depthFragmentShader.txt";
+	
+	//locations of our uniform variables
+	private int location_transformationMatrix;
+	private int location_projectionMatrix;
+	private int location_viewMatrix;
+	private int location_modelTexture;
+	private int location_fade;
+	
+	public DepthShader(int features) {
+		super(VERTEX_FILE, FRAGMENT_FILE, ShaderFeatures.getDefines(features & FEATURES));
+	}
+
+	@Override //binds attributes from the VAO into the inputs to the vertex shader
+	protected void bindAttributes() {
+		super.bindAttribute(0, "position");
+		super.bindAttribute(1, "textureCoords");
+		super.bindAttribute(3, "instanceTransformation");
+		super.bindAttribute(7, "instanceFade");
+	}
+
+	@Override //gets the location of the uniform variables and sets them to a class level variable
+	protected void getAllUniformLocations() {
+		location_transformationMatrix = super.getUniformLocation("transformationMatrix");
+		location_projectionMatrix = super.getUniformLocation("projectionMatrix");
+		location_viewMatrix = super.getUniformLocation("viewMatrix");
+		location_modelTexture = super.getUniformLocation("modelTexture");
+		location_fade = super.getUniformLocation("fade");
+	}
+	
+	public void connectTextureUnits() {
+		super.loadInt(location_modelTexture, 0);
+	}
+	
+	public void loadTransformationMatrix(Matrix4f matrix) {
+		super.loadMatrix(location_transformationMatrix, matrix);
+	}
+	
+	public void loadViewMatrix(Camera camera) {
+		super.loadMatrix(location_viewMatrix, Maths.createViewMatrix(camera));
+	}
+	
+	public void loadProjectionMatrix(Matrix4f matrix) {
+		super.loadMatrix(location_projectionMatrix, matrix);
+	}
+	
+	//only DITHER_FADE variants without INSTANCED have it, 0 is fully drawn and 1 fully faded out
+	public void loadFade(float fade) {
+		super.loadFloat(location_fade, fade);
+	}
+}
@@ -0,0 +1,45 @@
+package shaders;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+//draws a model from one direction into a frame of an impostor atlas
+public class ImpostorBakeShader extends ShaderProgram {
+	
+	//shader files
+	private static final String VERTEX_FILE = "src/shaders/impostorBakeVertexShader.txt";
+	private static final String FRAGMENT_FILE = "src/shaders/impostorBakeFragmentShader.txt";
+	
+	//locations of our uniform variables
+	private int location_projectionMatrix;
+	private int location_viewMatrix;
+	private int location_modelTexture;
+	
+	public ImpostorBakeShader() {
+		super(VERTEX_FILE, FRAGMENT_FILE);
+	}
+
+	@Override //binds attributes from the VAO into the inputs to the vertex shader
+	protected void bindAttributes() {
+		super.bindAttribute(0, "position");
+		super.bindAttribute(1, "textureCoords");
+	}
+
+	@Override //gets the location of the uniform variables and sets them to a class level variable
+	protected void getAllUniformLocations() {
+		location_projectionMatrix = super.getUniformLocation("projectionMatrix");
+		location_viewMatrix = super.getUniformLocation("viewMatrix");
+		location_modelTexture = super.getUniformLocation("modelTexture");
+	}
+	
+	public void connectTextureUnits() {
+		super.loadInt(location_modelTexture, 0);
+	}
+	
+	public void loadProjectionMatrix(Matrix4f matrix) {
+		super.loadMatrix(location_projectionMatrix, matrix);
+	}
+	
+	public void loadViewMatrix(Matrix4f matrix) {
+		super.loadMatrix(location_viewMatrix, matrix);
+	}
+}
@@ -0,0 +1,102 @@
+package shaders;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import entities.Light;
+import renderEngine.Impostor;
+import renderEngine.LightClusters;
+import toolbox.Maths;
+
+//draws instanced impostor quads, only FOG and INSTANCED change anything
+public class ImpostorShader extends ShaderProgram {
+	
+	//shader files
+	private static final String VERTEX_FILE = "src/shaders/impostorVertexShader.txt";
+	private static final String FRAGMENT_FILE = "src/shaders/impostorFragmentShader.txt";
+	
+	//texture units
+	public static final int ATLAS_UNIT = 0;
+	public static final int INSTANCES_UNIT = 4;
+	
+	//locations of our uniform variables
+	private int location_projectionMatrix;
+	private int location_viewMatrix;
+	private int location_cameraPosition;
+	private int location_lightPosition;
+	private int location_lightColor;
+	private int location_skyColor;
+	private int location_atlas;
+	private int location_instances;
+	private int location_firstInstance;
+	private int location_impostorSphere;
+	private int location_framesPerSide;
+	private ClusterUniforms clusterUniforms;
+	
+	public ImpostorShader(int features) {
+		super(VERTEX_FILE, FRAGMENT_FILE, ShaderFeatures.getDefines(features));
+	}
+
+	@Override //binds attributes from the VAO into the inputs to the vertex shader
+	protected void bindAttributes() {
+		super.bindAttribute(0, "corner");
+		super.bindAttribute(1, "instancePositionAndScale");
+		super.bindAttribute(2, "instanceRotationAndFade");
+	}
+
+	@Override //gets the location of the uniform variables and sets them to a class level variable
+	protected void getAllUniformLocations() {
+		location_projectionMatrix = super.getUniformLocation("projectionMatrix");
+		location_viewMatrix = super.getUniformLocation("viewMatrix");
+		location_cameraPosition = super.getUniformLocation("cameraPosition");
+		location_lightPosition = super.getUniformLocation("lightPosition");
+		location_lightColor = super.getUniformLocation("lightColor");
+		location_skyColor = super.getUniformLocation("skyColor");
+		location_atlas = super.getUniformLocation("atlas");
+		location_instances = super.getUniformLocation("instances");
+		location_firstInstance = super.getUniformLocation("firstInstance");
+		location_impostorSphere = super.getUniformLocation("impostorSphere");
+		location_framesPerSide = super.getUniformLocation("framesPerSide");
+		clusterUniforms = new ClusterUniforms(this);
+	}
+	
+	public void connectTextureUnits() {
+		super.loadInt(location_atlas, ATLAS_UNIT);
+		super.loadInt(location_instances, INSTANCES_UNIT);
+		clusterUniforms.connectTextureUnits(this);
+	}
+	
+	public void loadLightClusters(LightClusters clusters) {
+		clusterUniforms.load(this, clusters);
+	}
+	
+	public void loadProjectionMatrix(Matrix4f matrix) {
+		super.loadMatrix(location_projectionMatrix, matrix);
+	}
+	
+	public void loadViewMatrix(Camera camera) {
+		super.loadMatrix(location_viewMatrix, Maths.createViewMatrix(camera));
+		super.loadVector(location_cameraPosition, camera.getPosition());
+	}
+	
+	public void loadLight(Light light) {
+		super.loadVector(location_lightPosition, light.getPosition());
+		super.loadVector(location_lightColor, light.getColor());
+	}
+	
+	public void loadSkyColor(float r, float g, float b) {
+		super.loadVector(location_skyColor, new Vector3f(r, g, b));
+	}
+	
+	public void loadImpostor(Impostor impostor) {
+		super.load4DVector(location_impostorSphere, impostor.getCenterX(), impostor.getCenterY(), 
+				impostor.getCenterZ(), impostor.getRadius());
+		super.loadFloat(location_framesPerSide, impostor.getFramesPerSide());
+	}
+	
+	//where this impostor's instances start in the instance buffer
+	public void loadFirstInstance(int firstInstance) {
+		super.loadInt(location_firstInstance, firstInstance);
+	}
+}
@@ -0,0 +1,143 @@
+package shaders;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import entities.Light;
+import renderEngine.LightClusters;
+import terrains.Terrain;
+import terrains.TerrainNode;
+import terrains.TerrainQuadTree;
+import toolbox.Maths;
+
+//shader for height map terrain drawn through the quad tree, shares the fragment shader with normal terrain
+public class LodTerrainShader extends ShaderProgram{
+	
+	//shader files
+	private static final String VERTEX_FILE = "src/shaders/lodTerrainVertexShader.txt";
+	private static final String FRAGMENT_FILE = "src/shaders/terrainFragmentShader.txt";
+	
+	//texture units
+	private static final int MODEL_TEXTURE_UNIT = 0;
+	private static final int HEIGHT_MAP_UNIT = 1;
+	private static final int BLEND_MAP_UNIT = 2;
+	private static final int TERRAIN_LAYERS_UNIT = 3;
+	
+	//locations of our uniform variables
+	private int location_projectionMatrix;
+	private int location_viewMatrix;
+	private int location_lightPosition;
+	private int location_lightColor;
+	private int location_cameraPosition;
+	private int location_shineDamper;
+	private int location_reflectivity;
+	private int location_skyColor;
+	private int location_blendMap;
+	private int location_terrainLayers;
+	private int location_layers;
+	private int location_useBlendMap;
+	private int location_nodeParams;
+	private int location_morphRange;
+	private int location_modelTexture;
+	private int location_heightMap;
+	private int location_terrainOrigin;
+	private int location_terrainSize;
+	private int location_heightMapCells;
+	private int location_heightMapTexels;
+	private ClusterUniforms clusterUniforms;
+	
+	//only FOG changes anything in the terrain shaders
+	public LodTerrainShader(int features) {
+		super(VERTEX_FILE, FRAGMENT_FILE, ShaderFeatures.getDefines(features));
+	}
+
+	@Override //binds attributes from the VAO into the inputs to the vertex shader
+	protected void bindAttributes() {
+		super.bindAttribute(0, "position");
+	}
+
+	@Override //gets the location of the uniform variables and sets them to a class level variable
+	protected void getAllUniformLocations() {
+		location_projectionMatrix = super.getUniformLocation("projectionMatrix");
+		location_viewMatrix = super.getUniformLocation("viewMatrix");
+		location_lightPosition = super.getUniformLocation("lightPosition");
+		location_lightColor = super.getUniformLocation("lightColor");
+		location_cameraPosition = super.getUniformLocation("cameraPosition");
+		location_shineDamper = super.getUniformLocation("shineDamper");
+		location_reflectivity = super.getUniformLocation("reflectivity");
+		location_skyColor = super.getUniformLocation("skyColor");
+		location_blendMap = super.getUniformLocation("blendMap");
+		location_terrainLayers = super.getUniformLocation("terrainLayers");
+		location_layers = super.getUniformLocation("layers");
+		location_useBlendMap = super.getUniformLocation("useBlendMap");
+		location_nodeParams = super.getUniformLocation("nodeParams");
+		location_morphRange = super.getUniformLocation("morphRange");
+		location_modelTexture = super.getUniformLocation("modelTexture");
+		location_heightMap = super.getUniformLocation("heightMap");
+		location_terrainOrigin = super.getUniformLocation("terrainOrigin");
+		location_terrainSize = super.getUniformLocation("terrainSize");
+		location_heightMapCells = super.getUniformLocation("heightMapCells");
+		location_heightMapTexels = super.getUniformLocation("heightMapTexels");
+		clusterUniforms = new ClusterUniforms(this);
+	}
+	
+	//tell the samplers which texture unit to read from
+	public void connectTextureUnits() {
+		super.loadInt(location_modelTexture, MODEL_TEXTURE_UNIT);
+		super.loadInt(location_heightMap, HEIGHT_MAP_UNIT);
+		super.loadInt(location_blendMap, BLEND_MAP_UNIT);
+		super.loadInt(location_terrainLayers, TERRAIN_LAYERS_UNIT);
+		clusterUniforms.connectTextureUnits(this);
+	}
+	
+	public void loadLightClusters(LightClusters clusters) {
+		clusterUniforms.load(this, clusters);
+	}
+	
+	public void loadSkyColor(float r, float g, float b) {
+		super.loadVector(location_skyColor, new Vector3f(r, g, b));
+	}
+	
+	public void loadViewMatrix(Camera camera) {
+		Matrix4f viewMatrix = Maths.createViewMatrix(camera);
+		super.loadMatrix(location_viewMatrix, viewMatrix);
+		super.loadVector(location_cameraPosition, camera.getPosition());
+	}
+	
+	public void loadLight(Light light) {
+		super.loadVector(location_lightPosition, light.getPosition());
+		super.loadVector(location_lightColor, light.getColor());
+	}
+	
+	public void loadShineVariables(float damper, float reflectivity) {
+		super.loadFloat(location_shineDamper, damper);
+		super.loadFloat(location_reflectivity, reflectivity);
+	}
+	
+	//which layers of the texture pack to blend, or turn blending off if the terrain has no pack
+	public void loadTexturePack(Terrain terrain) {
+		super.loadBoolean(location_useBlendMap, terrain.getTexturePack() != null);
+		super.load4DVector(location_layers, terrain.getLayer(0), terrain.getLayer(1), terrain.getLayer(2), 
+				terrain.getLayer(3));
+	}
+	
+	public void loadProjectionMatrix(Matrix4f matrix) {
+		super.loadMatrix(location_projectionMatrix, matrix);
+	}
+	
+	//where the terrain and its height map sit in the world
+	public void loadTerrain(Terrain terrain) {
+		super.load2DVector(location_terrainOrigin, terrain.getX(), terrain.getZ());
+		super.loadFloat(location_terrainSize, terrain.getSize());
+		super.loadFloat(location_heightMapCells, terrain.getHeightMap().getCellCount());
+		super.loadFloat(location_heightMapTexels, terrain.getHeightMap().getSize());
+	}
+	
+	//where the patch goes for this node, and the distances it morphs over
+	public void loadNode(TerrainNode node, TerrainQuadTree quadTree) {
+		super.load4DVector(location_nodeParams, node.getX(), node.getZ(), node.getSize(), node.getLodLevel());
+		super.load2DVector(location_morphRange, quadTree.getMorphStart(node.getLodLevel()), 
+				quadTree.getMorphEnd(node.getLodLevel()));
+	}
+}
@@ -0,0 +1,39 @@
+package shaders;
+
+//draws the overlay's quads and text, see OverlayRenderer
+public class OverlayShader extends ShaderProgram {
+	
+	//shader files
+	private static final String VERTEX_FILE = "src/shaders/overlayVertexShader.txt";
+	private static final String FRAGMENT_FILE = "src/shaders/overlayFragmentShader.txt";
+	
+	//locations of our uniform variables
+	private int location_screenSize;
+	private int location_font;
+	
+	public OverlayShader() {
+		super(VERTEX_FILE, FRAGMENT_FILE);
+	}
+
+	@Override //binds attributes from the VAO into the inputs to the vertex shader
+	protected void bindAttributes() {
+		super.bindAttribute(0, "position");
+		super.bindAttribute(1, "textureCoords");
+		super.bindAttribute(2, "color");
+	}
+
+	@Override //gets the location of the uniform variables and sets them to a class level variable
+	protected void getAllUniformLocations() {
+		location_screenSize = super.getUniformLocation("screenSize");
+		location_font = super.getUniformLocation("font");
+	}
+	
+	public void connectTextureUnits() {
+		super.loadInt(location_font, 0);
+	}
+	
+	//the window's size in pixels, what the overlay's positions are measured in
+	public void loadScreenSize(float width, float height) {
+		super.load2DVector(location_screenSize, width, height);
+	}
+}
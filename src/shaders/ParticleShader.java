@@ -0,0 +1,68 @@
+package shaders;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+import entities.Camera;
+import toolbox.Maths;
+
+//draws instanced particle quads, only FOG changes anything
+public class ParticleShader extends ShaderProgram {
+	
+	//shader files
+	private static final String VERTEX_FILE = "src/shaders/particleVertexShader.txt";
+	private static final String FRAGMENT_FILE = "src/shaders/particleFragmentShader.txt";
+	
+	//texture units
+	public static final int ATLAS_UNIT = 0;
+	public static final int INSTANCES_UNIT = 4;
+	
+	//locations of our uniform variables
+	private int location_projectionMatrix;
+	private int location_viewMatrix;
+	private int location_atlas;
+	private int location_instances;
+	private int location_firstInstance;
+	private int location_numberOfRows;
+	
+	public ParticleShader(int features) {
+		super(VERTEX_FILE, FRAGMENT_FILE, ShaderFeatures.getDefines(features & ShaderFeatures.FOG));
+	}
+
+	@Override //binds attributes from the VAO into the inputs to the vertex shader
+	protected void bindAttributes() {
+		super.bindAttribute(0, "corner");
+	}
+
+	@Override //gets the location of the uniform variables and sets them to a class level variable
+	protected void getAllUniformLocations() {
+		location_projectionMatrix = super.getUniformLocation("projectionMatrix");
+		location_viewMatrix = super.getUniformLocation("viewMatrix");
+		location_atlas = super.getUniformLocation("atlas");
+		location_instances = super.getUniformLocation("instances");
+		location_firstInstance = super.getUniformLocation("firstInstance");
+		location_numberOfRows = super.getUniformLocation("numberOfRows");
+	}
+	
+	public void connectTextureUnits() {
+		super.loadInt(location_atlas, ATLAS_UNIT);
+		super.loadInt(location_instances, INSTANCES_UNIT);
+	}
+	
+	public void loadProjectionMatrix(Matrix4f matrix) {
+		super.loadMatrix(location_projectionMatrix, matrix);
+	}
+	
+	public void loadViewMatrix(Camera camera) {
+		super.loadMatrix(location_viewMatrix, Maths.createViewMatrix(camera));
+	}
+	
+	//the rows and columns of frames in the atlas being drawn
+	public void loadNumberOfRows(int rows) {
+		super.loadFloat(location_numberOfRows, rows);
+	}
+	
+	//where this atlas's instances start in the instance buffer
+	public void loadFirstInstance(int firstInstance) {
+		super.loadInt(location_firstInstance, firstInstance);
+	}
+}
@@ -0,0 +1,182 @@
+package shaders;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL41;
+
+import renderEngine.RenderBackend;
+import renderEngine.StagingBufferPool;
+
+//Keeps linked shader programs on disk between runs, so we only compile and link GLSL
+//when a shader, its attribute bindings or the driver changes.
+//Each program is stored under a hash of its sources, its attribute bindings and the driver it was
+//linked with. Drivers are allowed to reject a binary at any time (e.g. after an update that kept the
+//version string), in which case the program is compiled normally and the cache file is replaced.
+//Turn it off with -DshaderCache=false
+public class ProgramBinaryCache {
+
+	private static final boolean ENABLED = !"false".equals(System.getProperty("shaderCache"));
+
+	private static final File DIRECTORY = new File("cache/shaders");
+
+	//bump this if the file layout changes
+	private static final int FILE_VERSION = 1;
+
+	//how the cache did this run
+	private static int hits;
+	private static int misses;
+	private static int rejects;
+
+	//worked out the first time we need it for a backend, needs a GL context
+	private static RenderBackend checkedBackend;
+	private static String driverDescription;
+	private static boolean supported;
+
+	private ProgramBinaryCache() {
+	}
+
+	//the name of the cache file for these sources and bindings, null if the cache can't be used
+	static String getKey(RenderBackend backend, CharSequence... sources) {
+		if (!isSupported(backend)) {
+			return null;
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (CharSequence source : sources) {
+				digest.update(source.toString().getBytes(StandardCharsets.UTF_8));
+
+				//so moving text from one shader to the next changes the hash
+				digest.update((byte) 0);
+			}
+			digest.update(driverDescription.getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest()) {
+				key.append(String.format("%02x", b));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	//try to load the cached binary into the program, returns false if it has to be compiled
+	static boolean load(RenderBackend backend, String key, int programID) {
+		if (key == null) {
+			return false;
+		}
+		File file = getFile(key);
+		if (!file.isFile()) {
+			misses++;
+			return false;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				if (in.readInt() != FILE_VERSION) {
+					rejects++;
+					return false;
+				}
+				int format = in.readInt();
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				ByteBuffer binary = StagingBufferPool.acquire(bytes.length);
+				binary.put(bytes).flip();
+				boolean accepted = backend.programBinary(programID, format, binary);
+				StagingBufferPool.release(binary);
+				if (!accepted) {
+					rejects++;
+					return false;
+				}
+				hits++;
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Couldn't read cached shader program " + file);
+			rejects++;
+			return false;
+		}
+	}
+
+	//call before linking a program that will be stored, otherwise the driver may not keep the binary
+	static void prepare(RenderBackend backend, String key, int programID) {
+		if (key != null) {
+			backend.programParameteri(programID, GL41.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL11.GL_TRUE);
+		}
+	}
+
+	//write a freshly linked program to the cache
+	static void store(RenderBackend backend, String key, int programID) {
+		if (key == null) {
+			return;
+		}
+		IntBuffer format = BufferUtils.createIntBuffer(1);
+		ByteBuffer binary = backend.getProgramBinary(programID, format);
+		if (binary.remaining() == 0) {
+			return;
+		}
+		byte[] bytes = new byte[binary.remaining()];
+		binary.get(bytes);
+		File file = getFile(key);
+		file.getParentFile().mkdirs();
+		try {
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+			try {
+				out.writeInt(FILE_VERSION);
+				out.writeInt(format.get(0));
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Couldn't write cached shader program " + file);
+			file.delete();
+		}
+	}
+
+	public static int getHits() {
+		return hits;
+	}
+
+	//programs that weren't in the cache yet
+	public static int getMisses() {
+		return misses;
+	}
+
+	//programs that were in the cache but the driver didn't accept
+	public static int getRejects() {
+		return rejects;
+	}
+
+	private static boolean isSupported(RenderBackend backend) {
+		if (!ENABLED) {
+			return false;
+		}
+		if (backend != checkedBackend) {
+			checkedBackend = backend;
+			supported = backend.supportsProgramBinaries();
+			if (supported) {
+				driverDescription = backend.getDriverDescription();
+			}
+		}
+		return supported;
+	}
+
+	private static File getFile(String key) {
+		return new File(DIRECTORY, key + ".bin");
+	}
+}
@@ -0,0 +1,65 @@
+package shaders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import textures.ModelTexture;
+
+//Feature bits for compile-time shader variants. Each bit is a #define of the same name, so
+//a shader is compiled once per combination of features it is used with instead of branching
+//on uniforms for every vertex and fragment
+public class ShaderFeatures {
+
+	//every normal points straight up, for grass and other flat cut-outs
+	public static final int FAKE_LIGHTING = 1;
+
+	//discard see-through fragments, only for textures with transparency since it costs early depth testing
+	public static final int ALPHA_TEST = 1 << 1;
+
+	//fade into the sky color with distance
+	public static final int FOG = 1 << 2;
+
+	//screen door fade out with the fade uniform, for meshes cross-fading into their impostors
+	public static final int DITHER_FADE = 1 << 3;
+
+	//skip the lighting and add the same small amount for every fragment, for drawing with additive
+	//blending to see how many layers each pixel shades
+	public static final int OVERDRAW = 1 << 4;
+
+	//the transformation and fade come from per instance attributes the GPU culling wrote, instead of uniforms
+	public static final int INSTANCED = 1 << 5;
+
+	//one more than the highest combination of bits
+	public static final int COUNT = 1 << 6;
+
+	private static final String[] NAMES = {"FAKE_LIGHTING", "ALPHA_TEST", "FOG", "DITHER_FADE", "OVERDRAW",
+			"INSTANCED"};
+
+	private ShaderFeatures() {
+	}
+
+	//the features an entity with this texture needs
+	public static int forTexture(ModelTexture texture, boolean fog) {
+		int features = 0;
+		if (texture.isUseFakeLighting()) {
+			features |= FAKE_LIGHTING;
+		}
+		if (texture.isHasTransparency()) {
+			features |= ALPHA_TEST;
+		}
+		if (fog) {
+			features |= FOG;
+		}
+		return features;
+	}
+
+	public static String[] getDefines(int features) {
+		List<String> defines = new ArrayList<String>();
+		for (int i = 0; i < NAMES.length; i++) {
+			if ((features & (1 << i)) != 0) {
+				defines.add(NAMES[i]);
+			}
+		}
+		return defines.toArray(new String[defines.size()]);
+	}
+}
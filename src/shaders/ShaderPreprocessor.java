@@ -0,0 +1,79 @@
+package shaders;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+//Turns a shader file into the source we hand to the driver.
+//  #include "file.txt"   pastes in another file, relative to the file that includes it.
+//                        Each file is only pasted in once per shader, so files can include each other freely.
+//  defines               every define passed in is added as "#define NAME" straight after #version,
+//                        so one file can be compiled into several variants with #ifdef
+public class ShaderPreprocessor {
+
+	private static final String INCLUDE = "#include";
+	private static final String VERSION = "#version";
+
+	private ShaderPreprocessor() {
+	}
+
+	public static StringBuilder process(String file, String... defines) throws IOException {
+		StringBuilder source = new StringBuilder();
+		appendFile(new File(file), source, new HashSet<String>(), new ArrayList<String>());
+
+		//the defines have to go after #version, which has to be the first thing in the shader
+		int insertAt = 0;
+		int version = source.indexOf(VERSION);
+		if (version >= 0) {
+			insertAt = source.indexOf("\n", version) + 1;
+		}
+		StringBuilder defineLines = new StringBuilder();
+		for (String define : defines) {
+			defineLines.append("#define ").append(define).append('\n');
+		}
+		source.insert(insertAt, defineLines);
+		return source;
+	}
+
+	private static void appendFile(File file, StringBuilder source, Set<String> included, List<String> stack)
+			throws IOException {
+		String path = file.getCanonicalPath();
+		if (stack.contains(path)) {
+			throw new IOException("Shader include cycle: " + stack + " -> " + path);
+		}
+		if (!included.add(path)) {
+			return;
+		}
+		stack.add(path);
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String trimmed = line.trim();
+				if (trimmed.startsWith(INCLUDE)) {
+					appendFile(new File(file.getParentFile(), getIncludeName(trimmed, file)), source, included, stack);
+				} else {
+					source.append(line).append('\n');
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		stack.remove(stack.size() - 1);
+	}
+
+	//the file name between the quotes
+	private static String getIncludeName(String line, File file) throws IOException {
+		int start = line.indexOf('"');
+		int end = line.lastIndexOf('"');
+		if (start < 0 || end <= start) {
+			throw new IOException("Bad #include in " + file + ": " + line);
+		}
+		return line.substring(start + 1, end);
+	}
+}
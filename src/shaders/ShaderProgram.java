@@ -1,16 +1,16 @@
 package shaders;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.FloatBuffer;
 
 import org.lwjgl.BufferUtils;
-import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
 
+import renderEngine.DisplayManager;
+import renderEngine.RenderBackend;
+
 //Class that accesses the shaders through our java code
 //its abstract because this is a generic shader program that contains 
 //all the functionality that would be in any shader program
@@ -20,31 +20,70 @@ public abstract class ShaderProgram {
 	private int vertexShaderID;
 	private int fragmentShaderID;
 	
+	//all GL calls go through this so shaders can be created and loaded without a GL context
+	protected final RenderBackend backend = DisplayManager.getBackend();
+	
+	//while this is set, bindAttribute writes the bindings down here instead of binding them
+	private StringBuilder attributeBindings;
+	
 	//to load a matrix into a uniform variable, we need to store it as a floatbuffer
 	private static FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16);
 	
 	//Constructor, converts shader files into 
 	public ShaderProgram(String vertexFile, String fragmentFile) {
+		this(vertexFile, fragmentFile, new String[0]);
+	}
+	
+	//builds one variant of the shaders, with every define passed in turned on
+	public ShaderProgram(String vertexFile, String fragmentFile, String... defines) {
 		
-		//load the shaders from the file, convert them to an ID
-		vertexShaderID = loadShader(vertexFile, GL20.GL_VERTEX_SHADER);
-		fragmentShaderID = loadShader(fragmentFile, GL20.GL_FRAGMENT_SHADER);
+		//read the sources first, they and the attribute bindings are what the program cache is keyed on.
+		//A cached program keeps the locations it was linked with, so changing them has to miss the cache
+		StringBuilder vertexSource = readShader(vertexFile, defines);
+		StringBuilder fragmentSource = readShader(fragmentFile, defines);
+		attributeBindings = new StringBuilder();
+		bindAttributes();
+		String cacheKey = ProgramBinaryCache.getKey(backend, vertexSource, fragmentSource, attributeBindings);
+		attributeBindings = null;
 		
 		//create a program ID
-		programID = GL20.glCreateProgram();
+		programID = backend.createProgram();
+		
+		//a cached program is already linked, with its attributes bound
+		if (ProgramBinaryCache.load(backend, cacheKey, programID)) {
+			getAllUniformLocations();
+			return;
+		}
+		
+		//the driver may have left a rejected binary in a bad state, so start over with a new program
+		if (cacheKey != null) {
+			backend.deleteProgram(programID);
+			programID = backend.createProgram();
+		}
+		
+		//compile the shaders, convert them to an ID
+		vertexShaderID = compileShader(backend, vertexFile, vertexSource, GL20.GL_VERTEX_SHADER);
+		fragmentShaderID = compileShader(backend, fragmentFile, fragmentSource, GL20.GL_FRAGMENT_SHADER);
 		
 		//attach the shader to the program
-		GL20.glAttachShader(programID, vertexShaderID);
-		GL20.glAttachShader(programID, fragmentShaderID);
+		backend.attachShader(programID, vertexShaderID);
+		backend.attachShader(programID, fragmentShaderID);
 		
 		//bind the attributes from the VAO to the shader
 		bindAttributes();
 		
 		//link the program 
-        GL20.glLinkProgram(programID);
+		ProgramBinaryCache.prepare(backend, cacheKey, programID);
+		String log = backend.linkProgram(programID);
+		if (log != null) {
+			System.out.println(log);
+			System.err.println("Could not link " + vertexFile + " and " + fragmentFile);
+			System.exit(-1);
+		}
+		ProgramBinaryCache.store(backend, cacheKey, programID);
         
 		//validate the program 
-		GL20.glValidateProgram(programID);
+		backend.validateProgram(programID);
 		
 		//get all the uniform locations 
 		getAllUniformLocations();
@@ -55,17 +94,32 @@ public abstract class ShaderProgram {
 	
 	//get the location of the uniform variable 
 	protected int getUniformLocation(String uniformName) {
-		return GL20.glGetUniformLocation(programID, uniformName);
+		return backend.getUniformLocation(programID, uniformName);
 	}
 	
 	//load a float into a uniform variable location
 	protected void loadFloat(int location, float value) {
-		GL20.glUniform1f(location, value);
+		backend.uniform1f(location, value);
 	}
 	
 	//load a vector into a uniform variable location
 	protected void loadVector(int location, Vector3f vector) {
-		GL20.glUniform3f(location, vector.x, vector.y, vector.z);
+		backend.uniform3f(location, vector.x, vector.y, vector.z);
+	}
+	
+	//load a 2D vector into a uniform variable location
+	protected void load2DVector(int location, float x, float y) {
+		backend.uniform2f(location, x, y);
+	}
+	
+	//load a 4D vector into a uniform variable location
+	protected void load4DVector(int location, float x, float y, float z, float w) {
+		backend.uniform4f(location, x, y, z, w);
+	}
+	
+	//load an int into a uniform variable location, also used to tell samplers which texture unit to read
+	protected void loadInt(int location, int value) {
+		backend.uniform1i(location, value);
 	}
 	
 	//load a boolean into a uniform variable location
@@ -74,7 +128,7 @@ public abstract class ShaderProgram {
 		if (value) {
 			toLoad = 1;
 		}
-		GL20.glUniform1f(location, toLoad);
+		backend.uniform1f(location, toLoad);
 	}
 	
 	protected void loadMatrix(int location, Matrix4f matrix) {
@@ -86,17 +140,17 @@ public abstract class ShaderProgram {
 		matrixBuffer.flip();
 		
 		//load the buffer to the matrix, without transposing it 
-		GL20.glUniformMatrix4(location, false, matrixBuffer);
+		backend.uniformMatrix4(location, false, matrixBuffer);
 	}
 	
 	//start the program
 	public void start() {
-		GL20.glUseProgram(programID);
+		backend.useProgram(programID);
 	}
 	
 	//stop the program
 	public void stop() {
-		GL20.glUseProgram(0);
+		backend.useProgram(0);
 	}
 	
 	//clean up, memory management
@@ -104,16 +158,16 @@ public abstract class ShaderProgram {
 		//stop the program
 		stop();
 		
-		//detach the shaders
-		GL20.glDetachShader(programID, vertexShaderID);
-		GL20.glDetachShader(programID, fragmentShaderID);
-		
-		//delete the shaders
-		GL20.glDeleteShader(vertexShaderID);
-		GL20.glDeleteShader(fragmentShaderID);
+		//detach and delete the shaders, there are none if the program came from the cache
+		if (vertexShaderID != 0) {
+			backend.detachShader(programID, vertexShaderID);
+			backend.detachShader(programID, fragmentShaderID);
+			backend.deleteShader(vertexShaderID);
+			backend.deleteShader(fragmentShaderID);
+		}
 		
 		//delete the program
-		GL20.glDeleteProgram(programID);
+		backend.deleteProgram(programID);
 	}
 	
 	//link up the inputs to the shader programs to one of the attributes of the VAO that we pass in 
@@ -121,30 +175,31 @@ public abstract class ShaderProgram {
 	
 	//bind an attribute to the shader 
 	protected void bindAttribute(int attribute, String variableName) {
-		GL20.glBindAttribLocation(programID, attribute, variableName);
+		if (attributeBindings != null) {
+			attributeBindings.append(attribute).append(' ').append(variableName).append('\n');
+			return;
+		}
+		backend.bindAttribLocation(programID, attribute, variableName);
 	}
 	
-	//loads the shader files 
-	private static int loadShader(String file, int type) {
-		StringBuilder shaderSource = new StringBuilder();
+	//reads the shader files, pasting in includes and adding the defines
+	private static StringBuilder readShader(String file, String[] defines) {
 		try {
-			BufferedReader reader = new BufferedReader(new FileReader(file));
-			String line;
-			while((line = reader.readLine()) != null) {
-				shaderSource.append(line).append('\n');
-			}
-			reader.close();
+			return ShaderPreprocessor.process(file, defines);
 		} catch (IOException e){
 			System.err.println("Couldn't read file!");
 			e.printStackTrace();
 			System.exit(-1);
+			return null;
 		}
-		int shaderID = GL20.glCreateShader(type);
-		GL20.glShaderSource(shaderID, shaderSource);
-		GL20.glCompileShader(shaderID);
-		if (GL20.glGetShaderi(shaderID, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE) {
-			System.out.println(GL20.glGetShaderInfoLog(shaderID, 500));
-			System.err.println("Could not compile shader");
+	}
+	
+	private static int compileShader(RenderBackend backend, String file, CharSequence source, int type) {
+		int shaderID = backend.createShader(type);
+		String log = backend.compileShader(shaderID, source);
+		if (log != null) {
+			System.out.println(log);
+			System.err.println("Could not compile shader " + file);
 			System.exit(-1);
 		}
 		return shaderID;
@@ -5,9 +5,10 @@ import org.lwjgl.util.vector.Vector3f;
 
 import entities.Camera;
 import entities.Light;
+import renderEngine.LightClusters;
 import toolbox.Maths;
 
-//implementation of our ShaderProgram
+//implementation of our ShaderProgram, one for each combination of ShaderFeatures in use
 public class StaticShader extends ShaderProgram{
 	
 	//shader files
@@ -22,11 +23,20 @@ public class StaticShader extends ShaderProgram{
 	private int location_lightColor;
 	private int location_shineDamper;
 	private int location_reflectivity;
-	private int location_useFakeLighting;
 	private int location_skyColor;
+	private int location_modelTexture;
+	private int location_fade;
+	private ClusterUniforms clusterUniforms;
 	
-	public StaticShader() {
-		super(VERTEX_FILE, FRAGMENT_FILE);
+	private final int features;
+	
+	public StaticShader(int features) {
+		super(VERTEX_FILE, FRAGMENT_FILE, ShaderFeatures.getDefines(features));
+		this.features = features;
+	}
+	
+	public int getFeatures() {
+		return features;
 	}
 
 	@Override //binds attributes from the VAO into the inputs to the vertex shader
@@ -34,6 +44,10 @@ public class StaticShader extends ShaderProgram{
 		super.bindAttribute(0, "position");
 		super.bindAttribute(1, "textureCoords");
 		super.bindAttribute(2, "normal");
+		
+		//INSTANCED variants, the matrix takes up 3 to 6, see GpuCulling
+		super.bindAttribute(3, "instanceTransformation");
+		super.bindAttribute(7, "instanceFade");
 	}
 
 	@Override //gets the location of the uniform variables and sets them to a class level variable
@@ -45,8 +59,19 @@ public class StaticShader extends ShaderProgram{
 		location_lightColor = super.getUniformLocation("lightColor");
 		location_shineDamper = super.getUniformLocation("shineDamper");
 		location_reflectivity = super.getUniformLocation("reflectivity");
-		location_useFakeLighting = super.getUniformLocation("useFakeLighting");
 		location_skyColor = super.getUniformLocation("skyColor");
+		location_modelTexture = super.getUniformLocation("modelTexture");
+		location_fade = super.getUniformLocation("fade");
+		clusterUniforms = new ClusterUniforms(this);
+	}
+	
+	public void connectTextureUnits() {
+		super.loadInt(location_modelTexture, 0);
+		clusterUniforms.connectTextureUnits(this);
+	}
+	
+	public void loadLightClusters(LightClusters clusters) {
+		clusterUniforms.load(this, clusters);
 	}
 	
 	public void loadSkyColor(float r, float g, float b) {
@@ -57,10 +82,6 @@ public class StaticShader extends ShaderProgram{
 		super.loadMatrix(location_transformationMatrix, matrix);
 	}
 	
-	public void loadFakeLightingVariable(boolean useFake) {
-		super.loadBoolean(location_useFakeLighting, useFake);
-	}
-	
 	public void loadViewMatrix(Camera camera) {
 		Matrix4f viewMatrix = Maths.createViewMatrix(camera);
 		super.loadMatrix(location_viewMatrix, viewMatrix);
@@ -76,6 +97,11 @@ public class StaticShader extends ShaderProgram{
 		super.loadFloat(location_reflectivity, reflectivity);
 	}
 	
+	//only DITHER_FADE variants without INSTANCED have it, 0 is fully drawn and 1 fully faded out
+	public void loadFade(float fade) {
+		super.loadFloat(location_fade, fade);
+	}
+	
 	public void loadProjectionMatrix(Matrix4f matrix) {
 		super.loadMatrix(location_projectionMatrix, matrix);
 	}
@@ -5,6 +5,8 @@ import org.lwjgl.util.vector.Vector3f;
 
 import entities.Camera;
 import entities.Light;
+import renderEngine.LightClusters;
+import terrains.Terrain;
 import toolbox.Maths;
 
 public class TerrainShader extends ShaderProgram{
@@ -13,6 +15,11 @@ public class TerrainShader extends ShaderProgram{
 	private static final String VERTEX_FILE = "src/shaders/terrainVertexShader.txt";
 	private static final String FRAGMENT_FILE = "src/shaders/terrainFragmentShader.txt";
 	
+	//texture units
+	private static final int MODEL_TEXTURE_UNIT = 0;
+	private static final int BLEND_MAP_UNIT = 2;
+	private static final int TERRAIN_LAYERS_UNIT = 3;
+	
 	//locations of our uniform variables
 	private int location_transformationMatrix;
 	private int location_projectionMatrix;
@@ -22,9 +29,16 @@ public class TerrainShader extends ShaderProgram{
 	private int location_shineDamper;
 	private int location_reflectivity;
 	private int location_skyColor;
+	private int location_modelTexture;
+	private int location_blendMap;
+	private int location_terrainLayers;
+	private int location_layers;
+	private int location_useBlendMap;
+	private ClusterUniforms clusterUniforms;
 	
-	public TerrainShader() {
-		super(VERTEX_FILE, FRAGMENT_FILE);
+	//only FOG changes anything in the terrain shaders
+	public TerrainShader(int features) {
+		super(VERTEX_FILE, FRAGMENT_FILE, ShaderFeatures.getDefines(features));
 	}
 
 	@Override //binds attributes from the VAO into the inputs to the vertex shader
@@ -44,6 +58,24 @@ public class TerrainShader extends ShaderProgram{
 		location_shineDamper = super.getUniformLocation("shineDamper");
 		location_reflectivity = super.getUniformLocation("reflectivity");
 		location_skyColor = super.getUniformLocation("skyColor");
+		location_modelTexture = super.getUniformLocation("modelTexture");
+		location_blendMap = super.getUniformLocation("blendMap");
+		location_terrainLayers = super.getUniformLocation("terrainLayers");
+		location_layers = super.getUniformLocation("layers");
+		location_useBlendMap = super.getUniformLocation("useBlendMap");
+		clusterUniforms = new ClusterUniforms(this);
+	}
+	
+	//tell the samplers which texture unit to read from
+	public void connectTextureUnits() {
+		super.loadInt(location_modelTexture, MODEL_TEXTURE_UNIT);
+		super.loadInt(location_blendMap, BLEND_MAP_UNIT);
+		super.loadInt(location_terrainLayers, TERRAIN_LAYERS_UNIT);
+		clusterUniforms.connectTextureUnits(this);
+	}
+	
+	public void loadLightClusters(LightClusters clusters) {
+		clusterUniforms.load(this, clusters);
 	}
 	
 	public void loadSkyColor(float r, float g, float b) {
@@ -69,6 +101,13 @@ public class TerrainShader extends ShaderProgram{
 		super.loadFloat(location_reflectivity, reflectivity);
 	}
 	
+	//which layers of the texture pack to blend, or turn blending off if the terrain has no pack
+	public void loadTexturePack(Terrain terrain) {
+		super.loadBoolean(location_useBlendMap, terrain.getTexturePack() != null);
+		super.load4DVector(location_layers, terrain.getLayer(0), terrain.getLayer(1), terrain.getLayer(2), 
+				terrain.getLayer(3));
+	}
+	
 	public void loadProjectionMatrix(Matrix4f matrix) {
 		super.loadMatrix(location_projectionMatrix, matrix);
 	}
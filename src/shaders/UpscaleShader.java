@@ -0,0 +1,46 @@
+package shaders;
+
+//stretches the scene from the dynamic resolution framebuffer over the window
+public class UpscaleShader extends ShaderProgram {
+	
+	//shader files
+	private static final String VERTEX_FILE = "src/shaders/upscaleVertexShader.txt";
+	private static final String FRAGMENT_FILE = "src/shaders/upscaleFragmentShader.txt";
+	
+	//locations of our uniform variables
+	private int location_sceneTexture;
+	private int location_uvScale;
+	private int location_texelSize;
+	private int location_sharpness;
+	
+	public UpscaleShader() {
+		super(VERTEX_FILE, FRAGMENT_FILE);
+	}
+
+	@Override //binds attributes from the VAO into the inputs to the vertex shader
+	protected void bindAttributes() {
+		super.bindAttribute(0, "position");
+	}
+
+	@Override //gets the location of the uniform variables and sets them to a class level variable
+	protected void getAllUniformLocations() {
+		location_sceneTexture = super.getUniformLocation("sceneTexture");
+		location_uvScale = super.getUniformLocation("uvScale");
+		location_texelSize = super.getUniformLocation("texelSize");
+		location_sharpness = super.getUniformLocation("sharpness");
+	}
+	
+	public void connectTextureUnits() {
+		super.loadInt(location_sceneTexture, 0);
+	}
+	
+	//how much of the texture the scene covers, and the size of one of its texels
+	public void loadSceneSize(float uvScaleX, float uvScaleY, float texelWidth, float texelHeight) {
+		super.load2DVector(location_uvScale, uvScaleX, uvScaleY);
+		super.load2DVector(location_texelSize, texelWidth, texelHeight);
+	}
+	
+	public void loadSharpness(float sharpness) {
+		super.loadFloat(location_sharpness, sharpness);
+	}
+}
@@ -0,0 +1,116 @@
+package terrains;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+//A square grid of height samples. Heights are stored in world units so they can be
+//uploaded straight into a float texture for the terrain vertex shader
+public class HeightMap {
+
+	private final float[] heights;
+	private final int size;
+
+	//a tileable height map repeats at its edges, so sample N wraps back round to sample 0
+	//and tiles placed next to each other line up without seams
+	private final boolean tileable;
+
+	public HeightMap(float[] heights, int size, boolean tileable) {
+		if (heights.length != size * size) {
+			throw new IllegalArgumentException("Height map needs " + size * size + " samples, got " + heights.length);
+		}
+		this.heights = heights;
+		this.size = size;
+		this.tileable = tileable;
+	}
+
+	//load a greyscale image from the res folder, 8 and 16 bit images both work
+	public static HeightMap load(String file, float maxHeight, boolean tileable) {
+		BufferedImage image = null;
+		try {
+			image = ImageIO.read(new File("res/" + file + ".png"));
+		} catch (IOException e) {
+			System.err.println("Couldn't load height map " + file);
+			e.printStackTrace();
+			System.exit(-1);
+		}
+
+		int size = Math.min(image.getWidth(), image.getHeight());
+		Raster raster = image.getRaster();
+		float maxValue = (1 << raster.getSampleModel().getSampleSize(0)) - 1;
+		float[] heights = new float[size * size];
+		int[] pixel = new int[raster.getNumBands()];
+		for (int z = 0; z < size; z++) {
+			for (int x = 0; x < size; x++) {
+				raster.getPixel(x, z, pixel);
+				heights[z * size + x] = pixel[0] / maxValue * maxHeight;
+			}
+		}
+		return new HeightMap(heights, size, tileable);
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public boolean isTileable() {
+		return tileable;
+	}
+
+	public float[] getHeights() {
+		return heights;
+	}
+
+	//height of a single sample, clamped or wrapped depending on the map
+	public float getSample(int x, int z) {
+		if (tileable) {
+			x = Math.floorMod(x, size);
+			z = Math.floorMod(z, size);
+		} else {
+			x = Math.max(0, Math.min(size - 1, x));
+			z = Math.max(0, Math.min(size - 1, z));
+		}
+		return heights[z * size + x];
+	}
+
+	//how many sample spacings fit across the map, which is one more for tileable maps
+	public int getCellCount() {
+		return tileable ? size : size - 1;
+	}
+
+	//bilinear height at a position given in 0-1 across the map
+	public float getHeight(float u, float v) {
+		float x = u * getCellCount();
+		float z = v * getCellCount();
+		int x0 = (int) Math.floor(x);
+		int z0 = (int) Math.floor(z);
+		float fx = x - x0;
+		float fz = z - z0;
+		float top = lerp(getSample(x0, z0), getSample(x0 + 1, z0), fx);
+		float bottom = lerp(getSample(x0, z0 + 1), getSample(x0 + 1, z0 + 1), fx);
+		return lerp(top, bottom, fz);
+	}
+
+	//lowest and highest sample in a block of the map, both ends inclusive.
+	//result[0] is the minimum and result[1] the maximum
+	public void getRange(int startX, int startZ, int endX, int endZ, float[] result) {
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		for (int z = startZ; z <= endZ; z++) {
+			for (int x = startX; x <= endX; x++) {
+				float height = getSample(x, z);
+				min = Math.min(min, height);
+				max = Math.max(max, height);
+			}
+		}
+		result[0] = min;
+		result[1] = max;
+	}
+
+	private static float lerp(float a, float b, float blend) {
+		return a + (b - a) * blend;
+	}
+}
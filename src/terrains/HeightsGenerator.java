@@ -0,0 +1,71 @@
+package terrains;
+
+//Procedural heights for an endless world. The height at a point only depends on the seed
+//and the world position, so neighbouring tiles always line up and tiles can be generated
+//on any thread in any order
+public class HeightsGenerator {
+
+	private static final float AMPLITUDE = 40;
+	private static final int OCTAVES = 4;
+	private static final float ROUGHNESS = 0.35f;
+
+	//world units between the lattice points of the first octave
+	private static final float FEATURE_SIZE = 200;
+
+	private final long seed;
+
+	public HeightsGenerator(long seed) {
+		this.seed = seed;
+	}
+
+	public float getHeight(float worldX, float worldZ) {
+		float total = 0;
+		float frequency = 1 / FEATURE_SIZE;
+		float amplitude = AMPLITUDE;
+		for (int i = 0; i < OCTAVES; i++) {
+			total += getInterpolatedNoise(worldX * frequency, worldZ * frequency, i) * amplitude;
+			frequency *= 2;
+			amplitude *= ROUGHNESS;
+		}
+		return total;
+	}
+
+	//no point is higher than this, every octave's noise at its top
+	public float getMaxHeight() {
+		float total = 0;
+		float amplitude = AMPLITUDE;
+		for (int i = 0; i < OCTAVES; i++) {
+			total += amplitude;
+			amplitude *= ROUGHNESS;
+		}
+		return total;
+	}
+
+	//smoothly blend the random values at the four lattice points around the position
+	private float getInterpolatedNoise(float x, float z, int octave) {
+		int intX = (int) Math.floor(x);
+		int intZ = (int) Math.floor(z);
+		float fracX = smooth(x - intX);
+		float fracZ = smooth(z - intZ);
+		float v1 = getNoise(intX, intZ, octave);
+		float v2 = getNoise(intX + 1, intZ, octave);
+		float v3 = getNoise(intX, intZ + 1, octave);
+		float v4 = getNoise(intX + 1, intZ + 1, octave);
+		float i1 = v1 + (v2 - v1) * fracX;
+		float i2 = v3 + (v4 - v3) * fracX;
+		return i1 + (i2 - i1) * fracZ;
+	}
+
+	//a random number from -1 to 1 for a lattice point, always the same for the same point
+	private float getNoise(int x, int z, int octave) {
+		long hash = seed ^ (x * 0x9E3779B97F4A7C15L) ^ (z * 0xC2B2AE3D27D4EB4FL) ^ (octave * 0x165667B19E3779F9L);
+		hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+		hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return (hash >>> 40) / (float) (1L << 23) - 1;
+	}
+
+	private static float smooth(float t) {
+		return t * t * (3 - 2 * t);
+	}
+}
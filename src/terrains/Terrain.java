@@ -3,23 +3,67 @@ package terrains;
 import models.RawModel;
 import renderEngine.Loader;
 import textures.ModelTexture;
+import textures.TerrainTexturePack;
 
 public class Terrain {
 	
 	private static final float SIZE = 800;
 	private static final int VERTEX_COUNT = 128;
 	
+	//how far away the level of detail terrain is still drawn
+	private static final float VIEW_DISTANCE = 1000;
+	
+	//one grid mesh shared by every node of every level of detail terrain
+	private static RawModel patch;
+	
+	//every mesh terrain tile has the same triangles, so they all share one index buffer
+	private static int sharedIndexBufferID = -1;
+	private static int sharedIndexCount;
+	
 	private float x;
 	private float z;
 	private RawModel model;
 	private ModelTexture texture;
 	
+	//height map terrain, drawn through the quad tree instead of one big mesh
+	private HeightMap heightMap;
+	private TerrainQuadTree quadTree;
+	private int heightTextureID;
+	
+	//procedural heights for mesh terrain, null for flat terrain
+	private HeightsGenerator generator;
+	
+	//blend map splatting, when there's no pack the single model texture is used instead
+	private TerrainTexturePack texturePack;
+	
+	//which layer of the pack is used for the background and for the red, green and blue of the blend map
+	private int[] layers = {0, 1, 2, 3};
+	
 	public Terrain(int gridX, int gridZ, Loader loader, ModelTexture texture ) {
+		this(generateTerrain(gridX, gridZ, null), null, loader, texture);
+	}
+	
+	//mesh terrain from data that has already been generated, used by the tile manager
+	//to upload tiles that were built on a background thread
+	public Terrain(TerrainMeshData data, HeightsGenerator generator, Loader loader, ModelTexture texture) {
+		this.texture = texture;
+		this.x = data.getGridX() * SIZE;
+		this.z = data.getGridZ() * SIZE;
+		this.generator = generator;
+		
+		this.model = loader.loadToVao(data.getVertices(), data.getTextureCoords(), data.getNormals(), 
+				getSharedIndexBuffer(loader), sharedIndexCount);
+	}
+	
+	//level of detail terrain, the heights come from the height map stretched over the whole tile
+	public Terrain(int gridX, int gridZ, Loader loader, ModelTexture texture, HeightMap heightMap) {
 		this.texture = texture;
 		this.x = gridX * SIZE;
 		this.z = gridZ * SIZE;
-		
-		this.model = generateTerrain(loader);
+		this.heightMap = heightMap;
+		this.quadTree = new TerrainQuadTree(x, z, SIZE, heightMap, VIEW_DISTANCE);
+		this.heightTextureID = loader.loadHeightTexture(heightMap);
+		this.model = getPatch(loader);
 	}
 	
 	public float getX() {
@@ -37,27 +81,142 @@ public class Terrain {
 	public ModelTexture getTexture() {
 		return texture;
 	}
+	
+	public TerrainTexturePack getTexturePack() {
+		return texturePack;
+	}
+
+	public void setTexturePack(TerrainTexturePack texturePack) {
+		this.texturePack = texturePack;
+	}
+	
+	//pick which layers of the texture pack show through the blend map
+	public void setLayers(int background, int red, int green, int blue) {
+		int[] selected = {background, red, green, blue};
+		for (int layer : selected) {
+			if (texturePack != null && (layer < 0 || layer >= texturePack.getLayerCount())) {
+				throw new IllegalArgumentException("Texture pack has no layer " + layer);
+			}
+		}
+		this.layers = selected;
+	}
+	
+	//0 is the background layer, 1 to 3 are the red, green and blue channels of the blend map
+	public int getLayer(int channel) {
+		return layers[channel];
+	}
+	
+	public float getSize() {
+		return SIZE;
+	}
+	
+	public boolean isLodTerrain() {
+		return quadTree != null;
+	}
+	
+	public TerrainQuadTree getQuadTree() {
+		return quadTree;
+	}
+	
+	public HeightMap getHeightMap() {
+		return heightMap;
+	}
+	
+	public int getHeightTextureID() {
+		return heightTextureID;
+	}
+	
+	//height of the ground at a world position, the same value the vertex shader works out
+	public float getHeightOfTerrain(float worldX, float worldZ) {
+		if (heightMap != null) {
+			return heightMap.getHeight((worldX - x) / SIZE, (worldZ - z) / SIZE);
+		}
+		if (generator != null) {
+			return generator.getHeight(worldX, worldZ);
+		}
+		return 0;
+	}
+	
+	public static float getTileSize() {
+		return SIZE;
+	}
+	
+	//a flat grid of PATCH_RESOLUTION quads on each side, from 0 to 1 in x and z
+	private static RawModel getPatch(Loader loader) {
+		if (patch != null) {
+			return patch;
+		}
+		int vertexCount = TerrainQuadTree.PATCH_RESOLUTION + 1;
+		float[] positions = new float[vertexCount * vertexCount * 2];
+		int[] indices = new int[6 * TerrainQuadTree.PATCH_RESOLUTION * TerrainQuadTree.PATCH_RESOLUTION];
+		int vertexPointer = 0;
+		for (int i = 0; i < vertexCount; i++) {
+			for (int j = 0; j < vertexCount; j++) {
+				positions[vertexPointer++] = (float) j / TerrainQuadTree.PATCH_RESOLUTION;
+				positions[vertexPointer++] = (float) i / TerrainQuadTree.PATCH_RESOLUTION;
+			}
+		}
+		int pointer = 0;
+		for (int gz = 0; gz < vertexCount - 1; gz++) {
+			for (int gx = 0; gx < vertexCount - 1; gx++) {
+				int topLeft = (gz * vertexCount) + gx;
+				int topRight = topLeft + 1;
+				int bottomLeft = ((gz + 1) * vertexCount) + gx;
+				int bottomRight = bottomLeft + 1;
+				indices[pointer++] = topLeft;
+				indices[pointer++] = bottomLeft;
+				indices[pointer++] = topRight;
+				indices[pointer++] = topRight;
+				indices[pointer++] = bottomLeft;
+				indices[pointer++] = bottomRight;
+			}
+		}
+		patch = loader.loadToVao(positions, 2, indices);
+		return patch;
+	}
 
-	private RawModel generateTerrain(Loader loader){
+	//work out the vertices of a tile. This doesn't touch OpenGL, so it's safe to call from any thread.
+	//heights and normals come from the generator, so the edges of neighbouring tiles match up
+	public static TerrainMeshData generateTerrain(int gridX, int gridZ, HeightsGenerator generator){
 		int count = VERTEX_COUNT * VERTEX_COUNT;
 		float[] vertices = new float[count * 3];
 		float[] normals = new float[count * 3];
 		float[] textureCoords = new float[count*2];
-		int[] indices = new int[6*(VERTEX_COUNT-1)*(VERTEX_COUNT-1)];
+		float originX = gridX * SIZE;
+		float originZ = gridZ * SIZE;
+		float spacing = SIZE / ((float)VERTEX_COUNT - 1);
 		int vertexPointer = 0;
 		for(int i=0;i<VERTEX_COUNT;i++){
 			for(int j=0;j<VERTEX_COUNT;j++){
+				float worldX = originX + j * spacing;
+				float worldZ = originZ + i * spacing;
 				vertices[vertexPointer*3] = (float)j/((float)VERTEX_COUNT - 1) * SIZE;
-				vertices[vertexPointer*3+1] = 0;
+				vertices[vertexPointer*3+1] = getGeneratedHeight(generator, worldX, worldZ);
 				vertices[vertexPointer*3+2] = (float)i/((float)VERTEX_COUNT - 1) * SIZE;
-				normals[vertexPointer*3] = 0;
-				normals[vertexPointer*3+1] = 1;
-				normals[vertexPointer*3+2] = 0;
+				
+				//central differences, sampled outside the tile at the edges so there are no seams
+				float heightL = getGeneratedHeight(generator, worldX - spacing, worldZ);
+				float heightR = getGeneratedHeight(generator, worldX + spacing, worldZ);
+				float heightD = getGeneratedHeight(generator, worldX, worldZ - spacing);
+				float heightU = getGeneratedHeight(generator, worldX, worldZ + spacing);
+				float normalX = heightL - heightR;
+				float normalY = 2 * spacing;
+				float normalZ = heightD - heightU;
+				float length = (float) Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+				normals[vertexPointer*3] = normalX / length;
+				normals[vertexPointer*3+1] = normalY / length;
+				normals[vertexPointer*3+2] = normalZ / length;
 				textureCoords[vertexPointer*2] = (float)j/((float)VERTEX_COUNT - 1);
 				textureCoords[vertexPointer*2+1] = (float)i/((float)VERTEX_COUNT - 1);
 				vertexPointer++;
 			}
 		}
+		return new TerrainMeshData(gridX, gridZ, vertices, textureCoords, normals);
+	}
+	
+	//the triangles of a tile, the same for every tile
+	public static int[] generateIndices() {
+		int[] indices = new int[6*(VERTEX_COUNT-1)*(VERTEX_COUNT-1)];
 		int pointer = 0;
 		for(int gz=0;gz<VERTEX_COUNT-1;gz++){
 			for(int gx=0;gx<VERTEX_COUNT-1;gx++){
@@ -73,7 +232,21 @@ public class Terrain {
 				indices[pointer++] = bottomRight;
 			}
 		}
-		return loader.loadToVao(vertices, textureCoords, normals, indices);
+		return indices;
+	}
+	
+	private static float getGeneratedHeight(HeightsGenerator generator, float worldX, float worldZ) {
+		return generator == null ? 0 : generator.getHeight(worldX, worldZ);
+	}
+	
+	//create the shared index buffer the first time a mesh tile is uploaded
+	private static int getSharedIndexBuffer(Loader loader) {
+		if (sharedIndexBufferID == -1) {
+			int[] indices = generateIndices();
+			sharedIndexBufferID = loader.loadIndexBuffer(indices);
+			sharedIndexCount = indices.length;
+		}
+		return sharedIndexBufferID;
 	}
 	
 }
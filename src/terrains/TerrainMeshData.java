@@ -0,0 +1,40 @@
+package terrains;
+
+//The vertex data of one terrain tile, worked out on the CPU (possibly on a background thread)
+//and waiting to be uploaded into a VAO. Tiles don't carry indices, they all share one index buffer
+public class TerrainMeshData {
+
+	private final int gridX;
+	private final int gridZ;
+	private final float[] vertices;
+	private final float[] textureCoords;
+	private final float[] normals;
+
+	public TerrainMeshData(int gridX, int gridZ, float[] vertices, float[] textureCoords, float[] normals) {
+		this.gridX = gridX;
+		this.gridZ = gridZ;
+		this.vertices = vertices;
+		this.textureCoords = textureCoords;
+		this.normals = normals;
+	}
+
+	public int getGridX() {
+		return gridX;
+	}
+
+	public int getGridZ() {
+		return gridZ;
+	}
+
+	public float[] getVertices() {
+		return vertices;
+	}
+
+	public float[] getTextureCoords() {
+		return textureCoords;
+	}
+
+	public float[] getNormals() {
+		return normals;
+	}
+}
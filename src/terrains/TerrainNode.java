@@ -0,0 +1,34 @@
+package terrains;
+
+//A square area of terrain picked by the quad tree to be drawn this frame.
+//Each one is drawn with the shared patch mesh, stretched over the node's area
+public class TerrainNode {
+
+	private float x;
+	private float z;
+	private float size;
+	private int lodLevel;
+
+	void set(float x, float z, float size, int lodLevel) {
+		this.x = x;
+		this.z = z;
+		this.size = size;
+		this.lodLevel = lodLevel;
+	}
+
+	public float getX() {
+		return x;
+	}
+
+	public float getZ() {
+		return z;
+	}
+
+	public float getSize() {
+		return size;
+	}
+
+	public int getLodLevel() {
+		return lodLevel;
+	}
+}
@@ -0,0 +1,188 @@
+package terrains;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import toolbox.Frustum;
+
+//Continuous distance-dependent level of detail (CDLOD) for height map terrain.
+//The terrain is split into a quad tree. Every frame we walk the tree and pick nodes
+//so that the ones close to the camera are small (lots of detail) and the far away ones
+//are big (little detail). Every picked node is drawn with the same grid mesh, so the
+//triangle count per node is constant and the vertex shader morphs the grid between
+//levels so there is no popping when a node changes level.
+public class TerrainQuadTree {
+
+	//number of quads along each side of the shared patch mesh
+	public static final int PATCH_RESOLUTION = 32;
+
+	//never make more levels than this, even for huge height maps
+	private static final int MAX_LOD_LEVELS = 10;
+
+	//how much of each level's range is spent morphing into the next level
+	private static final float MORPH_START_RATIO = 0.66f;
+
+	private final float originX;
+	private final float originZ;
+	private final float size;
+	private final int lodLevels;
+
+	//min and max height of every node, stored per level with 2 floats per node.
+	//level 0 is the leaves and level lodLevels - 1 is the root
+	private final float[][] heightRanges;
+
+	//the distance each level is used up to, and where it starts to morph to the next level
+	private final float[] lodRanges;
+	private final float[] morphStarts;
+
+	//selection output, reused every frame so that selecting doesn't create garbage
+	private final List<TerrainNode> selection = new ArrayList<TerrainNode>();
+	private final List<TerrainNode> nodePool = new ArrayList<TerrainNode>();
+
+	public TerrainQuadTree(float originX, float originZ, float size, HeightMap heightMap, float viewDistance) {
+		this.originX = originX;
+		this.originZ = originZ;
+		this.size = size;
+
+		//pick enough levels that a leaf covers about one patch worth of height samples
+		int cells = heightMap.getCellCount();
+		int levels = 1;
+		while (levels < MAX_LOD_LEVELS && (cells >> levels) >= PATCH_RESOLUTION) {
+			levels++;
+		}
+		this.lodLevels = levels;
+
+		this.heightRanges = new float[lodLevels][];
+		buildHeightRanges(heightMap);
+
+		//every level covers twice the distance of the one below, with the root reaching the view distance
+		this.lodRanges = new float[lodLevels];
+		this.morphStarts = new float[lodLevels];
+		float previousRange = 0;
+		for (int level = 0; level < lodLevels; level++) {
+			lodRanges[level] = viewDistance / (1 << (lodLevels - 1 - level));
+			morphStarts[level] = previousRange + (lodRanges[level] - previousRange) * MORPH_START_RATIO;
+			previousRange = lodRanges[level];
+		}
+	}
+
+	//pick the nodes to draw this frame, front to back isn't guaranteed
+	public List<TerrainNode> select(Frustum frustum, Vector3f cameraPosition) {
+		selection.clear();
+		selectNode(frustum, cameraPosition, lodLevels - 1, 0, 0);
+		return selection;
+	}
+
+	public int getLodLevels() {
+		return lodLevels;
+	}
+
+	public float getMorphStart(int lodLevel) {
+		return morphStarts[lodLevel];
+	}
+
+	public float getMorphEnd(int lodLevel) {
+		return lodRanges[lodLevel];
+	}
+
+	//returns false if the node is too far away for this level, so the parent has to cover it
+	private boolean selectNode(Frustum frustum, Vector3f camera, int level, int nodeX, int nodeZ) {
+		int nodesPerSide = 1 << (lodLevels - 1 - level);
+		float nodeSize = size / nodesPerSide;
+		float minX = originX + nodeX * nodeSize;
+		float minZ = originZ + nodeZ * nodeSize;
+		float[] ranges = heightRanges[level];
+		int rangeIndex = (nodeZ * nodesPerSide + nodeX) * 2;
+		float minY = ranges[rangeIndex];
+		float maxY = ranges[rangeIndex + 1];
+
+		if (!intersectsSphere(camera, lodRanges[level], minX, minY, minZ, minX + nodeSize, maxY, minZ + nodeSize)) {
+			return false;
+		}
+
+		//out of view, but still "handled" so the parent doesn't draw it either
+		if (!frustum.intersectsBox(minX, minY, minZ, minX + nodeSize, maxY, minZ + nodeSize)) {
+			return true;
+		}
+
+		//leaves, and nodes that are entirely outside the next finer range, are drawn as they are
+		if (level == 0 || !intersectsSphere(camera, lodRanges[level - 1], minX, minY, minZ,
+				minX + nodeSize, maxY, minZ + nodeSize)) {
+			addNode(minX, minZ, nodeSize, level);
+			return true;
+		}
+
+		//otherwise try the children, and fill in any that are too far for the finer level ourselves
+		float halfSize = nodeSize / 2;
+		for (int child = 0; child < 4; child++) {
+			int childX = nodeX * 2 + (child & 1);
+			int childZ = nodeZ * 2 + (child >> 1);
+			if (!selectNode(frustum, camera, level - 1, childX, childZ)) {
+				addNode(minX + (child & 1) * halfSize, minZ + (child >> 1) * halfSize, halfSize, level);
+			}
+		}
+		return true;
+	}
+
+	private void addNode(float x, float z, float nodeSize, int level) {
+		int index = selection.size();
+		if (index == nodePool.size()) {
+			nodePool.add(new TerrainNode());
+		}
+		TerrainNode node = nodePool.get(index);
+		node.set(x, z, nodeSize, level);
+		selection.add(node);
+	}
+
+	//work out the min and max height of the leaves from the height map, then combine them up the tree
+	private void buildHeightRanges(HeightMap heightMap) {
+		int cells = heightMap.getCellCount();
+		int leavesPerSide = 1 << (lodLevels - 1);
+		float[] leaves = new float[leavesPerSide * leavesPerSide * 2];
+		float[] range = new float[2];
+		for (int z = 0; z < leavesPerSide; z++) {
+			for (int x = 0; x < leavesPerSide; x++) {
+				int startX = (int) Math.floor((long) x * cells / (double) leavesPerSide);
+				int startZ = (int) Math.floor((long) z * cells / (double) leavesPerSide);
+				int endX = (int) Math.ceil((long) (x + 1) * cells / (double) leavesPerSide);
+				int endZ = (int) Math.ceil((long) (z + 1) * cells / (double) leavesPerSide);
+				heightMap.getRange(startX, startZ, endX, endZ, range);
+				leaves[(z * leavesPerSide + x) * 2] = range[0];
+				leaves[(z * leavesPerSide + x) * 2 + 1] = range[1];
+			}
+		}
+		heightRanges[0] = leaves;
+
+		for (int level = 1; level < lodLevels; level++) {
+			int childrenPerSide = 1 << (lodLevels - level);
+			int nodesPerSide = childrenPerSide / 2;
+			float[] children = heightRanges[level - 1];
+			float[] nodes = new float[nodesPerSide * nodesPerSide * 2];
+			for (int z = 0; z < nodesPerSide; z++) {
+				for (int x = 0; x < nodesPerSide; x++) {
+					float min = Float.POSITIVE_INFINITY;
+					float max = Float.NEGATIVE_INFINITY;
+					for (int child = 0; child < 4; child++) {
+						int childIndex = ((z * 2 + (child >> 1)) * childrenPerSide + x * 2 + (child & 1)) * 2;
+						min = Math.min(min, children[childIndex]);
+						max = Math.max(max, children[childIndex + 1]);
+					}
+					nodes[(z * nodesPerSide + x) * 2] = min;
+					nodes[(z * nodesPerSide + x) * 2 + 1] = max;
+				}
+			}
+			heightRanges[level] = nodes;
+		}
+	}
+
+	//does the sphere around the camera touch the box?
+	private static boolean intersectsSphere(Vector3f center, float radius, float minX, float minY, float minZ,
+			float maxX, float maxY, float maxZ) {
+		float dx = Math.max(minX - center.x, Math.max(0, center.x - maxX));
+		float dy = Math.max(minY - center.y, Math.max(0, center.y - maxY));
+		float dz = Math.max(minZ - center.z, Math.max(0, center.z - maxZ));
+		return dx * dx + dy * dy + dz * dz <= radius * radius;
+	}
+}
@@ -0,0 +1,219 @@
+package terrains;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import renderEngine.Loader;
+import textures.ModelTexture;
+import textures.TerrainTexturePack;
+
+//Keeps a square of terrain tiles loaded around the camera, so the world never runs out.
+//Tiles are generated on background threads, handed back to the render thread, and uploaded a
+//few per frame so a burst of new tiles never causes a hitch. Tiles that fall far enough behind
+//the camera are deleted to free their VAOs and VBOs.
+public class TerrainTileManager {
+
+	//never upload more than this many tiles in one frame
+	private static final int MAX_UPLOADS_PER_FRAME = 2;
+
+	//and stop uploading once this much of the frame has been spent on it
+	private static final long UPLOAD_BUDGET_NANOS = 2000000;
+
+	//tiles are kept until they're this many tiles further out than the load radius,
+	//so walking back and forth over a tile edge doesn't keep reloading the same tiles
+	private static final int EVICTION_MARGIN = 1;
+
+	private final Loader loader;
+	private final ModelTexture texture;
+	private final HeightsGenerator generator;
+	private final int radius;
+	
+	//blend map splatting for new tiles, null to just use the model texture
+	private TerrainTexturePack texturePack;
+
+	private final Map<Long, Terrain> tiles = new HashMap<Long, Terrain>();
+	private final Map<Long, Future<?>> pending = new HashMap<Long, Future<?>>();
+
+	//finished tiles from the background threads, waiting to be uploaded on the render thread
+	private final ConcurrentLinkedQueue<TerrainMeshData> generated = new ConcurrentLinkedQueue<TerrainMeshData>();
+
+	private final ExecutorService workers;
+
+	//the tile the camera was in last time we worked out which tiles we need
+	private int centerX = Integer.MAX_VALUE;
+	private int centerZ = Integer.MAX_VALUE;
+
+	public TerrainTileManager(Loader loader, ModelTexture texture, HeightsGenerator generator, int radius) {
+		this.loader = loader;
+		this.texture = texture;
+		this.generator = generator;
+		this.radius = radius;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "terrain-generator");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	//call once per frame on the render thread
+	public void update(Vector3f cameraPosition) {
+		int cameraX = (int) Math.floor(cameraPosition.x / Terrain.getTileSize());
+		int cameraZ = (int) Math.floor(cameraPosition.z / Terrain.getTileSize());
+		if (cameraX != centerX || cameraZ != centerZ) {
+			centerX = cameraX;
+			centerZ = cameraZ;
+			evictDistantTiles();
+			requestMissingTiles();
+		}
+		uploadGeneratedTiles();
+	}
+
+	//tiles loaded from now on splat this pack, the ones already loaded are changed too
+	public void setTexturePack(TerrainTexturePack texturePack) {
+		this.texturePack = texturePack;
+		for (Terrain tile : tiles.values()) {
+			tile.setTexturePack(texturePack);
+		}
+	}
+
+	public Collection<Terrain> getTiles() {
+		return tiles.values();
+	}
+
+	public float getHeightOfTerrain(float worldX, float worldZ) {
+		return generator.getHeight(worldX, worldZ);
+	}
+
+	//the highest the ground goes anywhere
+	public float getMaxHeight() {
+		return generator.getMaxHeight();
+	}
+
+	//how many tiles are still being generated or waiting to be uploaded
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	public void cleanUp() {
+		workers.shutdownNow();
+		for (Terrain tile : tiles.values()) {
+			loader.unloadVao(tile.getModel());
+		}
+		tiles.clear();
+		pending.clear();
+		generated.clear();
+	}
+
+	private void evictDistantTiles() {
+		int keepRadius = radius + EVICTION_MARGIN;
+		Iterator<Map.Entry<Long, Terrain>> loaded = tiles.entrySet().iterator();
+		while (loaded.hasNext()) {
+			Map.Entry<Long, Terrain> entry = loaded.next();
+			if (distanceToCenter(entry.getKey()) > keepRadius) {
+				loader.unloadVao(entry.getValue().getModel());
+				loaded.remove();
+			}
+		}
+
+		//tiles still being generated that we no longer want don't need to finish
+		Iterator<Map.Entry<Long, Future<?>>> waiting = pending.entrySet().iterator();
+		while (waiting.hasNext()) {
+			Map.Entry<Long, Future<?>> entry = waiting.next();
+			if (distanceToCenter(entry.getKey()) > keepRadius) {
+				entry.getValue().cancel(false);
+				waiting.remove();
+			}
+		}
+	}
+
+	//queue up every tile in range that we don't have yet, closest first
+	private void requestMissingTiles() {
+		List<Long> missing = new ArrayList<Long>();
+		for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+			for (int x = centerX - radius; x <= centerX + radius; x++) {
+				long key = toKey(x, z);
+				if (!tiles.containsKey(key) && !pending.containsKey(key)) {
+					missing.add(key);
+				}
+			}
+		}
+		Collections.sort(missing, new Comparator<Long>() {
+			@Override
+			public int compare(Long a, Long b) {
+				return Integer.compare(squaredDistanceToCenter(a), squaredDistanceToCenter(b));
+			}
+		});
+		for (final Long key : missing) {
+			final int gridX = getGridX(key);
+			final int gridZ = getGridZ(key);
+			pending.put(key, workers.submit(new Runnable() {
+				@Override
+				public void run() {
+					generated.add(Terrain.generateTerrain(gridX, gridZ, generator));
+				}
+			}));
+		}
+	}
+
+	//upload finished tiles until we run out of budget for this frame
+	private void uploadGeneratedTiles() {
+		long start = System.nanoTime();
+		int uploads = 0;
+		while (uploads < MAX_UPLOADS_PER_FRAME && System.nanoTime() - start < UPLOAD_BUDGET_NANOS) {
+			TerrainMeshData data = generated.poll();
+			if (data == null) {
+				return;
+			}
+			long key = toKey(data.getGridX(), data.getGridZ());
+
+			//the tile was evicted while it was being generated
+			if (pending.remove(key) == null) {
+				continue;
+			}
+			Terrain tile = new Terrain(data, generator, loader, texture);
+			tile.setTexturePack(texturePack);
+			tiles.put(key, tile);
+			uploads++;
+		}
+	}
+
+	private int distanceToCenter(long key) {
+		return Math.max(Math.abs(getGridX(key) - centerX), Math.abs(getGridZ(key) - centerZ));
+	}
+
+	private int squaredDistanceToCenter(long key) {
+		int dx = getGridX(key) - centerX;
+		int dz = getGridZ(key) - centerZ;
+		return dx * dx + dz * dz;
+	}
+
+	private static long toKey(int gridX, int gridZ) {
+		return ((long) gridX << 32) | (gridZ & 0xFFFFFFFFL);
+	}
+
+	private static int getGridX(long key) {
+		return (int) (key >> 32);
+	}
+
+	private static int getGridZ(long key) {
+		return (int) key;
+	}
+}
@@ -0,0 +1,30 @@
+package textures;
+
+//A texture atlas for particles, numberOfRows by numberOfRows frames that each particle plays through
+//over its life, left to right then top to bottom. A texture with a single image has one row
+public class ParticleTexture {
+	
+	private int textureID;
+	private int numberOfRows;
+	
+	//added onto what's behind rather than blended over it, so the order particles are drawn in doesn't matter
+	private boolean additive;
+	
+	public ParticleTexture(int textureID, int numberOfRows, boolean additive) {
+		this.textureID = textureID;
+		this.numberOfRows = numberOfRows;
+		this.additive = additive;
+	}
+	
+	public int getID() {
+		return textureID;
+	}
+	
+	public int getNumberOfRows() {
+		return numberOfRows;
+	}
+	
+	public boolean isAdditive() {
+		return additive;
+	}
+}
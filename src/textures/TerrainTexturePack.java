@@ -0,0 +1,30 @@
+package textures;
+
+//A set of ground textures stored as the layers of one texture array, plus the blend map
+//that says how much of each layer to use where. The terrain shader samples them all in one pass
+public class TerrainTexturePack {
+	
+	//attributes
+	private int textureArrayID;
+	private int layerCount;
+	private int blendMapID;
+	
+	//constructor
+	public TerrainTexturePack(int textureArrayID, int layerCount, int blendMapID) {
+		this.textureArrayID = textureArrayID;
+		this.layerCount = layerCount;
+		this.blendMapID = blendMapID;
+	}
+
+	public int getTextureArrayID() {
+		return textureArrayID;
+	}
+
+	public int getLayerCount() {
+		return layerCount;
+	}
+
+	public int getBlendMapID() {
+		return blendMapID;
+	}
+}
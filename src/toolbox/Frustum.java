@@ -0,0 +1,70 @@
+package toolbox;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+//The six clipping planes of the camera, used to throw away things that can't be seen before we draw them
+public class Frustum {
+
+	//each plane is stored as (a, b, c, d), where ax + by + cz + d >= 0 means "inside"
+	private final float[] planes = new float[6 * 4];
+
+	//reused so that updating the frustum every frame doesn't create garbage
+	private final Matrix4f projectionViewMatrix = new Matrix4f();
+
+	//extract the planes from the combined projection and view matrix (Gribb/Hartmann method)
+	public void update(Matrix4f projectionMatrix, Matrix4f viewMatrix) {
+		Matrix4f m = Matrix4f.mul(projectionMatrix, viewMatrix, projectionViewMatrix);
+
+		//lwjgl matrices are column major, so row i of the matrix is (m0i, m1i, m2i, m3i)
+		setPlane(0, m.m03 + m.m00, m.m13 + m.m10, m.m23 + m.m20, m.m33 + m.m30); //left
+		setPlane(1, m.m03 - m.m00, m.m13 - m.m10, m.m23 - m.m20, m.m33 - m.m30); //right
+		setPlane(2, m.m03 + m.m01, m.m13 + m.m11, m.m23 + m.m21, m.m33 + m.m31); //bottom
+		setPlane(3, m.m03 - m.m01, m.m13 - m.m11, m.m23 - m.m21, m.m33 - m.m31); //top
+		setPlane(4, m.m03 + m.m02, m.m13 + m.m12, m.m23 + m.m22, m.m33 + m.m32); //near
+		setPlane(5, m.m03 - m.m02, m.m13 - m.m12, m.m23 - m.m22, m.m33 - m.m32); //far
+	}
+
+	//test an axis aligned box against the frustum, returns false only if the box is completely outside
+	public boolean intersectsBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		for (int i = 0; i < 6; i++) {
+			float a = planes[i * 4];
+			float b = planes[i * 4 + 1];
+			float c = planes[i * 4 + 2];
+			float d = planes[i * 4 + 3];
+
+			//take the corner of the box that is furthest along the plane normal
+			float x = a >= 0 ? maxX : minX;
+			float y = b >= 0 ? maxY : minY;
+			float z = c >= 0 ? maxZ : minZ;
+			if (a * x + b * y + c * z + d < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//test a sphere against the frustum, returns false only if the sphere is completely outside
+	public boolean intersectsSphere(float x, float y, float z, float radius) {
+		for (int i = 0; i < 6; i++) {
+			if (planes[i * 4] * x + planes[i * 4 + 1] * y + planes[i * 4 + 2] * z
+					+ planes[i * 4 + 3] < -radius) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//the six planes one after another as (a, b, c, d), for handing to shaders. Don't change them
+	public float[] getPlanes() {
+		return planes;
+	}
+
+	//normalize the plane so that distances to it are in world units
+	private void setPlane(int index, float a, float b, float c, float d) {
+		float length = (float) Math.sqrt(a * a + b * b + c * c);
+		planes[index * 4] = a / length;
+		planes[index * 4 + 1] = b / length;
+		planes[index * 4 + 2] = c / length;
+		planes[index * 4 + 3] = d / length;
+	}
+}
@@ -0,0 +1,239 @@
+package toolbox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.EntityStore;
+import models.RawModel;
+import models.RayHit;
+import models.TriangleBvh;
+import terrains.TerrainTileManager;
+
+//Casts rays against the visible entities in a store and against the terrain, for mouse picking and
+//line of sight checks. Entities are tested against their model's BVH (see OBJLoader), with the ray
+//moved into model space by the inverse of the entity's transformation, so the BVH is built once per
+//model rather than per entity. Entities whose model has no BVH are never hit.
+//
+//Rays are an origin and a direction, and distances are in units of the direction's length, so with a
+//normalized direction they're world units. Nothing may be added to or removed from the store while
+//rays are being cast
+public class RayCaster {
+
+	//how far apart the terrain is sampled along a ray before the crossing is narrowed down
+	private static final float TERRAIN_STEP = 2;
+	private static final int TERRAIN_REFINE_STEPS = 16;
+
+	//a level ray can stay between the lowest and highest ground forever, so it's only marched this far
+	private static final float LEVEL_RAY_DISTANCE = 10000;
+
+	//rays per job for castAll
+	private static final int RAYS_PER_JOB = 64;
+
+	private final EntityStore store;
+	private final TerrainTileManager terrain;
+
+	//made the first time castAll is called
+	private ExecutorService workers;
+
+	//the terrain can be null to only cast against entities
+	public RayCaster(EntityStore store, TerrainTileManager terrain) {
+		this.store = store;
+		this.terrain = terrain;
+	}
+
+	//the closest entity or bit of terrain the ray hits within maxDistance, returns whether it hit anything
+	public boolean cast(float originX, float originY, float originZ, float directionX, float directionY,
+			float directionZ, float maxDistance, RayHit hit) {
+		hit.clear();
+		castEntities(originX, originY, originZ, directionX, directionY, directionZ, maxDistance, hit);
+		float terrainMax = hit.isHit() ? hit.distance : maxDistance;
+		castTerrain(originX, originY, originZ, directionX, directionY, directionZ, terrainMax, hit);
+		if (hit.isHit()) {
+			hit.x = originX + directionX * hit.distance;
+			hit.y = originY + directionY * hit.distance;
+			hit.z = originZ + directionZ * hit.distance;
+		}
+		return hit.isHit();
+	}
+
+	//whether anything is in the way between two points
+	public boolean hasLineOfSight(float fromX, float fromY, float fromZ, float toX, float toY, float toZ, RayHit hit) {
+		return !cast(fromX, fromY, fromZ, toX - fromX, toY - fromY, toZ - fromZ, 1, hit);
+	}
+
+	//cast many rays at once on worker threads. rays holds 6 floats per ray, the origin then the direction,
+	//and there has to be a hit for each ray
+	public void castAll(final float[] rays, final RayHit[] hits, final float maxDistance) {
+		int rayCount = rays.length / 6;
+		List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+		for (int first = 0; first < rayCount; first += RAYS_PER_JOB) {
+			final int start = first;
+			final int end = Math.min(rayCount, first + RAYS_PER_JOB);
+			jobs.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i = start; i < end; i++) {
+						int r = i * 6;
+						cast(rays[r], rays[r + 1], rays[r + 2], rays[r + 3], rays[r + 4], rays[r + 5], maxDistance,
+								hits[i]);
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> job : getWorkers().invokeAll(jobs)) {
+				job.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Ray cast failed", e.getCause());
+		}
+	}
+
+	public void cleanUp() {
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+	}
+
+	private void castEntities(float originX, float originY, float originZ, float directionX, float directionY,
+			float directionZ, float maxDistance, RayHit hit) {
+		float directionLengthSquared = directionX * directionX + directionY * directionY + directionZ * directionZ;
+		float closest = maxDistance;
+		Vector3f position = new Vector3f();
+		Matrix4f inverse = new Matrix4f();
+		for (int c = 0; c < store.getChunkCount(); c++) {
+			EntityStore.Chunk chunk = store.getChunk(c);
+			for (int i = 0; i < chunk.getCount(); i++) {
+				if ((chunk.flags[i] & EntityStore.VISIBLE) == 0) {
+					continue;
+				}
+				RawModel model = store.getModelByID(chunk.modelID[i]).getRawModel();
+				TriangleBvh bvh = model.getBvh();
+				if (bvh == null) {
+					continue;
+				}
+
+				//skip entities whose bounding sphere the ray misses, or that start further than the best hit
+				float radius = bvh.getRadius() * chunk.scale[i];
+				float toCenterX = chunk.x[i] - originX;
+				float toCenterY = chunk.y[i] - originY;
+				float toCenterZ = chunk.z[i] - originZ;
+				float along = (toCenterX * directionX + toCenterY * directionY + toCenterZ * directionZ)
+						/ directionLengthSquared;
+				float offX = toCenterX - directionX * along;
+				float offY = toCenterY - directionY * along;
+				float offZ = toCenterZ - directionZ * along;
+				float offSquared = offX * offX + offY * offY + offZ * offZ;
+				if (offSquared > radius * radius) {
+					continue;
+				}
+				float halfChord = (float) Math.sqrt((radius * radius - offSquared) / directionLengthSquared);
+				if (along + halfChord < 0 || along - halfChord > closest) {
+					continue;
+				}
+
+				//the ray in model space. Distances along it stay the same, since the direction is scaled too
+				position.set(chunk.x[i], chunk.y[i], chunk.z[i]);
+				Matrix4f transformation = Maths.createTransformationMatrix(position, chunk.rotX[i], chunk.rotY[i],
+						chunk.rotZ[i], chunk.scale[i]);
+				if (Matrix4f.invert(transformation, inverse) == null) {
+					continue;
+				}
+				float modelX = inverse.m00 * originX + inverse.m10 * originY + inverse.m20 * originZ + inverse.m30;
+				float modelY = inverse.m01 * originX + inverse.m11 * originY + inverse.m21 * originZ + inverse.m31;
+				float modelZ = inverse.m02 * originX + inverse.m12 * originY + inverse.m22 * originZ + inverse.m32;
+				float modelDirectionX = inverse.m00 * directionX + inverse.m10 * directionY + inverse.m20 * directionZ;
+				float modelDirectionY = inverse.m01 * directionX + inverse.m11 * directionY + inverse.m21 * directionZ;
+				float modelDirectionZ = inverse.m02 * directionX + inverse.m12 * directionY + inverse.m22 * directionZ;
+				if (bvh.intersect(modelX, modelY, modelZ, modelDirectionX, modelDirectionY, modelDirectionZ, closest,
+						hit)) {
+					closest = hit.distance;
+					hit.entity = store.getHandle((c << EntityStore.CHUNK_SHIFT) + i);
+				}
+			}
+		}
+	}
+
+	//march along the ray until it goes under the ground, then narrow the crossing down by bisection.
+	//The march only covers the part of the ray between the highest and lowest the ground goes, so it
+	//ends for rays with no maximum distance too
+	private void castTerrain(float originX, float originY, float originZ, float directionX, float directionY,
+			float directionZ, float maxDistance, RayHit hit) {
+		if (terrain == null || originY < terrain.getHeightOfTerrain(originX, originZ)) {
+			return;
+		}
+		float directionLength = (float) Math.sqrt(directionX * directionX + directionY * directionY
+				+ directionZ * directionZ);
+		if (directionLength == 0) {
+			return;
+		}
+		float maxHeight = terrain.getMaxHeight();
+		if (directionY > 0) {
+			maxDistance = Math.min(maxDistance, (maxHeight - originY) / directionY);
+		} else if (directionY < 0) {
+
+			//below the lowest ground it has to have crossed
+			maxDistance = Math.min(maxDistance, (originY + maxHeight) / -directionY + TERRAIN_STEP / directionLength);
+		} else if (originY > maxHeight) {
+			return;
+		} else {
+			maxDistance = Math.min(maxDistance, LEVEL_RAY_DISTANCE / directionLength);
+		}
+		float step = TERRAIN_STEP / directionLength;
+		float above = 0;
+		for (float t = step; above < maxDistance; t += step) {
+			float below = Math.min(t, maxDistance);
+			if (isUnderground(originX, originY, originZ, directionX, directionY, directionZ, below)) {
+				for (int i = 0; i < TERRAIN_REFINE_STEPS; i++) {
+					float middle = (above + below) / 2;
+					if (isUnderground(originX, originY, originZ, directionX, directionY, directionZ, middle)) {
+						below = middle;
+					} else {
+						above = middle;
+					}
+				}
+				hit.distance = below;
+				hit.entity = RayHit.NO_ENTITY;
+				hit.triangle = -1;
+				hit.terrain = true;
+				return;
+			}
+			above = below;
+		}
+	}
+
+	private boolean isUnderground(float originX, float originY, float originZ, float directionX, float directionY,
+			float directionZ, float t) {
+		float x = originX + directionX * t;
+		float z = originZ + directionZ * t;
+		return originY + directionY * t < terrain.getHeightOfTerrain(x, z);
+	}
+
+	private ExecutorService getWorkers() {
+		if (workers == null) {
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+			workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "ray-casts");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return workers;
+	}
+}